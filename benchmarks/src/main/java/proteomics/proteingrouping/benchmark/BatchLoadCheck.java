@@ -0,0 +1,170 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that MzIdentMLBatchLoader merges a directory of mzIdentML files the
+ * same way whatever the number of parser threads and files in flight: every
+ * protein has the union of the peptides it has in each file, every peptide
+ * keeps its highest scoring match over all the files, and the merged study
+ * groups the same. The files are synthetic proteomes of different seeds that
+ * share accessions and peptide refs, so proteins and peptides recur across
+ * files with different peptides and scores. A truncated copy of the first
+ * file is put among them, which must be left out whole.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.BatchLoadCheck [fileCount] [proteinsPerFile]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import proteomics.proteingrouping.MzIdentMLBatchLoader;
+import proteomics.proteingrouping.MzIdentMLLoader;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.StudyGraph;
+
+public class BatchLoadCheck {
+
+    private BatchLoadCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+        int proteinsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Path directory = Files.createTempDirectory("proteingrouping-batch");
+        Logger logger = Logger.getLogger(MzIdentMLBatchLoader.class.getName());
+        Level level = logger.getLevel();
+        try {
+            for (int f = 0; f < fileCount; f++) {
+                MzIdentMLWriter.write(new SyntheticProteome(proteinsPerFile, 12, 0.4, 4, 3, 100 + f),
+                        directory.resolve(String.format("run%03d.mzid", f)));
+            }
+            List<File> intact = MzIdentMLBatchLoader.listIdentMLFiles(directory.toFile());
+            String expected = expectedStudy(intact);
+            byte[] first = Files.readAllBytes(intact.get(0).toPath());
+            Files.write(directory.resolve("run000-truncated.mzid"), Arrays.copyOf(first, first.length * 2 / 3));
+            List<File> files = MzIdentMLBatchLoader.listIdentMLFiles(directory.toFile());
+            logger.setLevel(Level.OFF);  //every load below logs the failure of the truncated file
+
+            boolean failed = false;
+            String firstGrouping = null;
+            for (int[] setting : new int[][]{{1, 1}, {2, 1}, {2, 4}, {4, 2}, {4, 16}}) {
+                long start = System.nanoTime();
+                MzIdentMLBatchLoader loader = new MzIdentMLBatchLoader(files, setting[0], setting[1]);
+                StudyGraph study = loader.load();
+                long loadNanos = System.nanoTime() - start;
+                String grouping = GroupingOutput.describeCanonically(loader.groupProteins(), null, study.getPeptideDictionary());
+                System.out.printf("%d parsers, %d files in flight: %d proteins, %d peptides, %.1f ms%n", setting[0], setting[1],
+                        study.getProteins().size(), study.getPeptideDictionary().size(), loadNanos / 1e6);
+                if (!expected.equals(describe(study.getProteins(), study.getPeptideDictionary().size()))) {
+                    System.out.println("  the merged study is not the union of the intact files with the best matches kept");
+                    failed = true;
+                }
+                if (firstGrouping == null) {
+                    firstGrouping = grouping;
+                } else if (!firstGrouping.equals(grouping)) {
+                    System.out.println("  the merged study groups differently");
+                    failed = true;
+                }
+            }
+            if (failed) {
+                return false;
+            }
+            System.out.println("Every setting merges the " + intact.size() + " files the same way and leaves out the truncated one");
+            return true;
+        } finally {
+            logger.setLevel(level);
+            for (File file : MzIdentMLBatchLoader.listIdentMLFiles(directory.toFile())) {
+                Files.deleteIfExists(file.toPath());
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Loads every file on its own and merges them by hand, independently of StudyGraph
+     */
+    private static String expectedStudy(List<File> files) {
+        HashMap<String, TreeSet<String>> observed = new HashMap<>();
+        HashMap<String, TreeSet<String>> unique = new HashMap<>();
+        HashMap<String, Peptide> best = new HashMap<>();
+        for (File file : files) {
+            HashMap<String, Peptide> peptides = new HashMap<>();
+            HashMap<String, Protein> proteins = new HashMap<>();
+            new MzIdentMLLoader(file).processIdentMLFile(peptides, proteins);
+            for (Peptide peptide : peptides.values()) {
+                Peptide kept = best.get(peptide.getPeptideRef());
+                if (kept == null || peptide.getScore() > kept.getScore()) {
+                    best.put(peptide.getPeptideRef(), peptide);
+                }
+            }
+            for (Protein protein : proteins.values()) {
+                for (Peptide peptide : protein.getObservedPeptides()) {
+                    observed.computeIfAbsent(protein.getDbSequenceRef(), k -> new TreeSet<>()).add(peptide.getPeptideRef());
+                }
+                for (Peptide peptide : protein.getUniquePeptides()) {
+                    unique.computeIfAbsent(protein.getDbSequenceRef(), k -> new TreeSet<>()).add(peptide.getPeptideRef());
+                }
+            }
+        }
+        StringBuilder description = new StringBuilder();
+        for (String accession : new TreeSet<>(observed.keySet())) {
+            description.append(accession).append(' ');
+            for (String ref : observed.get(accession)) {
+                Peptide peptide = best.get(ref);
+                description.append(ref).append(':').append(peptide.getPsmId()).append(':').append(peptide.getScore()).append(' ');
+            }
+            description.append("unique ").append(unique.getOrDefault(accession, new TreeSet<>())).append('\n');
+        }
+        return description.append(best.size()).append(" peptides\n").toString();
+    }
+
+    private static String describe(Map<String, Protein> proteins, int peptideCount) {
+        StringBuilder description = new StringBuilder();
+        for (String accession : new TreeSet<>(proteins.keySet())) {
+            Protein protein = proteins.get(accession);
+            description.append(accession).append(' ');
+            TreeSet<String> refs = new TreeSet<>();
+            HashMap<String, Peptide> byRef = new HashMap<>();
+            for (Peptide peptide : protein.getObservedPeptides()) {
+                refs.add(peptide.getPeptideRef());
+                byRef.put(peptide.getPeptideRef(), peptide);
+            }
+            for (String ref : refs) {
+                Peptide peptide = byRef.get(ref);
+                description.append(ref).append(':').append(peptide.getPsmId()).append(':').append(peptide.getScore()).append(' ');
+            }
+            TreeSet<String> uniqueRefs = new TreeSet<>();
+            for (Peptide peptide : protein.getUniquePeptides()) {
+                uniqueRefs.add(peptide.getPeptideRef());
+            }
+            description.append("unique ").append(uniqueRefs).append('\n');
+        }
+        return description.append(peptideCount).append(" peptides\n").toString();
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that runs in separate GroupingSessions may group the same loaded
+ * proteins at the same time: several threads group a few datasets over and
+ * over, each run in a session of its own, and every run must give the
+ * groups, clusters and statuses of grouping a fresh copy of its dataset
+ * alone, with group ids from 0 in each session, while the loaded proteins and
+ * peptides are left untouched.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.ConcurrentSessionsCheck [proteinCount] [threadCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class ConcurrentSessionsCheck {
+
+    private static final int DATASETS = 3;
+    private static final int RUNS = 12;
+
+    private ConcurrentSessionsCheck() {
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws InterruptedException, ExecutionException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        ArrayList<HashMap<String, Protein>> shared = new ArrayList<>();
+        ArrayList<String> expected = new ArrayList<>();
+        for (int d = 0; d < DATASETS; d++) {
+            SyntheticProteome proteome = new SyntheticProteome(proteinCount, 12, 0.4, 2 + d, 3, 21 + d);
+            shared.add(proteome.toProteinMap());
+            //Group a copy of its own, the way it was done before sessions
+            HashMap<String, Protein> copy = proteome.toProteinMap();
+            ProteinGrouper grouper = new ProteinGrouper();
+            ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(copy);
+            expected.add(GroupingOutput.describeCanonically(groups, grouper.clusterProteinGroups(groups), dictionaryOf(copy)));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        ArrayList<Future<String>> runs = new ArrayList<>();
+        for (int run = 0; run < RUNS; run++) {
+            int d = run % DATASETS;
+            boolean inParallel = run % 2 == 1;
+            runs.add(threads.submit(() -> {
+                GroupingSession session = new GroupingSession();
+                ProteinGrouper grouper = new ProteinGrouper(session);
+                ConcurrentHashMap<Integer, ProteinGroup> groups = inParallel
+                        ? grouper.groupProteinsInParallel(shared.get(d)) : grouper.groupProteins(shared.get(d));
+                ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+                for (int id = 0; id < groups.size(); id++) {
+                    if (!groups.containsKey(id)) {
+                        return "group ids are not 0 to " + (groups.size() - 1);
+                    }
+                }
+                for (Protein protein : shared.get(d).values()) {
+                    if (session.getProteinGroup(protein) == null
+                            || !session.getProteinGroup(protein).getProteins().contains(protein)) {
+                        return protein + " is not in its group in the session";
+                    }
+                }
+                String actual = GroupingOutput.describeCanonically(groups, clusters, dictionaryOf(shared.get(d)), session);
+                return actual.equals(expected.get(d)) ? null : "dataset " + d + " grouped differently";
+            }));
+        }
+        boolean failed = false;
+        for (int run = 0; run < RUNS; run++) {
+            String failure = runs.get(run).get();
+            if (failure != null) {
+                System.out.println("run " + run + ": " + failure);
+                failed = true;
+            }
+        }
+        threads.shutdown();
+
+        for (HashMap<String, Protein> proteins : shared) {
+            for (Protein protein : proteins.values()) {
+                if (protein.getProteinGroup() != null || protein.isSubsetProtein()) {
+                    System.out.println("The group of shared protein " + protein + " was set");
+                    failed = true;
+                    break;
+                }
+            }
+            PeptideDictionary dictionary = dictionaryOf(proteins);
+            for (int id = 0; id < dictionary.size(); id++) {
+                if (dictionary.getPeptide(id).getPeptideStatus() != Peptide.Status.RESOLVED) {
+                    System.out.println("The status of shared peptide " + dictionary.getPeptide(id) + " was set");
+                    failed = true;
+                    break;
+                }
+            }
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println(RUNS + " runs over " + DATASETS + " shared datasets on " + threadCount
+                + " threads group as their datasets do alone");
+        return true;
+    }
+
+    private static PeptideDictionary dictionaryOf(HashMap<String, Protein> proteins) {
+        return proteins.values().iterator().next().getObservedPeptideSet().getDictionary();
+    }
+
+}
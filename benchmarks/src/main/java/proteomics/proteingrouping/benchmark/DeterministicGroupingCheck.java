@@ -0,0 +1,174 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks, on randomly shaped synthetic proteomes, that groupProteinsDeterministically
+ * followed by clusterProteinGroups gives the same groups and clusters, with
+ * the same ids, subset proteins and peptide statuses, on one thread with the
+ * proteins and peptides in their natural order, and on several threads with
+ * the proteins put in the map in a shuffled order and the peptides numbered
+ * in a shuffled order. The same comparison is made for groupProteins, whose
+ * result may depend on the order of the proteins, to show how often the check would catch
+ * a difference. Each trial prints its parameters when it fails, so that it
+ * can be run again alone with the same seed. The deterministic and the
+ * parallel grouping are then timed on a larger proteome.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.DeterministicGroupingCheck [trials] [threadCount] [seed] [largeProteinCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class DeterministicGroupingCheck {
+
+    private DeterministicGroupingCheck() {
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws InterruptedException, ExecutionException {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int largeProteinCount = args.length > 3 ? Integer.parseInt(args[3]) : 500000;
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool several = new ForkJoinPool(threadCount);
+
+        int failures = 0;
+        int orderDependent = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            SplittableRandom random = new SplittableRandom(seed * 1000003 + trial);
+            int proteinCount = 20 + random.nextInt(3000);
+            int peptidesPerProtein = 1 + random.nextInt(12);
+            double sharedPeptideRatio = random.nextDouble();
+            int familySize = 1 + random.nextInt(8);
+            long proteomeSeed = random.nextLong();
+            long shuffleSeed = random.nextLong();
+            SyntheticProteome proteome = new SyntheticProteome(proteinCount, peptidesPerProtein, sharedPeptideRatio,
+                    familySize, 1, proteomeSeed);
+
+            String expected = describe(proteome, null, single, true);
+            String actual = describe(proteome, new Random(shuffleSeed), several, true);
+            if (!expected.equals(actual)) {
+                failures++;
+                System.out.println("trial " + trial + " differs (" + proteome + "), first at: " + firstDifference(expected, actual));
+            }
+            if (!describe(proteome, null, single, false).equals(describe(proteome, new Random(shuffleSeed), several, false))) {
+                orderDependent++;
+            }
+        }
+        System.out.printf("%d trials, %d vs %d threads: %d differ with groupProteinsDeterministically, %d with groupProteins%n",
+                trials, 1, threadCount, failures, orderDependent);
+
+        SyntheticProteome proteome = new SyntheticProteome(largeProteinCount, 8, 0.8, 4, 1, seed);
+        System.out.println("# Proteome: " + proteome);
+        for (int round = 0; round < 3; round++) {
+            LinkedHashMap<String, Protein> proteins = proteins(proteome, null);
+            long start = System.nanoTime();
+            several.submit(() -> new ProteinGrouper(new GroupingSession()).groupProteinsInParallel(proteins)).get();
+            long parallelNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            several.submit(() -> new ProteinGrouper(new GroupingSession()).groupProteinsDeterministically(proteins)).get();
+            System.out.printf("groupProteinsInParallel %.1f ms, groupProteinsDeterministically %.1f ms%n",
+                    parallelNanos / 1e6, (System.nanoTime() - start) / 1e6);
+        }
+        single.shutdown();
+        several.shutdown();
+        if (failures > 0) {
+            return false;
+        }
+        System.out.println("The deterministic grouping depends on neither the orders nor the threads");
+        return true;
+    }
+
+    /**
+     * @param shuffle shuffles the proteins and the peptide ids; null for the natural order
+     * @param deterministic whether to group with groupProteinsDeterministically or groupProteins
+     */
+    private static String describe(SyntheticProteome proteome, Random shuffle, ForkJoinPool pool, boolean deterministic)
+            throws InterruptedException, ExecutionException {
+        LinkedHashMap<String, Protein> proteins = proteins(proteome, shuffle);
+        PeptideDictionary dictionary = proteins.values().iterator().next().getObservedPeptideSet().getDictionary();
+        ProteinGrouper grouper = new ProteinGrouper(new GroupingSession());
+        ConcurrentHashMap<Integer, ProteinGroup> groups = pool.submit(() -> deterministic
+                ? grouper.groupProteinsDeterministically(proteins) : grouper.groupProteins(proteins)).get();
+        ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = pool.submit(() -> grouper.clusterProteinGroups(groups)).get();
+        return GroupingOutput.describeWithIds(groups, clusters, dictionary, grouper.getSession());
+    }
+
+    /**
+     * @param shuffle shuffles the proteins and the peptide ids; null for the natural order
+     * @return the proteins of the proteome, in the map in the natural or a shuffled order
+     */
+    private static LinkedHashMap<String, Protein> proteins(SyntheticProteome proteome, Random shuffle) {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        Peptide[] peptides = new Peptide[proteome.getPeptideCount()];
+        for (int peptide : order(peptides.length, shuffle)) {
+            peptides[peptide] = new Peptide(proteome.getPeptideRef(peptide), "SII_" + peptide, peptide, 1, 1f,
+                    proteome.isUniqueToAProtein(peptide));
+            dictionary.intern(peptides[peptide]);
+        }
+        LinkedHashMap<String, Protein> proteins = new LinkedHashMap<>();
+        for (int p : order(proteome.getProteinCount(), shuffle)) {
+            Protein protein = new Protein(proteome.getAccession(p), dictionary);
+            for (int peptide : proteome.getProteinPeptides(p)) {
+                protein.addObservedPeptides(peptides[peptide]);
+                if (proteome.isUniqueToAProtein(peptide)) {
+                    protein.addUniquePeptides(peptides[peptide]);
+                }
+            }
+            proteins.put(protein.getDbSequenceRef(), protein);
+        }
+        return proteins;
+    }
+
+    private static ArrayList<Integer> order(int count, Random shuffle) {
+        ArrayList<Integer> order = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            order.add(i);
+        }
+        if (shuffle != null) {
+            Collections.shuffle(order, shuffle);
+        }
+        return order;
+    }
+
+    private static String firstDifference(String expected, String actual) {
+        String[] expectedLines = expected.split("\n");
+        String[] actualLines = actual.split("\n");
+        for (int i = 0; i < Math.min(expectedLines.length, actualLines.length); i++) {
+            if (!expectedLines[i].equals(actualLines[i])) {
+                return expectedLines[i] + " / " + actualLines[i];
+            }
+        }
+        return expectedLines.length + " lines / " + actualLines.length + " lines";
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that proteins with exactly the same peptides as an earlier protein
+ * (here, isoforms added after each protein of a synthetic proteome) end up in
+ * the group of that protein, and that the groups, clusters and statuses are
+ * otherwise those of grouping the proteome without the isoforms. The time
+ * taken to group with and without the isoforms is printed too.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.EquivalentProteinsCheck [proteinCount] [isoformsPerProtein]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class EquivalentProteinsCheck {
+
+    private static final String ISOFORM = "-iso";
+
+    private EquivalentProteinsCheck() {
+    }
+
+    public static void main(String[] args) {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int isoformsPerProtein = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 12, 0.4, 4, 3, 17);
+        HashMap<String, Protein> loaded = proteome.toProteinMap();
+        PeptideDictionary dictionary = loaded.values().iterator().next().getObservedPeptideSet().getDictionary();
+
+        //The proteins without their unique peptides, so that all of them go through the subset / superset rules
+        LinkedHashMap<String, Protein> proteins = new LinkedHashMap<>();
+        LinkedHashMap<String, Protein> withIsoforms = new LinkedHashMap<>();
+        for (int p = 0; p < proteinCount; p++) {
+            ArrayList<Peptide> peptides = loaded.get(proteome.getAccession(p)).getObservedPeptides();
+            proteins.put(proteome.getAccession(p), newProtein(proteome.getAccession(p), dictionary, peptides));
+            withIsoforms.put(proteome.getAccession(p), newProtein(proteome.getAccession(p), dictionary, peptides));
+            for (int i = 1; i <= isoformsPerProtein; i++) {
+                String accession = proteome.getAccession(p) + ISOFORM + i;
+                withIsoforms.put(accession, newProtein(accession, dictionary, peptides));
+            }
+        }
+
+        String expected = null;
+        String actual = null;
+        for (int round = 0; round < 3; round++) {
+            expected = group(proteins, dictionary);
+            actual = group(withIsoforms, dictionary);
+        }
+        if (!expected.equals(actual)) {
+            System.out.println("The isoforms change the grouping or are not in the groups of their proteins");
+            return false;
+        }
+        System.out.println("Every isoform is in the group of its protein, and the grouping is otherwise the same");
+        return true;
+    }
+
+    private static Protein newProtein(String accession, PeptideDictionary dictionary, ArrayList<Peptide> peptides) {
+        Protein protein = new Protein(accession, dictionary);
+        for (Peptide peptide : peptides) {
+            protein.addObservedPeptides(peptide);
+        }
+        return protein;
+    }
+
+    /**
+     * Groups and clusters the proteins in a session of their own, printing
+     * how long grouping took, and describes the result with each isoform
+     * named as its protein
+     */
+    private static String group(HashMap<String, Protein> proteins, PeptideDictionary dictionary) {
+        GroupingSession session = new GroupingSession();
+        ProteinGrouper grouper = new ProteinGrouper(session);
+        long start = System.nanoTime();
+        ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(proteins);
+        System.out.printf("%d proteins grouped in %.1f ms%n", proteins.size(), (System.nanoTime() - start) / 1e6);
+        ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+        TreeSet<String> lines = new TreeSet<>();
+        for (ProteinGroup group : groups.values()) {
+            lines.add("group " + proteinsOf(group) + " domain " + group.getGroupPeptideDomainSet());
+        }
+        for (ProteinGroupCluster cluster : clusters.values()) {
+            TreeSet<String> members = new TreeSet<>();
+            for (ProteinGroup group : cluster.getProteinGroups()) {
+                members.add(proteinsOf(group) + " " + group.getSharedClusterPeptideSet());
+            }
+            lines.add("cluster " + members);
+        }
+        StringBuilder description = new StringBuilder();
+        lines.forEach(line -> description.append(line).append('\n'));
+        for (int id = 0; id < dictionary.size(); id++) {
+            description.append(session.getPeptideStatus(dictionary.getPeptide(id))).append('\n');
+        }
+        return description.toString();
+    }
+
+    private static TreeSet<String> proteinsOf(ProteinGroup group) {
+        TreeSet<String> accessions = new TreeSet<>();
+        for (Protein protein : group.getProteins()) {
+            String accession = protein.getDbSequenceRef();
+            int isoform = accession.indexOf(ISOFORM);
+            accessions.add(isoform < 0 ? accession : accession.substring(0, isoform));
+        }
+        return accessions;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Throughput of writing a grouped and clustered synthetic proteome with the
+ * GroupingResultWriter, in each of its formats. The bytes counter gives the
+ * bytes written per second and the groups counter the groups written per
+ * second; run with -prof gc to see that writing allocates next to nothing
+ * per group.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import proteomics.proteingrouping.GroupingResultWriter;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGrouper;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+
+    @Param({"MZTAB", "TSV", "JSON"})
+    public GroupingResultWriter.Format format;
+
+    private ConcurrentHashMap<Integer, ProteinGroup> groups;
+    private GroupingSession session;
+    private File file;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Written {
+
+        public long bytes;
+        public long groups;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            groups = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(ProteomeState state) throws IOException {
+        session = new GroupingSession();
+        ProteinGrouper grouper = new ProteinGrouper(session);
+        groups = grouper.groupProteins(state.newProteome().toProteinMap());
+        grouper.clusterProteinGroups(groups);
+        file = Files.createTempFile("proteingrouping-bench", ".out").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public long write(Written written) throws IOException {
+        GroupingResultWriter.write(groups, file, format, session);
+        written.bytes += file.length();
+        written.groups += groups.size();
+        return file.length();
+    }
+
+}
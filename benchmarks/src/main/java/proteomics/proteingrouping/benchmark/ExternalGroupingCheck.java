@@ -0,0 +1,149 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that the ExternalGrouper, spilling a synthetic proteome to disk and
+ * grouping it shard by shard, forms the groups groupProteinsInParallel forms
+ * from the same proteins, with the same subset proteins and peptide
+ * statuses, whether the budget holds every component in one shard or forces
+ * many shards, or more shards than are written at a time, grouped one or two
+ * at a time. A larger proteome is then
+ * grouped under a small budget, counting the groups as they stream out, and
+ * the time taken, the shards and the peak heap in use are printed.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.ExternalGroupingCheck [proteinCount] [largeProteinCount] [budgetMegabytes]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import proteomics.proteingrouping.ExternalGrouper;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class ExternalGroupingCheck {
+
+    private ExternalGroupingCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int largeProteinCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        long budget = (args.length > 2 ? Long.parseLong(args[2]) : 16) << 20;
+        File directory = Files.createTempDirectory("external-grouping").toFile();
+        boolean failed = false;
+
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, 0.8, 4, 2, 43);
+        System.out.println("# Proteome: " + proteome);
+        HashMap<String, Protein> proteinHashMap = proteome.toProteinMap();
+        PeptideDictionary dictionary = proteinHashMap.values().iterator().next().getObservedPeptideSet().getDictionary();
+        ProteinGrouper grouper = new ProteinGrouper(new GroupingSession());
+        ConcurrentHashMap<Integer, ProteinGroup> expectedGroups = grouper.groupProteinsInParallel(proteinHashMap);
+        String expected = GroupingOutput.describeCanonically(expectedGroups, null, dictionary, grouper.getSession())
+                + subsetProteins(expectedGroups, grouper.getSession());
+
+        for (long checkBudget : new long[]{1L << 40, 1L << 20, 1L << 15}) {
+            for (int parallelism : new int[]{1, 2}) {
+                ConcurrentHashMap<Integer, ProteinGroup> groups = new ConcurrentHashMap<>();
+                long start = System.nanoTime();
+                try (ExternalGrouper external = new ExternalGrouper(directory, checkBudget, parallelism, new GroupingSession())) {
+                    for (Protein protein : proteinHashMap.values()) {
+                        external.addProtein(protein);
+                    }
+                    external.groupProteins(dictionary, group -> groups.put(group.getGroupId(), group));
+                    System.out.printf("budget %d KB, %d at a time: %d groups from %d shards in %.1f ms%n", checkBudget >> 10,
+                            parallelism, groups.size(), external.getShardCount(), (System.nanoTime() - start) / 1e6);
+                    String actual = GroupingOutput.describeCanonically(groups, null, dictionary, external.getSession())
+                            + subsetProteins(groups, external.getSession());
+                    if (!expected.equals(actual)) {
+                        System.out.println("  the groups differ from those of groupProteinsInParallel");
+                        failed = true;
+                    }
+                }
+            }
+        }
+        proteinHashMap = null;
+        expectedGroups = null;
+
+        proteome = new SyntheticProteome(largeProteinCount, 8, 0.8, 4, 2, 43);
+        System.out.println("# Proteome: " + proteome);
+        resetPeakHeap();
+        long heapBefore = peakHeap();
+        long start = System.nanoTime();
+        AtomicLong groupCount = new AtomicLong();
+        try (ExternalGrouper external = new ExternalGrouper(directory, budget, 2)) {
+            for (int p = 0; p < proteome.getProteinCount(); p++) {
+                int[] peptides = proteome.getProteinPeptides(p);
+                external.addProtein(proteome.getAccession(p), peptides,
+                        Arrays.stream(peptides).filter(proteome::isUniqueToAProtein).toArray());
+            }
+            external.groupProteins(null, group -> groupCount.incrementAndGet());
+            System.out.printf("budget %d MB: %d groups from %d shards (the largest %d KB) in %.1f ms, peak heap %d MB over %d MB before%n",
+                    budget >> 20, groupCount.get(), external.getShardCount(), external.getLargestShardBytes() >> 10,
+                    (System.nanoTime() - start) / 1e6, peakHeap() >> 20, heapBefore >> 20);
+        }
+        Files.deleteIfExists(directory.toPath());
+        if (failed) {
+            return false;
+        }
+        System.out.println("The external grouping forms the groups of groupProteinsInParallel");
+        return true;
+    }
+
+    private static String subsetProteins(ConcurrentHashMap<Integer, ProteinGroup> groups, GroupingSession session) {
+        TreeSet<String> subsetProteins = new TreeSet<>();
+        for (ProteinGroup group : groups.values()) {
+            for (Protein protein : group.getProteins()) {
+                if (session.isSubsetProtein(protein)) {
+                    subsetProteins.add(protein.getDbSequenceRef());
+                }
+            }
+        }
+        return "subset proteins " + subsetProteins + "\n";
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+}
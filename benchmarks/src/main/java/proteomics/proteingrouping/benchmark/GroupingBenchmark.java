@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Throughput of ProteinGrouper.groupProteins, groupProteinsInParallel and
+ * clusterProteinGroups against the number of protein-peptide edges, and of
+ * the latter two against the number of cores they may use. The edges counter
+ * gives the edges grouped per second; vary proteinCount / peptidesPerProtein
+ * for edge scaling, parallelism for thread scaling, and run with -prof gc for
+ * the allocation rate. groupProteins runs on the benchmark thread alone, so
+ * it does not take the parallelism and is measured once per proteome.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@State(Scope.Benchmark)
+public class GroupingBenchmark {
+
+    private SyntheticProteome proteome;
+    private HashMap<String, Protein> proteins;
+    private ConcurrentHashMap<Integer, ProteinGroup> groups;
+    private final ProteinGrouper grouper = new ProteinGrouper();
+
+    /**
+     * The fork-join pool the parallel benchmarks run in
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        /**
+         * The number of cores the grouper may use; the parallel steps run in a
+         * fork-join pool of this size
+         */
+        @Param({"1", "2", "4", "8"})
+        public int parallelism;
+
+        private ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Edges {
+
+        public long edges;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            edges = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(ProteomeState state) {
+        proteome = state.newProteome();
+        proteins = proteome.toProteinMap();
+        groups = grouper.groupProteins(proteins);
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<Integer, ProteinGroup> groupProteins(Edges edges) {
+        ConcurrentHashMap<Integer, ProteinGroup> result = grouper.groupProteins(proteins);
+        edges.edges += proteome.getEdgeCount();
+        return result;
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<Integer, ProteinGroup> groupProteinsInParallel(Pool pool, Edges edges) {
+        ConcurrentHashMap<Integer, ProteinGroup> result = pool.pool.submit(() -> grouper.groupProteinsInParallel(proteins)).join();
+        edges.edges += proteome.getEdgeCount();
+        return result;
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<Integer, ProteinGroupCluster> clusterProteinGroups(Pool pool, Edges edges) {
+        ConcurrentHashMap<Integer, ProteinGroupCluster> result = pool.pool.submit(() -> grouper.clusterProteinGroups(groups)).join();
+        edges.edges += proteome.getEdgeCount();
+        return result;
+    }
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that a GroupingIndex over a grouped and clustered synthetic
+ * proteome answers every lookup as a scan of the groups would: the group and
+ * cluster of every protein, the groups of every peptide, the proteins of
+ * every group, and prefix searches. The index is then looked up from several
+ * threads at once, directly and through a GroupingIndexServer, and the
+ * lookups answered per second are printed. The server is only as fast as
+ * it would be in use when the JVM is started with
+ * -Dsun.net.httpserver.nodelay=true, as GroupingIndexServer asks; the
+ * server logs a warning when it is not.
+ *
+ * Usage: java -Dsun.net.httpserver.nodelay=true -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.GroupingIndexCheck [proteinCount] [threadCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import proteomics.proteingrouping.GroupingIndex;
+import proteomics.proteingrouping.GroupingIndexServer;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class GroupingIndexCheck {
+
+    private static final long RUN_MILLIS = 3000;
+
+    private GroupingIndexCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException, InterruptedException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, 0.6, 4, 2, 31);
+        System.out.println("# Proteome: " + proteome);
+        ProteinGrouper grouper = new ProteinGrouper();
+        ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(proteome.toProteinMap());
+        ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+        PeptideDictionary dictionary = groups.values().iterator().next().getGroupPeptideDomainSet().getDictionary();
+
+        long start = System.nanoTime();
+        GroupingIndex index = new GroupingIndex(groups, clusters);
+        System.out.printf("%d proteins, %d peptides, %d groups: index made in %.1f ms%n", index.getProteinCount(),
+                index.getPeptideCount(), index.getGroupCount(), (System.nanoTime() - start) / 1e6);
+
+        boolean failed = false;
+        HashMap<String, String> expectedProteins = new HashMap<>();
+        HashMap<Integer, TreeSet<Integer>> expectedPeptideGroups = new HashMap<>();
+        TreeSet<String> accessions = new TreeSet<>();
+        for (ProteinGroup group : groups.values()) {
+            int clusterId = group.getProteinGroupCluster() == null ? -1 : group.getProteinGroupCluster().getClusterId();
+            ArrayList<String> members = new ArrayList<>();
+            for (Protein protein : group.getProteins()) {
+                expectedProteins.put(protein.getDbSequenceRef(), group.getGroupId() + " " + clusterId);
+                accessions.add(protein.getDbSequenceRef());
+                members.add(protein.getDbSequenceRef());
+            }
+            failed |= !check("proteins of group " + group.getGroupId(), members, index.getAccessions(group.getGroupId()));
+            group.getGroupPeptideDomainSet().forEach(id -> expectedPeptideGroups.computeIfAbsent(id, k -> new TreeSet<>()).add(group.getGroupId()));
+        }
+        for (String accession : expectedProteins.keySet()) {
+            int groupId = index.getGroupId(accession);
+            failed |= !check("group of " + accession, expectedProteins.get(accession), groupId + " " + index.getClusterId(groupId));
+        }
+        for (int id = 0; id < dictionary.size(); id++) {
+            TreeSet<Integer> expected = expectedPeptideGroups.getOrDefault(id, new TreeSet<>());
+            int[] actual = index.getGroupIds(dictionary.getPeptide(id).getPeptideRef());
+            failed |= !check("groups of peptide " + id, expected.toString(), Arrays.toString(actual).replace(" ", "").replace(",", ", "));
+        }
+        failed |= !check("unknown accession", "-1", String.valueOf(index.getGroupId("no such protein")));
+        failed |= !check("unknown peptide", "0", String.valueOf(index.getGroupIds("no such peptide").length));
+        for (String prefix : new String[]{"", "P", "P1", "P12", "P123", "P99999", "Q"}) {
+            ArrayList<String> expected = new ArrayList<>();
+            for (String accession : accessions.tailSet(prefix)) {
+                if (!accession.startsWith(prefix) || expected.size() == 25) {
+                    break;
+                }
+                expected.add(accession);
+            }
+            failed |= !check("prefix " + prefix, expected, index.findAccessions(prefix, 25));
+        }
+
+        String[] sample = accessions.toArray(new String[0]);
+        AtomicLong lookups = new AtomicLong();
+        AtomicBoolean wrong = new AtomicBoolean();
+        run(threadCount, thread -> {
+            Random random = new Random(thread);
+            long count = 0;
+            long end = System.currentTimeMillis() + RUN_MILLIS;
+            while (System.currentTimeMillis() < end) {
+                for (int i = 0; i < 1000; i++) {
+                    String accession = sample[random.nextInt(sample.length)];
+                    int groupId = index.getGroupId(accession);
+                    if (!expectedProteins.get(accession).equals(groupId + " " + index.getClusterId(groupId))) {
+                        wrong.set(true);
+                    }
+                }
+                count += 1000;
+            }
+            lookups.addAndGet(count);
+        });
+        System.out.printf("%d threads: %.0f protein lookups per second%n", threadCount, lookups.get() * 1000.0 / RUN_MILLIS);
+        failed |= wrong.get();
+
+        try (GroupingIndexServer server = new GroupingIndexServer(index, 0, threadCount)) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://127.0.0.1:" + server.getPort();
+            String first = sample[0];
+            String[] groupAndCluster = expectedProteins.get(first).split(" ");
+            failed |= !check("/protein", "200 {\"accession\": \"" + first + "\", \"group\": " + groupAndCluster[0]
+                    + ", \"cluster\": " + groupAndCluster[1] + "}", get(client, base + "/protein?accession=" + encode(first)));
+            failed |= !check("/protein of an unknown accession", "404 {\"error\": \"No group holds Q\"}",
+                    get(client, base + "/protein?accession=Q"));
+            failed |= !check("/group without an id", "400 {\"error\": \"Missing parameter id\"}", get(client, base + "/group"));
+            String ref = dictionary.getPeptide(0).getPeptideRef();
+            failed |= !check("/peptide", "200 {\"peptide\": \"" + ref + "\", \"groups\": "
+                    + expectedPeptideGroups.get(0).toString().replace(" ", "").replace(",", ", ") + "}",
+                    get(client, base + "/peptide?ref=" + encode(ref)));
+            int groupId = Integer.parseInt(groupAndCluster[0]);
+            failed |= !check("/group", "200 {\"group\": " + groupId + ", \"cluster\": " + groupAndCluster[1]
+                    + ", \"accessions\": " + quoted(index.getAccessions(groupId)) + "}", get(client, base + "/group?id=" + groupId));
+            failed |= !check("/search", "200 {\"prefix\": \"P1\", \"accessions\": " + quoted(index.findAccessions("P1", 3)) + "}",
+                    get(client, base + "/search?prefix=P1&limit=3"));
+
+            AtomicLong requests = new AtomicLong();
+            run(threadCount, thread -> {
+                Random random = new Random(thread);
+                long count = 0;
+                long end = System.currentTimeMillis() + RUN_MILLIS;
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        String accession = sample[random.nextInt(sample.length)];
+                        String response = get(client, base + "/protein?accession=" + encode(accession));
+                        if (!response.contains("\"group\": " + expectedProteins.get(accession).split(" ")[0] + ",")) {
+                            wrong.set(true);
+                        }
+                        count++;
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    wrong.set(true);
+                }
+                requests.addAndGet(count);
+            });
+            System.out.printf("%d client threads: %.0f HTTP lookups per second%n", threadCount, requests.get() * 1000.0 / RUN_MILLIS);
+            failed |= wrong.get();
+        }
+
+        if (failed) {
+            return false;
+        }
+        System.out.println("Every lookup answers as a scan of the groups");
+        return true;
+    }
+
+    private static String get(HttpClient client, String uri) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(uri)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        return response.statusCode() + " " + response.body();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String quoted(List<String> strings) {
+        ArrayList<String> quoted = new ArrayList<>();
+        for (String string : strings) {
+            quoted.add("\"" + string + "\"");
+        }
+        return quoted.toString();
+    }
+
+    private static void run(int threadCount, IntConsumer task) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> task.accept(thread));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static <T> boolean check(String label, T expected, T actual) {
+        if (!expected.equals(actual)) {
+            System.out.println(label + ": expected " + expected + ", got " + actual);
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Renders the output of a grouping run as text, for the checks to compare
+ * runs with. Group and cluster ids come from process-wide counters, so groups
+ * and clusters are written in id order and numbered from 0 instead. When the
+ * ids of two runs are not handed out in the same order either, as after
+ * incremental grouping, describeCanonically names each group by its proteins
+ * and sorts the groups and clusters.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+
+public class GroupingOutput {
+
+    private GroupingOutput() {
+    }
+
+    /**
+     * @param groups
+     * @param clusters may be null if the groups were not clustered
+     * @param dictionary the dictionary of the grouped peptides, whose statuses are written too
+     * @return every group with its proteins, peptide domain and unique
+     * peptides, every cluster with its groups and shared peptides, and the
+     * status of every peptide
+     */
+    public static String describe(Map<Integer, ProteinGroup> groups, Map<Integer, ProteinGroupCluster> clusters,
+            PeptideDictionary dictionary) {
+        return describe(groups, clusters, dictionary, null);
+    }
+
+    /**
+     * Same as describe, with the peptide statuses read from the session of the
+     * run rather than from the peptides
+     *
+     * @param groups
+     * @param clusters may be null if the groups were not clustered
+     * @param dictionary
+     * @param session the session the groups were formed in; null to read the statuses from the peptides
+     * @return the same lines as describe(groups, clusters, dictionary)
+     */
+    public static String describe(Map<Integer, ProteinGroup> groups, Map<Integer, ProteinGroupCluster> clusters,
+            PeptideDictionary dictionary, GroupingSession session) {
+        StringBuilder description = new StringBuilder();
+        HashMap<ProteinGroup, Integer> groupNumbers = new HashMap<>();
+        for (ProteinGroup group : inIdOrder(groups)) {
+            groupNumbers.put(group, groupNumbers.size());
+            description.append("group ").append(groupNumbers.get(group))
+                    .append(group.isSingletonGroup() ? " singleton" : "").append(" [");
+            for (Protein protein : group.getProteins()) {
+                description.append(' ').append(protein.getDbSequenceRef());
+            }
+            description.append(" ] domain ").append(group.getGroupPeptideDomain())
+                    .append(" unique ").append(group.getUniquePeptides()).append('\n');
+        }
+        if (clusters != null) {
+            int clusterNumber = 0;
+            for (ProteinGroupCluster cluster : inIdOrder(clusters)) {
+                description.append("cluster ").append(clusterNumber++).append(" [");
+                for (ProteinGroup group : cluster.getProteinGroups()) {
+                    description.append(' ').append(groupNumbers.get(group))
+                            .append(group.getSharedClusterPeptides());
+                }
+                description.append(" ] domain ").append(cluster.getClusterPeptideDomain().toPeptideList()).append('\n');
+            }
+        }
+        appendStatuses(description, dictionary, session);
+        return description.toString();
+    }
+
+    /**
+     * Same as describe, but independent of group and cluster ids: each group
+     * is named by its proteins, and the groups, and the clusters with their
+     * groups, are written in sorted order
+     *
+     * @param groups
+     * @param clusters may be null if the groups were not clustered
+     * @param dictionary
+     * @return the same lines as describe gives, in an order that does not depend on ids
+     */
+    public static String describeCanonically(Map<Integer, ProteinGroup> groups, Map<Integer, ProteinGroupCluster> clusters,
+            PeptideDictionary dictionary) {
+        return describeCanonically(groups, clusters, dictionary, null);
+    }
+
+    /**
+     * Same as describeCanonically, with the peptide statuses read from the
+     * session of the run rather than from the peptides
+     */
+    public static String describeCanonically(Map<Integer, ProteinGroup> groups, Map<Integer, ProteinGroupCluster> clusters,
+            PeptideDictionary dictionary, GroupingSession session) {
+        StringBuilder description = new StringBuilder();
+        ArrayList<String> lines = new ArrayList<>();
+        for (ProteinGroup group : groups.values()) {
+            lines.add("group" + (group.isSingletonGroup() ? " singleton " : " ") + name(group)
+                    + " domain " + group.getGroupPeptideDomain() + " unique " + group.getUniquePeptides() + "\n");
+        }
+        lines.sort(null);
+        lines.forEach(description::append);
+        if (clusters != null) {
+            lines.clear();
+            for (ProteinGroupCluster cluster : clusters.values()) {
+                ArrayList<String> members = new ArrayList<>();
+                for (ProteinGroup group : cluster.getProteinGroups()) {
+                    members.add(" " + name(group) + group.getSharedClusterPeptides());
+                }
+                members.sort(null);
+                lines.add("cluster [" + String.join("", members) + " ] domain "
+                        + cluster.getClusterPeptideDomain().toPeptideList() + "\n");
+            }
+            lines.sort(null);
+            lines.forEach(description::append);
+        }
+        appendStatuses(description, dictionary, session);
+        return description.toString();
+    }
+
+    /**
+     * Same as describe, but keeping the group and cluster ids, and naming the
+     * peptides by ref in sorted order rather than in id order, so that two
+     * runs over the same proteins with peptides numbered differently can be
+     * compared; the subset proteins are written too
+     *
+     * @param groups
+     * @param clusters may be null if the groups were not clustered
+     * @param dictionary
+     * @param session the session the groups were formed in
+     * @return the groups and clusters in id order, and the statuses of the peptides in ref order
+     */
+    public static String describeWithIds(Map<Integer, ProteinGroup> groups, Map<Integer, ProteinGroupCluster> clusters,
+            PeptideDictionary dictionary, GroupingSession session) {
+        StringBuilder description = new StringBuilder();
+        for (ProteinGroup group : inIdOrder(groups)) {
+            description.append("group ").append(group.getGroupId())
+                    .append(group.isSingletonGroup() ? " singleton " : " ").append(name(group)).append(" subset [");
+            for (Protein protein : group.getProteins()) {
+                if (session.isSubsetProtein(protein)) {
+                    description.append(' ').append(protein.getDbSequenceRef());
+                }
+            }
+            description.append(" ] domain ").append(refs(group.getGroupPeptideDomain()))
+                    .append(" unique ").append(refs(group.getUniquePeptides())).append('\n');
+        }
+        if (clusters != null) {
+            for (ProteinGroupCluster cluster : inIdOrder(clusters)) {
+                description.append("cluster ").append(cluster.getClusterId()).append(" [");
+                for (ProteinGroup group : cluster.getProteinGroups()) {
+                    description.append(' ').append(group.getGroupId()).append(refs(group.getSharedClusterPeptides()));
+                }
+                description.append(" ] domain ").append(refs(cluster.getClusterPeptideDomain().toPeptideList())).append('\n');
+            }
+        }
+        ArrayList<String> statuses = new ArrayList<>();
+        for (int id = 0; id < dictionary.size(); id++) {
+            Peptide peptide = dictionary.getPeptide(id);
+            statuses.add(peptide.getPeptideRef() + " " + session.getPeptideStatus(peptide) + "\n");
+        }
+        statuses.sort(null);
+        statuses.forEach(description::append);
+        return description.toString();
+    }
+
+    private static ArrayList<String> refs(List<Peptide> peptides) {
+        ArrayList<String> refs = new ArrayList<>();
+        for (Peptide peptide : peptides) {
+            refs.add(peptide.getPeptideRef());
+        }
+        refs.sort(null);
+        return refs;
+    }
+
+    private static void appendStatuses(StringBuilder description, PeptideDictionary dictionary, GroupingSession session) {
+        for (int id = 0; id < dictionary.size(); id++) {
+            Peptide peptide = dictionary.getPeptide(id);
+            description.append(peptide).append(' ')
+                    .append(session == null ? peptide.getPeptideStatus() : session.getPeptideStatus(peptide)).append('\n');
+        }
+    }
+
+    private static String name(ProteinGroup group) {
+        StringBuilder name = new StringBuilder("[");
+        for (Protein protein : group.getProteins()) {
+            name.append(' ').append(protein.getDbSequenceRef());
+        }
+        return name.append(" ]").toString();
+    }
+
+    private static <T> ArrayList<T> inIdOrder(Map<Integer, T> byId) {
+        ArrayList<Integer> ids = new ArrayList<>(byId.keySet());
+        ids.sort(null);
+        ArrayList<T> values = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            values.add(byId.get(id));
+        }
+        return values;
+    }
+
+}
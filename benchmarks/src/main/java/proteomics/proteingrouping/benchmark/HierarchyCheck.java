@@ -0,0 +1,280 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that paging through a GroupingHierarchy over a grouped and clustered
+ * synthetic proteome visits the tree of the clusters, groups and proteins
+ * themselves, node by node and with the counts and scores worked out from
+ * them, and that the GraphML export of the whole tree parses and holds every
+ * node and edge once. The heap the hierarchy takes, the time taken to make
+ * it and the mean time of fetching a page of the children of random nodes
+ * are printed.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.HierarchyCheck [proteinCount] [pageSize]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import proteomics.proteingrouping.GroupingHierarchy;
+import proteomics.proteingrouping.HierarchyNode;
+import proteomics.proteingrouping.HierarchyPage;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class HierarchyCheck {
+
+    private static final int RANDOM_FETCHES = 200000;
+
+    private HierarchyCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, ParserConfigurationException, SAXException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException, ParserConfigurationException, SAXException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 250000;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, 0.6, 4, 2, 23);
+        System.out.println("# Proteome: " + proteome);
+        ProteinGrouper grouper = new ProteinGrouper();
+        ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(proteome.toProteinMap());
+        ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+        PeptideDictionary dictionary = groups.values().iterator().next().getGroupPeptideDomainSet().getDictionary();
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        GroupingHierarchy hierarchy = new GroupingHierarchy(groups, clusters, dictionary);
+        long buildNanos = System.nanoTime() - start;
+        long hierarchyBytes = usedHeap() - heapBefore;
+        System.out.printf("%d clusters, %d groups: hierarchy made in %.1f ms, about %d bytes of heap%n",
+                clusters.size(), groups.size(), buildNanos / 1e6, hierarchyBytes);
+
+        boolean failed = false;
+        ArrayList<HierarchyNode> roots = all(hierarchy, null, pageSize);
+        ArrayList<String> expectedRoots = new ArrayList<>();
+        ArrayList<ProteinGroupCluster> sortedClusters = new ArrayList<>(clusters.values());
+        sortedClusters.sort(Comparator.comparingInt(ProteinGroupCluster::getClusterId));
+        HashSet<ProteinGroup> clustered = new HashSet<>();
+        for (ProteinGroupCluster cluster : sortedClusters) {
+            expectedRoots.add("cluster " + cluster.getClusterId());
+            clustered.addAll(cluster.getProteinGroups());
+        }
+        ArrayList<ProteinGroup> sortedGroups = new ArrayList<>(groups.values());
+        sortedGroups.sort(Comparator.comparingInt(ProteinGroup::getGroupId));
+        for (ProteinGroup group : sortedGroups) {
+            if (!clustered.contains(group)) {
+                expectedRoots.add("group " + group.getGroupId());
+            }
+        }
+        failed |= !check("roots", expectedRoots, labels(roots));
+
+        long nodeCount = roots.size();
+        for (HierarchyNode root : roots) {
+            ArrayList<ProteinGroup> members = new ArrayList<>();
+            if (root.getKind() == HierarchyNode.Kind.CLUSTER) {
+                ProteinGroupCluster cluster = clusters.get(root.getId());
+                failed |= !checkScores(root, cluster.getClusterPeptideDomain().toPeptideList());
+                ArrayList<HierarchyNode> groupNodes = all(hierarchy, root, pageSize);
+                members.addAll(cluster.getProteinGroups());
+                members.sort(Comparator.comparingInt(ProteinGroup::getGroupId));
+                ArrayList<String> expected = new ArrayList<>();
+                for (ProteinGroup group : members) {
+                    expected.add("group " + group.getGroupId());
+                }
+                failed |= !check(root.getLabel(), expected, labels(groupNodes));
+                for (HierarchyNode groupNode : groupNodes) {
+                    failed |= !check("parent of " + groupNode.getLabel(), List.of(root.getLabel()),
+                            List.of(hierarchy.getParent(groupNode).getLabel()));
+                    nodeCount += 1 + checkGroup(hierarchy, groupNode, groups.get(groupNode.getId()), pageSize);
+                }
+            } else {
+                nodeCount += checkGroup(hierarchy, root, groups.get(root.getId()), pageSize);
+            }
+            if (nodeCount < 0) {
+                failed = true;
+            }
+        }
+        System.out.println(nodeCount + " nodes paged through");
+
+        Random random = new Random(5);
+        HierarchyNode[] sample = new HierarchyNode[1024];
+        for (int i = 0; i < sample.length; i++) {
+            HierarchyNode group = hierarchy.getGroupNode(sortedGroups.get(random.nextInt(sortedGroups.size())).getGroupId());
+            sample[i] = i % 2 == 0 ? group : hierarchy.getChildren(group, 0, 1).getNodes().get(0);
+        }
+        long fetched = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < RANDOM_FETCHES; i++) {
+            HierarchyNode node = sample[i & (sample.length - 1)];
+            fetched += hierarchy.getChildren(node, 0, pageSize).getNodes().size();
+            fetched += hierarchy.getRoots(random.nextInt(hierarchy.getRootCount()), pageSize).getNodes().size();
+        }
+        System.out.printf("%d page fetches of up to %d nodes: %.2f us each (%d nodes)%n", 2 * RANDOM_FETCHES, pageSize,
+                (System.nanoTime() - start) / 1e3 / (2 * RANDOM_FETCHES), fetched);
+
+        long expectedEdges = 0;
+        HashSet<Integer> peptides = new HashSet<>();
+        for (ProteinGroupCluster cluster : clusters.values()) {
+            expectedEdges += cluster.getProteinGroups().size();
+        }
+        long proteins = 0;
+        for (ProteinGroup group : groups.values()) {
+            for (Protein protein : group.getProteins()) {
+                proteins++;
+                expectedEdges += 1 + protein.getObservedPeptideSet().size();
+                protein.getObservedPeptideSet().forEach(peptides::add);
+            }
+        }
+        long expectedNodes = clusters.size() + groups.size() + proteins + peptides.size();
+        File graphML = Files.createTempFile("proteingrouping-hierarchy", ".graphml").toFile();
+        try {
+            start = System.nanoTime();
+            try (BufferedWriter out = Files.newBufferedWriter(graphML.toPath(), StandardCharsets.UTF_8)) {
+                hierarchy.writeGraphML(null, Integer.MAX_VALUE, out);
+            }
+            System.out.printf("GraphML of the whole tree: %d bytes in %.1f ms%n", graphML.length(), (System.nanoTime() - start) / 1e6);
+            long[] counts = new long[2];
+            HashSet<String> ids = new HashSet<>();
+            SAXParserFactory.newInstance().newSAXParser().parse(graphML, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if (qName.equals("node")) {
+                        counts[0]++;
+                        ids.add(attributes.getValue("id"));
+                    } else if (qName.equals("edge")) {
+                        counts[1]++;
+                    }
+                }
+            });
+            failed |= !check("GraphML nodes and edges", List.of(expectedNodes, expectedNodes, expectedEdges),
+                    List.of(counts[0], (long) ids.size(), counts[1]));
+        } finally {
+            Files.deleteIfExists(graphML.toPath());
+        }
+
+        StringWriter dot = new StringWriter();
+        HierarchyNode firstRoot = roots.get(0);
+        hierarchy.writeDot(firstRoot, 1, dot);
+        long dotLines = dot.toString().lines().count();
+        failed |= !check("DOT of " + firstRoot.getLabel() + " one level down", List.of(3L + 2 * firstRoot.getChildCount()),
+                List.of(dotLines));
+
+        if (failed) {
+            return false;
+        }
+        System.out.println("Paging through the hierarchy visits the clusters, groups, proteins and peptides themselves");
+        return true;
+    }
+
+    /**
+     * Checks the proteins under the group node and the peptides under each
+     *
+     * @return the number of nodes below the group, or -1 if a check failed
+     */
+    private static long checkGroup(GroupingHierarchy hierarchy, HierarchyNode groupNode, ProteinGroup group, int pageSize) {
+        boolean failed = !checkScores(groupNode, group.getGroupPeptideDomain());
+        ArrayList<HierarchyNode> proteinNodes = all(hierarchy, groupNode, pageSize);
+        ArrayList<String> expected = new ArrayList<>();
+        for (Protein protein : group.getProteins()) {
+            expected.add(protein.getDbSequenceRef());
+        }
+        failed |= !check(groupNode.getLabel(), expected, labels(proteinNodes));
+        long count = proteinNodes.size();
+        for (int i = 0; i < proteinNodes.size(); i++) {
+            HierarchyNode proteinNode = proteinNodes.get(i);
+            Protein protein = group.getProteins().get(i);
+            failed |= !checkScores(proteinNode, protein.getObservedPeptides());
+            failed |= hierarchy.getParent(proteinNode).getId() != group.getGroupId();
+            expected.clear();
+            for (int id : protein.getObservedPeptideSet().toArray()) {
+                expected.add(protein.getObservedPeptideSet().getDictionary().getPeptide(id).getPeptideRef());
+            }
+            ArrayList<HierarchyNode> peptideNodes = all(hierarchy, proteinNode, pageSize);
+            failed |= !check(proteinNode.getLabel(), expected, labels(peptideNodes));
+            count += peptideNodes.size();
+        }
+        return failed ? Long.MIN_VALUE / 2 : count;
+    }
+
+    private static boolean checkScores(HierarchyNode node, List<Peptide> peptides) {
+        float best = Float.NaN;
+        double total = 0;
+        for (Peptide peptide : peptides) {
+            best = Float.isNaN(best) ? peptide.getScore() : Math.max(best, peptide.getScore());
+            total += peptide.getScore();
+        }
+        if (node.getPeptideCount() != peptides.size() || Float.compare(node.getBestScore(), best) != 0
+                || Math.abs(node.getTotalScore() - total) > 1e-3 * Math.abs(total)) {
+            System.out.println(node.getLabel() + ": counts or scores differ");
+            return false;
+        }
+        return true;
+    }
+
+    private static ArrayList<HierarchyNode> all(GroupingHierarchy hierarchy, HierarchyNode parent, int pageSize) {
+        ArrayList<HierarchyNode> nodes = new ArrayList<>();
+        int cursor = 0;
+        while (cursor >= 0) {
+            HierarchyPage page = parent == null ? hierarchy.getRoots(cursor, pageSize) : hierarchy.getChildren(parent, cursor, pageSize);
+            nodes.addAll(page.getNodes());
+            cursor = page.getNextCursor();
+        }
+        return nodes;
+    }
+
+    private static ArrayList<String> labels(List<HierarchyNode> nodes) {
+        ArrayList<String> labels = new ArrayList<>();
+        for (HierarchyNode node : nodes) {
+            labels.add(node.getLabel());
+        }
+        return labels;
+    }
+
+    private static <T> boolean check(String label, List<T> expected, List<T> actual) {
+        if (!expected.equals(actual)) {
+            System.out.println(label + ": expected " + expected + ", got " + actual);
+            return false;
+        }
+        return true;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that an IncrementalGrouper fed a study run by run ends each run with
+ * the same groups, clusters and peptide statuses as grouping the whole study
+ * so far from scratch, and that the changes it reports are the groups and
+ * clusters that actually came and went.
+ *
+ * The runs split the edges of a synthetic proteome at random, most of them
+ * going to the first run, and each run sees a match of its peptides drawn at
+ * random, so proteins gain peptides (and become supersets of their groups)
+ * and peptides gain better matches as runs are added. The time each delta
+ * took is printed next to that of grouping the whole study.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.IncrementalGroupingCheck [proteinCount] [runCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import proteomics.proteingrouping.GroupingChanges;
+import proteomics.proteingrouping.IncrementalGrouper;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+import proteomics.proteingrouping.PsmStore;
+
+public class IncrementalGroupingCheck {
+
+    private IncrementalGroupingCheck() {
+    }
+
+    public static void main(String[] args) {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int runCount = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 12, 0.4, 4, 3, 11);
+        ArrayList<HashMap<String, Protein>> runs = splitIntoRuns(proteome, runCount, 5);
+        System.out.println(proteome + ", " + runCount + " runs");
+
+        IncrementalGrouper incremental = new IncrementalGrouper();
+        boolean failed = false;
+        for (int run = 0; run < runs.size(); run++) {
+            HashSet<Integer> groupIdsBefore = new HashSet<>(incremental.getProteinGroups().keySet());
+            HashSet<Integer> clusterIdsBefore = new HashSet<>(incremental.getProteinGroupClusters().keySet());
+            long start = System.nanoTime();
+            GroupingChanges changes = incremental.apply(runs.get(run));
+            long deltaNanos = System.nanoTime() - start;
+
+            //Group the same study from scratch, in a grouper whose proteins are its own
+            IncrementalGrouper reference = new IncrementalGrouper();
+            for (int earlier = 0; earlier <= run; earlier++) {
+                reference.apply(runs.get(earlier));
+            }
+            ProteinGrouper grouper = new ProteinGrouper();
+            start = System.nanoTime();
+            ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(reference.getProteins());
+            ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+            long fullNanos = System.nanoTime() - start;
+
+            System.out.printf("run %d: %d proteins in the delta, %s; delta %.1f ms, whole study %.1f ms%n",
+                    run, runs.get(run).size(), changes, deltaNanos / 1e6, fullNanos / 1e6);
+            String expected = GroupingOutput.describeCanonically(groups, clusters, reference.getPeptideDictionary());
+            String actual = GroupingOutput.describeCanonically(incremental.getProteinGroups(),
+                    incremental.getProteinGroupClusters(), incremental.getPeptideDictionary());
+            if (!expected.equals(actual)) {
+                System.out.println("  the incremental grouping differs from grouping the whole study");
+                failed = true;
+            }
+            if (!isReported(groupIdsBefore, incremental.getProteinGroups().keySet(),
+                    changes.getAddedGroupIds(), changes.getRemovedGroupIds())
+                    || !isReported(clusterIdsBefore, incremental.getProteinGroupClusters().keySet(),
+                            changes.getAddedClusterIds(), changes.getRemovedClusterIds())) {
+                System.out.println("  the reported changes are not the groups and clusters that came and went");
+                failed = true;
+            }
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println("Every run groups incrementally as the whole study does");
+        return true;
+    }
+
+    private static boolean isReported(HashSet<Integer> idsBefore, Set<Integer> idsAfter,
+            ArrayList<Integer> added, ArrayList<Integer> removed) {
+        HashSet<Integer> expectedAdded = new HashSet<>(idsAfter);
+        expectedAdded.removeAll(idsBefore);
+        HashSet<Integer> expectedRemoved = new HashSet<>(idsBefore);
+        expectedRemoved.removeAll(idsAfter);
+        return expectedAdded.equals(new HashSet<>(added)) && added.size() == expectedAdded.size()
+                && expectedRemoved.equals(new HashSet<>(removed)) && removed.size() == expectedRemoved.size();
+    }
+
+    /**
+     * Gives each protein-peptide edge to one run, the first run taking about
+     * 90% of them, and builds the proteins of each run as a loader would
+     */
+    private static ArrayList<HashMap<String, Protein>> splitIntoRuns(SyntheticProteome proteome, int runCount, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        ArrayList<PsmStore> stores = new ArrayList<>();
+        ArrayList<PeptideDictionary> dictionaries = new ArrayList<>();
+        ArrayList<HashMap<Integer, Peptide>> peptides = new ArrayList<>();
+        ArrayList<HashMap<String, Protein>> runs = new ArrayList<>();
+        for (int run = 0; run < runCount; run++) {
+            stores.add(new PsmStore());
+            dictionaries.add(new PeptideDictionary());
+            peptides.add(new HashMap<>());
+            runs.add(new LinkedHashMap<>());
+        }
+        for (int p = 0; p < proteome.getProteinCount(); p++) {
+            for (int peptide : proteome.getProteinPeptides(p)) {
+                int run = runCount == 1 || random.nextDouble() < 0.9 ? 0 : 1 + random.nextInt(runCount - 1);
+                PsmStore psms = stores.get(run);
+                Peptide runPeptide = peptides.get(run).computeIfAbsent(peptide, k -> {
+                    int psm = random.nextInt(proteome.getPsmsPerPeptide());
+                    return psms.newPeptide(psms.addPsm(proteome.getPeptideRef(peptide), "SII_" + proteome.getSpectrumId(peptide, psm),
+                            proteome.getSpectrumId(peptide, psm), 1, proteome.getScore(peptide, psm), proteome.isUniqueToAProtein(peptide)));
+                });
+                PeptideDictionary dictionary = dictionaries.get(run);
+                Protein protein = runs.get(run).computeIfAbsent(proteome.getAccession(p), accession -> new Protein(accession, dictionary));
+                protein.addObservedPeptides(runPeptide);
+                if (runPeptide.isUniqueToAProtein()) {
+                    protein.addUniquePeptides(runPeptide);
+                }
+            }
+        }
+        return runs;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Loading throughput of the loaders over files written from a synthetic
+ * proteome: tab separated mzTab (MzTabPsmReader), on one thread and in one
+ * chunk per available processor, the comma separated PSM table (MzTabLoader)
+ * and mzIdentML (MzIdentMLLoader), and a GraphSnapshot of the same proteins.
+ * The bytes counter gives the throughput in bytes per second next to the
+ * operations per second; run with -prof gc for the allocation rate.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import proteomics.proteingrouping.GraphSnapshot;
+import proteomics.proteingrouping.MzIdentMLLoader;
+import proteomics.proteingrouping.MzTabLoader;
+import proteomics.proteingrouping.MzTabPsmReader;
+import proteomics.proteingrouping.Protein;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class LoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Files_ {
+
+        Path directory;
+        File mzTabFile;
+        File psmCsvFile;
+        File mzIdentMLFile;
+        File snapshotFile;
+
+        @Setup(Level.Trial)
+        public void write(ProteomeState state) throws IOException {
+            SyntheticProteome proteome = state.newProteome();
+            directory = Files.createTempDirectory("proteingrouping-bench");
+            mzTabFile = directory.resolve("synthetic.mztab").toFile();
+            psmCsvFile = directory.resolve("synthetic.csv").toFile();
+            mzIdentMLFile = directory.resolve("synthetic.mzid").toFile();
+            MzTabWriter.write(proteome, mzTabFile.toPath());
+            MzTabWriter.writeCsv(proteome, psmCsvFile.toPath());
+            MzIdentMLWriter.write(proteome, mzIdentMLFile.toPath());
+            snapshotFile = directory.resolve("synthetic.pgsnap").toFile();
+            GraphSnapshot.write(new MzTabPsmReader(mzTabFile).loadProteinData(), snapshotFile);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Files.deleteIfExists(mzTabFile.toPath());
+            Files.deleteIfExists(psmCsvFile.toPath());
+            Files.deleteIfExists(mzIdentMLFile.toPath());
+            Files.deleteIfExists(snapshotFile.toPath());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Bytes read, reported per second
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    public HashMap<String, Protein> loadMzTab(Files_ files, Bytes bytes) {
+        HashMap<String, Protein> proteins = new MzTabPsmReader(files.mzTabFile).loadProteinData();
+        bytes.bytes += files.mzTabFile.length();
+        return proteins;
+    }
+
+    @Benchmark
+    public HashMap<String, Protein> loadMzTabInChunks(Files_ files, Bytes bytes) {
+        HashMap<String, Protein> proteins = new MzTabPsmReader(files.mzTabFile)
+                .loadProteinData(Runtime.getRuntime().availableProcessors());
+        bytes.bytes += files.mzTabFile.length();
+        return proteins;
+    }
+
+    @Benchmark
+    public HashMap<String, Protein> loadPsmCsv(Files_ files, Bytes bytes) {
+        HashMap<String, Protein> proteins = new MzTabLoader(files.psmCsvFile).loadProteinData();
+        bytes.bytes += files.psmCsvFile.length();
+        return proteins;
+    }
+
+    @Benchmark
+    public HashMap<String, Protein> loadMzIdentML(Files_ files, Bytes bytes) {
+        HashMap<String, Protein> proteins = new MzIdentMLLoader(files.mzIdentMLFile).loadProteinData();
+        bytes.bytes += files.mzIdentMLFile.length();
+        return proteins;
+    }
+
+    @Benchmark
+    public HashMap<String, Protein> loadSnapshot(Files_ files, Bytes bytes) throws IOException {
+        HashMap<String, Protein> proteins = new GraphSnapshot(files.snapshotFile).loadProteinData();
+        bytes.bytes += files.snapshotFile.length();
+        return proteins;
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that reading an mzTab file in chunks gives the same proteins, the same
+ * peptides and the same peptide ids as reading it on one thread, for every
+ * chunk count up to the one given. Two files are read: one written from a
+ * synthetic proteome, and a small one with tied and missing scores, whose best
+ * matches depend on the order rows are compared in.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.LoadEquivalenceCheck [maxChunks]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import proteomics.proteingrouping.MzTabPsmReader;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+
+public class LoadEquivalenceCheck {
+
+    private LoadEquivalenceCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int maxChunks = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        Path directory = Files.createTempDirectory("proteingrouping-check");
+        Path synthetic = directory.resolve("synthetic.mztab");
+        Path ties = directory.resolve("ties.mztab");
+        try {
+            MzTabWriter.write(new SyntheticProteome(2000, 12, 0.4, 4, 3, 7), synthetic);
+            writeTies(ties);
+            int failures = check(synthetic, maxChunks) + check(ties, maxChunks);
+            if (failures > 0) {
+                System.out.println(failures + " chunk counts differ from the sequential load");
+                return false;
+            }
+            System.out.println("Chunked loads match the sequential load for 1 to " + maxChunks + " chunks");
+            return true;
+        } finally {
+            Files.deleteIfExists(synthetic);
+            Files.deleteIfExists(ties);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static int check(Path path, int maxChunks) {
+        MzTabPsmReader sequentialReader = new MzTabPsmReader(path.toFile());
+        String expected = describe(sequentialReader.loadProteinData(), sequentialReader.getPeptideDictionary());
+        int failures = 0;
+        for (int chunks = 2; chunks <= maxChunks; chunks++) {
+            MzTabPsmReader reader = new MzTabPsmReader(path.toFile());
+            String actual = describe(reader.loadProteinData(chunks), reader.getPeptideDictionary());
+            if (!expected.equals(actual)) {
+                System.out.println(path.getFileName() + ": " + chunks + " chunks differ");
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return every peptide of the dictionary in id order with the attributes
+     * of its kept match, then every protein in accession order with the ids of
+     * its observed and unique peptides
+     */
+    private static String describe(HashMap<String, Protein> proteins, PeptideDictionary dictionary) {
+        StringBuilder description = new StringBuilder();
+        for (int id = 0; id < dictionary.size(); id++) {
+            Peptide peptide = dictionary.getPeptide(id);
+            description.append(id).append(' ').append(peptide.getPeptideRef())
+                    .append(' ').append(peptide.getPsmId())
+                    .append(' ').append(peptide.getSpectrumId())
+                    .append(' ').append(peptide.getRank())
+                    .append(' ').append(peptide.getScore())
+                    .append(' ').append(peptide.isUniqueToAProtein()).append('\n');
+        }
+        ArrayList<String> accessions = new ArrayList<>(proteins.keySet());
+        accessions.sort(null);
+        for (String accession : accessions) {
+            Protein protein = proteins.get(accession);
+            description.append(accession)
+                    .append(' ').append(protein.getObservedPeptideSet())
+                    .append(' ').append(protein.getUniquePeptideSet()).append('\n');
+        }
+        return description.toString();
+    }
+
+    /**
+     * Writes sequences matched many times with tied and missing ("null", "NaN")
+     * scores, spread over the file so that the chunks cut through them
+     */
+    private static void writeTies(Path path) throws IOException {
+        float[] scores = {10f, Float.NaN, 10f, 12.5f, Float.NaN, 12.5f, 3f, Float.NaN, 12.5f};
+        StringBuilder file = new StringBuilder();
+        file.append("MTD\tmzTab-version\t1.0.0\r\n");
+        file.append("PSH\tsequence\tPSM_ID\taccession\tunique\tsearch_engine_score[1]\tspectra_ref\r\n");
+        for (int row = 0; row < 400; row++) {
+            String sequence = "PEPTIDE" + (row * 7 % 13) + "K";
+            //Scores rise through the file, so later chunks replace the best matches of earlier ones
+            float value = scores[row % scores.length] + row / 60;
+            String score = Float.isNaN(value) ? (row % 2 == 0 ? "null" : "NaN") : String.valueOf(value);
+            for (String accession : new String[]{"P" + (row % 5), "Q" + (row % 3)}) {
+                file.append("PSM\t").append(sequence).append('\t').append(row)
+                        .append('\t').append(accession).append("\t0")
+                        .append('\t').append(score).append("\tms_run[1]:index=").append(row).append("\r\n");
+            }
+        }
+        Files.write(path, file.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+}
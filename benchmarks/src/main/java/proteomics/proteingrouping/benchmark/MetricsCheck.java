@@ -0,0 +1,278 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks the PipelineMetrics of a load, group and cluster run. A synthetic
+ * proteome with decoy families is written as mzIdentML, tab separated mzTab
+ * and the comma separated PSM table, and each file is loaded with a score
+ * cutoff and grouped and clustered with recording on: every phase must have
+ * run once, and the counters must match what the proteome and the returned
+ * groups, clusters and session say (the PSMs read and dropped, the
+ * proteins, groups, singletons, subset proteins, conflicted peptides and
+ * clusters). The snapshot of the mzIdentML run is printed as JSON. With
+ * recording off, a Flight Recorder recording must still get a JFR event for
+ * each phase, and both the snapshot of that run and that of the metrics
+ * recording the earlier runs must stay empty, as the metrics of one session
+ * do not see another's. Last, a larger proteome is grouped with recording
+ * off and on in turn, printing the times taken.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.MetricsCheck [proteinCount] [largeProteinCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.MetricsSnapshot;
+import proteomics.proteingrouping.MzIdentMLLoader;
+import proteomics.proteingrouping.MzTabLoader;
+import proteomics.proteingrouping.MzTabPsmReader;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.PipelineMetrics;
+import proteomics.proteingrouping.PipelineMetrics.Counter;
+import proteomics.proteingrouping.PipelineMetrics.Phase;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGroupCluster;
+import proteomics.proteingrouping.ProteinGrouper;
+import proteomics.proteingrouping.PsmFilter;
+
+public class MetricsCheck {
+
+    private static final float MIN_SCORE = 30f;
+
+    private MetricsCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int largeProteinCount = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, 0.6, 4, 3, 47, 0.3);
+        System.out.println("# Proteome: " + proteome);
+
+        Path directory = Files.createTempDirectory("proteingrouping-metrics");
+        File mzIdentML = directory.resolve("synthetic.mzid").toFile();
+        File mzTab = directory.resolve("synthetic.mztab").toFile();
+        File csv = directory.resolve("synthetic.csv").toFile();
+        File jfr = directory.resolve("phases.jfr").toFile();
+        MzIdentMLWriter.write(proteome, mzIdentML.toPath());
+        MzTabWriter.write(proteome, mzTab.toPath());
+        MzTabWriter.writeCsv(proteome, csv.toPath());
+        PsmFilter filter = new PsmFilter();
+        filter.setMinScore(MIN_SCORE);
+        filter.setDecoyPrefix(SyntheticProteome.DECOY_PREFIX);
+
+        boolean failed = false;
+        try {
+            PipelineMetrics metrics = new PipelineMetrics();
+            metrics.setEnabled(true);
+            MzIdentMLLoader identMLLoader = new MzIdentMLLoader(mzIdentML, filter);
+            identMLLoader.setMetrics(metrics);
+            failed |= !check("mzIdentML", metrics, identMLLoader::loadProteinData, identMLLoader::getPeptideDictionary,
+                    psmCount(proteome, false), droppedCount(proteome, false), Phase.PARSE_MZIDENTML, Phase.RESOLVE_PROTEINS);
+            System.out.println(metrics.snapshot().toJson());
+
+            MzTabPsmReader reader = new MzTabPsmReader(mzTab, filter);
+            reader.setMetrics(metrics);
+            failed |= !check("mzTab in 4 chunks", metrics, () -> reader.loadProteinData(4), reader::getPeptideDictionary,
+                    psmCount(proteome, true), droppedCount(proteome, true), Phase.PARSE_MZTAB);
+
+            MzTabLoader csvLoader = new MzTabLoader(csv, filter);
+            csvLoader.setMetrics(metrics);
+            failed |= !check("PSM table", metrics, csvLoader::loadProteinData, csvLoader::getPeptideDictionary,
+                    psmCount(proteome, false), droppedCount(proteome, false), Phase.PARSE_MZTAB);
+
+            //With recording off the phases are still JFR events, and nothing is recorded here,
+            //nor in the metrics of the runs above
+            metrics.reset();
+            PipelineMetrics off = new PipelineMetrics();
+            off.setEnabled(false);
+            try (Recording recording = new Recording()) {
+                recording.enable("proteomics.proteingrouping.Phase");
+                recording.start();
+                MzIdentMLLoader loader = new MzIdentMLLoader(mzIdentML, filter);
+                loader.setMetrics(off);
+                ProteinGrouper grouper = new ProteinGrouper(new GroupingSession(off));
+                grouper.clusterProteinGroups(grouper.groupProteinsInParallel(loader.loadProteinData()));
+                recording.stop();
+                recording.dump(jfr.toPath());
+            }
+            TreeMap<String, Integer> events = new TreeMap<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(jfr.toPath())) {
+                events.merge(event.getString("phase"), 1, Integer::sum);
+            }
+            System.out.println("JFR events with recording off: " + events);
+            for (Phase phase : new Phase[]{Phase.PARSE_MZIDENTML, Phase.RESOLVE_PROTEINS, Phase.GROUP,
+                Phase.UPDATE_PEPTIDE_STATUS, Phase.CLUSTER}) {
+                if (!Integer.valueOf(1).equals(events.get(phase.name()))) {
+                    System.out.println("  no single JFR event for " + phase);
+                    failed = true;
+                }
+            }
+            if (off.snapshot().getCount(Phase.GROUP) != 0 || off.snapshot().getCounter(Counter.PROTEINS) != 0) {
+                System.out.println("  metrics were recorded while off");
+                failed = true;
+            }
+            if (metrics.snapshot().getCount(Phase.GROUP) != 0 || metrics.snapshot().getCounter(Counter.PROTEINS) != 0) {
+                System.out.println("  metrics were recorded in those of another session");
+                failed = true;
+            }
+        } finally {
+            Files.deleteIfExists(mzIdentML.toPath());
+            Files.deleteIfExists(mzTab.toPath());
+            Files.deleteIfExists(csv.toPath());
+            Files.deleteIfExists(jfr.toPath());
+            Files.deleteIfExists(directory);
+        }
+
+        SyntheticProteome large = new SyntheticProteome(largeProteinCount, 8, 0.8, 4, 1, 47);
+        System.out.println("# Proteome: " + large);
+        HashMap<String, Protein> proteinHashMap = large.toProteinMap();
+        for (int round = 0; round < 3; round++) {
+            long[] nanos = new long[2];
+            for (int on = 0; on < 2; on++) {
+                PipelineMetrics metrics = new PipelineMetrics();
+                metrics.setEnabled(on == 1);
+                long start = System.nanoTime();
+                new ProteinGrouper(new GroupingSession(metrics)).groupProteinsInParallel(proteinHashMap);
+                nanos[on] = System.nanoTime() - start;
+            }
+            System.out.printf("groupProteinsInParallel %.1f ms with recording off, %.1f ms with it on%n",
+                    nanos[0] / 1e6, nanos[1] / 1e6);
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println("The metrics count what the pipeline went through");
+        return true;
+    }
+
+    /**
+     * Loads, groups and clusters into the reset metrics, which the loader
+     * records in, and checks that the loading phases and the later ones ran
+     * once each, and that the counters are those of the file and of the
+     * groups, clusters and session
+     *
+     * @param metrics the metrics of the loader, recording
+     * @param loadPhases the phases the loader goes through
+     * @return whether the check passed
+     */
+    private static boolean check(String label, PipelineMetrics metrics, Supplier<HashMap<String, Protein>> load, Supplier<PeptideDictionary> dictionary,
+            long psmCount, long droppedCount, Phase... loadPhases) {
+        metrics.reset();
+        HashMap<String, Protein> proteinHashMap = load.get();
+        ProteinGrouper grouper = new ProteinGrouper(new GroupingSession(metrics));
+        ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteinsInParallel(proteinHashMap);
+        ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+        MetricsSnapshot snapshot = metrics.snapshot();
+
+        GroupingSession session = grouper.getSession();
+        long[] expected = new long[Counter.values().length];
+        expected[Counter.PROTEINS.ordinal()] = proteinHashMap.size();
+        expected[Counter.GROUPS.ordinal()] = groups.size();
+        expected[Counter.SINGLETON_GROUPS.ordinal()] = groups.values().stream().filter(ProteinGroup::isSingletonGroup).count();
+        expected[Counter.SUBSET_PROTEINS.ordinal()] = proteinHashMap.values().stream().filter(session::isSubsetProtein).count();
+        expected[Counter.CLUSTERS.ordinal()] = clusters.size();
+        PeptideDictionary peptides = dictionary.get();
+        for (int id = 0; id < peptides.size(); id++) {
+            Peptide peptide = peptides.getPeptide(id);
+            if (peptide != null && session.getPeptideStatus(peptide) == Peptide.Status.CONFLICTED) {
+                expected[Counter.CONFLICTED_PEPTIDES.ordinal()]++;
+            }
+        }
+        expected[Counter.PSMS_PARSED.ordinal()] = psmCount;
+        expected[Counter.PSMS_FILTERED.ordinal()] = droppedCount;
+        ArrayList<String> differences = new ArrayList<>();
+        for (Counter counter : Counter.values()) {
+            if (counter == Counter.CANDIDATE_COMPARISONS) {
+                if (snapshot.getCounter(counter) <= 0) {
+                    differences.add(counter + " " + snapshot.getCounter(counter));
+                }
+            } else if (snapshot.getCounter(counter) != expected[counter.ordinal()]) {
+                differences.add(counter + " " + snapshot.getCounter(counter) + " instead of " + expected[counter.ordinal()]);
+            }
+        }
+        System.out.printf("%s: %d PSMs read, %d dropped, %d groups; %s %.1f ms, %s %.1f ms (%d MB allocated), %s %.1f ms%n",
+                label, snapshot.getCounter(Counter.PSMS_PARSED), snapshot.getCounter(Counter.PSMS_FILTERED),
+                snapshot.getCounter(Counter.GROUPS), loadPhases[0], snapshot.getWallNanos(loadPhases[0]) / 1e6,
+                Phase.GROUP, snapshot.getWallNanos(Phase.GROUP) / 1e6, snapshot.getAllocatedBytes(Phase.GROUP) >> 20,
+                Phase.CLUSTER, snapshot.getWallNanos(Phase.CLUSTER) / 1e6);
+        boolean passed = differences.isEmpty();
+        if (!passed) {
+            System.out.println("  counters differ: " + differences);
+        }
+        ArrayList<Phase> phases = new ArrayList<>(Arrays.asList(loadPhases));
+        phases.addAll(Arrays.asList(Phase.GROUP, Phase.UPDATE_PEPTIDE_STATUS, Phase.CLUSTER));
+        for (Phase phase : phases) {
+            if (snapshot.getCount(phase) != 1 || snapshot.getWallNanos(phase) <= 0 || snapshot.getCpuNanos(phase) < 0) {
+                System.out.println("  " + label + ": " + phase + " ran " + snapshot.getCount(phase) + " times in "
+                        + snapshot.getWallNanos(phase) + " ns");
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * @param perAccession whether the file has a row per match and protein, as the mzTab file does
+     * @return the number of matches (or rows) in the files of the proteome
+     */
+    private static long psmCount(SyntheticProteome proteome, boolean perAccession) {
+        long count = 0;
+        for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+            int proteins = proteome.getPeptideProteins(peptide).length;
+            if (proteins > 0) {
+                count += (long) proteome.getPsmsPerPeptide() * (perAccession ? proteins : 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param perAccession whether the file has a row per match and protein, as the mzTab file does
+     * @return the number of matches (or rows) below the score cutoff or of decoy proteins
+     */
+    private static long droppedCount(SyntheticProteome proteome, boolean perAccession) {
+        long count = 0;
+        for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+            int proteins = proteome.getPeptideProteins(peptide).length;
+            if (proteins == 0) {
+                continue;
+            }
+            for (int psm = 0; psm < proteome.getPsmsPerPeptide(); psm++) {
+                if (proteome.getScore(peptide, psm) < MIN_SCORE || proteome.isDecoyPeptide(peptide)) {
+                    count += perAccession ? proteins : 1;
+                }
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Writes a SyntheticProteome as an mzIdentML file of the shape MzIdentMLLoader
+ * reads: a SpectrumIdentificationResult per spectrum carrying the Mascot score
+ * of its match, and a ProteinAmbiguityGroup per protein family whose protein
+ * detection hypotheses refer to the peptide evidences of each protein. The
+ * sequence collection is written too, so the file has a realistic size.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MzIdentMLWriter {
+
+    private MzIdentMLWriter() {
+    }
+
+    public static void write(SyntheticProteome proteome, Path path) throws IOException {
+        int familySize = proteome.getFamilySize();
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<MzIdentML id=\"synthetic\" version=\"1.1.0\" xmlns=\"http://psidev.info/psi/pi/mzIdentML/1.1\">\n");
+
+            writer.write("<SequenceCollection>\n");
+            for (int p = 0; p < proteome.getProteinCount(); p++) {
+                writer.write("<DBSequence id=\"" + proteome.getAccession(p) + "\" accession=\"" + proteome.getAccession(p)
+                        + "\" searchDatabase_ref=\"SDB_1\"/>\n");
+            }
+            for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+                if (proteome.getPeptideProteins(peptide).length == 0) {
+                    continue;
+                }
+                writer.write("<Peptide id=\"" + proteome.getPeptideRef(peptide) + "\"><PeptideSequence>"
+                        + proteome.getSequence(peptide) + "</PeptideSequence></Peptide>\n");
+            }
+            for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+                for (int protein : proteome.getPeptideProteins(peptide)) {
+                    writer.write("<PeptideEvidence id=\"" + evidenceRef(proteome, peptide, protein) + "\" peptide_ref=\""
+                            + proteome.getPeptideRef(peptide) + "\" dBSequence_ref=\"" + proteome.getAccession(protein) + "\"/>\n");
+                }
+            }
+            writer.write("</SequenceCollection>\n");
+
+            writer.write("<DataCollection>\n<AnalysisData>\n");
+            writer.write("<SpectrumIdentificationList id=\"SIL_1\">\n");
+            for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+                int[] proteins = proteome.getPeptideProteins(peptide);
+                if (proteins.length == 0) {
+                    continue;
+                }
+                for (int psm = 0; psm < proteome.getPsmsPerPeptide(); psm++) {
+                    int spectrumId = proteome.getSpectrumId(peptide, psm);
+                    writer.write("<SpectrumIdentificationResult id=\"SIR_" + spectrumId + "\" spectrumID=\"" + spectrumId
+                            + "\" spectraData_ref=\"SD_1\">\n");
+                    writer.write("<SpectrumIdentificationItem id=\"SII_" + spectrumId + "\" rank=\"1\" passThreshold=\"true\" peptide_ref=\""
+                            + proteome.getPeptideRef(peptide) + "\" chargeState=\"2\" experimentalMassToCharge=\"0\">\n");
+                    for (int protein : proteins) {
+                        writer.write("<PeptideEvidenceRef peptideEvidence_ref=\"" + evidenceRef(proteome, peptide, protein) + "\"/>\n");
+                    }
+                    writer.write("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1001171\" name=\"Mascot:score\" value=\""
+                            + proteome.getScore(peptide, psm) + "\"/>\n");
+                    if (proteins.length > 1) {
+                        writer.write("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1001175\" name=\"peptide shared in multiple proteins\"/>\n");
+                    }
+                    writer.write("</SpectrumIdentificationItem>\n</SpectrumIdentificationResult>\n");
+                }
+            }
+            writer.write("</SpectrumIdentificationList>\n");
+
+            writer.write("<ProteinDetectionList id=\"PDL_1\">\n");
+            for (int familyStart = 0; familyStart < proteome.getProteinCount(); familyStart += familySize) {
+                writer.write("<ProteinAmbiguityGroup id=\"PAG_" + familyStart + "\">\n");
+                for (int p = familyStart; p < Math.min(proteome.getProteinCount(), familyStart + familySize); p++) {
+                    writer.write("<ProteinDetectionHypothesis id=\"PDH_" + p + "\" dBSequence_ref=\"" + proteome.getAccession(p)
+                            + "\" passThreshold=\"true\">\n");
+                    for (int peptide : proteome.getProteinPeptides(p)) {
+                        writer.write("<PeptideHypothesis peptideEvidence_ref=\"" + evidenceRef(proteome, peptide, p) + "\">"
+                                + "<SpectrumIdentificationItemRef spectrumIdentificationItem_ref=\"SII_"
+                                + proteome.getSpectrumId(peptide, proteome.getBestPsm(peptide)) + "\"/></PeptideHypothesis>\n");
+                    }
+                    writer.write("</ProteinDetectionHypothesis>\n");
+                }
+                writer.write("</ProteinAmbiguityGroup>\n");
+            }
+            writer.write("</ProteinDetectionList>\n");
+            writer.write("</AnalysisData>\n</DataCollection>\n</MzIdentML>\n");
+        }
+    }
+
+    /**
+     * The loader takes the peptide ref to be everything before the first "-"
+     * that follows an "_" in the evidence ref
+     */
+    private static String evidenceRef(SyntheticProteome proteome, int peptide, int protein) {
+        return proteome.getPeptideRef(peptide) + "-" + proteome.getAccession(protein);
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Writes a SyntheticProteome either as a tab separated mzTab file, with one PSM
+ * line per peptide spectrum match and protein, or as the comma separated PSM
+ * table also read by MzTabLoader, with one row per peptide spectrum match and
+ * the accessions of all proteins of the peptide joined by ";".
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MzTabWriter {
+
+    private MzTabWriter() {
+    }
+
+    public static void write(SyntheticProteome proteome, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("MTD\tmzTab-version\t1.0.0\n");
+            writer.write("MTD\tmzTab-mode\tSummary\n");
+            writer.write("MTD\tmzTab-type\tIdentification\n");
+            writer.write("MTD\tms_run[1]-location\tfile://synthetic.mgf\n");
+            writer.write("MTD\tpsm_search_engine_score[1]\t[MS, MS:1001171, Mascot:score, ]\n");
+            writer.write("\n");
+            writer.write("PSH\tsequence\tPSM_ID\taccession\tunique\tdatabase\tdatabase_version\tsearch_engine"
+                    + "\tsearch_engine_score[1]\tmodifications\tretention_time\tcharge\texp_mass_to_charge"
+                    + "\tcalc_mass_to_charge\tspectra_ref\tpre\tpost\tstart\tend\topt_global_rank\n");
+            StringBuilder row = new StringBuilder(256);
+            for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+                int[] proteins = proteome.getPeptideProteins(peptide);
+                String sequence = proteome.getSequence(peptide);
+                for (int psm = 0; psm < proteome.getPsmsPerPeptide(); psm++) {
+                    int spectrumId = proteome.getSpectrumId(peptide, psm);
+                    for (int protein : proteins) {
+                        row.setLength(0);
+                        row.append("PSM\t").append(sequence)
+                                .append('\t').append(spectrumId)
+                                .append('\t').append(proteome.getAccession(protein))
+                                .append('\t').append(proteins.length == 1 ? '1' : '0')
+                                .append("\tsynthetic\tnull\t[MS, MS:1001207, Mascot, ]")
+                                .append('\t').append(proteome.getScore(peptide, psm))
+                                .append("\tnull\tnull\t2\tnull\tnull")
+                                .append("\tms_run[1]:index=").append(spectrumId)
+                                .append("\tnull\tnull\tnull\tnull\t1\n");
+                        writer.append(row);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void writeCsv(SyntheticProteome proteome, Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            //The header names are upper case, as the loader expects
+            writer.write("PROTEINS,PSM_ID,RANK,SEQUENCE,SPECTRUM ID,X\\!TANDEM:HYPERSCORE");
+            writer.newLine();
+            StringBuilder row = new StringBuilder(256);
+            for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+                int[] proteins = proteome.getPeptideProteins(peptide);
+                if (proteins.length == 0) {
+                    continue;
+                }
+                String sequence = proteome.getSequence(peptide);
+                for (int psm = 0; psm < proteome.getPsmsPerPeptide(); psm++) {
+                    int spectrumId = proteome.getSpectrumId(peptide, psm);
+                    row.setLength(0);
+                    for (int p = 0; p < proteins.length; p++) {
+                        if (p > 0) {
+                            row.append(';');
+                        }
+                        row.append(proteome.getAccession(proteins[p]));
+                    }
+                    row.append(",PSM_").append(spectrumId)
+                            .append(",1,").append(sequence)
+                            .append(',').append(spectrumId)
+                            .append(',').append(proteome.getScore(peptide, psm));
+                    writer.append(row);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+}
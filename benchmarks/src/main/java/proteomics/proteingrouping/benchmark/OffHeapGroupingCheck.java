@@ -0,0 +1,178 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that grouping a synthetic proteome held in an OffHeapIncidence, in
+ * direct memory and in mapped files, forms the groups ProteinGrouper forms
+ * from the Protein objects taken in the same order: the same ids, members,
+ * domains, unique peptides, subset proteins and peptide statuses. A larger
+ * proteome is then written straight into an incidence, without Protein
+ * objects, and grouped, printing the time taken and the memory used on and
+ * off the heap; run it with a small -Xmx to see the heap stay small.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.OffHeapGroupingCheck [proteinCount] [largeProteinCount] [directory]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.OffHeapGrouping;
+import proteomics.proteingrouping.OffHeapIncidence;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class OffHeapGroupingCheck {
+
+    private OffHeapGroupingCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int largeProteinCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        File directory = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("offheap-grouping").toFile();
+        boolean failed = false;
+        for (double sharedPeptideRatio : new double[]{0.4, 0.8, 1.0}) {
+            SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, sharedPeptideRatio, 4, 2, 41);
+            System.out.println("# Proteome: " + proteome);
+            HashMap<String, Protein> proteinHashMap = proteome.toProteinMap();
+            ArrayList<Protein> proteins = new ArrayList<>(proteinHashMap.values());
+            ProteinGrouper grouper = new ProteinGrouper(new GroupingSession());
+            long start = System.nanoTime();
+            ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(proteinHashMap);
+            System.out.printf("%d groups from the proteins in %.1f ms%n", groups.size(), (System.nanoTime() - start) / 1e6);
+
+            for (boolean mapped : new boolean[]{false, true}) {
+                try (OffHeapIncidence incidence = mapped ? mappedIncidence(proteins, directory) : OffHeapIncidence.of(proteins)) {
+                    start = System.nanoTime();
+                    try (OffHeapGrouping grouping = new ProteinGrouper(new GroupingSession()).groupProteins(incidence)) {
+                        System.out.printf("%d groups from the %s incidence in %.1f ms%n", grouping.getGroupCount(),
+                                mapped ? "mapped" : "direct", (System.nanoTime() - start) / 1e6);
+                        failed |= !check(proteins, groups, grouper.getSession(), grouping);
+                    }
+                }
+            }
+        }
+
+        SyntheticProteome proteome = new SyntheticProteome(largeProteinCount, 8, 0.8, 4, 2, 41);
+        System.out.println("# Proteome: " + proteome);
+        try (OffHeapIncidence incidence = new OffHeapIncidence(proteome.getPeptideCount(), directory)) {
+            long start = System.nanoTime();
+            for (int p = 0; p < proteome.getProteinCount(); p++) {
+                int[] peptides = proteome.getProteinPeptides(p);
+                int[] unique = Arrays.stream(peptides).filter(proteome::isUniqueToAProtein).toArray();
+                incidence.addProtein(proteome.getAccession(p), peptides, unique);
+            }
+            incidence.finish();
+            System.out.printf("Mapped incidence of %d edges written in %.1f ms, %d MB%n", incidence.getEdgeCount(),
+                    (System.nanoTime() - start) / 1e6, incidence.getOffHeapBytes() >> 20);
+            proteome = null;
+            long heapBefore = usedHeap();
+            start = System.nanoTime();
+            try (OffHeapGrouping grouping = new ProteinGrouper(new GroupingSession()).groupProteins(incidence)) {
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%d groups in %.1f ms: %d MB off the heap, %d MB more on it (heap max %d MB)%n",
+                        grouping.getGroupCount(), nanos / 1e6, grouping.getOffHeapBytes() >> 20,
+                        (usedHeap() - heapBefore) >> 20, Runtime.getRuntime().maxMemory() >> 20);
+            }
+        }
+        if (args.length <= 2) {
+            Files.deleteIfExists(directory.toPath());
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println("The off-heap grouping forms the groups of the ProteinGrouper");
+        return true;
+    }
+
+    private static OffHeapIncidence mappedIncidence(ArrayList<Protein> proteins, File directory) throws IOException {
+        int peptideCount = proteins.get(0).getObservedPeptideSet().getDictionary().size();
+        OffHeapIncidence incidence = new OffHeapIncidence(peptideCount, directory);
+        for (Protein protein : proteins) {
+            incidence.addProtein(protein.getDbSequenceRef(), protein.getObservedPeptideSet().toArray(),
+                    protein.getUniquePeptideSet().toArray());
+        }
+        incidence.finish();
+        return incidence;
+    }
+
+    private static boolean check(ArrayList<Protein> proteins, ConcurrentHashMap<Integer, ProteinGroup> groups,
+            GroupingSession session, OffHeapGrouping grouping) {
+        if (grouping.getGroupCount() != groups.size()) {
+            System.out.println("  " + grouping.getGroupCount() + " groups instead of " + groups.size());
+            return false;
+        }
+        for (int g = 0; g < grouping.getGroupCount(); g++) {
+            ProteinGroup group = groups.get(grouping.getGroupId(g));
+            if (group == null) {
+                System.out.println("  no group " + grouping.getGroupId(g));
+                return false;
+            }
+            ArrayList<String> members = new ArrayList<>();
+            for (Protein protein : group.getProteins()) {
+                members.add(protein.getDbSequenceRef());
+            }
+            ArrayList<String> offHeapMembers = new ArrayList<>();
+            for (int protein : grouping.getProteins(g)) {
+                offHeapMembers.add(grouping.getIncidence().getAccession(protein));
+            }
+            if (!members.equals(offHeapMembers)
+                    || !Arrays.equals(group.getGroupPeptideDomainSet().toArray(), grouping.getGroupPeptideDomain(g))
+                    || !Arrays.equals(group.getUniquePeptideSet().toArray(), grouping.getUniquePeptides(g))
+                    || group.isSingletonGroup() != grouping.isSingletonGroup(g)) {
+                System.out.println("  group " + group.getGroupId() + " differs: " + members + " against " + offHeapMembers);
+                return false;
+            }
+        }
+        for (int p = 0; p < proteins.size(); p++) {
+            Protein protein = proteins.get(p);
+            if (session.getProteinGroup(protein).getGroupId() != grouping.getGroupId(grouping.getGroup(p))
+                    || session.isSubsetProtein(protein) != grouping.isSubsetProtein(p)) {
+                System.out.println("  protein " + protein.getDbSequenceRef() + " differs");
+                return false;
+            }
+        }
+        PeptideDictionary dictionary = proteins.get(0).getObservedPeptideSet().getDictionary();
+        for (int id = 0; id < dictionary.size(); id++) {
+            Peptide.Status status = grouping.getPeptideStatus(id);
+            if (session.getPeptideStatus(dictionary.getPeptide(id)) != (status == null ? Peptide.Status.RESOLVED : status)) {
+                System.out.println("  peptide " + id + " is " + status);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
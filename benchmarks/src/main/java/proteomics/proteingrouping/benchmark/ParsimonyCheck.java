@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that the ParsimonySolver keeps the groups the plain greedy set
+ * cover keeps, rescanning every group for the one covering the most
+ * uncovered peptides at each pick (the lowest group id on a tie), and that
+ * the kept groups explain every peptide. The plain greedy cover is quadratic,
+ * so it is run on a smaller proteome; the solver is then timed on a larger
+ * one as well.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.ParsimonyCheck [proteinCount] [largeProteinCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import proteomics.proteingrouping.ParsimonySolver;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class ParsimonyCheck {
+
+    private ParsimonyCheck() {
+    }
+
+    public static void main(String[] args) {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int largeProteinCount = args.length > 1 ? Integer.parseInt(args[1]) : 250000;
+        boolean failed = false;
+        for (double sharedPeptideRatio : new double[]{0.4, 0.8}) {
+            SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, sharedPeptideRatio, 4, 2, 37);
+            System.out.println("# Proteome: " + proteome);
+            ConcurrentHashMap<Integer, ProteinGroup> groups = new ProteinGrouper().groupProteins(proteome.toProteinMap());
+
+            long start = System.nanoTime();
+            ConcurrentHashMap<Integer, ProteinGroup> kept = new ParsimonySolver().solve(groups);
+            long solveNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            TreeSet<Integer> expected = greedyCover(groups);
+            long greedyNanos = System.nanoTime() - start;
+            System.out.printf("%d groups: %d kept, solver %.1f ms, plain greedy cover %.1f ms%n",
+                    groups.size(), kept.size(), solveNanos / 1e6, greedyNanos / 1e6);
+            if (!expected.equals(new TreeSet<>(kept.keySet()))) {
+                System.out.println("  the solver keeps " + kept.size() + " groups, the plain greedy cover " + expected.size());
+                failed = true;
+            }
+            failed |= !check(groups, kept);
+        }
+
+        SyntheticProteome proteome = new SyntheticProteome(largeProteinCount, 8, 0.8, 4, 2, 37);
+        System.out.println("# Proteome: " + proteome);
+        ConcurrentHashMap<Integer, ProteinGroup> groups = new ProteinGrouper().groupProteinsInParallel(proteome.toProteinMap());
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            ConcurrentHashMap<Integer, ProteinGroup> kept = new ParsimonySolver().solve(groups);
+            System.out.printf("%d groups: %d kept, solver %.1f ms%n", groups.size(), kept.size(), (System.nanoTime() - start) / 1e6);
+            failed |= !check(groups, kept);
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println("The solver keeps the greedy cover of the peptides");
+        return true;
+    }
+
+    /**
+     * @return whether the kept groups are those not discarded, and cover every peptide
+     */
+    private static boolean check(ConcurrentHashMap<Integer, ProteinGroup> groups, ConcurrentHashMap<Integer, ProteinGroup> kept) {
+        BitSet all = new BitSet();
+        BitSet covered = new BitSet();
+        for (ProteinGroup group : groups.values()) {
+            group.getGroupPeptideDomainSet().forEach(all::set);
+            if (group.isDiscarded() == kept.containsKey(group.getGroupId())) {
+                System.out.println("  group " + group.getGroupId() + " is kept and discarded, or neither");
+                return false;
+            }
+            if (!group.isDiscarded()) {
+                group.getGroupPeptideDomainSet().forEach(covered::set);
+            }
+        }
+        if (!all.equals(covered)) {
+            System.out.println("  " + (all.cardinality() - covered.cardinality()) + " peptides are not explained");
+            return false;
+        }
+        return true;
+    }
+
+    private static TreeSet<Integer> greedyCover(ConcurrentHashMap<Integer, ProteinGroup> groupMap) {
+        ArrayList<ProteinGroup> groups = new ArrayList<>(groupMap.values());
+        groups.sort(Comparator.comparingInt(ProteinGroup::getGroupId));
+        BitSet covered = new BitSet();
+        TreeSet<Integer> kept = new TreeSet<>();
+        while (true) {
+            ProteinGroup best = null;
+            int bestCount = 0;
+            for (ProteinGroup group : groups) {
+                int[] count = new int[1];
+                group.getGroupPeptideDomainSet().forEach(id -> count[0] += covered.get(id) ? 0 : 1);
+                if (count[0] > bestCount) {
+                    best = group;
+                    bestCount = count[0];
+                }
+            }
+            if (best == null) {
+                return kept;
+            }
+            kept.add(best.getGroupId());
+            best.getGroupPeptideDomainSet().forEach(covered::set);
+        }
+    }
+
+}
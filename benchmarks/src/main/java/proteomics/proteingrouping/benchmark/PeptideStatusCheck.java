@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks, on randomly shaped synthetic proteomes, that the statuses
+ * groupProteins sets from the group counts of each peptide are those of
+ * updateAllPeptideStatus, which compares every group with every other. The
+ * reference is run twice: in a session of its own, where every peptide of
+ * the dictionary must have the same status, and in the session of a grouping
+ * of the whole proteome over the groups of half of it, where every peptide
+ * of those groups must have the status the half alone gives it, so that a
+ * status left CONFLICTED by the first grouping is seen to be reset. Each
+ * trial prints its parameters when it fails, so that it can be run again
+ * alone with the same seed.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.PeptideStatusCheck [trials] [seed]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import proteomics.proteingrouping.GroupingSession;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.PeptideSet;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class PeptideStatusCheck {
+
+    private PeptideStatusCheck() {
+    }
+
+    public static void main(String[] args) {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        int failures = 0;
+        long peptidesCompared = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            SplittableRandom random = new SplittableRandom(seed * 1000003 + trial);
+            int proteinCount = 2 + random.nextInt(1500);
+            int peptidesPerProtein = 1 + random.nextInt(12);
+            double sharedPeptideRatio = random.nextDouble();
+            int familySize = 1 + random.nextInt(8);
+            SyntheticProteome proteome = new SyntheticProteome(proteinCount, peptidesPerProtein, sharedPeptideRatio,
+                    familySize, 1, random.nextLong());
+            HashMap<String, Protein> proteins = proteome.toProteinMap();
+            PeptideDictionary dictionary = proteins.values().iterator().next().getObservedPeptideSet().getDictionary();
+            HashMap<String, Protein> half = new HashMap<>();
+            for (int p = 0; p < proteinCount; p += 2) {
+                half.put(proteome.getAccession(p), proteins.get(proteome.getAccession(p)));
+            }
+
+            //Statuses from the group counts, and from the pairwise reference in a fresh session
+            GroupingSession counted = new GroupingSession();
+            ConcurrentHashMap<Integer, ProteinGroup> groups = new ProteinGrouper(counted).groupProteins(proteins);
+            GroupingSession reference = new GroupingSession();
+            new ProteinGrouper(reference).updateAllPeptideStatus(groups);
+            String difference = null;
+            for (int id = 0; id < dictionary.size() && difference == null; id++) {
+                peptidesCompared++;
+                difference = compare(counted, reference, dictionary, id);
+            }
+
+            //The reference over the groups of half the proteome, in the session that grouped all of it
+            GroupingSession countedHalf = new GroupingSession();
+            ConcurrentHashMap<Integer, ProteinGroup> halfGroups = new ProteinGrouper(countedHalf).groupProteins(half);
+            new ProteinGrouper(counted).updateAllPeptideStatus(halfGroups);
+            for (ProteinGroup group : halfGroups.values()) {
+                PeptideSet domain = group.getGroupPeptideDomainSet();
+                for (int i = 0; i < domain.size() && difference == null; i++) {
+                    peptidesCompared++;
+                    difference = compare(countedHalf, counted, dictionary, domain.get(i));
+                }
+            }
+
+            if (difference != null) {
+                failures++;
+                System.out.println("trial " + trial + " differs (" + proteome + "): " + difference);
+            }
+        }
+        System.out.printf("%d trials, %d peptide statuses compared: %d trials differ%n", trials, peptidesCompared, failures);
+        if (failures > 0) {
+            return false;
+        }
+        System.out.println("The statuses from the group counts are those of comparing every pair of groups");
+        return true;
+    }
+
+    /**
+     * @return a description of the difference, or null if both sessions
+     * give the peptide the same status
+     */
+    private static String compare(GroupingSession expected, GroupingSession actual, PeptideDictionary dictionary, int peptideId) {
+        if (expected.getPeptideStatus(dictionary.getPeptide(peptideId)) == actual.getPeptideStatus(dictionary.getPeptide(peptideId))) {
+            return null;
+        }
+        return "peptide " + dictionary.getPeptide(peptideId) + " is " + expected.getPeptideStatus(dictionary.getPeptide(peptideId))
+                + " from the group counts but " + actual.getPeptideStatus(dictionary.getPeptide(peptideId)) + " from the reference";
+    }
+
+}
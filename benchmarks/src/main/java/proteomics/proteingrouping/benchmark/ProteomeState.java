@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The shape of the synthetic proteome shared by the benchmarks. JMH fills the
+ * parameters, so every benchmark can be run over a grid of shapes from the
+ * command line (e.g. -p proteinCount=10000,100000 -p sharedPeptideRatio=0.9).
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class ProteomeState {
+
+    @Param({"10000"})
+    public int proteinCount;
+
+    @Param({"8"})
+    public int peptidesPerProtein;
+
+    @Param({"0.8"})
+    public double sharedPeptideRatio;
+
+    @Param({"4"})
+    public int familySize;
+
+    @Param({"2"})
+    public int psmsPerPeptide;
+
+    @Param({"42"})
+    public long seed;
+
+    public SyntheticProteome newProteome() {
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, peptidesPerProtein, sharedPeptideRatio,
+                familySize, psmsPerPeptide, seed);
+        System.out.println("# Proteome: " + proteome);
+        return proteome;
+    }
+
+}
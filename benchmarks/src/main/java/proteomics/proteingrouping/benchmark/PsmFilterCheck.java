@@ -0,0 +1,217 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that the PsmFilter gives the loaders the proteins and peptides of
+ * filtering afterwards: a synthetic proteome with decoy families is written
+ * as tab separated mzTab, as the comma separated PSM table and as mzIdentML,
+ * each file is loaded through a few filters (mzTab also in chunks), and the
+ * peptides of each protein must be those whose best match passes the filter,
+ * worked out from the proteome itself with q-values computed match by match.
+ * The time taken to load each file with and without the filters is printed,
+ * with the number of proteins and protein-peptide edges loaded.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.PsmFilterCheck [proteinCount] [decoyRatio]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import proteomics.proteingrouping.MzIdentMLLoader;
+import proteomics.proteingrouping.MzTabLoader;
+import proteomics.proteingrouping.MzTabPsmReader;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.PsmFilter;
+
+public class PsmFilterCheck {
+
+    private PsmFilterCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        double decoyRatio = args.length > 1 ? Double.parseDouble(args[1]) : 0.3;
+        SyntheticProteome proteome = new SyntheticProteome(proteinCount, 8, 0.6, 4, 3, 29, decoyRatio);
+        System.out.println("# Proteome: " + proteome);
+
+        Path directory = Files.createTempDirectory("proteingrouping-filter");
+        File mzTab = directory.resolve("synthetic.mztab").toFile();
+        File csv = directory.resolve("synthetic.csv").toFile();
+        File mzIdentML = directory.resolve("synthetic.mzid").toFile();
+        MzTabWriter.write(proteome, mzTab.toPath());
+        MzTabWriter.writeCsv(proteome, csv.toPath());
+        MzIdentMLWriter.write(proteome, mzIdentML.toPath());
+
+        ArrayList<PsmFilter> filters = new ArrayList<>();
+        filters.add(filter(Integer.MAX_VALUE, Float.NEGATIVE_INFINITY, SyntheticProteome.DECOY_PREFIX, 1.0));
+        filters.add(filter(1, 40f, SyntheticProteome.DECOY_PREFIX, 1.0));
+        filters.add(filter(Integer.MAX_VALUE, Float.NEGATIVE_INFINITY, SyntheticProteome.DECOY_PREFIX, 0.01));
+        filters.add(filter(1, 30f, SyntheticProteome.DECOY_PREFIX, 0.05));
+
+        boolean failed = false;
+        try {
+            time("mzTab, no filter", () -> new MzTabPsmReader(mzTab).loadProteinData());
+            time("PSM table, no filter", () -> new MzTabLoader(csv).loadProteinData());
+            time("mzIdentML, no filter", () -> new MzIdentMLLoader(mzIdentML).loadProteinData());
+            for (PsmFilter filter : filters) {
+                System.out.println("# Filter: " + filter);
+                TreeMap<String, TreeSet<String>> bySequence = expected(proteome, filter, false);
+                TreeMap<String, TreeSet<String>> byRef = expected(proteome, filter, true);
+                failed |= !check("mzTab", bySequence, () -> new MzTabPsmReader(mzTab, filter).loadProteinData());
+                failed |= !check("mzTab in 4 chunks", bySequence, () -> new MzTabPsmReader(mzTab, filter).loadProteinData(4));
+                failed |= !check("PSM table", bySequence, () -> new MzTabLoader(csv, filter).loadProteinData());
+                failed |= !check("mzIdentML", byRef, () -> new MzIdentMLLoader(mzIdentML, filter).loadProteinData());
+            }
+        } finally {
+            Files.deleteIfExists(mzTab.toPath());
+            Files.deleteIfExists(csv.toPath());
+            Files.deleteIfExists(mzIdentML.toPath());
+            Files.deleteIfExists(directory);
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println("Every loader keeps exactly the matches the filters pass");
+        return true;
+    }
+
+    private static PsmFilter filter(int maxRank, float minScore, String decoyPrefix, double maxQValue) {
+        PsmFilter filter = new PsmFilter();
+        filter.setMaxRank(maxRank);
+        filter.setMinScore(minScore);
+        filter.setDecoyPrefix(decoyPrefix);
+        filter.setMaxQValue(maxQValue);
+        return filter;
+    }
+
+    private static HashMap<String, Protein> time(String label, Supplier<HashMap<String, Protein>> load) {
+        long start = System.nanoTime();
+        HashMap<String, Protein> proteins = load.get();
+        long edges = 0;
+        for (Protein protein : proteins.values()) {
+            edges += protein.getObservedPeptideSet().size();
+        }
+        System.out.printf("%s: %d proteins, %d protein-peptide edges in %.1f ms%n",
+                label, proteins.size(), edges, (System.nanoTime() - start) / 1e6);
+        return proteins;
+    }
+
+    private static boolean check(String label, TreeMap<String, TreeSet<String>> expected,
+            Supplier<HashMap<String, Protein>> load) {
+        TreeMap<String, TreeSet<String>> actual = new TreeMap<>();
+        for (Map.Entry<String, Protein> entry : time(label, load).entrySet()) {
+            TreeSet<String> peptides = new TreeSet<>();
+            for (Peptide peptide : entry.getValue().getObservedPeptides()) {
+                peptides.add(peptide.getPeptideRef());
+            }
+            actual.put(entry.getKey(), peptides);
+        }
+        if (!actual.equals(expected)) {
+            System.out.println(label + ": " + actual.size() + " proteins loaded, " + expected.size() + " expected");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Filters the matches of the proteome one by one: the q-value of each
+     * target match is the lowest rate of decoys to targets at or above any
+     * score at or below its own
+     *
+     * @return the peptides (refs, or sequences) of each target protein which keeps any
+     */
+    private static TreeMap<String, TreeSet<String>> expected(SyntheticProteome proteome, PsmFilter filter, boolean byRef) {
+        ArrayList<float[]> matches = new ArrayList<>();  //score, and 1 for a decoy match
+        for (int peptide = 0; peptide < proteome.getPeptideCount(); peptide++) {
+            if (proteome.getPeptideProteins(peptide).length == 0) {
+                continue;
+            }
+            for (int psm = 0; psm < proteome.getPsmsPerPeptide(); psm++) {
+                float score = proteome.getScore(peptide, psm);
+                if (filter.accepts(1, score)) {
+                    matches.add(new float[]{score, proteome.isDecoyPeptide(peptide) ? 1 : 0});
+                }
+            }
+        }
+        float threshold = Float.NEGATIVE_INFINITY;
+        if (filter.isFilteringByQValue()) {
+            matches.sort((a, b) -> Float.compare(b[0], a[0]));
+            double[] rates = new double[matches.size()];
+            int targets = 0;
+            int decoys = 0;
+            for (int i = 0; i < matches.size(); i++) {
+                if (matches.get(i)[1] == 1) {
+                    decoys++;
+                } else {
+                    targets++;
+                }
+                rates[i] = targets == 0 ? Double.POSITIVE_INFINITY : (double) decoys / targets;
+            }
+            //The rate at a score counts every match of that score, so it is the rate at the last of them
+            for (int i = matches.size() - 2; i >= 0; i--) {
+                if (matches.get(i)[0] == matches.get(i + 1)[0]) {
+                    rates[i] = rates[i + 1];
+                }
+            }
+            double qValue = Double.POSITIVE_INFINITY;
+            threshold = Float.NaN;
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                qValue = Math.min(qValue, rates[i]);
+                if (matches.get(i)[1] == 0 && qValue <= filter.getMaxQValue()) {
+                    threshold = Float.isNaN(threshold) ? matches.get(i)[0] : Math.min(threshold, matches.get(i)[0]);
+                }
+            }
+        }
+
+        TreeMap<String, TreeSet<String>> expected = new TreeMap<>();
+        for (int p = 0; p < proteome.getProteinCount(); p++) {
+            if (proteome.isDecoy(p)) {
+                continue;
+            }
+            TreeSet<String> peptides = new TreeSet<>();
+            for (int peptide : proteome.getProteinPeptides(p)) {
+                float best = Float.NEGATIVE_INFINITY;
+                boolean any = false;
+                for (int psm = 0; psm < proteome.getPsmsPerPeptide(); psm++) {
+                    float score = proteome.getScore(peptide, psm);
+                    if (filter.accepts(1, score)) {
+                        best = Math.max(best, score);
+                        any = true;
+                    }
+                }
+                if (any && best >= threshold) {
+                    peptides.add(byRef ? proteome.getPeptideRef(peptide) : proteome.getSequence(peptide));
+                }
+            }
+            if (!peptides.isEmpty()) {
+                expected.put(proteome.getAccession(p), peptides);
+            }
+        }
+        return expected;
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Reports the heap taken per kept peptide spectrum match by two layouts, each
+ * interned in a PeptideDictionary: a Peptide object per match, as peptides
+ * made with the public constructors are; and the rows of one shared
+ * PsmStore, interned without a Peptide per row, as the loaders keep them.
+ * Both layouts hold the same freshly made sequence and PSM id Strings.
+ *
+ * The retained heap is read from the memory bean after forcing collections,
+ * so run it alone with a fixed heap, e.g.
+ *
+ *     java -Xms4g -Xmx4g -cp benchmarks/target/benchmarks.jar
+ *         proteomics.proteingrouping.benchmark.PsmFootprint [psmCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.function.IntFunction;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.PsmStore;
+
+public class PsmFootprint {
+
+    private PsmFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int psmCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        SyntheticProteome sequences = new SyntheticProteome(0, 0, 0, 1, 1, 0);
+
+        report("Peptide per match", psmCount, count -> {
+            PeptideDictionary dictionary = new PeptideDictionary();
+            for (int i = 0; i < count; i++) {
+                dictionary.intern(new Peptide(sequences.getSequence(i), "SII_" + i, i, 1, (i % 1000) / 10f, i % 3 == 0));
+            }
+            return dictionary;
+        });
+        report("PsmStore rows", psmCount, count -> {
+            PsmStore store = new PsmStore();
+            PeptideDictionary dictionary = new PeptideDictionary();
+            for (int i = 0; i < count; i++) {
+                dictionary.internRow(store,
+                        store.addPsm(sequences.getSequence(i), "SII_" + i, i, 1, (i % 1000) / 10f, i % 3 == 0));
+            }
+            return dictionary;
+        });
+    }
+
+    private static void report(String layout, int psmCount, IntFunction<Object> build) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = retainedHeap(memory);
+        Object psms = build.apply(psmCount);
+        long after = retainedHeap(memory);
+        System.out.printf("%-24s %8.1f bytes per PSM%n", layout, (double) (after - before) / psmCount);
+        Reference.reachabilityFence(psms);  //Keeps the matches reachable until they are measured
+    }
+
+    private static long retainedHeap(MemoryMXBean memory) {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+}
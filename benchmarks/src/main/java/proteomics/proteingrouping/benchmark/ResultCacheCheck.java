@@ -0,0 +1,247 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that a ResultCache gives back the results it was given: a directory
+ * of synthetic mzIdentML files is grouped through MzIdentMLBatchLoader.group
+ * with a cache, and the result of a hit must describe and export exactly as
+ * the result computed on the miss. Copies of the files under other names hit
+ * the same entry, an edited file or another filter misses, a damaged entry
+ * is recomputed, and a small cache evicts down to its bound. Last, a few
+ * processes group the files through different filters in one small cache at
+ * the same time, each checking every result it gets against its own (up to
+ * the ids, which parallel grouping gives in no set order).
+ *
+ * The time taken by the miss (loading, grouping and writing the entry) and
+ * by the hit is printed.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.ResultCacheCheck [fileCount] [proteinsPerFile] [processCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import proteomics.proteingrouping.GroupingResult;
+import proteomics.proteingrouping.GroupingResultWriter;
+import proteomics.proteingrouping.MzIdentMLBatchLoader;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.PsmFilter;
+import proteomics.proteingrouping.ResultCache;
+
+public class ResultCacheCheck {
+
+    private static final int WORKER_ROUNDS = 12;
+
+    private ResultCacheCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("worker")) {
+            System.exit(work(new File(args[1]), new File(args[2]), Long.parseLong(args[3]), Integer.parseInt(args[4])));
+        }
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException, InterruptedException {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int proteinsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int processCount = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        Path directory = Files.createTempDirectory("proteingrouping-cache");
+        Path inputs = Files.createDirectory(directory.resolve("inputs"));
+        Path copies = Files.createDirectory(directory.resolve("copies"));
+        File cacheDirectory = directory.resolve("cache").toFile();
+        boolean failed = false;
+        try {
+            for (int f = 0; f < fileCount; f++) {
+                Path file = inputs.resolve(String.format("run%03d.mzid", f));
+                MzIdentMLWriter.write(new SyntheticProteome(proteinsPerFile, 12, 0.4, 4, 3, 100 + f, 0.2), file);
+                Files.copy(file, copies.resolve(String.format("copy%03d.mzid", f)));
+            }
+            List<File> files = MzIdentMLBatchLoader.listIdentMLFiles(inputs.toFile());
+            List<PsmFilter> filters = filters();
+            ResultCache cache = new ResultCache(cacheDirectory, Long.MAX_VALUE);
+
+            long start = System.nanoTime();
+            GroupingResult computed = new MzIdentMLBatchLoader(files, 1, 2, filters.get(0)).group(cache);
+            long missNanos = System.nanoTime() - start;
+            String expected = describe(computed);
+            long entryBytes = cache.size();
+            start = System.nanoTime();
+            GroupingResult read = new MzIdentMLBatchLoader(files, 1, 2, filters.get(0)).group(cache);
+            long hitNanos = System.nanoTime() - start;
+            String hit = describe(read);
+            System.out.printf("%d files, %d bytes: miss %.1f ms, hit %.1f ms, entry %d bytes%n", files.size(),
+                    files.stream().mapToLong(File::length).sum(), missNanos / 1e6, hitNanos / 1e6, entryBytes);
+            failed |= !check("a hit", expected, hit);
+
+            List<File> copyFiles = MzIdentMLBatchLoader.listIdentMLFiles(copies.toFile());
+            failed |= !check("copies of the files hit the same entry",
+                    cache.key(files, "same"), cache.key(copyFiles, "same"));
+            failed |= !check("another filter misses", "true",
+                    String.valueOf(!expected.equals(describe(new MzIdentMLBatchLoader(files, 1, 2, filters.get(1)).group(cache)))));
+
+            Files.write(copyFiles.get(0).toPath(), "\n".getBytes(), StandardOpenOption.APPEND);
+            failed |= !check("an edited file misses", "true",
+                    String.valueOf(!cache.key(files, "same").equals(cache.key(copyFiles, "same"))));
+
+            String key = cache.key(files, "MzIdentMLBatchLoader " + filters.get(0)
+                    + " groupProteinsInParallel clusterProteinGroups");
+            try (RandomAccessFile entry = new RandomAccessFile(new File(cacheDirectory, key + ".pgresult"), "rw")) {
+                entry.setLength(entry.length() / 2);
+            }
+            System.out.println("Reading a damaged entry (an error is logged):");
+            //Grouped again, so the ids may be handed out in another order
+            failed |= !check("a damaged entry is recomputed", describeCanonically(computed),
+                    describeCanonically(new MzIdentMLBatchLoader(files, 1, 2, filters.get(0)).group(cache)));
+
+            ResultCache small = new ResultCache(cacheDirectory, entryBytes * 3 / 2);
+            for (PsmFilter filter : filters) {
+                new MzIdentMLBatchLoader(files, 1, 2, filter).group(small);
+            }
+            failed |= !check("a small cache evicts down to its bound", "true", String.valueOf(small.size() <= entryBytes * 3 / 2));
+            failed |= !check("the last entry added is kept", "true", String.valueOf(small.get(cache.key(files,
+                    "MzIdentMLBatchLoader " + filters.get(filters.size() - 1)
+                    + " groupProteinsInParallel clusterProteinGroups")) != null));
+
+            ArrayList<Process> workers = new ArrayList<>();
+            for (int w = 0; w < processCount; w++) {
+                workers.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"), ResultCacheCheck.class.getName(), "worker",
+                        cacheDirectory.getPath(), inputs.toString(), String.valueOf(entryBytes * 2), String.valueOf(w))
+                        .inheritIO().start());
+            }
+            start = System.nanoTime();
+            for (Process worker : workers) {
+                failed |= !check("a worker process", "0", String.valueOf(worker.waitFor()));
+            }
+            System.out.printf("%d processes, %d rounds each: %.1f ms%n", processCount, WORKER_ROUNDS, (System.nanoTime() - start) / 1e6);
+            failed |= !check("the shared cache stays within its bound", "true",
+                    String.valueOf(new ResultCache(cacheDirectory, entryBytes * 2).size() <= entryBytes * 2));
+            try (Stream<Path> left = Files.list(cacheDirectory.toPath())) {
+                failed |= !check("no temporary file is left", "0",
+                        String.valueOf(left.filter(path -> path.toString().endsWith(".tmp")).count()));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        if (failed) {
+            return false;
+        }
+        System.out.println("Every result read from the cache is the result it was given");
+        return true;
+    }
+
+    /**
+     * Groups the files through each filter in turn, through the cache, and
+     * checks each result against the result of grouping them without it
+     *
+     * @return the exit status, 0 if every result matches
+     */
+    private static int work(File cacheDirectory, File inputs, long maxBytes, int worker) throws IOException {
+        ResultCache cache = new ResultCache(cacheDirectory, maxBytes);
+        List<File> files = MzIdentMLBatchLoader.listIdentMLFiles(inputs);
+        List<PsmFilter> filters = filters();
+        ArrayList<String> expected = new ArrayList<>();
+        Path own = Files.createTempDirectory("proteingrouping-worker");
+        try {
+            for (PsmFilter filter : filters) {
+                //A cache of its own, with room for nothing, just computes
+                expected.add(describeCanonically(new MzIdentMLBatchLoader(files, 1, 2, filter).group(new ResultCache(own.toFile(), 0))));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.list(own)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(own);
+        }
+        for (int round = 0; round < WORKER_ROUNDS; round++) {
+            int f = (round + worker) % filters.size();
+            String actual = describeCanonically(new MzIdentMLBatchLoader(files, 1, 2, filters.get(f)).group(cache));
+            if (!actual.equals(expected.get(f))) {
+                System.out.println("worker " + worker + ": round " + round + " got another result");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private static List<PsmFilter> filters() {
+        ArrayList<PsmFilter> filters = new ArrayList<>();
+        filters.add(new PsmFilter());
+        PsmFilter qValue = new PsmFilter();
+        qValue.setDecoyPrefix(SyntheticProteome.DECOY_PREFIX);
+        qValue.setMaxQValue(0.01);
+        filters.add(qValue);
+        PsmFilter score = new PsmFilter();
+        score.setDecoyPrefix(SyntheticProteome.DECOY_PREFIX);
+        score.setMinScore(40f);
+        filters.add(score);
+        return filters;
+    }
+
+    /**
+     * @return the groups, clusters and peptide statuses of the result with
+     * their ids, and its TSV export, which holds the subset proteins too
+     */
+    private static String describe(GroupingResult result) throws IOException {
+        File tsv = Files.createTempFile("proteingrouping-cache", ".tsv").toFile();
+        try {
+            GroupingResultWriter.write(result.getProteinGroups(), tsv, GroupingResultWriter.Format.TSV, result.getSession());
+            return GroupingOutput.describe(result.getProteinGroups(), result.getProteinGroupClusters(),
+                    result.getPeptideDictionary(), result.getSession()) + new String(Files.readAllBytes(tsv.toPath()));
+        } finally {
+            Files.deleteIfExists(tsv.toPath());
+        }
+    }
+
+    /**
+     * @return the groups, clusters and peptide statuses of the result, and its
+     * subset proteins, in an order that does not depend on the ids the
+     * parallel grouping gave
+     */
+    private static String describeCanonically(GroupingResult result) {
+        TreeSet<String> subsetProteins = new TreeSet<>();
+        for (Protein protein : result.getProteins().values()) {
+            if (result.getSession().isSubsetProtein(protein)) {
+                subsetProteins.add(protein.getDbSequenceRef());
+            }
+        }
+        return GroupingOutput.describeCanonically(result.getProteinGroups(), result.getProteinGroupClusters(),
+                result.getPeptideDictionary(), result.getSession()) + "subset " + subsetProteins + "\n";
+    }
+
+    private static boolean check(String label, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            System.out.println(label + ": failed");
+            return false;
+        }
+        return true;
+    }
+
+}
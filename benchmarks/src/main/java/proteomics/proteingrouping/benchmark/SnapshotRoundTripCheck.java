@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that proteins loaded from a GraphSnapshot group and cluster exactly
+ * as the proteins the snapshot was written from, and reports how long parsing
+ * the mzTab file and loading the snapshot take. Then checks that loading a
+ * copy of the snapshot cut short, or with a count of the header overwritten,
+ * throws an IOException rather than another exception or an out of memory
+ * error.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar
+ *     proteomics.proteingrouping.benchmark.SnapshotRoundTripCheck [proteinCount]
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import proteomics.proteingrouping.GraphSnapshot;
+import proteomics.proteingrouping.MzTabPsmReader;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.ProteinGroup;
+import proteomics.proteingrouping.ProteinGrouper;
+
+public class SnapshotRoundTripCheck {
+
+    private SnapshotRoundTripCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (!passes(args)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the check with the arguments of main
+     *
+     * @param args
+     * @return whether the check passed
+     */
+    static boolean passes(String... args) throws IOException {
+        int proteinCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Path directory = Files.createTempDirectory("proteingrouping-check");
+        File mzTab = directory.resolve("synthetic.mztab").toFile();
+        File snapshot = directory.resolve("synthetic.pgsnap").toFile();
+        try {
+            MzTabWriter.write(new SyntheticProteome(proteinCount, 12, 0.4, 4, 3, 11), mzTab.toPath());
+
+            long start = System.nanoTime();
+            MzTabPsmReader reader = new MzTabPsmReader(mzTab);
+            HashMap<String, Protein> parsed = reader.loadProteinData();
+            long parseNanos = System.nanoTime() - start;
+            GraphSnapshot.write(parsed, snapshot);
+            String expected = group(parsed, reader.getPeptideDictionary());
+
+            start = System.nanoTime();
+            GraphSnapshot loader = new GraphSnapshot(snapshot);
+            HashMap<String, Protein> loaded = loader.loadProteinData();
+            long loadNanos = System.nanoTime() - start;
+            String actual = group(loaded, loader.getPeptideDictionary());
+
+            System.out.printf("parse %d bytes: %.1f ms, load %d byte snapshot: %.1f ms%n",
+                    mzTab.length(), parseNanos / 1e6, snapshot.length(), loadNanos / 1e6);
+            if (!expected.equals(actual)) {
+                System.out.println("The snapshot groups differently from the parsed file");
+                return false;
+            }
+            System.out.println("The snapshot groups exactly as the parsed file");
+            return damagedSnapshotsThrowIOException(snapshot);
+        } finally {
+            Files.deleteIfExists(mzTab.toPath());
+            Files.deleteIfExists(snapshot.toPath());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static boolean damagedSnapshotsThrowIOException(File snapshot) throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        File damaged = new File(snapshot.getPath() + ".damaged");
+        int failures = 0;
+        int copies = 0;
+        try {
+            for (int length : new int[]{0, 3, 27, 28, bytes.length / 4, bytes.length / 2, bytes.length - 1}) {
+                Files.write(damaged.toPath(), Arrays.copyOf(bytes, length));
+                copies++;
+                failures += throwsIOException(damaged, "cut to " + length + " bytes") ? 0 : 1;
+            }
+            //The counts of the header are the ints after the magic and the version
+            for (int field = 2; field < 7; field++) {
+                for (int count : new int[]{-1, Integer.MAX_VALUE, 1 << 20}) {
+                    ByteBuffer copy = ByteBuffer.wrap(bytes.clone());
+                    copy.putInt(4 * field, count);
+                    Files.write(damaged.toPath(), copy.array());
+                    copies++;
+                    failures += throwsIOException(damaged, "header int " + field + " set to " + count) ? 0 : 1;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(damaged.toPath());
+        }
+        System.out.printf("%d damaged copies of the snapshot: %d did not throw an IOException%n", copies, failures);
+        return failures == 0;
+    }
+
+    private static boolean throwsIOException(File damaged, String damage) {
+        try {
+            int proteinCount = new GraphSnapshot(damaged).loadProteinData().size();
+            System.out.println("The snapshot " + damage + " loaded " + proteinCount + " proteins");
+        } catch (IOException ex) {
+            return true;
+        } catch (RuntimeException | OutOfMemoryError ex) {
+            System.out.println("The snapshot " + damage + " threw " + ex);
+        }
+        return false;
+    }
+
+    private static String group(HashMap<String, Protein> proteins, PeptideDictionary dictionary) {
+        ProteinGrouper grouper = new ProteinGrouper();
+        ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteins(proteins);
+        return GroupingOutput.describe(groups, grouper.clusterProteinGroups(groups), dictionary);
+    }
+
+}
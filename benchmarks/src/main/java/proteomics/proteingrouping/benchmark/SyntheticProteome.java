@@ -0,0 +1,267 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A deterministic generator of protein-peptide incidence graphs, used to feed
+ * the benchmarks with data of a chosen shape.
+ *
+ * Proteins come in degenerate families of familySize members. Each peptide of
+ * a protein is, with probability sharedPeptideRatio, drawn from a pool shared
+ * by the family, and is otherwise unique to the protein. Proteins with no
+ * unique peptide left go through the subset / superset rules of the grouper,
+ * the others form singleton groups. The same parameters and seed always give
+ * the same graph, sequences, spectra and scores.
+ *
+ * A share of the families (decoyRatio) may be made decoy families, as a
+ * target-decoy search would report them: their accessions start with
+ * DECOY_PREFIX, and their matches score lower on the whole than the matches
+ * of the target families.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import proteomics.proteingrouping.PeptideDictionary;
+import proteomics.proteingrouping.Protein;
+import proteomics.proteingrouping.PsmStore;
+
+public class SyntheticProteome {
+
+    private static final String AMINO_ACIDS = "ACDEFGHILMNPQSTVWY";  //No K or R inside a tryptic peptide
+
+    public static final String DECOY_PREFIX = "DECOY_";
+
+    private final int proteinCount;
+    private final int peptidesPerProtein;
+    private final double sharedPeptideRatio;
+    private final int familySize;
+    private final int psmsPerPeptide;
+    private final long seed;
+
+    private final int[][] proteinPeptides;  //sorted peptide indices of each protein
+    private final int[][] peptideProteins;  //sorted protein indices of each peptide
+    private final long edgeCount;
+    private final boolean[] decoyFamilies;
+
+    public SyntheticProteome(int proteinCount, int peptidesPerProtein, double sharedPeptideRatio,
+            int familySize, int psmsPerPeptide, long seed) {
+        this(proteinCount, peptidesPerProtein, sharedPeptideRatio, familySize, psmsPerPeptide, seed, 0);
+    }
+
+    /**
+     * @param decoyRatio the share of the families which are decoy families
+     */
+    public SyntheticProteome(int proteinCount, int peptidesPerProtein, double sharedPeptideRatio,
+            int familySize, int psmsPerPeptide, long seed, double decoyRatio) {
+        this.proteinCount = proteinCount;
+        this.peptidesPerProtein = peptidesPerProtein;
+        this.sharedPeptideRatio = sharedPeptideRatio;
+        this.familySize = Math.max(1, familySize);
+        this.psmsPerPeptide = Math.max(1, psmsPerPeptide);
+        this.seed = seed;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        proteinPeptides = new int[proteinCount][];
+        int nextPeptide = 0;
+        //Each family pool holds enough peptides for its members to overlap only partly
+        int poolSize = Math.max(1, (int) Math.ceil(peptidesPerProtein * sharedPeptideRatio * 1.5));
+        for (int familyStart = 0; familyStart < proteinCount; familyStart += this.familySize) {
+            int poolStart = nextPeptide;
+            nextPeptide += poolSize;
+            for (int p = familyStart; p < Math.min(proteinCount, familyStart + this.familySize); p++) {
+                int[] peptides = new int[peptidesPerProtein];
+                int count = 0;
+                for (int k = 0; k < peptidesPerProtein; k++) {
+                    if (random.nextDouble() < sharedPeptideRatio) {
+                        peptides[count++] = poolStart + random.nextInt(poolSize);
+                    } else {
+                        peptides[count++] = nextPeptide++;
+                    }
+                }
+                proteinPeptides[p] = distinctSorted(peptides, count);
+            }
+        }
+
+        //Invert the incidence; peptides of a pool nobody drew are left without protein
+        int[] degrees = new int[nextPeptide];
+        long edges = 0;
+        for (int[] peptides : proteinPeptides) {
+            for (int peptide : peptides) {
+                degrees[peptide]++;
+            }
+            edges += peptides.length;
+        }
+        peptideProteins = new int[nextPeptide][];
+        for (int peptide = 0; peptide < nextPeptide; peptide++) {
+            peptideProteins[peptide] = new int[degrees[peptide]];
+            degrees[peptide] = 0;
+        }
+        for (int p = 0; p < proteinCount; p++) {
+            for (int peptide : proteinPeptides[p]) {
+                peptideProteins[peptide][degrees[peptide]++] = p;
+            }
+        }
+        edgeCount = edges;
+
+        //Drawn apart from the graph, so that the same seed gives the same graph with or without decoys
+        decoyFamilies = new boolean[(proteinCount + this.familySize - 1) / this.familySize];
+        for (int family = 0; family < decoyFamilies.length; family++) {
+            decoyFamilies[family] = new SplittableRandom(seed * 131 + family).nextDouble() < decoyRatio;
+        }
+    }
+
+    private static int[] distinctSorted(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    public int getProteinCount() {
+        return this.proteinCount;
+    }
+
+    /**
+     * @return the number of peptide indices handed out, including pool peptides no protein drew
+     */
+    public int getPeptideCount() {
+        return this.peptideProteins.length;
+    }
+
+    /**
+     * @return the number of protein-peptide edges of the graph
+     */
+    public long getEdgeCount() {
+        return this.edgeCount;
+    }
+
+    public int getFamilySize() {
+        return this.familySize;
+    }
+
+    public int getPsmsPerPeptide() {
+        return this.psmsPerPeptide;
+    }
+
+    public int[] getProteinPeptides(int protein) {
+        return this.proteinPeptides[protein];
+    }
+
+    public int[] getPeptideProteins(int peptide) {
+        return this.peptideProteins[peptide];
+    }
+
+    public String getAccession(int protein) {
+        return isDecoy(protein) ? DECOY_PREFIX + "DBSeq_" + protein : "DBSeq_" + protein;
+    }
+
+    public boolean isDecoy(int protein) {
+        return this.decoyFamilies[protein / familySize];
+    }
+
+    /**
+     * @param peptide
+     * @return whether the peptide is only found on decoy proteins (as the
+     * proteins of a peptide are of one family, on any decoy protein)
+     */
+    public boolean isDecoyPeptide(int peptide) {
+        return this.peptideProteins[peptide].length > 0 && isDecoy(this.peptideProteins[peptide][0]);
+    }
+
+    public String getPeptideRef(int peptide) {
+        return "PEP_" + peptide;
+    }
+
+    /**
+     * @param peptide
+     * @return a tryptic looking sequence which is distinct for every peptide index
+     */
+    public String getSequence(int peptide) {
+        StringBuilder sequence = new StringBuilder(12);
+        int value = peptide;
+        for (int i = 0; i < 6 || value > 0; i++) {
+            sequence.append(AMINO_ACIDS.charAt(value % AMINO_ACIDS.length()));
+            value /= AMINO_ACIDS.length();
+        }
+        return sequence.append('K').toString();
+    }
+
+    /**
+     * @param peptide
+     * @param psm which of the psmsPerPeptide spectrum matches of the peptide
+     * @return the spectrum id of the match; every match has its own spectrum
+     */
+    public int getSpectrumId(int peptide, int psm) {
+        return peptide * psmsPerPeptide + psm + 1;
+    }
+
+    public float getScore(int peptide, int psm) {
+        SplittableRandom random = new SplittableRandom(seed * 31 + getSpectrumId(peptide, psm));
+        return (float) Math.round(random.nextDouble(5.0, isDecoyPeptide(peptide) ? 60.0 : 120.0) * 100) / 100;
+    }
+
+    /**
+     * @param peptide
+     * @return the index of the highest scoring match of the peptide, the first one on ties
+     */
+    public int getBestPsm(int peptide) {
+        int best = 0;
+        for (int psm = 1; psm < psmsPerPeptide; psm++) {
+            if (getScore(peptide, psm) > getScore(peptide, best)) {
+                best = psm;
+            }
+        }
+        return best;
+    }
+
+    public boolean isUniqueToAProtein(int peptide) {
+        return this.peptideProteins[peptide].length == 1;
+    }
+
+    /**
+     * Builds the proteins of the graph directly, the way the loaders would,
+     * keeping the highest scoring match of each peptide.
+     *
+     * @return the proteins, keyed by accession
+     */
+    public HashMap<String, Protein> toProteinMap() {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        PsmStore psms = new PsmStore(getPeptideCount());
+        int[] ids = new int[getPeptideCount()];
+        Arrays.fill(ids, -1);
+        HashMap<String, Protein> proteinHashMap = new HashMap<>();
+        for (int p = 0; p < proteinCount; p++) {
+            Protein protein = new Protein(getAccession(p), dictionary);
+            for (int peptide : proteinPeptides[p]) {
+                if (ids[peptide] < 0) {
+                    int psm = getBestPsm(peptide);
+                    ids[peptide] = dictionary.internRow(psms, psms.addPsm(getPeptideRef(peptide), "SII_" + getSpectrumId(peptide, psm),
+                            getSpectrumId(peptide, psm), 1, getScore(peptide, psm), isUniqueToAProtein(peptide)));
+                }
+                protein.getObservedPeptideSet().add(ids[peptide]);
+                if (isUniqueToAProtein(peptide)) {
+                    protein.getUniquePeptideSet().add(ids[peptide]);
+                }
+            }
+            proteinHashMap.put(protein.toString(), protein);
+        }
+        return proteinHashMap;
+    }
+
+    @Override
+    public String toString() {
+        return "proteins=" + proteinCount + ", peptidesPerProtein=" + peptidesPerProtein
+                + ", sharedPeptideRatio=" + sharedPeptideRatio + ", familySize=" + familySize
+                + ", psmsPerPeptide=" + psmsPerPeptide + ", seed=" + seed
+                + " (" + getPeptideCount() + " peptides, " + edgeCount + " edges)";
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs BatchLoadCheck, which checks batch loads on several threads against each other, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class BatchLoadCheckTest {
+
+    @Test
+    void batchLoadsMergeTheSameWay() throws IOException {
+        assertTrue(BatchLoadCheck.passes("3", "300"), "BatchLoadCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs ConcurrentSessionsCheck, which checks concurrent grouping sessions against grouping each dataset alone, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentSessionsCheckTest {
+
+    @Test
+    void concurrentSessionsGroupAsAlone() throws InterruptedException, ExecutionException {
+        assertTrue(ConcurrentSessionsCheck.passes("2000", "2"), "ConcurrentSessionsCheck failed, see its output above");
+    }
+
+}
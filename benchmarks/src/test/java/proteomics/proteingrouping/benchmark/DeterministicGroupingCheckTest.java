@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs DeterministicGroupingCheck, which checks deterministic grouping over shuffled orders and several threads, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class DeterministicGroupingCheckTest {
+
+    @Test
+    void deterministicGroupingIgnoresOrdersAndThreads() throws InterruptedException, ExecutionException {
+        assertTrue(DeterministicGroupingCheck.passes("10", "2", "1", "5000"), "DeterministicGroupingCheck failed, see its output above");
+    }
+
+}
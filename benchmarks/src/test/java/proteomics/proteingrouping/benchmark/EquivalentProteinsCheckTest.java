@@ -0,0 +1,22 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs EquivalentProteinsCheck, which checks grouping with isoforms against grouping without them, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class EquivalentProteinsCheckTest {
+
+    @Test
+    void isoformsJoinTheGroupsOfTheirProteins() {
+        assertTrue(EquivalentProteinsCheck.passes("2000", "2"), "EquivalentProteinsCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs ExternalGroupingCheck, which checks external grouping against groupProteinsInParallel, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class ExternalGroupingCheckTest {
+
+    @Test
+    void externalGroupingMatchesParallelGrouping() throws IOException {
+        assertTrue(ExternalGroupingCheck.passes("5000", "20000", "1"), "ExternalGroupingCheck failed, see its output above");
+    }
+
+}
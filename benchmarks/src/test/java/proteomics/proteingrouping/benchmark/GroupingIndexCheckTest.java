@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs GroupingIndexCheck, which checks grouping index lookups against scans of the groups, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class GroupingIndexCheckTest {
+
+    @Test
+    void indexLookupsMatchScans() throws IOException, InterruptedException {
+        assertTrue(GroupingIndexCheck.passes("5000", "2"), "GroupingIndexCheck failed, see its output above");
+    }
+
+}
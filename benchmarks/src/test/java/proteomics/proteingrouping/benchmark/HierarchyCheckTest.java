@@ -0,0 +1,25 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs HierarchyCheck, which checks paging through a grouping hierarchy against the groups, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import javax.xml.parsers.ParserConfigurationException;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+class HierarchyCheckTest {
+
+    @Test
+    void pagesVisitTheGroupsAndClusters() throws IOException, ParserConfigurationException, SAXException {
+        assertTrue(HierarchyCheck.passes("5000", "50"), "HierarchyCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,22 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs IncrementalGroupingCheck, which checks incremental grouping against grouping the whole study, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalGroupingCheckTest {
+
+    @Test
+    void incrementalRunsGroupAsWholeStudy() {
+        assertTrue(IncrementalGroupingCheck.passes("1000", "3"), "IncrementalGroupingCheck failed, see its output above");
+    }
+
+}
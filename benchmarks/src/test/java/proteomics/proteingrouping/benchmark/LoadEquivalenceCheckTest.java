@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs LoadEquivalenceCheck, which checks chunked mzTab loads against the sequential load, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class LoadEquivalenceCheckTest {
+
+    @Test
+    void chunkedLoadsMatchSequentialLoad() throws IOException {
+        assertTrue(LoadEquivalenceCheck.passes("4"), "LoadEquivalenceCheck failed, see its output above");
+    }
+
+}
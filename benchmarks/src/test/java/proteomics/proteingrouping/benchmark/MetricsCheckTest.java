@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs MetricsCheck, which checks the recorded phases and counters against the run, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class MetricsCheckTest {
+
+    @Test
+    void metricsMatchTheRun() throws IOException {
+        assertTrue(MetricsCheck.passes("2000", "20000"), "MetricsCheck failed, see its output above");
+    }
+
+}
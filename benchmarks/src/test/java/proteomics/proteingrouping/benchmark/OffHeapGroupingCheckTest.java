@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs OffHeapGroupingCheck, which checks off-heap grouping against the ProteinGrouper, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class OffHeapGroupingCheckTest {
+
+    @Test
+    void offHeapGroupingMatchesGrouper() throws IOException {
+        assertTrue(OffHeapGroupingCheck.passes("5000", "20000"), "OffHeapGroupingCheck failed, see its output above");
+    }
+
+}
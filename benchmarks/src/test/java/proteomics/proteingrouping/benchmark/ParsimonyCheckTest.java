@@ -0,0 +1,22 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs ParsimonyCheck, which checks the parsimony solver, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ParsimonyCheckTest {
+
+    @Test
+    void solverExplainsEveryPeptide() {
+        assertTrue(ParsimonyCheck.passes("2000", "20000"), "ParsimonyCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,22 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs PeptideStatusCheck, which checks the statuses from the group counts against the pairwise reference, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PeptideStatusCheckTest {
+
+    @Test
+    void countedStatusesMatchPairwiseReference() {
+        assertTrue(PeptideStatusCheck.passes("30", "1"), "PeptideStatusCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs PsmFilterCheck, which checks filtering as the files load against filtering afterwards, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class PsmFilterCheckTest {
+
+    @Test
+    void filteredLoadsMatchFilteringAfterwards() throws IOException {
+        assertTrue(PsmFilterCheck.passes("2000", "0.3"), "PsmFilterCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs ResultCacheCheck, which checks the result cache, shared by two processes, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class ResultCacheCheckTest {
+
+    @Test
+    void cacheGivesBackWhatItWasGiven() throws IOException, InterruptedException {
+        assertTrue(ResultCacheCheck.passes("2", "300", "2"), "ResultCacheCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Runs SnapshotRoundTripCheck, which checks a snapshot round trip against the parsed file, on a small input
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class SnapshotRoundTripCheckTest {
+
+    @Test
+    void snapshotGroupsAsParsedFile() throws IOException {
+        assertTrue(SnapshotRoundTripCheck.passes("2000"), "SnapshotRoundTripCheck failed, see its output above");
+    }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that the SyntheticProteome the benchmarks and checks are fed with is
+ * the same for the same parameters and seed, and that the proteins it builds
+ * have the peptides of its graph.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import org.junit.jupiter.api.Test;
+import proteomics.proteingrouping.Peptide;
+import proteomics.proteingrouping.Protein;
+
+class SyntheticProteomeTest {
+
+    @Test
+    void sameSeedGivesSameGraph() {
+        SyntheticProteome first = new SyntheticProteome(500, 8, 0.6, 4, 2, 3);
+        SyntheticProteome second = new SyntheticProteome(500, 8, 0.6, 4, 2, 3);
+        assertEquals(first.getPeptideCount(), second.getPeptideCount());
+        for (int p = 0; p < first.getProteinCount(); p++) {
+            assertArrayEquals(first.getProteinPeptides(p), second.getProteinPeptides(p));
+        }
+        for (int peptide = 0; peptide < first.getPeptideCount(); peptide++) {
+            assertEquals(first.getSequence(peptide), second.getSequence(peptide));
+            assertEquals(first.getScore(peptide, first.getBestPsm(peptide)), second.getScore(peptide, second.getBestPsm(peptide)));
+        }
+    }
+
+    @Test
+    void proteinMapHasThePeptidesOfTheGraph() {
+        SyntheticProteome proteome = new SyntheticProteome(500, 8, 0.6, 4, 2, 3);
+        HashMap<String, Protein> proteins = proteome.toProteinMap();
+        assertEquals(proteome.getProteinCount(), proteins.size());
+        long edges = 0;
+        for (int p = 0; p < proteome.getProteinCount(); p++) {
+            Protein protein = proteins.get(proteome.getAccession(p));
+            assertEquals(proteome.getProteinPeptides(p).length, protein.getObservedPeptides().size());
+            for (Peptide peptide : protein.getUniquePeptides()) {
+                assertTrue(peptide.isUniqueToAProtein());
+            }
+            edges += protein.getObservedPeptides().size();
+        }
+        assertEquals(proteome.getEdgeCount(), edges);
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A lock-free union-find (disjoint set) structure over the elements 0..n-1.
+ * Many threads may call union and find at the same time; parents are only
+ * ever changed with compare-and-set, roots are always linked under the
+ * smaller index, and finds halve the paths they walk.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class ConcurrentUnionFind {
+
+    private final AtomicIntegerArray parents;
+
+    ConcurrentUnionFind(int size) {
+        parents = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            parents.set(i, i);
+        }
+    }
+
+    int size() {
+        return parents.length();
+    }
+
+    int find(int element) {
+        int current = element;
+        while (true) {
+            int parent = parents.get(current);
+            if (parent == current) {
+                return current;
+            }
+            int grandParent = parents.get(parent);
+            if (parent != grandParent) {
+                //Path halving; losing this race only means the path stays a little longer
+                parents.compareAndSet(current, parent, grandParent);
+            }
+            current = grandParent;
+        }
+    }
+
+    /**
+     * Puts the two elements in the same set
+     *
+     * @param first
+     * @param second
+     */
+    void union(int first, int second) {
+        while (true) {
+            int firstRoot = find(first);
+            int secondRoot = find(second);
+            if (firstRoot == secondRoot) {
+                return;
+            }
+            int low = Math.min(firstRoot, secondRoot);
+            int high = Math.max(firstRoot, secondRoot);
+            //Only a root may be linked; if high stopped being one in the mean time, try again
+            if (parents.compareAndSet(high, high, low)) {
+                return;
+            }
+        }
+    }
+
+    boolean connected(int first, int second) {
+        while (true) {
+            int firstRoot = find(first);
+            int secondRoot = find(second);
+            if (firstRoot == secondRoot) {
+                return true;
+            }
+            //The sets are only known to be apart if the first root is still a root
+            if (parents.get(firstRoot) == firstRoot) {
+                return false;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Finds the proteins whose observed peptides are exactly those of a protein
+ * met before them (isoforms and duplicated database entries, typically), so
+ * that the ProteinGrouper searches for a group only once per such class of
+ * indistinguishable proteins: the first protein of a class goes through the
+ * subset / superset rules, and the others join whatever group it is in.
+ *
+ * Each protein is given a signature of its peptide ids which does not depend
+ * on the order they are held in (a sum of mixed ids), and proteins are
+ * bucketed by signature; within a bucket, peptide sets are compared in full,
+ * so signatures that collide do not put different proteins together.
+ * Proteins with unique peptides are left out, as each of them forms a
+ * singleton group anyway.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+class EquivalentProteins {
+
+    private final IdentityHashMap<Protein, Protein> representatives;  //only for proteins that are not the first of their class
+
+    /**
+     * @param proteins in the order they are to be grouped
+     */
+    EquivalentProteins(Collection<Protein> proteins) {
+        representatives = new IdentityHashMap<>();
+        HashMap<Long, ArrayList<Protein>> buckets = new HashMap<>();
+        for (Protein protein : proteins) {
+            if (protein.hasUniquePeptides() || protein.getObservedPeptideSet().isEmpty()) {
+                continue;
+            }
+            PeptideSet peptides = protein.getObservedPeptideSet();
+            ArrayList<Protein> bucket = buckets.computeIfAbsent(signature(peptides), k -> new ArrayList<>(1));
+            Protein representative = null;
+            for (Protein candidate : bucket) {
+                if (candidate.getObservedPeptideSet().equals(peptides)) {
+                    representative = candidate;
+                    break;
+                }
+            }
+            if (representative == null) {
+                bucket.add(protein);
+            } else {
+                representatives.put(protein, representative);
+            }
+        }
+    }
+
+    /**
+     * @param peptides
+     * @return the sum of the mixed ids of the peptides, and their count
+     */
+    private static long signature(PeptideSet peptides) {
+        long[] sum = {peptides.size()};
+        peptides.forEach(peptideId -> sum[0] += mix(peptideId));
+        return sum[0];
+    }
+
+    /**
+     * The finaliser of SplitMix64, so that sums of different id sets rarely meet
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param protein
+     * @return the first protein met with the same observed peptides, or null
+     * if the given protein is the first (or has unique peptides)
+     */
+    Protein getRepresentative(Protein protein) {
+        return representatives.get(protein);
+    }
+
+}
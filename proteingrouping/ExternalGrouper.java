@@ -0,0 +1,540 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Groups protein-peptide graphs too large to be held in memory at once, by
+ * the rules of ProteinGrouper, within a budget of memory. Proteins that
+ * share no peptide, directly or through other proteins, cannot affect each
+ * other's groups, so the graph is cut into shards of whole connected
+ * components which are grouped one after the other, or a few at a time,
+ * each shard's groups going to the output before the next shard is read.
+ *
+ * Proteins are added one at a time and spilled to a file of the working
+ * directory as they come, their peptides joined in a union-find over the
+ * peptide ids which is itself kept in a file mapped into memory (4 bytes per
+ * peptide, paged by the operating system). Grouping then reads the spilled
+ * proteins: once to size each component, and once to pack the components
+ * into shards, in the order they are first met, until a shard would pass its
+ * share of the budget. That pass writes each protein to the shard file of its
+ * component, for the first MAX_OPEN_SHARDS shards; the shards after those are
+ * written in further passes, as many at a time, so that however small the
+ * budget and however many the shards, no more files and stream buffers than
+ * that are open at once. Each shard is read back, renumbered to peptide ids of
+ * its own, grouped on an OffHeapIncidence, and turned into ProteinGroups of
+ * new Protein objects, with the peptide ids given.
+ *
+ * The memory held by a shard is estimated from its edges and proteins. With
+ * p shards grouped at a time, shards take at most a p-th of the budget each,
+ * so that the shards in progress fit in the budget together; a component
+ * larger than that makes a shard of its own, so that the memory in use is
+ * bound by the largest component rather than by the whole graph.
+ *
+ * Within a component the proteins are grouped in the order they were added,
+ * so the groups are those groupProteinsInParallel forms from the same
+ * proteins in the same order, with ids taken from the session as each shard
+ * is grouped. Peptide statuses are set in the session when a dictionary is
+ * given; the memberships and subset flags of the new proteins always are.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ExternalGrouper implements Closeable {
+
+    /**
+     * The estimated memory taken per edge, and per protein, by a shard being
+     * grouped: its records, incidence and working arrays, and the Protein and
+     * ProteinGroup objects handed to the output
+     */
+    public static final long EDGE_BYTES = 64;
+    public static final long PROTEIN_BYTES = 320;
+
+    private static final int STREAM_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * The most shard files written at a time, each through a buffer of
+     * STREAM_BUFFER_BYTES
+     */
+    static final int MAX_OPEN_SHARDS = 64;
+
+    private final File directory;
+    private final long memoryBudget;
+    private final int parallelism;
+    private final GroupingSession session;
+
+    private final Path proteinFile;
+    private DataOutputStream proteinOut;
+    private final OffHeapBuffer parents;  //int per peptide: its parent in the union-find, plus one; 0 for a root
+    private int peptideCount;
+    private int proteinCount;
+    private long edgeCount;
+
+    private final ArrayList<Path> shardFiles;
+    private long largestShardBytes;
+    private boolean grouped;
+
+    /**
+     * A grouper whose memberships and peptide statuses are set on the
+     * proteins and peptides, as with ProteinGrouper()
+     *
+     * @param directory the directory to spill to, created if needed
+     * @param memoryBudget the bytes the shards in progress may take together
+     * @param parallelism the number of shards grouped at a time
+     * @throws IOException if the spill files cannot be created
+     */
+    public ExternalGrouper(File directory, long memoryBudget, int parallelism) throws IOException {
+        this(directory, memoryBudget, parallelism, GroupingSession.writingThrough());
+    }
+
+    /**
+     * @param directory the directory to spill to, created if needed
+     * @param memoryBudget the bytes the shards in progress may take together
+     * @param parallelism the number of shards grouped at a time
+     * @param session the session the ids are taken from, and the memberships and statuses kept in
+     * @throws IOException if the spill files cannot be created
+     */
+    public ExternalGrouper(File directory, long memoryBudget, int parallelism, GroupingSession session) throws IOException {
+        if (memoryBudget <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("The memory budget and the parallelism must be positive");
+        }
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+        this.session = session;
+        Files.createDirectories(directory.toPath());
+        proteinFile = Files.createTempFile(directory.toPath(), "proteins-", ".bin");
+        proteinOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(proteinFile), STREAM_BUFFER_BYTES));
+        parents = new OffHeapBuffer(Files.createTempFile(directory.toPath(), "peptide-parents-", ".bin"));
+        shardFiles = new ArrayList<>();
+    }
+
+    public GroupingSession getSession() {
+        return this.session;
+    }
+
+    public int getProteinCount() {
+        return this.proteinCount;
+    }
+
+    public long getEdgeCount() {
+        return this.edgeCount;
+    }
+
+    /**
+     * @return the number of shards, once grouped
+     */
+    public int getShardCount() {
+        return shardFiles.size();
+    }
+
+    /**
+     * @return the estimated memory taken by the largest shard, once grouped
+     */
+    public long getLargestShardBytes() {
+        return this.largestShardBytes;
+    }
+
+    /**
+     * Spills the next protein
+     *
+     * @param accession
+     * @param peptideIds the observed peptides of the protein, sorted and distinct
+     * @param uniquePeptideIds the peptides unique to the protein, sorted and distinct
+     * @throws IOException if the spill file cannot be written
+     */
+    public void addProtein(String accession, int[] peptideIds, int[] uniquePeptideIds) throws IOException {
+        if (grouped) {
+            throw new IllegalStateException("The proteins have been grouped");
+        }
+        ProteinRecord record = new ProteinRecord(accession, peptideIds, uniquePeptideIds);
+        record.write(proteinOut);
+        if (peptideIds.length > 0) {
+            int bound = peptideIds[peptideIds.length - 1] + 1;
+            if (bound > peptideCount) {
+                peptideCount = bound;
+                parents.ensureCapacity(4L * peptideCount);
+            }
+            int root = find(peptideIds[0]);
+            for (int i = 1; i < peptideIds.length; i++) {
+                int other = find(peptideIds[i]);
+                if (other != root) {
+                    //The lower id becomes the root, which keeps the trees shallow enough with path halving
+                    parents.putInt(4L * Math.max(root, other), Math.min(root, other) + 1);
+                    root = Math.min(root, other);
+                }
+            }
+        }
+        proteinCount++;
+        edgeCount += peptideIds.length;
+    }
+
+    /**
+     * Spills the next protein, with the ids of its peptide sets
+     *
+     * @param protein a protein whose peptides are interned in the dictionary
+     * the groups are then made with
+     * @throws IOException if the spill file cannot be written
+     * @throws IllegalArgumentException if the protein was made without a
+     * dictionary (see Protein(String)), and has no peptide ids yet
+     */
+    public void addProtein(Protein protein) throws IOException {
+        if (!protein.hasPeptideDictionary()) {
+            throw new IllegalArgumentException("The peptides of " + protein + " are not interned in a dictionary yet");
+        }
+        addProtein(protein.getDbSequenceRef(), protein.getObservedPeptideSet().toArray(), protein.getUniquePeptideSet().toArray());
+    }
+
+    private int find(int peptideId) {
+        while (true) {
+            int parent = parents.getInt(4L * peptideId) - 1;
+            if (parent < 0) {
+                return peptideId;
+            }
+            int grandparent = parents.getInt(4L * parent) - 1;
+            if (grandparent < 0) {
+                return parent;
+            }
+            parents.putInt(4L * peptideId, grandparent + 1);
+            peptideId = grandparent;
+        }
+    }
+
+    /**
+     * Groups the spilled proteins, shard by shard; can be called once
+     *
+     * @param dictionary the dictionary the peptide ids come from, in which
+     * the peptide sets of the groups are made and whose statuses are set in
+     * the session; may be null, for ids of no dictionary, setting no status
+     * @param output takes each group formed; called from the grouping threads,
+     * one at a time, with the groups of one shard after the other
+     * @throws IOException if the spill files cannot be read or written
+     */
+    public void groupProteins(PeptideDictionary dictionary, Consumer<ProteinGroup> output) throws IOException {
+        if (grouped) {
+            throw new IllegalStateException("The proteins have been grouped");
+        }
+        grouped = true;
+        proteinOut.close();
+        proteinOut = null;
+        partition();
+        if (dictionary != null) {
+            session.prepareStatuses(dictionary);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "external-grouper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            ArrayList<Future<?>> shards = new ArrayList<>();
+            for (Path shardFile : shardFiles) {
+                shards.add(workers.submit(() -> {
+                    groupShard(shardFile, dictionary, output);
+                    return null;
+                }));
+            }
+            for (Future<?> shard : shards) {
+                shard.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while grouping the shards", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes each spilled protein to the shard file of its component
+     */
+    private void partition() throws IOException {
+        OffHeapBuffer componentBytes = new OffHeapBuffer(Files.createTempFile(directory.toPath(), "component-bytes-", ".bin"));
+        OffHeapBuffer componentShards = new OffHeapBuffer(Files.createTempFile(directory.toPath(), "component-shards-", ".bin"));
+        OffHeapBuffer proteinShards = new OffHeapBuffer(Files.createTempFile(directory.toPath(), "protein-shards-", ".bin"));
+        ArrayList<DataOutputStream> shardOuts = new ArrayList<>();  //of the shards being written, from the first of the pass
+        try {
+            componentBytes.ensureCapacity(8L * peptideCount);
+            componentShards.ensureCapacity(4L * peptideCount);
+            proteinShards.ensureCapacity(4L * proteinCount);
+            try (DataInputStream in = openProteins()) {
+                for (int p = 0; p < proteinCount; p++) {
+                    ProteinRecord record = ProteinRecord.read(in);
+                    if (record.peptideIds.length > 0) {
+                        long slot = 8L * find(record.peptideIds[0]);
+                        componentBytes.putLong(slot, componentBytes.getLong(slot) + record.estimateBytes());
+                    }
+                }
+            }
+
+            long shardBudget = Math.max(1, memoryBudget / parallelism);
+            long shardBytes = 0;
+            try (DataInputStream in = openProteins()) {
+                for (int p = 0; p < proteinCount; p++) {
+                    ProteinRecord record = ProteinRecord.read(in);
+                    int root = record.peptideIds.length > 0 ? find(record.peptideIds[0]) : -1;
+                    int shard = root < 0 ? -1 : componentShards.getInt(4L * root) - 1;
+                    if (shard < 0) {
+                        //The first protein of its component: the component goes to the last shard, or opens another
+                        long bytes = root < 0 ? record.estimateBytes() : componentBytes.getLong(8L * root);
+                        if (shardFiles.isEmpty() || (shardBytes > 0 && shardBytes + bytes > shardBudget)) {
+                            Path shardFile = Files.createTempFile(directory.toPath(), "shard-", ".bin");
+                            shardFiles.add(shardFile);
+                            if (shardOuts.size() < MAX_OPEN_SHARDS) {
+                                shardOuts.add(openShard(shardFile));
+                            }
+                            shardBytes = 0;
+                        }
+                        shard = shardFiles.size() - 1;
+                        shardBytes += bytes;
+                        largestShardBytes = Math.max(largestShardBytes, shardBytes);
+                        if (root >= 0) {
+                            componentShards.putInt(4L * root, shard + 1);
+                        }
+                    }
+                    proteinShards.putInt(4L * p, shard);
+                    if (shard < shardOuts.size()) {
+                        record.write(shardOuts.get(shard));
+                    }
+                }
+            }
+            closeShards(shardOuts);
+
+            for (int first = MAX_OPEN_SHARDS; first < shardFiles.size(); first += MAX_OPEN_SHARDS) {
+                int end = Math.min(shardFiles.size(), first + MAX_OPEN_SHARDS);
+                for (int shard = first; shard < end; shard++) {
+                    shardOuts.add(openShard(shardFiles.get(shard)));
+                }
+                try (DataInputStream in = openProteins()) {
+                    for (int p = 0; p < proteinCount; p++) {
+                        ProteinRecord record = ProteinRecord.read(in);
+                        int shard = proteinShards.getInt(4L * p);
+                        if (shard >= first && shard < end) {
+                            record.write(shardOuts.get(shard - first));
+                        }
+                    }
+                }
+                closeShards(shardOuts);
+            }
+        } finally {
+            closeShards(shardOuts);
+            componentBytes.close();
+            componentShards.close();
+            proteinShards.close();
+            parents.close();
+            Files.deleteIfExists(proteinFile);
+        }
+    }
+
+    private static DataOutputStream openShard(Path shardFile) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(shardFile), STREAM_BUFFER_BYTES));
+    }
+
+    private static void closeShards(ArrayList<DataOutputStream> shardOuts) throws IOException {
+        try {
+            for (DataOutputStream shardOut : shardOuts) {
+                shardOut.close();
+            }
+        } finally {
+            shardOuts.clear();
+        }
+    }
+
+    private DataInputStream openProteins() throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(proteinFile), STREAM_BUFFER_BYTES));
+    }
+
+    /**
+     * Groups the proteins of one shard, and hands its groups to the output
+     */
+    private void groupShard(Path shardFile, PeptideDictionary dictionary, Consumer<ProteinGroup> output) throws IOException {
+        ArrayList<ProteinRecord> records = new ArrayList<>();
+        long edges = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(shardFile), STREAM_BUFFER_BYTES))) {
+            while (true) {
+                ProteinRecord record;
+                try {
+                    record = ProteinRecord.read(in);
+                } catch (EOFException ex) {
+                    break;
+                }
+                records.add(record);
+                edges += record.peptideIds.length;
+            }
+        }
+        Files.deleteIfExists(shardFile);
+
+        //Renumber the peptides of the shard from 0, in id order, so that the renumbered sets stay sorted
+        int[] peptideIds = new int[(int) edges];
+        int position = 0;
+        for (ProteinRecord record : records) {
+            System.arraycopy(record.peptideIds, 0, peptideIds, position, record.peptideIds.length);
+            position += record.peptideIds.length;
+        }
+        Arrays.sort(peptideIds);
+        int localCount = 0;
+        for (int i = 0; i < peptideIds.length; i++) {
+            if (localCount == 0 || peptideIds[localCount - 1] != peptideIds[i]) {
+                peptideIds[localCount++] = peptideIds[i];
+            }
+        }
+        peptideIds = Arrays.copyOf(peptideIds, localCount);
+
+        ArrayList<ProteinGroup> groups = new ArrayList<>();
+        try (OffHeapIncidence incidence = new OffHeapIncidence(localCount)) {
+            for (ProteinRecord record : records) {
+                incidence.addProtein(record.accession, localIds(peptideIds, record.peptideIds),
+                        localIds(peptideIds, record.uniquePeptideIds));
+            }
+            incidence.finish();
+            try (OffHeapGrouping grouping = new OffHeapGrouping(incidence, session)) {
+                Protein[] proteins = new Protein[records.size()];
+                for (int p = 0; p < proteins.length; p++) {
+                    ProteinRecord record = records.get(p);
+                    proteins[p] = new Protein(record.accession, PeptideSet.ofSorted(dictionary, record.peptideIds),
+                            PeptideSet.ofSorted(dictionary, record.uniquePeptideIds));
+                }
+                records = null;
+                for (int g = 0; g < grouping.getGroupCount(); g++) {
+                    ProteinGroup group = new ProteinGroup(grouping.getGroupId(g));
+                    for (int protein : grouping.getProteins(g)) {
+                        group.addToProteins(proteins[protein]);
+                        session.setProteinGroup(proteins[protein], group);
+                        if (grouping.isSubsetProtein(protein)) {
+                            session.setSubsetProtein(proteins[protein], true);
+                        }
+                    }
+                    group.addAllToGroupPeptideDomain(PeptideSet.ofSorted(dictionary, globalIds(peptideIds, grouping.getGroupPeptideDomain(g))));
+                    group.setSingleton(grouping.isSingletonGroup(g));
+                    if (group.isSingletonGroup()) {
+                        group.addAllToUniquePeptides(PeptideSet.ofSorted(dictionary, globalIds(peptideIds, grouping.getUniquePeptides(g))));
+                    }
+                    groups.add(group);
+                }
+                if (dictionary != null) {
+                    for (int local = 0; local < localCount; local++) {
+                        Peptide.Status status = grouping.getPeptideStatus(local);
+                        if (status != null) {
+                            session.setPeptideStatus(dictionary, peptideIds[local], status);
+                        }
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            for (ProteinGroup group : groups) {
+                output.accept(group);
+            }
+        }
+    }
+
+    private static int[] localIds(int[] peptideIds, int[] ids) {
+        int[] local = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            local[i] = Arrays.binarySearch(peptideIds, ids[i]);
+        }
+        return local;
+    }
+
+    private static int[] globalIds(int[] peptideIds, int[] local) {
+        int[] ids = new int[local.length];
+        for (int i = 0; i < local.length; i++) {
+            ids[i] = peptideIds[local[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Deletes the spill files left
+     */
+    @Override
+    public void close() {
+        try {
+            if (proteinOut != null) {
+                proteinOut.close();
+            }
+            parents.close();
+            Files.deleteIfExists(proteinFile);
+            for (Path shardFile : shardFiles) {
+                Files.deleteIfExists(shardFile);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ExternalGrouper.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * A protein as it is spilled: its accession (as DataOutput.writeUTF), and
+     * the lists of its observed and unique peptide ids, each its length
+     * followed by its ints
+     */
+    private static final class ProteinRecord {
+
+        private final String accession;
+        private final int[] peptideIds;
+        private final int[] uniquePeptideIds;
+
+        private ProteinRecord(String accession, int[] peptideIds, int[] uniquePeptideIds) {
+            this.accession = accession;
+            this.peptideIds = peptideIds;
+            this.uniquePeptideIds = uniquePeptideIds;
+        }
+
+        private long estimateBytes() {
+            return PROTEIN_BYTES + 2L * accession.length() + EDGE_BYTES * (peptideIds.length + uniquePeptideIds.length);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(accession);
+            writeIds(out, peptideIds);
+            writeIds(out, uniquePeptideIds);
+        }
+
+        private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        }
+
+        private static ProteinRecord read(DataInputStream in) throws IOException {
+            String accession = in.readUTF();
+            return new ProteinRecord(accession, readIds(in), readIds(in));
+        }
+
+        private static int[] readIds(DataInputStream in) throws IOException {
+            int[] ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            return ids;
+        }
+
+    }
+
+}
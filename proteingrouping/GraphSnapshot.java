@@ -0,0 +1,371 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A binary snapshot of loaded proteins and their peptides, so that a file only
+ * has to be parsed once: the proteins are written after loading, and later
+ * runs load the snapshot instead of the mzIdentML or mzTab file.
+ *
+ * The snapshot is read through memory mappings of the file (see
+ * MappedFileReader), so it may be larger than 2 GB. Its sections are laid
+ * out as the loaded objects hold them, so reading is mostly bulk copies into
+ * the arrays those objects keep: the peptide attributes are the columns of a
+ * PsmStore, the proteins' peptides are sorted peptide id lists in one compressed sparse row array, and the
+ * strings are UTF-8 bytes with an offset table. The hash table of the
+ * sequence dictionary is saved too, so that no sequence is hashed on loading.
+ * Peptides get back the ids they had in the dictionary they were written from.
+ *
+ * Layout, all numbers big-endian:
+ *   header      magic, version, peptide count P, protein count N,
+ *               observed peptide count E, unique peptide count U,
+ *               sequence table length T
+ *   peptides    spectrum ids [P], ranks [P], scores [P] (floats), unique flags [P] (bytes),
+ *               sequence table [T]
+ *   proteins    observed offsets [N + 1], observed peptide ids [E],
+ *               unique offsets [N + 1], unique peptide ids [U]
+ *   strings     sequences [P], PSM ids [P], accessions [N], each as
+ *               offsets [count + 1] followed by the bytes
+ *
+ * The sequence table depends on the hash function of StringDictionary, so a
+ * change to that function needs a new version.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+public class GraphSnapshot {
+
+    public static final int MAGIC = 0x50475348;  //"PGSH"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_INTS = 7;
+
+    private final File file;
+    private PeptideDictionary peptideDictionary;
+
+    /**
+     * Nothing is read here; see loadProteinData
+     *
+     * @param snapshotFile
+     */
+    public GraphSnapshot(File snapshotFile) {
+        this.file = snapshotFile;
+        this.peptideDictionary = new PeptideDictionary();
+    }
+
+    /**
+     * @return the dictionary in which the peptides of the loaded proteins are interned
+     */
+    public PeptideDictionary getPeptideDictionary() {
+        return this.peptideDictionary;
+    }
+
+    /**
+     * Writes the proteins, and every peptide of the dictionary their peptides
+     * are interned in, to the file. The proteins are written in the iteration
+     * order of the map, and put back in that order when loaded.
+     *
+     * @param proteins
+     * @param snapshotFile
+     * @throws IOException
+     * @throws IllegalArgumentException if the peptides of the proteins are not
+     * all interned in one dictionary
+     */
+    public static void write(HashMap<String, Protein> proteins, File snapshotFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(snapshotFile.toPath()), 1 << 16))) {
+            write(proteins.values(), out);
+        }
+    }
+
+    /**
+     * Writes the snapshot of the proteins, in the order given, to the stream;
+     * see write(HashMap, File)
+     *
+     * @param proteins
+     * @param out
+     * @throws IOException
+     */
+    static void write(Collection<Protein> proteins, DataOutputStream out) throws IOException {
+        Protein.internPendingPeptides(proteins);
+        PeptideDictionary dictionary = dictionaryOf(proteins);
+        int peptideCount = dictionary == null ? 0 : dictionary.size();
+        Protein[] proteinArray = proteins.toArray(new Protein[0]);
+        int[][] observed = new int[proteinArray.length][];
+        int[][] unique = new int[proteinArray.length][];
+        long observedCount = 0;
+        long uniqueCount = 0;
+        StringDictionary sequences = new StringDictionary(peptideCount);
+        for (int id = 0; id < peptideCount; id++) {
+            sequences.intern(dictionary.getPeptide(id).getPeptideRef());
+        }
+        for (int p = 0; p < proteinArray.length; p++) {
+            observed[p] = proteinArray[p].getObservedPeptideSet().toArray();
+            unique[p] = proteinArray[p].getUniquePeptideSet().toArray();
+            observedCount += observed[p].length;
+            uniqueCount += unique[p].length;
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(peptideCount);
+        out.writeInt(proteinArray.length);
+        out.writeInt(Math.toIntExact(observedCount));
+        out.writeInt(Math.toIntExact(uniqueCount));
+        out.writeInt(sequences.getTable().length);
+
+        for (int id = 0; id < peptideCount; id++) {
+            out.writeInt(dictionary.getPeptide(id).getSpectrumId());
+        }
+        for (int id = 0; id < peptideCount; id++) {
+            out.writeInt(dictionary.getPeptide(id).getRank());
+        }
+        for (int id = 0; id < peptideCount; id++) {
+            out.writeFloat(dictionary.getPeptide(id).getScore());
+        }
+        for (int id = 0; id < peptideCount; id++) {
+            out.writeByte(dictionary.getPeptide(id).isUniqueToAProtein() ? 1 : 0);
+        }
+        for (int slot : sequences.getTable()) {
+            out.writeInt(slot);
+        }
+
+        writeAdjacency(out, observed);
+        writeAdjacency(out, unique);
+
+        byte[][] strings = new byte[peptideCount][];
+        for (int id = 0; id < peptideCount; id++) {
+            strings[id] = sequences.get(id).getBytes(StandardCharsets.UTF_8);
+        }
+        writeStrings(out, strings);
+        for (int id = 0; id < peptideCount; id++) {
+            strings[id] = dictionary.getPeptide(id).getPsmId().getBytes(StandardCharsets.UTF_8);
+        }
+        writeStrings(out, strings);
+        strings = new byte[proteinArray.length][];
+        for (int p = 0; p < proteinArray.length; p++) {
+            strings[p] = proteinArray[p].getDbSequenceRef().getBytes(StandardCharsets.UTF_8);
+        }
+        writeStrings(out, strings);
+    }
+
+    private static PeptideDictionary dictionaryOf(Collection<Protein> proteins) {
+        PeptideDictionary dictionary = null;
+        for (Protein protein : proteins) {
+            for (PeptideSet peptides : new PeptideSet[]{protein.getObservedPeptideSet(), protein.getUniquePeptideSet()}) {
+                if (peptides.isEmpty()) {
+                    continue;
+                }
+                if (dictionary == null) {
+                    dictionary = peptides.getDictionary();
+                } else if (peptides.getDictionary() != dictionary) {
+                    throw new IllegalArgumentException("The peptides of " + protein + " are interned in another dictionary");
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    private static void writeAdjacency(DataOutputStream out, int[][] lists) throws IOException {
+        int offset = 0;
+        out.writeInt(offset);
+        for (int[] list : lists) {
+            offset += list.length;
+            out.writeInt(offset);
+        }
+        for (int[] list : lists) {
+            for (int id : list) {
+                out.writeInt(id);
+            }
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, byte[][] strings) throws IOException {
+        long offset = 0;
+        out.writeInt(0);
+        for (byte[] string : strings) {
+            offset += string.length;
+            out.writeInt(Math.toIntExact(offset));
+        }
+        for (byte[] string : strings) {
+            out.write(string);
+        }
+    }
+
+    /**
+     * Loads the proteins of the snapshot. The peptides are the rows of one
+     * PsmStore, interned with the ids they had when written.
+     *
+     * @return the proteins, keyed by accession
+     * @throws IOException if the snapshot cannot be read, or is truncated or
+     * corrupt, in which case no protein is loaded
+     */
+    public HashMap<String, Protein> loadProteinData() throws IOException {
+        HashMap<String, Protein> proteinHashMap = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedFileReader in = new MappedFileReader(channel, file.toString());
+            for (Protein protein : readProteins(in, file.toString())) {
+                proteinHashMap.put(protein.getDbSequenceRef(), protein);
+            }
+        }
+        return proteinHashMap;
+    }
+
+    /**
+     * Reads a snapshot from the position of the reader, and leaves the reader
+     * positioned after it. The dictionary of the peptides read becomes the
+     * dictionary of this GraphSnapshot.
+     *
+     * The counts of the header are checked against the bytes left before
+     * anything is allocated for them, and the offsets, peptide ids and
+     * sequence table against the counts, so that a damaged snapshot throws an
+     * IOException rather than a RuntimeException or an out of memory error.
+     *
+     * @param in
+     * @param source where the snapshot comes from, for the error messages
+     * @return the proteins, in the order they were written
+     * @throws IOException if the reader does not hold a whole snapshot of this version
+     */
+    Protein[] readProteins(MappedFileReader in, String source) throws IOException {
+        int[] header = in.getInts(HEADER_INTS);
+        if (header[0] != MAGIC) {
+            throw new IOException("Not a protein graph snapshot: " + source);
+        }
+        if (header[1] != VERSION) {
+            throw new IOException("Snapshot version " + header[1] + " is not supported (expected " + VERSION + "): " + source);
+        }
+        for (int i = 2; i < HEADER_INTS; i++) {
+            if (header[i] < 0) {
+                throw new IOException("Corrupt snapshot, negative count " + header[i] + " in the header: " + source);
+            }
+        }
+        int peptideCount = header[2];
+        int proteinCount = header[3];
+        int tableLength = header[6];
+        //Every section but the string bytes, whose lengths are only known from their offsets
+        in.require(13L * peptideCount + 4L * tableLength + 8L * (proteinCount + 1L) + 4L * header[4] + 4L * header[5]
+                + 8L * (peptideCount + 1L) + 4L * (proteinCount + 1L));
+        if (Integer.bitCount(tableLength) != 1 || 2L * peptideCount > tableLength) {
+            throw new IOException("Corrupt snapshot, a sequence table of " + tableLength + " slots cannot hold "
+                    + peptideCount + " peptides: " + source);
+        }
+
+        int[] spectrumIds = in.getInts(peptideCount);
+        int[] ranks = in.getInts(peptideCount);
+        float[] scores = in.getFloats(peptideCount);
+        byte[] uniqueFlags = in.getBytes(peptideCount);
+        boolean[] unique = new boolean[peptideCount];
+        for (int id = 0; id < peptideCount; id++) {
+            unique[id] = uniqueFlags[id] != 0;
+        }
+        int[] sequenceTable = in.getInts(tableLength);
+        int used = 0;
+        for (int slot : sequenceTable) {
+            if (slot < 0 || slot > peptideCount) {
+                throw new IOException("Corrupt snapshot, sequence table slot " + slot + " of " + peptideCount + " peptides: " + source);
+            }
+            used += slot == 0 ? 0 : 1;
+        }
+        if (used != peptideCount) {
+            throw new IOException("Corrupt snapshot, " + used + " sequence table slots used for " + peptideCount + " peptides: " + source);
+        }
+
+        int[] observedOffsets = offsets(in, proteinCount, header[4], source);
+        int[] observed = in.getInts(header[4]);
+        int[] uniqueOffsets = offsets(in, proteinCount, header[5], source);
+        int[] uniqueIds = in.getInts(header[5]);
+        checkPeptideIds(observedOffsets, observed, peptideCount, source);
+        checkPeptideIds(uniqueOffsets, uniqueIds, peptideCount, source);
+
+        String[] sequenceStrings = strings(in, peptideCount, source);
+        int[] psmIdOffsets = offsets(in, peptideCount, -1, source);
+        byte[] psmIdBytes = in.getBytes(psmIdOffsets[peptideCount]);
+        int[] psmIdLengths = new int[peptideCount];
+        for (int id = 0; id < peptideCount; id++) {
+            psmIdLengths[id] = psmIdOffsets[id + 1] - psmIdOffsets[id];
+        }
+        String[] accessions = strings(in, proteinCount, source);
+
+        //The rows of the store are the peptide ids
+        StringDictionary sequences = new StringDictionary(sequenceStrings, sequenceTable);
+        PsmStore psms = new PsmStore(sequences, psmIdBytes, Arrays.copyOf(psmIdOffsets, peptideCount), psmIdLengths,
+                spectrumIds, ranks, scores, unique);
+        PeptideDictionary dictionary = new PeptideDictionary(new StringDictionary(sequences), psms);
+
+        Protein[] proteins = new Protein[proteinCount];
+        for (int p = 0; p < proteinCount; p++) {
+            proteins[p] = new Protein(accessions[p],
+                    PeptideSet.ofSorted(dictionary, Arrays.copyOfRange(observed, observedOffsets[p], observedOffsets[p + 1])),
+                    PeptideSet.ofSorted(dictionary, Arrays.copyOfRange(uniqueIds, uniqueOffsets[p], uniqueOffsets[p + 1])));
+        }
+        this.peptideDictionary = dictionary;
+        return proteins;
+    }
+
+    /**
+     * Reads the count + 1 offsets of a section, which must start at 0 and not
+     * decrease
+     *
+     * @param total the last offset, or -1 if it is not known
+     */
+    private static int[] offsets(MappedFileReader in, int count, int total, String source) throws IOException {
+        in.require(4L * (count + 1L));
+        int[] offsets = in.getInts(count + 1);
+        if (offsets[0] != 0) {
+            throw new IOException("Corrupt snapshot, offsets starting at " + offsets[0] + ": " + source);
+        }
+        for (int i = 0; i < count; i++) {
+            if (offsets[i + 1] < offsets[i]) {
+                throw new IOException("Corrupt snapshot, offset " + offsets[i + 1] + " after " + offsets[i] + ": " + source);
+            }
+        }
+        if (total >= 0 && offsets[count] != total) {
+            throw new IOException("Corrupt snapshot, offsets ending at " + offsets[count] + " rather than " + total + ": " + source);
+        }
+        return offsets;
+    }
+
+    /**
+     * Checks that each protein's list of peptide ids is increasing and within
+     * the peptides of the snapshot, as PeptideSet.ofSorted takes it to be
+     */
+    private static void checkPeptideIds(int[] offsets, int[] ids, int peptideCount, String source) throws IOException {
+        for (int p = 0; p + 1 < offsets.length; p++) {
+            int previous = -1;
+            for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+                if (ids[i] <= previous || ids[i] >= peptideCount) {
+                    throw new IOException("Corrupt snapshot, peptide id " + ids[i] + " after " + previous + " of "
+                            + peptideCount + " peptides: " + source);
+                }
+                previous = ids[i];
+            }
+        }
+    }
+
+    /**
+     * Reads count strings, as offsets and bytes, at the position of the
+     * reader, and moves past them
+     */
+    private static String[] strings(MappedFileReader in, int count, String source) throws IOException {
+        int[] offsets = offsets(in, count, -1, source);
+        byte[] bytes = in.getBytes(offsets[count]);
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * What applying one delta to an IncrementalGrouper changed. A group whose
+ * proteins, peptide domain or unique peptides changed is reported as removed
+ * under its old id and added under a new one; a group that came out of
+ * regrouping exactly as it was keeps its id and is not reported. The same
+ * holds for clusters.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+
+public class GroupingChanges {
+
+    private final ArrayList<Integer> addedGroupIds;
+    private final ArrayList<Integer> removedGroupIds;
+    private final ArrayList<Integer> addedClusterIds;
+    private final ArrayList<Integer> removedClusterIds;
+    private int regroupedProteinCount;
+
+    GroupingChanges() {
+        addedGroupIds = new ArrayList<>();
+        removedGroupIds = new ArrayList<>();
+        addedClusterIds = new ArrayList<>();
+        removedClusterIds = new ArrayList<>();
+        regroupedProteinCount = 0;
+    }
+
+    /**
+     * @return the ids of the groups that were formed, which are in the groups of the grouper
+     */
+    public ArrayList<Integer> getAddedGroupIds() {
+        return this.addedGroupIds;
+    }
+
+    /**
+     * @return the ids of the groups that no longer exist
+     */
+    public ArrayList<Integer> getRemovedGroupIds() {
+        return this.removedGroupIds;
+    }
+
+    public ArrayList<Integer> getAddedClusterIds() {
+        return this.addedClusterIds;
+    }
+
+    public ArrayList<Integer> getRemovedClusterIds() {
+        return this.removedClusterIds;
+    }
+
+    /**
+     * @return the number of proteins in the components that were grouped
+     * again, which is what applying the delta cost
+     */
+    public int getRegroupedProteinCount() {
+        return this.regroupedProteinCount;
+    }
+
+    void addRegroupedProteins(int count) {
+        this.regroupedProteinCount += count;
+    }
+
+    public boolean isEmpty() {
+        return addedGroupIds.isEmpty() && removedGroupIds.isEmpty()
+                && addedClusterIds.isEmpty() && removedClusterIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "groups +" + addedGroupIds.size() + " -" + removedGroupIds.size()
+                + ", clusters +" + addedClusterIds.size() + " -" + removedClusterIds.size()
+                + ", " + regroupedProteinCount + " proteins regrouped";
+    }
+
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The tree a viewer navigates over a grouping result: clusters, then the
+ * groups in no cluster, at the top; the groups of a cluster below it, the
+ * proteins of a group below that, and the observed peptides of a protein at
+ * the bottom. A peptide shared by several proteins appears under each.
+ *
+ * Children are fetched a page at a time, so a viewer only ever holds the
+ * nodes it shows. The tree is laid out once, when the hierarchy is made, in
+ * flat arrays: the groups ordered cluster by cluster and the proteins group
+ * by group, so the children of a cluster or a group are a range of the next
+ * level, given by an offset array, and those of a protein are its peptide
+ * set. A page is then a slice of a range, made in time linear in its size.
+ * The child count, peptide count and best and total peptide score of every
+ * node are worked out at the same time.
+ *
+ * The hierarchy does not change once made, so the cursor of a page, the
+ * position in the children of its first node, stays valid for its lifetime.
+ * Clusters and groups are in id order, proteins in the order of their group,
+ * peptides in id order.
+ *
+ * Any subtree can be written out to DOT or GraphML; it is written as it is
+ * walked, without making its nodes. A shared peptide is written once, with
+ * an edge from each of its proteins.
+ *
+ * The result must not be regrouped while the hierarchy is in use.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+public class GroupingHierarchy {
+
+    private final PeptideDictionary dictionary;
+    private final ProteinGroupCluster[] clusters;
+    private final int[] clusterOffsets;  //The groups of cluster c are groups[clusterOffsets[c]...clusterOffsets[c + 1]]
+    private final ProteinGroup[] groups;
+    private final int unclusteredOffset;  //The groups from here on are in no cluster, and are roots
+    private final int[] groupOffsets;  //The proteins of group g are proteins[groupOffsets[g]...groupOffsets[g + 1]]
+    private final Protein[] proteins;
+    private final float[] peptideScores;
+    private final float[] clusterBestScores;
+    private final float[] clusterTotalScores;
+    private final float[] groupBestScores;
+    private final float[] groupTotalScores;
+    private final float[] proteinBestScores;
+    private final float[] proteinTotalScores;
+    private final HashMap<Integer, Integer> clusterIndices;
+    private final HashMap<Integer, Integer> groupIndices;
+    private final HashMap<String, Integer> proteinIndices;
+
+    /**
+     * @param result a grouped, and possibly clustered, result
+     */
+    public GroupingHierarchy(GroupingResult result) {
+        this(result.getProteinGroups(), result.getProteinGroupClusters(), result.getPeptideDictionary());
+    }
+
+    /**
+     * @param proteinGroups
+     * @param proteinGroupClusters null or empty if the groups were not clustered
+     * @param peptideDictionary the dictionary the peptides of the groups are interned in
+     */
+    public GroupingHierarchy(Map<Integer, ProteinGroup> proteinGroups,
+            Map<Integer, ProteinGroupCluster> proteinGroupClusters, PeptideDictionary peptideDictionary) {
+        this.dictionary = peptideDictionary;
+        clusters = proteinGroupClusters == null ? new ProteinGroupCluster[0]
+                : proteinGroupClusters.values().toArray(new ProteinGroupCluster[0]);
+        Arrays.sort(clusters, (a, b) -> Integer.compare(a.getClusterId(), b.getClusterId()));
+        ProteinGroup[] byId = proteinGroups.values().toArray(new ProteinGroup[0]);
+        Arrays.sort(byId, (a, b) -> Integer.compare(a.getGroupId(), b.getGroupId()));
+
+        groups = new ProteinGroup[byId.length];
+        groupIndices = new HashMap<>(2 * byId.length);
+        clusterIndices = new HashMap<>(2 * clusters.length);
+        clusterOffsets = new int[clusters.length + 1];
+        int next = 0;
+        for (int c = 0; c < clusters.length; c++) {
+            clusterIndices.put(clusters[c].getClusterId(), c);
+            ProteinGroup[] members = clusters[c].getProteinGroups().toArray(new ProteinGroup[0]);
+            Arrays.sort(members, (a, b) -> Integer.compare(a.getGroupId(), b.getGroupId()));
+            for (ProteinGroup group : members) {
+                if (!groupIndices.containsKey(group.getGroupId())) {
+                    groupIndices.put(group.getGroupId(), next);
+                    groups[next++] = group;
+                }
+            }
+            clusterOffsets[c + 1] = next;
+        }
+        unclusteredOffset = next;
+        for (ProteinGroup group : byId) {
+            if (!groupIndices.containsKey(group.getGroupId())) {
+                groupIndices.put(group.getGroupId(), next);
+                groups[next++] = group;
+            }
+        }
+        if (next != groups.length) {
+            throw new IllegalArgumentException("The clusters hold groups that are not in the map of groups");
+        }
+
+        groupOffsets = new int[groups.length + 1];
+        for (int g = 0; g < groups.length; g++) {
+            groupOffsets[g + 1] = groupOffsets[g] + groups[g].getProteins().size();
+        }
+        proteins = new Protein[groupOffsets[groups.length]];
+        proteinIndices = new HashMap<>(2 * proteins.length);
+        for (int g = 0; g < groups.length; g++) {
+            int p = groupOffsets[g];
+            for (Protein protein : groups[g].getProteins()) {
+                proteinIndices.put(protein.getDbSequenceRef(), p);
+                proteins[p++] = protein;
+            }
+        }
+
+        peptideScores = new float[peptideDictionary.size()];
+        for (int id = 0; id < peptideScores.length; id++) {
+            peptideScores[id] = peptideDictionary.getPeptide(id).getScore();
+        }
+        clusterBestScores = new float[clusters.length];
+        clusterTotalScores = new float[clusters.length];
+        for (int c = 0; c < clusters.length; c++) {
+            aggregate(clusters[c].getClusterPeptideDomain(), clusterBestScores, clusterTotalScores, c);
+        }
+        groupBestScores = new float[groups.length];
+        groupTotalScores = new float[groups.length];
+        for (int g = 0; g < groups.length; g++) {
+            aggregate(groups[g].getGroupPeptideDomainSet(), groupBestScores, groupTotalScores, g);
+        }
+        proteinBestScores = new float[proteins.length];
+        proteinTotalScores = new float[proteins.length];
+        for (int p = 0; p < proteins.length; p++) {
+            aggregate(proteins[p].getObservedPeptideSet(), proteinBestScores, proteinTotalScores, p);
+        }
+    }
+
+    private void aggregate(PeptideSet peptides, float[] bestScores, float[] totalScores, int index) {
+        float best = Float.NaN;
+        double total = 0;
+        for (int i = 0; i < peptides.size(); i++) {
+            float score = peptideScores[peptides.get(i)];
+            if (!Float.isNaN(score)) {
+                best = Float.isNaN(best) ? score : Math.max(best, score);
+                total += score;
+            }
+        }
+        bestScores[index] = best;
+        totalScores[index] = (float) total;
+    }
+
+    public int getRootCount() {
+        return clusters.length + groups.length - unclusteredOffset;
+    }
+
+    /**
+     * @param cursor 0 for the first page, or the next cursor of the page before
+     * @param pageSize the most nodes to fetch
+     * @return the clusters, then the groups in no cluster, from the cursor on
+     */
+    public HierarchyPage getRoots(int cursor, int pageSize) {
+        int count = getRootCount();
+        checkPage(cursor, pageSize, count);
+        int end = (int) Math.min(count, (long) cursor + pageSize);
+        ArrayList<HierarchyNode> nodes = new ArrayList<>(end - cursor);
+        for (int i = cursor; i < end; i++) {
+            nodes.add(i < clusters.length ? clusterNode(i) : groupNode(unclusteredOffset + i - clusters.length));
+        }
+        return new HierarchyPage(nodes, end < count ? end : -1, count);
+    }
+
+    /**
+     * @param parent a node of this hierarchy
+     * @param cursor 0 for the first page, or the next cursor of the page before
+     * @param pageSize the most nodes to fetch
+     * @return the children of the node from the cursor on
+     */
+    public HierarchyPage getChildren(HierarchyNode parent, int cursor, int pageSize) {
+        checkNode(parent);
+        int count = parent.getChildCount();
+        checkPage(cursor, pageSize, count);
+        int end = (int) Math.min(count, (long) cursor + pageSize);
+        ArrayList<HierarchyNode> nodes = new ArrayList<>(end - cursor);
+        int index = parent.getIndex();
+        for (int i = cursor; i < end; i++) {
+            switch (parent.getKind()) {
+                case CLUSTER:
+                    nodes.add(groupNode(clusterOffsets[index] + i));
+                    break;
+                case GROUP:
+                    nodes.add(proteinNode(groupOffsets[index] + i));
+                    break;
+                default:
+                    nodes.add(peptideNode(proteins[index].getObservedPeptideSet().get(i)));
+                    break;
+            }
+        }
+        return new HierarchyPage(nodes, end < count ? end : -1, count);
+    }
+
+    /**
+     * @param node a cluster, group or protein node of this hierarchy
+     * @return the cluster of a group, the group of a protein, or null for a
+     * root; peptides have no single parent
+     */
+    public HierarchyNode getParent(HierarchyNode node) {
+        checkNode(node);
+        switch (node.getKind()) {
+            case GROUP:
+                return node.getIndex() < unclusteredOffset ? clusterNode(rangeOf(clusterOffsets, node.getIndex())) : null;
+            case PROTEIN:
+                return groupNode(rangeOf(groupOffsets, node.getIndex()));
+            case PEPTIDE:
+                throw new IllegalArgumentException("A peptide may have several parents: " + node);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the node of the cluster, or null if there is no such cluster
+     */
+    public HierarchyNode getClusterNode(int clusterId) {
+        Integer index = clusterIndices.get(clusterId);
+        return index == null ? null : clusterNode(index);
+    }
+
+    /**
+     * @return the node of the group, or null if there is no such group
+     */
+    public HierarchyNode getGroupNode(int groupId) {
+        Integer index = groupIndices.get(groupId);
+        return index == null ? null : groupNode(index);
+    }
+
+    /**
+     * @return the node of the protein, or null if no group holds it
+     */
+    public HierarchyNode getProteinNode(String accession) {
+        Integer index = proteinIndices.get(accession);
+        return index == null ? null : proteinNode(index);
+    }
+
+    /**
+     * Writes the subtree in the DOT language of Graphviz
+     *
+     * @param root the node to write from, or null for the whole hierarchy
+     * @param maxDepth the most levels written below the root (below the
+     * clusters and free groups for the whole hierarchy)
+     * @param out
+     * @throws IOException
+     */
+    public void writeDot(HierarchyNode root, int maxDepth, Writer out) throws IOException {
+        out.write("digraph grouping {\n");
+        write(root, maxDepth, out, false);
+        out.write("}\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the subtree as GraphML, with the kind, label, peptide count and
+     * scores of each node as data
+     *
+     * @param root the node to write from, or null for the whole hierarchy
+     * @param maxDepth see writeDot
+     * @param out
+     * @throws IOException
+     */
+    public void writeGraphML(HierarchyNode root, int maxDepth, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n"
+                + "  <key id=\"kind\" for=\"node\" attr.name=\"kind\" attr.type=\"string\"/>\n"
+                + "  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n"
+                + "  <key id=\"peptides\" for=\"node\" attr.name=\"peptides\" attr.type=\"int\"/>\n"
+                + "  <key id=\"bestScore\" for=\"node\" attr.name=\"bestScore\" attr.type=\"float\"/>\n"
+                + "  <key id=\"totalScore\" for=\"node\" attr.name=\"totalScore\" attr.type=\"float\"/>\n"
+                + "  <graph id=\"grouping\" edgedefault=\"directed\">\n");
+        write(root, maxDepth, out, true);
+        out.write("  </graph>\n</graphml>\n");
+        out.flush();
+    }
+
+    private void write(HierarchyNode root, int maxDepth, Writer out, boolean graphML) throws IOException {
+        BitSet writtenPeptides = new BitSet(dictionary.size());
+        if (root == null) {
+            for (int c = 0; c < clusters.length; c++) {
+                writeSubtree(HierarchyNode.Kind.CLUSTER, c, maxDepth, out, graphML, writtenPeptides);
+            }
+            for (int g = unclusteredOffset; g < groups.length; g++) {
+                writeSubtree(HierarchyNode.Kind.GROUP, g, maxDepth, out, graphML, writtenPeptides);
+            }
+        } else {
+            checkNode(root);
+            writeSubtree(root.getKind(), root.getIndex(), maxDepth, out, graphML, writtenPeptides);
+        }
+    }
+
+    private void writeSubtree(HierarchyNode.Kind kind, int index, int depth, Writer out, boolean graphML,
+            BitSet writtenPeptides) throws IOException {
+        if (kind == HierarchyNode.Kind.PEPTIDE) {
+            if (writtenPeptides.get(index)) {
+                return;
+            }
+            writtenPeptides.set(index);
+        }
+        writeNode(kind, index, out, graphML);
+        if (depth <= 0) {
+            return;
+        }
+        String name = nodeName(kind, index);
+        switch (kind) {
+            case CLUSTER:
+                for (int g = clusterOffsets[index]; g < clusterOffsets[index + 1]; g++) {
+                    writeEdge(name, nodeName(HierarchyNode.Kind.GROUP, g), out, graphML);
+                    writeSubtree(HierarchyNode.Kind.GROUP, g, depth - 1, out, graphML, writtenPeptides);
+                }
+                break;
+            case GROUP:
+                for (int p = groupOffsets[index]; p < groupOffsets[index + 1]; p++) {
+                    writeEdge(name, nodeName(HierarchyNode.Kind.PROTEIN, p), out, graphML);
+                    writeSubtree(HierarchyNode.Kind.PROTEIN, p, depth - 1, out, graphML, writtenPeptides);
+                }
+                break;
+            case PROTEIN:
+                PeptideSet peptides = proteins[index].getObservedPeptideSet();
+                for (int i = 0; i < peptides.size(); i++) {
+                    writeEdge(name, nodeName(HierarchyNode.Kind.PEPTIDE, peptides.get(i)), out, graphML);
+                    writeSubtree(HierarchyNode.Kind.PEPTIDE, peptides.get(i), depth - 1, out, graphML, writtenPeptides);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeNode(HierarchyNode.Kind kind, int index, Writer out, boolean graphML) throws IOException {
+        HierarchyNode node = node(kind, index);
+        String name = nodeName(kind, index);
+        if (graphML) {
+            out.write("    <node id=\"" + name + "\"><data key=\"kind\">" + kind
+                    + "</data><data key=\"label\">" + escapeXml(node.getLabel())
+                    + "</data><data key=\"peptides\">" + node.getPeptideCount()
+                    + "</data><data key=\"bestScore\">" + node.getBestScore()
+                    + "</data><data key=\"totalScore\">" + node.getTotalScore() + "</data></node>\n");
+        } else {
+            out.write("  " + name + " [label=\"" + escapeDot(node.getLabel()) + "\", kind=" + kind
+                    + ", peptides=" + node.getPeptideCount() + ", bestScore=\"" + node.getBestScore()
+                    + "\", totalScore=\"" + node.getTotalScore() + "\"];\n");
+        }
+    }
+
+    private static void writeEdge(String from, String to, Writer out, boolean graphML) throws IOException {
+        if (graphML) {
+            out.write("    <edge source=\"" + from + "\" target=\"" + to + "\"/>\n");
+        } else {
+            out.write("  " + from + " -> " + to + ";\n");
+        }
+    }
+
+    /**
+     * @return a name unique over the hierarchy: c, g, p or e (for peptide)
+     * followed by the cluster id, group id, protein position or peptide id
+     */
+    private String nodeName(HierarchyNode.Kind kind, int index) {
+        switch (kind) {
+            case CLUSTER:
+                return "c" + clusters[index].getClusterId();
+            case GROUP:
+                return "g" + groups[index].getGroupId();
+            case PROTEIN:
+                return "p" + index;
+            default:
+                return "e" + index;
+        }
+    }
+
+    private static String escapeDot(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private HierarchyNode node(HierarchyNode.Kind kind, int index) {
+        switch (kind) {
+            case CLUSTER:
+                return clusterNode(index);
+            case GROUP:
+                return groupNode(index);
+            case PROTEIN:
+                return proteinNode(index);
+            default:
+                return peptideNode(index);
+        }
+    }
+
+    private HierarchyNode clusterNode(int c) {
+        ProteinGroupCluster cluster = clusters[c];
+        return new HierarchyNode(this, HierarchyNode.Kind.CLUSTER, c, cluster.getClusterId(),
+                "cluster " + cluster.getClusterId(), clusterOffsets[c + 1] - clusterOffsets[c],
+                cluster.getClusterPeptideDomain().size(), clusterBestScores[c], clusterTotalScores[c]);
+    }
+
+    private HierarchyNode groupNode(int g) {
+        ProteinGroup group = groups[g];
+        return new HierarchyNode(this, HierarchyNode.Kind.GROUP, g, group.getGroupId(),
+                "group " + group.getGroupId(), groupOffsets[g + 1] - groupOffsets[g],
+                group.getGroupPeptideDomainSet().size(), groupBestScores[g], groupTotalScores[g]);
+    }
+
+    private HierarchyNode proteinNode(int p) {
+        int peptideCount = proteins[p].getObservedPeptideSet().size();
+        return new HierarchyNode(this, HierarchyNode.Kind.PROTEIN, p, p, proteins[p].getDbSequenceRef(),
+                peptideCount, peptideCount, proteinBestScores[p], proteinTotalScores[p]);
+    }
+
+    private HierarchyNode peptideNode(int peptideId) {
+        float score = peptideScores[peptideId];
+        return new HierarchyNode(this, HierarchyNode.Kind.PEPTIDE, peptideId, peptideId,
+                dictionary.getPeptide(peptideId).getPeptideRef(), 0, 1, score, Float.isNaN(score) ? 0 : score);
+    }
+
+    /**
+     * @return the range of the offsets that holds the position
+     */
+    private static int rangeOf(int[] offsets, int position) {
+        int low = 0;
+        int high = offsets.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void checkNode(HierarchyNode node) {
+        if (node.getHierarchy() != this) {
+            throw new IllegalArgumentException("The node is not of this hierarchy: " + node);
+        }
+    }
+
+    private static void checkPage(int cursor, int pageSize, int count) {
+        if (cursor < 0 || cursor > count || pageSize < 1) {
+            throw new IllegalArgumentException("No page of " + pageSize + " at " + cursor + " of " + count + " nodes");
+        }
+    }
+
+}
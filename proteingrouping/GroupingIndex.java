@@ -0,0 +1,238 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A read-only index over a grouping result, answering the lookups that would
+ * otherwise scan the groups: the group of a protein, the groups whose domain
+ * holds a peptide, the cluster of a group, the proteins of a group, and the
+ * accessions starting with a prefix.
+ *
+ * The index is made once and holds no reference to the result, so the result
+ * may be regrouped or dropped afterwards. It is made of sorted arrays: the
+ * accessions, sorted, with the group of each; the peptide refs, sorted, with
+ * the groups of each as a range of one array of group ids; and the group ids,
+ * sorted, with the cluster and the accessions of each. Every lookup is a
+ * binary search, and as nothing is written after the constructor returns
+ * (the fields are final), any number of threads may look up at once without
+ * locking.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class GroupingIndex {
+
+    private static final int[] NO_GROUPS = new int[0];
+
+    private final String[] accessions;  //sorted
+    private final int[] accessionGroupIds;
+    private final String[] peptideRefs;  //sorted
+    private final int[] peptideOffsets;  //The groups of peptideRefs[i] are peptideGroupIds[peptideOffsets[i]...peptideOffsets[i + 1]]
+    private final int[] peptideGroupIds;
+    private final int[] groupIds;  //sorted
+    private final int[] groupClusterIds;
+    private final int[] groupOffsets;  //The proteins of groupIds[g] are groupAccessions[groupOffsets[g]...groupOffsets[g + 1]]
+    private final int[] groupAccessions;  //indices into accessions
+    private final int clusterCount;
+
+    /**
+     * @param result a grouped, and possibly clustered, result
+     */
+    public GroupingIndex(GroupingResult result) {
+        this(result.getProteinGroups(), result.getProteinGroupClusters());
+    }
+
+    /**
+     * @param proteinGroups
+     * @param proteinGroupClusters null or empty if the groups were not clustered
+     */
+    public GroupingIndex(Map<Integer, ProteinGroup> proteinGroups, Map<Integer, ProteinGroupCluster> proteinGroupClusters) {
+        ProteinGroup[] groups = proteinGroups.values().toArray(new ProteinGroup[0]);
+        Arrays.sort(groups, (a, b) -> Integer.compare(a.getGroupId(), b.getGroupId()));
+        clusterCount = proteinGroupClusters == null ? 0 : proteinGroupClusters.size();
+
+        int proteinCount = 0;
+        for (ProteinGroup group : groups) {
+            proteinCount += group.getProteins().size();
+        }
+        String[] unsortedAccessions = new String[proteinCount];
+        int[] unsortedGroupIds = new int[proteinCount];
+        int p = 0;
+        for (ProteinGroup group : groups) {
+            for (Protein protein : group.getProteins()) {
+                unsortedAccessions[p] = protein.getDbSequenceRef();
+                unsortedGroupIds[p++] = group.getGroupId();
+            }
+        }
+        Integer[] order = sortedOrder(unsortedAccessions);
+        accessions = new String[proteinCount];
+        accessionGroupIds = new int[proteinCount];
+        int[] accessionIndices = new int[proteinCount];  //The position of each protein, in group order, in accessions
+        for (int i = 0; i < proteinCount; i++) {
+            accessions[i] = unsortedAccessions[order[i]];
+            accessionGroupIds[i] = unsortedGroupIds[order[i]];
+            accessionIndices[order[i]] = i;
+        }
+
+        groupIds = new int[groups.length];
+        groupClusterIds = new int[groups.length];
+        groupOffsets = new int[groups.length + 1];
+        groupAccessions = accessionIndices;
+        for (int g = 0; g < groups.length; g++) {
+            groupIds[g] = groups[g].getGroupId();
+            ProteinGroupCluster cluster = groups[g].getProteinGroupCluster();
+            groupClusterIds[g] = cluster == null ? -1 : cluster.getClusterId();
+            groupOffsets[g + 1] = groupOffsets[g] + groups[g].getProteins().size();
+        }
+
+        //The groups of each peptide, by peptide id, then re-ordered by peptide ref
+        PeptideDictionary dictionary = null;
+        int peptideBound = 0;
+        for (ProteinGroup group : groups) {
+            PeptideSet domain = group.getGroupPeptideDomainSet();
+            if (!domain.isEmpty()) {
+                dictionary = domain.getDictionary();
+                peptideBound = Math.max(peptideBound, domain.get(domain.size() - 1) + 1);
+            }
+        }
+        int[] counts = new int[peptideBound + 1];
+        for (ProteinGroup group : groups) {
+            group.getGroupPeptideDomainSet().forEach(id -> counts[id + 1]++);
+        }
+        int peptideCount = 0;
+        for (int id = 0; id < peptideBound; id++) {
+            if (counts[id + 1] > 0) {
+                peptideCount++;
+            }
+            counts[id + 1] += counts[id];
+        }
+        int[] byId = new int[counts[peptideBound]];
+        int[] fill = Arrays.copyOf(counts, peptideBound);
+        for (ProteinGroup group : groups) {  //in id order, so the groups of each peptide are sorted
+            group.getGroupPeptideDomainSet().forEach(id -> byId[fill[id]++] = group.getGroupId());
+        }
+        String[] unsortedRefs = new String[peptideCount];
+        int[] refIds = new int[peptideCount];
+        int r = 0;
+        for (int id = 0; id < peptideBound; id++) {
+            if (counts[id + 1] > counts[id]) {
+                unsortedRefs[r] = dictionary.getPeptide(id).getPeptideRef();
+                refIds[r++] = id;
+            }
+        }
+        order = sortedOrder(unsortedRefs);
+        peptideRefs = new String[peptideCount];
+        peptideOffsets = new int[peptideCount + 1];
+        peptideGroupIds = new int[byId.length];
+        for (int i = 0; i < peptideCount; i++) {
+            int id = refIds[order[i]];
+            peptideRefs[i] = unsortedRefs[order[i]];
+            int length = counts[id + 1] - counts[id];
+            System.arraycopy(byId, counts[id], peptideGroupIds, peptideOffsets[i], length);
+            peptideOffsets[i + 1] = peptideOffsets[i] + length;
+        }
+    }
+
+    private static Integer[] sortedOrder(String[] strings) {
+        Integer[] order = new Integer[strings.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> strings[a].compareTo(strings[b]));
+        return order;
+    }
+
+    public int getProteinCount() {
+        return this.accessions.length;
+    }
+
+    public int getPeptideCount() {
+        return this.peptideRefs.length;
+    }
+
+    public int getGroupCount() {
+        return this.groupIds.length;
+    }
+
+    public int getClusterCount() {
+        return this.clusterCount;
+    }
+
+    /**
+     * @param accession
+     * @return the id of the group of the protein, or -1 if no group holds it
+     */
+    public int getGroupId(String accession) {
+        int i = Arrays.binarySearch(accessions, accession);
+        return i < 0 ? -1 : accessionGroupIds[i];
+    }
+
+    /**
+     * @param peptideRef
+     * @return the ids, sorted, of the groups whose peptide domain holds the
+     * peptide; empty if there are none
+     */
+    public int[] getGroupIds(String peptideRef) {
+        int i = Arrays.binarySearch(peptideRefs, peptideRef);
+        return i < 0 ? NO_GROUPS : Arrays.copyOfRange(peptideGroupIds, peptideOffsets[i], peptideOffsets[i + 1]);
+    }
+
+    /**
+     * @param groupId
+     * @return whether the index has a group of this id
+     */
+    public boolean hasGroup(int groupId) {
+        return Arrays.binarySearch(groupIds, groupId) >= 0;
+    }
+
+    /**
+     * @param groupId
+     * @return the id of the cluster of the group, or -1 if it is in no cluster
+     * or there is no such group
+     */
+    public int getClusterId(int groupId) {
+        int g = Arrays.binarySearch(groupIds, groupId);
+        return g < 0 ? -1 : groupClusterIds[g];
+    }
+
+    /**
+     * @param groupId
+     * @return the accessions of the proteins of the group, in the order of
+     * the group; empty if there is no such group
+     */
+    public List<String> getAccessions(int groupId) {
+        int g = Arrays.binarySearch(groupIds, groupId);
+        if (g < 0) {
+            return Collections.emptyList();
+        }
+        ArrayList<String> proteins = new ArrayList<>(groupOffsets[g + 1] - groupOffsets[g]);
+        for (int i = groupOffsets[g]; i < groupOffsets[g + 1]; i++) {
+            proteins.add(accessions[groupAccessions[i]]);
+        }
+        return proteins;
+    }
+
+    /**
+     * @param prefix
+     * @param limit the most accessions returned
+     * @return the accessions starting with the prefix, sorted
+     */
+    public List<String> findAccessions(String prefix, int limit) {
+        int i = Arrays.binarySearch(accessions, prefix);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        ArrayList<String> found = new ArrayList<>();
+        while (i < accessions.length && found.size() < limit && accessions[i].startsWith(prefix)) {
+            found.add(accessions[i++]);
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Serves the lookups of a GroupingIndex as JSON over HTTP, on the HTTP server
+ * built into the JDK, for other programs on the same machine:
+ *
+ *   GET /protein?accession=P12345   {"accession": "P12345", "group": 12, "cluster": 3}
+ *   GET /peptide?ref=PEPTIDEK       {"peptide": "PEPTIDEK", "groups": [12, 40]}
+ *   GET /group?id=12                {"group": 12, "cluster": 3, "accessions": ["P12345", ...]}
+ *   GET /search?prefix=P12&limit=20 {"prefix": "P12", "accessions": ["P12345", ...]}
+ *
+ * A cluster of -1 means the group is in no cluster. An unknown accession or
+ * group gets a 404 and an unknown peptide an empty list of groups; a missing
+ * or malformed parameter gets a 400, each with {"error": "..."}.
+ *
+ * Requests are handled on a fixed pool of threads; as the index is read-only
+ * they take no lock. The server listens on the loopback address only.
+ *
+ * The responses are small, and with Nagle's algorithm on each waits on a
+ * delayed acknowledgement of the last, some 40 ms, as the JDK server writes
+ * the headers and the body of a response apart. The JDK server turns it off
+ * for its connections only when the system property
+ * sun.net.httpserver.nodelay is true, which it reads once, when the first
+ * server of the JVM is made. A program serving an index should therefore be
+ * started with -Dsun.net.httpserver.nodelay=true (or set the property before
+ * making any HttpServer); this class does not set it for the whole JVM, but
+ * logs a warning when a server is started without it.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class GroupingIndexServer implements Closeable {
+
+    public static final int DEFAULT_SEARCH_LIMIT = 20;
+
+    /**
+     * The system property the JDK server turns Nagle's algorithm off with
+     */
+    public static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final GroupingIndex index;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    /**
+     * Starts serving the index
+     *
+     * @param index
+     * @param port the port to listen on, 0 for any free port
+     * @param threadCount the number of threads handling requests
+     * @throws IOException if the port cannot be bound
+     * @see #NO_DELAY_PROPERTY the system property to start the JVM with
+     */
+    public GroupingIndexServer(GroupingIndex index, int port, int threadCount) throws IOException {
+        this.index = index;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        handlers = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "grouping-index-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        server.createContext("/protein", new Handler() {
+            @Override
+            String respond(HashMap<String, String> query) {
+                String accession = required(query, "accession");
+                int groupId = index.getGroupId(accession);
+                if (groupId < 0) {
+                    throw new NotFound("No group holds " + accession);
+                }
+                StringBuilder json = new StringBuilder("{\"accession\": ");
+                appendString(json, accession);
+                return json.append(", \"group\": ").append(groupId)
+                        .append(", \"cluster\": ").append(index.getClusterId(groupId)).append('}').toString();
+            }
+        });
+        server.createContext("/peptide", new Handler() {
+            @Override
+            String respond(HashMap<String, String> query) {
+                String ref = required(query, "ref");
+                StringBuilder json = new StringBuilder("{\"peptide\": ");
+                appendString(json, ref);
+                json.append(", \"groups\": [");
+                int[] groupIds = index.getGroupIds(ref);
+                for (int i = 0; i < groupIds.length; i++) {
+                    json.append(i == 0 ? "" : ", ").append(groupIds[i]);
+                }
+                return json.append("]}").toString();
+            }
+        });
+        server.createContext("/group", new Handler() {
+            @Override
+            String respond(HashMap<String, String> query) {
+                int groupId = integer(query, "id");
+                if (!index.hasGroup(groupId)) {
+                    throw new NotFound("No group " + groupId);
+                }
+                StringBuilder json = new StringBuilder("{\"group\": ").append(groupId)
+                        .append(", \"cluster\": ").append(index.getClusterId(groupId)).append(", \"accessions\": ");
+                appendStrings(json, index.getAccessions(groupId));
+                return json.append('}').toString();
+            }
+        });
+        server.createContext("/search", new Handler() {
+            @Override
+            String respond(HashMap<String, String> query) {
+                String prefix = required(query, "prefix");
+                int limit = query.containsKey("limit") ? integer(query, "limit") : DEFAULT_SEARCH_LIMIT;
+                StringBuilder json = new StringBuilder("{\"prefix\": ");
+                appendString(json, prefix);
+                json.append(", \"accessions\": ");
+                appendStrings(json, index.findAccessions(prefix, limit));
+                return json.append('}').toString();
+            }
+        });
+        server.start();
+        if (!Boolean.getBoolean(NO_DELAY_PROPERTY)) {
+            Logger.getLogger(GroupingIndexServer.class.getName()).log(Level.WARNING, "The JVM was not started with -D"
+                    + NO_DELAY_PROPERTY + "=true, so each response of the server on port " + getPort()
+                    + " waits some 40 ms on a delayed acknowledgement");
+        }
+    }
+
+    public GroupingIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, waiting a second at most for the requests in progress
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        handlers.shutdown();
+    }
+
+    /**
+     * Turns a query into a JSON response, or into an error response by throwing
+     */
+    private abstract static class Handler implements HttpHandler {
+
+        abstract String respond(HashMap<String, String> query);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    status = 405;
+                    body = error("Only GET is supported");
+                } else {
+                    body = respond(parseQuery(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (NotFound ex) {
+                status = 404;
+                body = error(ex.getMessage());
+            } catch (IllegalArgumentException ex) {
+                status = 400;
+                body = error(ex.getMessage());
+            } catch (RuntimeException ex) {
+                Logger.getLogger(GroupingIndexServer.class.getName()).log(Level.SEVERE, null, ex);
+                status = 500;
+                body = error("Internal error");
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+    }
+
+    private static final class NotFound extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private NotFound(String message) {
+            super(message, null, false, false);
+        }
+
+    }
+
+    private static HashMap<String, String> parseQuery(String rawQuery) {
+        HashMap<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String required(HashMap<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int integer(HashMap<String, String> query, String name) {
+        try {
+            return Integer.parseInt(required(query, name));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter " + name + " is not an integer");
+        }
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\": ");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    private static void appendStrings(StringBuilder json, List<String> strings) {
+        json.append('[');
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            appendString(json, strings.get(i));
+        }
+        json.append(']');
+    }
+
+    private static void appendString(StringBuilder json, String string) {
+        json.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+}
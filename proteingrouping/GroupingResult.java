@@ -0,0 +1,63 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Everything a grouping run ends with, kept together so that it can be
+ * handed around, written to and read from a ResultCache as one: the loaded
+ * proteins and the dictionary of their peptides, the groups and clusters
+ * formed from them, and the session holding the group of each protein, the
+ * subset proteins and the peptide statuses.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class GroupingResult {
+
+    private final HashMap<String, Protein> proteins;
+    private final PeptideDictionary peptideDictionary;
+    private final ConcurrentHashMap<Integer, ProteinGroup> proteinGroups;
+    private final ConcurrentHashMap<Integer, ProteinGroupCluster> proteinGroupClusters;
+    private final GroupingSession session;
+
+    /**
+     * @param proteins the grouped proteins, keyed by accession
+     * @param peptideDictionary the dictionary their peptides are interned in
+     * @param proteinGroups
+     * @param proteinGroupClusters an empty map if the groups were not clustered
+     * @param session the session the groups were formed in
+     */
+    public GroupingResult(HashMap<String, Protein> proteins, PeptideDictionary peptideDictionary,
+            ConcurrentHashMap<Integer, ProteinGroup> proteinGroups,
+            ConcurrentHashMap<Integer, ProteinGroupCluster> proteinGroupClusters, GroupingSession session) {
+        this.proteins = proteins;
+        this.peptideDictionary = peptideDictionary;
+        this.proteinGroups = proteinGroups;
+        this.proteinGroupClusters = proteinGroupClusters;
+        this.session = session;
+    }
+
+    public HashMap<String, Protein> getProteins() {
+        return this.proteins;
+    }
+
+    public PeptideDictionary getPeptideDictionary() {
+        return this.peptideDictionary;
+    }
+
+    public ConcurrentHashMap<Integer, ProteinGroup> getProteinGroups() {
+        return this.proteinGroups;
+    }
+
+    public ConcurrentHashMap<Integer, ProteinGroupCluster> getProteinGroupClusters() {
+        return this.proteinGroupClusters;
+    }
+
+    public GroupingSession getSession() {
+        return this.session;
+    }
+
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Streams the result of a grouping run to a file as it is handed the groups,
+ * in one of three formats:
+ *
+ *   MZTAB  the protein section of an mzTab 1.0 summary identification file,
+ *          one PRT row per group: the first protein of the group is the
+ *          accession and the others its ambiguity members, and optional
+ *          columns give the group and cluster ids, whether the group is a
+ *          singleton group, the subset proteins and the conflicted peptides
+ *   TSV    one row per protein, with the ids of its group and cluster, its
+ *          subset flag and those of its peptides which are conflicted
+ *   JSON   {"groups": [...]}, one object per group with its ids, its proteins
+ *          and their subset flags, and its conflicted peptides
+ *
+ * A group is written as soon as writeGroup is called for it, so it should be
+ * final by then: grouped, and clustered if clusters are wanted. Rows are
+ * encoded straight into one direct buffer, reused for the whole file and
+ * written to the file channel whenever it fills up; no string is made per
+ * row. Memberships and peptide statuses are read from the session of the run.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+public class GroupingResultWriter implements Closeable {
+
+    public static enum Format {MZTAB, TSV, JSON};
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Format format;
+    private final GroupingSession session;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long groupCount;
+    private boolean closed;
+
+    /**
+     * Opens (or truncates) the file and writes the header of the format
+     *
+     * @param file
+     * @param format
+     * @param session the session the groups were formed in, such as the one
+     * of the ProteinGrouper that formed them
+     * @throws IOException
+     */
+    public GroupingResultWriter(File file, Format format, GroupingSession session) throws IOException {
+        this.format = format;
+        this.session = session;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            writeHeader();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the groups, in id order, to the file, and closes it
+     *
+     * @param groups
+     * @param file
+     * @param format
+     * @param session the session the groups were formed in
+     * @throws IOException
+     */
+    public static void write(Map<Integer, ProteinGroup> groups, File file, Format format,
+            GroupingSession session) throws IOException {
+        try (GroupingResultWriter writer = new GroupingResultWriter(file, format, session)) {
+            writer.writeGroups(groups);
+        }
+    }
+
+    /**
+     * Writes the groups in id order
+     *
+     * @param groups
+     * @throws IOException
+     */
+    public void writeGroups(Map<Integer, ProteinGroup> groups) throws IOException {
+        int[] ids = groups.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        for (int id : ids) {
+            writeGroup(groups.get(id));
+        }
+    }
+
+    /**
+     * Writes the group; groups may be handed over from several threads, one
+     * at a time
+     *
+     * @param group
+     * @throws IOException
+     */
+    public synchronized void writeGroup(ProteinGroup group) throws IOException {
+        if (closed) {
+            throw new IOException("The writer is closed");
+        }
+        switch (format) {
+            case MZTAB:
+                writeMzTabRow(group);
+                break;
+            case TSV:
+                writeTsvRows(group);
+                break;
+            case JSON:
+                writeJsonObject(group);
+                break;
+        }
+        groupCount++;
+    }
+
+    /**
+     * @return the number of groups written so far
+     */
+    public synchronized long getGroupCount() {
+        return this.groupCount;
+    }
+
+    /**
+     * Writes the end of the format, if it has one, and closes the file
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (format == Format.JSON) {
+                putAscii(groupCount == 0 ? "]}\n" : "\n]}\n");
+            }
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        switch (format) {
+            case MZTAB:
+                putAscii("MTD\tmzTab-version\t1.0.0\n");
+                putAscii("MTD\tmzTab-mode\tSummary\n");
+                putAscii("MTD\tmzTab-type\tIdentification\n");
+                putAscii("MTD\tdescription\tProtein groups\n");
+                putAscii("MTD\tms_run[1]-location\tnull\n");
+                putAscii("MTD\tprotein_search_engine_score[1]\t[, , protein grouping, ]\n");
+                putAscii("\n");
+                putAscii("PRH\taccession\tdescription\ttaxid\tspecies\tdatabase\tdatabase_version\tsearch_engine"
+                        + "\tbest_search_engine_score[1]\tambiguity_members\tmodifications\tprotein_coverage"
+                        + "\topt_global_group_id\topt_global_cluster_id\topt_global_singleton"
+                        + "\topt_global_subset_members\topt_global_conflicted_peptides\n");
+                break;
+            case TSV:
+                putAscii("group_id\tcluster_id\tsingleton\taccession\tsubset\tconflicted_peptides\n");
+                break;
+            case JSON:
+                putAscii("{\"groups\": [");
+                break;
+        }
+    }
+
+    private void writeMzTabRow(ProteinGroup group) throws IOException {
+        putAscii("PRT\t");
+        if (group.getProteins().isEmpty()) {
+            putAscii("null");
+        } else {
+            putText(group.getProteins().get(0).getDbSequenceRef());
+        }
+        putAscii("\tnull\tnull\tnull\tnull\tnull\tnull\tnull\t");
+        boolean any = false;
+        for (int p = 1; p < group.getProteins().size(); p++) {
+            putAscii(any ? "," : "");
+            putText(group.getProteins().get(p).getDbSequenceRef());
+            any = true;
+        }
+        putAscii(any ? "\tnull\tnull\t" : "null\tnull\tnull\t");
+        putInt(group.getGroupId());
+        put('\t');
+        putClusterId(group);
+        putAscii(group.isSingletonGroup() ? "\t1\t" : "\t0\t");
+        any = false;
+        for (Protein protein : group.getProteins()) {
+            if (session.isSubsetProtein(protein)) {
+                putAscii(any ? "," : "");
+                putText(protein.getDbSequenceRef());
+                any = true;
+            }
+        }
+        putAscii(any ? "\t" : "null\t");
+        if (!putConflictedPeptides(group.getGroupPeptideDomainSet(), ",", false)) {
+            putAscii("null");
+        }
+        put('\n');
+    }
+
+    private void writeTsvRows(ProteinGroup group) throws IOException {
+        for (Protein protein : group.getProteins()) {
+            putInt(group.getGroupId());
+            put('\t');
+            putClusterId(group);
+            putAscii(group.isSingletonGroup() ? "\t1\t" : "\t0\t");
+            putText(protein.getDbSequenceRef());
+            putAscii(session.isSubsetProtein(protein) ? "\t1\t" : "\t0\t");
+            putConflictedPeptides(protein.getObservedPeptideSet(), ";", false);
+            put('\n');
+        }
+    }
+
+    private void writeJsonObject(ProteinGroup group) throws IOException {
+        putAscii(groupCount == 0 ? "\n{\"id\": " : ",\n{\"id\": ");
+        putInt(group.getGroupId());
+        putAscii(", \"cluster\": ");
+        putClusterId(group);
+        putAscii(group.isSingletonGroup() ? ", \"singleton\": true, \"proteins\": [" : ", \"singleton\": false, \"proteins\": [");
+        boolean first = true;
+        for (Protein protein : group.getProteins()) {
+            putAscii(first ? "{\"accession\": \"" : ", {\"accession\": \"");
+            putText(protein.getDbSequenceRef(), true);
+            putAscii(session.isSubsetProtein(protein) ? "\", \"subset\": true}" : "\", \"subset\": false}");
+            first = false;
+        }
+        putAscii("], \"conflictedPeptides\": [");
+        putConflictedPeptides(group.getGroupPeptideDomainSet(), ", ", true);
+        putAscii("]}");
+    }
+
+    private void putClusterId(ProteinGroup group) throws IOException {
+        if (group.getProteinGroupCluster() == null) {
+            putAscii("null");
+        } else {
+            putInt(group.getProteinGroupCluster().getClusterId());
+        }
+    }
+
+    /**
+     * Writes the sequences of the conflicted peptides of the set, separated by
+     * the separator, and quoted as JSON strings if json is set
+     *
+     * @return whether any peptide was written
+     */
+    private boolean putConflictedPeptides(PeptideSet peptides, String separator, boolean json) throws IOException {
+        PeptideDictionary dictionary = peptides.getDictionary();
+        boolean any = false;
+        for (int i = 0; i < peptides.size(); i++) {
+            Peptide peptide = dictionary.getPeptide(peptides.get(i));
+            if (session.getPeptideStatus(peptide) != Peptide.Status.CONFLICTED) {
+                continue;
+            }
+            if (any) {
+                putAscii(separator);
+            }
+            if (json) {
+                put('"');
+                putText(peptide.getPeptideRef(), true);
+                put('"');
+            } else {
+                putText(peptide.getPeptideRef());
+            }
+            any = true;
+        }
+        return any;
+    }
+
+    private void putText(String text) throws IOException {
+        putText(text, false);
+    }
+
+    /**
+     * Writes the text as UTF-8. Tabs and line breaks, which would break a row,
+     * are written as spaces, unless the text is a JSON string, in which case
+     * quotes, backslashes and control characters are escaped.
+     */
+    private void putText(String text, boolean json) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (json && (c == '"' || c == '\\')) {
+                    put('\\');
+                    put(c);
+                } else if (c < 0x20 || c == 0x7F) {
+                    if (json) {
+                        putAscii("\\u00");
+                        put(Character.forDigit(c >> 4, 16));
+                        put(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        put(' ');
+                    }
+                } else {
+                    put(c);
+                }
+            } else if (c < 0x800) {
+                ensureRemaining(2);
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ensureRemaining(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                put('?');  //an unpaired surrogate, as the standard encoder writes it
+            } else {
+                ensureRemaining(3);
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void putAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put(text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes the decimal digits of the value without making a string of them
+     */
+    private void putInt(int value) throws IOException {
+        ensureRemaining(11);
+        long remaining = value;
+        if (remaining < 0) {
+            buffer.put((byte) '-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= remaining) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + remaining / divisor));
+            remaining %= divisor;
+        }
+    }
+
+    private void put(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) c);
+    }
+
+    private void ensureRemaining(int byteCount) throws IOException {
+        if (buffer.remaining() < byteCount) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
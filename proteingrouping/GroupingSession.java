@@ -0,0 +1,195 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The state of one grouping run, kept apart from the loaded proteins and
+ * peptides so that several runs may group the same loaded data at once, or
+ * different data side by side in one JVM, without contending or interfering.
+ *
+ * A session hands out the ids of the groups and clusters of its run from
+ * counters of its own, starting at 0, with no lock. It also holds what the
+ * run finds out about the loaded objects: the group of each protein, which
+ * proteins are subset proteins, and the status of each peptide. Read them
+ * here (getProteinGroup, isSubsetProtein, getPeptideStatus) rather than from
+ * the proteins and peptides. The groups and clusters themselves are made by
+ * the run, so they belong to it alone.
+ *
+ * A ProteinGrouper made without a session gets a session of its own which
+ * writes the memberships and statuses to the proteins and peptides instead,
+ * as the grouper always did; such runs must not share loaded objects.
+ *
+ * The phases and counters of the run are recorded in the PipelineMetrics of
+ * the session, its own unless one is given.
+ *
+ * A session is meant for one run over the peptides of one dictionary.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupingSession {
+
+    private static final Peptide.Status[] STATUSES = Peptide.Status.values();
+
+    private final boolean writingThrough;
+    private final PipelineMetrics metrics;
+    private final AtomicInteger groupIds;
+    private final AtomicInteger clusterIds;
+    private final ConcurrentHashMap<Protein, ProteinGroup> proteinGroups;
+    private final Set<Protein> subsetProteins;
+    private PeptideDictionary dictionary;
+    private byte[] peptideStatuses;  //one more than the Peptide.Status ordinal, 0 if not set; indexed by peptide id
+
+    public GroupingSession() {
+        this(new PipelineMetrics());
+    }
+
+    /**
+     * @param metrics where the phases and counters of the run are recorded
+     */
+    public GroupingSession(PipelineMetrics metrics) {
+        this(false, metrics);
+    }
+
+    private GroupingSession(boolean writingThrough, PipelineMetrics metrics) {
+        this.writingThrough = writingThrough;
+        this.metrics = metrics;
+        groupIds = new AtomicInteger();
+        clusterIds = new AtomicInteger();
+        proteinGroups = new ConcurrentHashMap<>();
+        subsetProteins = ConcurrentHashMap.newKeySet();
+        peptideStatuses = new byte[0];
+    }
+
+    /**
+     * @return a session whose ids are its own, but which sets the group and
+     * subset flag of proteins and the status of peptides on the objects
+     */
+    static GroupingSession writingThrough() {
+        return writingThrough(new PipelineMetrics());
+    }
+
+    static GroupingSession writingThrough(PipelineMetrics metrics) {
+        return new GroupingSession(true, metrics);
+    }
+
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return whether memberships and statuses are set on the proteins and peptides themselves
+     */
+    public boolean isWritingThrough() {
+        return this.writingThrough;
+    }
+
+    public int newGroupId() {
+        return groupIds.getAndIncrement();
+    }
+
+    /**
+     * Takes a run of consecutive group ids at once, as for groups numbered
+     * in an order of their own
+     *
+     * @param count
+     * @return the first id of the run
+     */
+    public int newGroupIds(int count) {
+        return groupIds.getAndAdd(count);
+    }
+
+    public int newClusterId() {
+        return clusterIds.getAndIncrement();
+    }
+
+    /**
+     * @param protein
+     * @return the group of the protein in this run, or null if it has none
+     */
+    public ProteinGroup getProteinGroup(Protein protein) {
+        return writingThrough ? protein.getProteinGroup() : proteinGroups.get(protein);
+    }
+
+    void setProteinGroup(Protein protein, ProteinGroup proteinGroup) {
+        if (writingThrough) {
+            protein.setProteinGroup(proteinGroup);
+        } else if (proteinGroup == null) {
+            proteinGroups.remove(protein);
+        } else {
+            proteinGroups.put(protein, proteinGroup);
+        }
+    }
+
+    public boolean isSubsetProtein(Protein protein) {
+        return writingThrough ? protein.isSubsetProtein() : subsetProteins.contains(protein);
+    }
+
+    void setSubsetProtein(Protein protein, boolean value) {
+        if (writingThrough) {
+            protein.subsetProtein(value);
+        } else if (value) {
+            subsetProteins.add(protein);
+        } else {
+            subsetProteins.remove(protein);
+        }
+    }
+
+    /**
+     * @param peptide a peptide of the dictionary the run grouped
+     * @return the status of the peptide in this run; RESOLVED, as for a new
+     * peptide, if the run did not set it
+     */
+    public Peptide.Status getPeptideStatus(Peptide peptide) {
+        if (writingThrough) {
+            return peptide.getPeptideStatus();
+        }
+        int peptideId = peptide.getPeptideId();
+        if (peptideId < 0 || peptideId >= peptideStatuses.length || peptideStatuses[peptideId] == 0) {
+            return Peptide.Status.RESOLVED;
+        }
+        return STATUSES[peptideStatuses[peptideId] - 1];
+    }
+
+    /**
+     * Makes room for the statuses of every peptide of the dictionary; called
+     * before statuses are set, from one thread, as the statuses of different
+     * peptides may then be set from several threads at once
+     *
+     * @param peptideDictionary
+     * @throws IllegalArgumentException if the session has already set statuses
+     * of another dictionary
+     */
+    synchronized void prepareStatuses(PeptideDictionary peptideDictionary) {
+        if (writingThrough) {
+            return;
+        }
+        if (dictionary == null) {
+            dictionary = peptideDictionary;
+        } else if (dictionary != peptideDictionary) {
+            throw new IllegalArgumentException("A grouping session holds the statuses of the peptides of one dictionary");
+        }
+        if (peptideStatuses.length < peptideDictionary.size()) {
+            peptideStatuses = Arrays.copyOf(peptideStatuses, peptideDictionary.size());
+        }
+    }
+
+    /**
+     * @param peptideDictionary the dictionary prepared with prepareStatuses
+     * @param peptideId
+     * @param status
+     */
+    void setPeptideStatus(PeptideDictionary peptideDictionary, int peptideId, Peptide.Status status) {
+        if (writingThrough) {
+            peptideDictionary.getPeptide(peptideId).setPeptideStatus(status);
+        } else {
+            peptideStatuses[peptideId] = (byte) (status.ordinal() + 1);
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A node of a GroupingHierarchy: a cluster, a group, a protein or a peptide,
+ * with the counts and scores a viewer shows before the node is expanded.
+ * Nodes are made as pages are fetched and hold no children; fetch them from
+ * the hierarchy the node came from.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+public class HierarchyNode {
+
+    public static enum Kind {CLUSTER, GROUP, PROTEIN, PEPTIDE};
+
+    private final GroupingHierarchy hierarchy;
+    private final Kind kind;
+    private final int index;  //The position of the node in the arrays of the hierarchy, or the peptide id
+    private final int id;
+    private final String label;
+    private final int childCount;
+    private final int peptideCount;
+    private final float bestScore;
+    private final float totalScore;
+
+    HierarchyNode(GroupingHierarchy hierarchy, Kind kind, int index, int id, String label,
+            int childCount, int peptideCount, float bestScore, float totalScore) {
+        this.hierarchy = hierarchy;
+        this.kind = kind;
+        this.index = index;
+        this.id = id;
+        this.label = label;
+        this.childCount = childCount;
+        this.peptideCount = peptideCount;
+        this.bestScore = bestScore;
+        this.totalScore = totalScore;
+    }
+
+    GroupingHierarchy getHierarchy() {
+        return this.hierarchy;
+    }
+
+    int getIndex() {
+        return this.index;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * @return the cluster id, the group id, the position of the protein in
+     * the hierarchy, or the peptide id
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return "cluster 3", "group 12", the accession of the protein, or the
+     * peptide ref
+     */
+    public String getLabel() {
+        return this.label;
+    }
+
+    public int getChildCount() {
+        return this.childCount;
+    }
+
+    /**
+     * @return the size of the peptide domain of a cluster or group, the
+     * number of observed peptides of a protein, 1 for a peptide
+     */
+    public int getPeptideCount() {
+        return this.peptideCount;
+    }
+
+    /**
+     * @return the highest score of the peptides counted by getPeptideCount,
+     * NaN if none has a score
+     */
+    public float getBestScore() {
+        return this.bestScore;
+    }
+
+    /**
+     * @return the sum of the scores of the peptides counted by getPeptideCount
+     */
+    public float getTotalScore() {
+        return this.totalScore;
+    }
+
+    @Override
+    public String toString() {
+        return this.label + " (" + this.childCount + " children, " + this.peptideCount + " peptides)";
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * One page of the children of a node of a GroupingHierarchy, or of its
+ * roots, with the cursor of the next page.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.List;
+
+public class HierarchyPage {
+
+    private final List<HierarchyNode> nodes;
+    private final int nextCursor;
+    private final int totalCount;
+
+    HierarchyPage(List<HierarchyNode> nodes, int nextCursor, int totalCount) {
+        this.nodes = nodes;
+        this.nextCursor = nextCursor;
+        this.totalCount = totalCount;
+    }
+
+    public List<HierarchyNode> getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * @return the cursor to fetch the next page with, or -1 if this page is the last
+     */
+    public int getNextCursor() {
+        return this.nextCursor;
+    }
+
+    public boolean hasNext() {
+        return this.nextCursor >= 0;
+    }
+
+    /**
+     * @return the number of children of the node, over all pages
+     */
+    public int getTotalCount() {
+        return this.totalCount;
+    }
+
+}
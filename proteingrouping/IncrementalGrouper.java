@@ -0,0 +1,329 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Keeps the grouping of a growing study up to date as new runs are added to
+ * it, without grouping the whole study again each time.
+ *
+ * The grouper holds the proteins of the study in a StudyGraph (so the best
+ * match of each peptide over all runs is kept), and the groups, clusters and
+ * peptide statuses of the study. A delta is a map of proteins, as a loader
+ * returns it for a new run: its proteins and protein-peptide edges are added
+ * to the study, and only the peptide-connected components they touch are
+ * grouped again.
+ *
+ * Components of the protein-peptide graph only ever merge as edges are added,
+ * so they are tracked with a union-find whose roots hold the member proteins
+ * of their component. The groups of other components cannot change, and all
+ * the groups of a component form one cluster (two proteins that share a
+ * peptide put it in the domains of both their groups), so regrouping a
+ * component costs about its own size. The proteins of a component are
+ * grouped in the order they joined the study, so the groups are the same as
+ * those ProteinGrouper.groupProteins gives for getProteins().
+ *
+ * The grouper is not thread safe.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class IncrementalGrouper {
+
+    private final ProteinGrouper grouper;
+    private final GroupingSession session;
+    private final StudyGraph study;
+    private final ArrayList<Protein> proteins;  //indexed by the order the proteins joined the study
+    private final HashMap<String, Integer> proteinIndices;
+
+    private int[] parents;  //union-find over the protein indices
+    private final ArrayList<ArrayList<Integer>> components;  //the members of each component, at its root
+    private int[] claimingProteins;  //for each peptide id, one more than the first protein to observe it
+
+    private final PeptideGroupIndex peptideGroupIndex;
+    private final PeptideGroupCounts peptideGroupCounts;
+    private final ConcurrentHashMap<Integer, ProteinGroup> groupHashMap;
+    private final ConcurrentHashMap<Integer, ProteinGroupCluster> clusterHashMap;
+
+    /**
+     * A grouper which sets the group of each protein and the status of each
+     * peptide of the study on the proteins and peptides
+     */
+    public IncrementalGrouper() {
+        this(new ProteinGrouper().getSession());
+    }
+
+    /**
+     * @param session the session the ids, memberships and statuses of the
+     * study are kept in, for as long as the grouper is used
+     */
+    public IncrementalGrouper(GroupingSession session) {
+        grouper = new ProteinGrouper(session);
+        this.session = session;
+        study = new StudyGraph();
+        proteins = new ArrayList<>();
+        proteinIndices = new HashMap<>();
+        parents = new int[16];
+        components = new ArrayList<>();
+        claimingProteins = new int[16];
+        peptideGroupIndex = new PeptideGroupIndex(0);
+        peptideGroupCounts = new PeptideGroupCounts(0);
+        groupHashMap = new ConcurrentHashMap<>();
+        clusterHashMap = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the proteins of the study, in the order they joined it
+     */
+    public LinkedHashMap<String, Protein> getProteins() {
+        return study.getProteins();
+    }
+
+    /**
+     * @return the groups of the study, keyed by group id
+     */
+    public ConcurrentHashMap<Integer, ProteinGroup> getProteinGroups() {
+        return this.groupHashMap;
+    }
+
+    /**
+     * @return the clusters of the study, keyed by cluster id
+     */
+    public ConcurrentHashMap<Integer, ProteinGroupCluster> getProteinGroupClusters() {
+        return this.clusterHashMap;
+    }
+
+    public PeptideDictionary getPeptideDictionary() {
+        return study.getPeptideDictionary();
+    }
+
+    public GroupingSession getSession() {
+        return this.session;
+    }
+
+    /**
+     * Adds the proteins of the delta, and their observed and unique peptides,
+     * to the study, and groups again the components the new edges touch. The
+     * proteins of the delta are only read, so their peptides may come from any
+     * dictionary.
+     *
+     * @param delta proteins keyed by accession, as returned by a loader
+     * @return the groups and clusters that changed
+     */
+    public GroupingChanges apply(HashMap<String, Protein> delta) {
+        ArrayList<Integer> touchedProteins = new ArrayList<>();
+        for (Protein deltaProtein : delta.values()) {
+            Integer index = proteinIndices.get(deltaProtein.getDbSequenceRef());
+            boolean changed = index == null;
+            if (changed) {
+                index = addProtein(deltaProtein.getDbSequenceRef());
+            }
+            Protein protein = proteins.get(index);
+            for (Peptide deltaPeptide : deltaProtein.getObservedPeptides()) {
+                Peptide peptide = study.addPeptide(deltaPeptide);
+                if (!protein.getObservedPeptideSet().contains(peptide.getPeptideId())) {
+                    protein.addObservedPeptides(peptide);
+                    claim(peptide.getPeptideId(), index);
+                    changed = true;
+                }
+            }
+            for (Peptide deltaPeptide : deltaProtein.getUniquePeptides()) {
+                Peptide peptide = study.addPeptide(deltaPeptide);
+                if (!protein.getUniquePeptideSet().contains(peptide.getPeptideId())) {
+                    protein.addUniquePeptides(peptide);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                touchedProteins.add(index);
+            }
+        }
+
+        int peptideCount = study.getPeptideDictionary().size();
+        peptideGroupIndex.ensureCapacity(peptideCount);
+        peptideGroupCounts.ensureCapacity(peptideCount);
+        GroupingChanges changes = new GroupingChanges();
+        LinkedHashSet<Integer> touchedRoots = new LinkedHashSet<>();
+        for (int index : touchedProteins) {
+            touchedRoots.add(find(index));
+        }
+        long comparisons = 0;
+        for (int root : touchedRoots) {
+            comparisons += regroupComponent(components.get(root), changes);
+        }
+        session.getMetrics().add(PipelineMetrics.Counter.CANDIDATE_COMPARISONS, comparisons);
+        return changes;
+    }
+
+    private int addProtein(String accession) {
+        int index = proteins.size();
+        proteins.add(study.addProtein(accession));
+        proteinIndices.put(accession, index);
+        if (index == parents.length) {
+            parents = Arrays.copyOf(parents, parents.length * 2);
+        }
+        parents[index] = index;
+        ArrayList<Integer> component = new ArrayList<>(1);
+        component.add(index);
+        components.add(component);
+        return index;
+    }
+
+    /**
+     * Joins the component of the protein with that of the first protein to
+     * observe the peptide
+     */
+    private void claim(int peptideId, int protein) {
+        if (peptideId >= claimingProteins.length) {
+            claimingProteins = Arrays.copyOf(claimingProteins, Math.max(peptideId + 1, claimingProteins.length * 2));
+        }
+        if (claimingProteins[peptideId] == 0) {
+            claimingProteins[peptideId] = protein + 1;
+        } else {
+            union(claimingProteins[peptideId] - 1, protein);
+        }
+    }
+
+    private int find(int protein) {
+        while (parents[protein] != protein) {
+            parents[protein] = parents[parents[protein]];  //path halving
+            protein = parents[protein];
+        }
+        return protein;
+    }
+
+    /**
+     * Merges the smaller of the two components into the larger one
+     */
+    private void union(int first, int second) {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        if (firstRoot == secondRoot) {
+            return;
+        }
+        if (components.get(firstRoot).size() < components.get(secondRoot).size()) {
+            int root = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = root;
+        }
+        parents[secondRoot] = firstRoot;
+        components.get(firstRoot).addAll(components.get(secondRoot));
+        components.set(secondRoot, null);
+    }
+
+    /**
+     * Throws away the groups and clusters of the component, groups its
+     * proteins again and sets the status of its peptides. Groups and clusters
+     * which come out as they were are kept, with their ids.
+     *
+     * @return the number of candidate groups compared
+     */
+    private long regroupComponent(ArrayList<Integer> component, GroupingChanges changes) {
+        Collections.sort(component);
+        ArrayList<Protein> componentProteins = new ArrayList<>(component.size());
+        LinkedHashSet<ProteinGroup> oldGroups = new LinkedHashSet<>();
+        LinkedHashSet<ProteinGroupCluster> oldClusters = new LinkedHashSet<>();
+        for (int index : component) {
+            Protein protein = proteins.get(index);
+            componentProteins.add(protein);
+            ProteinGroup oldGroup = session.getProteinGroup(protein);
+            if (oldGroup != null && oldGroups.add(oldGroup) && oldGroup.getProteinGroupCluster() != null) {
+                oldClusters.add(oldGroup.getProteinGroupCluster());
+            }
+            session.setProteinGroup(protein, null);
+            session.setSubsetProtein(protein, false);
+            //The groups of the component are the only ones indexed or counted under its peptides
+            protein.getObservedPeptideSet().forEach(peptideId -> {
+                peptideGroupIndex.clear(peptideId);
+                peptideGroupCounts.clear(peptideId);
+            });
+        }
+        changes.addRegroupedProteins(componentProteins.size());
+
+        ConcurrentHashMap<Integer, ProteinGroup> formedGroups = new ConcurrentHashMap<>();
+        long comparisons = grouper.groupComponent(componentProteins, formedGroups, peptideGroupIndex, peptideGroupCounts);
+
+        //Keep the old group wherever the same one was formed again
+        HashMap<ArrayList<Protein>, ProteinGroup> oldGroupsByProteins = new HashMap<>();
+        for (ProteinGroup oldGroup : oldGroups) {
+            groupHashMap.remove(oldGroup.getGroupId());
+            oldGroupsByProteins.put(oldGroup.getProteins(), oldGroup);
+        }
+        HashSet<ProteinGroup> keptGroups = new HashSet<>();
+        ArrayList<ProteinGroup> groups = new ArrayList<>(formedGroups.size());
+        for (ProteinGroup group : formedGroups.values()) {
+            ProteinGroup oldGroup = oldGroupsByProteins.get(group.getProteins());
+            if (oldGroup != null && isSameGroup(oldGroup, group)) {
+                for (Protein protein : oldGroup.getProteins()) {
+                    session.setProteinGroup(protein, oldGroup);
+                }
+                keptGroups.add(oldGroup);
+                group = oldGroup;
+            } else {
+                changes.getAddedGroupIds().add(group.getGroupId());
+            }
+            groupHashMap.put(group.getGroupId(), group);
+            groups.add(group);
+        }
+        for (ProteinGroup oldGroup : oldGroups) {
+            if (!keptGroups.contains(oldGroup)) {
+                changes.getRemovedGroupIds().add(oldGroup.getGroupId());
+            }
+        }
+        groups.sort(Comparator.comparingInt(ProteinGroup::getGroupId));
+
+        //All the groups of a component share peptides with each other, so they form one cluster if there are several
+        ProteinGroupCluster oldCluster = oldClusters.size() == 1 ? oldClusters.iterator().next() : null;
+        if (oldCluster == null || !oldCluster.getProteinGroups().equals(groups)) {
+            for (ProteinGroupCluster cluster : oldClusters) {
+                clusterHashMap.remove(cluster.getClusterId());
+                changes.getRemovedClusterIds().add(cluster.getClusterId());
+            }
+            for (ProteinGroup group : keptGroups) {
+                group.setProteinGroupCluster(null);
+                group.getSharedClusterPeptideSet().clear();
+            }
+            if (groups.size() > 1) {
+                ProteinGroupCluster cluster = new ProteinGroupCluster(session.newClusterId());
+                for (ProteinGroup group : groups) {
+                    PeptideSet domain = group.getGroupPeptideDomainSet();
+                    PeptideSet sharedPeptides = new PeptideSet(domain.getDictionary());
+                    domain.forEach(peptideId -> {
+                        if (peptideGroupCounts.get(peptideId) > 1) {
+                            sharedPeptides.add(peptideId);
+                        }
+                    });
+                    cluster.addMember(group, sharedPeptides);
+                }
+                cluster.setClusterPeptideDomainToMembers();
+                clusterHashMap.put(cluster.getClusterId(), cluster);
+                changes.getAddedClusterIds().add(cluster.getClusterId());
+            }
+        }
+        //Otherwise the same groups, with the same domains, share the same peptides as before
+
+        PeptideDictionary dictionary = study.getPeptideDictionary();
+        session.prepareStatuses(dictionary);
+        for (Protein protein : componentProteins) {
+            protein.getObservedPeptideSet().forEach(peptideId -> session.setPeptideStatus(dictionary, peptideId,
+                    peptideGroupCounts.get(peptideId) > 1 ? Peptide.Status.CONFLICTED : Peptide.Status.RESOLVED));
+        }
+        return comparisons;
+    }
+
+    private static boolean isSameGroup(ProteinGroup oldGroup, ProteinGroup group) {
+        return oldGroup.isSingletonGroup() == group.isSingletonGroup()
+                && oldGroup.getGroupPeptideDomainSet().equals(group.getGroupPeptideDomainSet())
+                && oldGroup.getUniquePeptideSet().equals(group.getUniquePeptideSet());
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Reads a file from start to end through memory mappings, for files larger
+ * than one MappedByteBuffer, which stops at 2 GB. The file is mapped in
+ * segments of up to 1 GB; bulk reads copy from each segment in turn, and a
+ * number straddling two segments is put together from its bytes.
+ *
+ * Every read first checks that the file holds the bytes it needs, and throws
+ * an IOException naming the file if it does not, so that a truncated file is
+ * reported as such rather than as a BufferUnderflowException. Readers of
+ * lengths and counts taken from the file should check them with require
+ * before allocating for them.
+ *
+ * The mappings are released once the reader is unreachable. Not safe for use
+ * by several threads at once.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+class MappedFileReader {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+
+    private final String source;
+    private final ByteBuffer[] segments;
+    private final long size;
+    private long position;
+
+    /**
+     * Maps the whole file of the channel, which can be closed once this returns
+     *
+     * @param channel
+     * @param source the file, for the error messages
+     * @throws IOException
+     */
+    MappedFileReader(FileChannel channel, String source) throws IOException {
+        this.source = source;
+        this.size = channel.size();
+        this.segments = new ByteBuffer[(int) ((size + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT)];
+        for (int s = 0; s < segments.length; s++) {
+            long start = (long) s << SEGMENT_SHIFT;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, size - start));
+        }
+    }
+
+    long position() {
+        return this.position;
+    }
+
+    long remaining() {
+        return size - position;
+    }
+
+    /**
+     * @param bytes
+     * @throws IOException if the file ends before the given number of bytes
+     * from the position
+     */
+    void require(long bytes) throws IOException {
+        if (bytes < 0) {
+            throw new IOException("Negative length " + bytes + " at byte " + position + ": " + source);
+        }
+        if (bytes > remaining()) {
+            throw new IOException("Truncated at byte " + position + " (" + bytes + " more bytes expected, "
+                    + remaining() + " left): " + source);
+        }
+    }
+
+    byte get() throws IOException {
+        require(1);
+        byte value = segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+        position++;
+        return value;
+    }
+
+    int getInt() throws IOException {
+        require(4);
+        ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        int within = (int) (position & SEGMENT_MASK);
+        if (within + 4 <= segment.limit()) {
+            position += 4;
+            return segment.getInt(within);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (get() & 0xff);
+        }
+        return value;
+    }
+
+    int[] getInts(int count) throws IOException {
+        require(4L * count);
+        int[] values = new int[count];
+        int done = 0;
+        while (done < count) {
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int within = (int) (position & SEGMENT_MASK);
+            int whole = Math.min(count - done, (segment.limit() - within) / 4);
+            if (whole == 0) {
+                values[done++] = getInt();
+                continue;
+            }
+            segment.slice(within, 4 * whole).asIntBuffer().get(values, done, whole);
+            done += whole;
+            position += 4L * whole;
+        }
+        return values;
+    }
+
+    float[] getFloats(int count) throws IOException {
+        int[] bits = getInts(count);
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Float.intBitsToFloat(bits[i]);
+        }
+        return values;
+    }
+
+    byte[] getBytes(int count) throws IOException {
+        require(count);
+        byte[] bytes = new byte[count];
+        int done = 0;
+        while (done < count) {
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int within = (int) (position & SEGMENT_MASK);
+            int length = Math.min(count - done, segment.limit() - within);
+            segment.get(within, bytes, done, length);
+            done += length;
+            position += length;
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * What PipelineMetrics had recorded at one moment: for each phase the number
+ * of runs and their wall time, thread CPU time, process CPU time and
+ * allocated bytes, added up over the runs, and the value of each counter.
+ * A snapshot does not change as more is recorded.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import proteomics.proteingrouping.PipelineMetrics.Counter;
+import proteomics.proteingrouping.PipelineMetrics.Phase;
+
+public final class MetricsSnapshot {
+
+    private final long[] phases;  //PipelineMetrics.FIELDS values per phase, in the order of the Phase values
+    private final long[] counters;  //in the order of the Counter values
+
+    MetricsSnapshot(long[] phases, long[] counters) {
+        this.phases = phases;
+        this.counters = counters;
+    }
+
+    /**
+     * @param phase
+     * @return the number of runs of the phase
+     */
+    public long getCount(Phase phase) {
+        return phases[phase.ordinal() * PipelineMetrics.FIELDS];
+    }
+
+    public long getWallNanos(Phase phase) {
+        return phases[phase.ordinal() * PipelineMetrics.FIELDS + 1];
+    }
+
+    /**
+     * @param phase
+     * @return the CPU time of the threads that ran the phase, not counting
+     * the threads they handed work to
+     */
+    public long getCpuNanos(Phase phase) {
+        return phases[phase.ordinal() * PipelineMetrics.FIELDS + 2];
+    }
+
+    /**
+     * @param phase
+     * @return the CPU time of the whole process while the phase ran, which
+     * takes in any other work running at the same time
+     */
+    public long getProcessCpuNanos(Phase phase) {
+        return phases[phase.ordinal() * PipelineMetrics.FIELDS + 3];
+    }
+
+    /**
+     * @param phase
+     * @return the bytes allocated by the threads that ran the phase, not
+     * counting the threads they handed work to
+     */
+    public long getAllocatedBytes(Phase phase) {
+        return phases[phase.ordinal() * PipelineMetrics.FIELDS + 4];
+    }
+
+    public long getCounter(Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    /**
+     * @return the snapshot as a JSON object, with the phases that ran and
+     * every counter, e.g. {"phases": {"GROUP": {"count": 1, "wallNanos": ...}}, "counters": {"PROTEINS": 12, ...}}
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"phases\": {");
+        String separator = "";
+        for (Phase phase : Phase.values()) {
+            if (getCount(phase) == 0) {
+                continue;
+            }
+            json.append(separator).append('"').append(phase.name()).append("\": {")
+                    .append("\"count\": ").append(getCount(phase))
+                    .append(", \"wallNanos\": ").append(getWallNanos(phase))
+                    .append(", \"cpuNanos\": ").append(getCpuNanos(phase))
+                    .append(", \"processCpuNanos\": ").append(getProcessCpuNanos(phase))
+                    .append(", \"allocatedBytes\": ").append(getAllocatedBytes(phase))
+                    .append('}');
+            separator = ", ";
+        }
+        json.append("}, \"counters\": {");
+        separator = "";
+        for (Counter counter : Counter.values()) {
+            json.append(separator).append('"').append(counter.name()).append("\": ").append(getCounter(counter));
+            separator = ", ";
+        }
+        return json.append("}}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Loads the mzIdentML files of a study concurrently and merges them into one
+ * StudyGraph, ready to be grouped.
+ *
+ * Each file is parsed by MzIdentMLLoader.processIdentMLFile on a fixed pool
+ * of parser threads. At most filesInFlight files are submitted to the pool
+ * at a time, parsed or being parsed, and the next file is only submitted once
+ * the oldest one has been merged, so the heap held by parsed files stays
+ * bounded however many files there are. Files are merged on the calling
+ * thread, while the pool goes on parsing, and in the order they were given,
+ * so the merged graph (the order of its proteins, the ids of its peptides and
+ * the match kept on score ties) does not depend on the number of parser threads.
+ *
+ * A PsmFilter may be given, which every file is read through; its q-value
+ * cutoff is applied to each file on its own, as each is a search of its own.
+ *
+ * A file that fails to load, such as one that was cut short (see
+ * MzIdentMLLoader), is logged and left out: its loader throws before any of
+ * its proteins or peptides are handed over, so nothing of it is merged.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class MzIdentMLBatchLoader {
+
+    private final List<File> files;
+    private final int parserCount;
+    private final int filesInFlight;
+    private final PsmFilter filter;
+    private PipelineMetrics metrics;
+    private StudyGraph study;
+
+    /**
+     * Parses on as many threads as there are processors, with twice as many
+     * files in flight
+     *
+     * @param files
+     */
+    public MzIdentMLBatchLoader(List<File> files) {
+        this(files, Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Nothing is read here; see load
+     *
+     * @param files the files of the study, merged in this order
+     * @param parserCount the number of threads parsing files
+     * @param filesInFlight the most files held parsed or being parsed at a time
+     */
+    public MzIdentMLBatchLoader(List<File> files, int parserCount, int filesInFlight) {
+        this(files, parserCount, filesInFlight, new PsmFilter());
+    }
+
+    /**
+     * Same as MzIdentMLBatchLoader(files, parserCount, filesInFlight), reading
+     * every file through the filter
+     *
+     * @param files
+     * @param parserCount
+     * @param filesInFlight
+     * @param filter the matches to keep
+     */
+    public MzIdentMLBatchLoader(List<File> files, int parserCount, int filesInFlight, PsmFilter filter) {
+        if (parserCount < 1 || filesInFlight < 1) {
+            throw new IllegalArgumentException("parserCount and filesInFlight must be positive: " + parserCount + ", " + filesInFlight);
+        }
+        this.files = new ArrayList<>(files);
+        this.parserCount = parserCount;
+        this.filesInFlight = filesInFlight;
+        this.filter = filter;
+        this.metrics = new PipelineMetrics();
+    }
+
+    /**
+     * @return the metrics the loading and grouping of the study are recorded in
+     */
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Records the loading and grouping in the given metrics rather than in
+     * this loader's own; to be called before load
+     *
+     * @param metrics
+     */
+    public synchronized void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param directory
+     * @return the .mzid and .mzIdentML files of the directory, sorted by name
+     * @throws IOException
+     */
+    public static List<File> listIdentMLFiles(File directory) throws IOException {
+        ArrayList<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory.toPath())) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString().toLowerCase();
+                if (Files.isRegularFile(entry) && (name.endsWith(".mzid") || name.endsWith(".mzidentml"))) {
+                    files.add(entry.toFile());
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Loads and merges every file, the first time it is called. A file that
+     * fails to load is logged and left out whole.
+     *
+     * @return the merged proteins and peptides of the files
+     */
+    @SuppressWarnings("try")
+    public synchronized StudyGraph load() {
+        if (study != null) {
+            return study;
+        }
+        StudyGraph merged = new StudyGraph();
+        ExecutorService parsers = Executors.newFixedThreadPool(parserCount, runnable -> {
+            Thread thread = new Thread(runnable, "mzIdentML-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<ParsedFile>> inFlight = new ArrayDeque<>();
+        try {
+            int next = 0;
+            while (next < files.size() || !inFlight.isEmpty()) {
+                while (next < files.size() && inFlight.size() < filesInFlight) {
+                    File file = files.get(next++);
+                    inFlight.add(parsers.submit(() -> new ParsedFile(file, filter, metrics)));
+                }
+                try {
+                    ParsedFile parsed = inFlight.poll().get();
+                    try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.MERGE_STUDY)) {
+                        merged.merge(parsed.peptideHashMap, parsed.proteinHashMap);
+                    }
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(MzIdentMLBatchLoader.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            Logger.getLogger(MzIdentMLBatchLoader.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            parsers.shutdownNow();
+        }
+        study = merged;
+        return study;
+    }
+
+    /**
+     * Loads the files if they are not loaded yet, and groups the proteins of
+     * the study with ProteinGrouper.groupProteinsInParallel
+     *
+     * @return the groups, keyed by group id
+     */
+    public ConcurrentHashMap<Integer, ProteinGroup> groupProteins() {
+        return new ProteinGrouper(GroupingSession.writingThrough(metrics)).groupProteinsInParallel(load().getProteins());
+    }
+
+    /**
+     * Groups and clusters the proteins of the study, or reads the result from
+     * the cache if the same files have been grouped with the same filter
+     * before; the files are then not loaded at all
+     *
+     * @param cache
+     * @return the grouped and clustered study
+     * @throws IOException if a file cannot be read to find its hash
+     */
+    public GroupingResult group(ResultCache cache) throws IOException {
+        String key = cache.key(files, "MzIdentMLBatchLoader " + filter + " groupProteinsInParallel clusterProteinGroups");
+        return cache.getOrCompute(key, () -> {
+            StudyGraph loaded = load();
+            ProteinGrouper grouper = new ProteinGrouper(GroupingSession.writingThrough(metrics));
+            ConcurrentHashMap<Integer, ProteinGroup> groups = grouper.groupProteinsInParallel(loaded.getProteins());
+            ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = grouper.clusterProteinGroups(groups);
+            return new GroupingResult(loaded.getProteins(), loaded.getPeptideDictionary(), groups, clusters, grouper.getSession());
+        });
+    }
+
+    /**
+     * The peptides and proteins of one file
+     */
+    private static final class ParsedFile {
+
+        private final HashMap<String, Peptide> peptideHashMap = new HashMap<>();
+        private final HashMap<String, Protein> proteinHashMap = new HashMap<>();
+
+        private ParsedFile(File file, PsmFilter filter, PipelineMetrics metrics) {
+            MzIdentMLLoader loader = new MzIdentMLLoader(file, filter);
+            loader.setMetrics(metrics);
+            loader.processIdentMLFile(peptideHashMap, proteinHashMap);
+        }
+
+    }
+
+}
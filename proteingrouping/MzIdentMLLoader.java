@@ -1,202 +1,447 @@
 /**
  * Copyright 2016-2017 Maduka Attamah
  *
- * This class does the following: 
- * 
+ * This class does the following:
+ *
  * (a.) Loads the peptides from the given mzIdentML
- * file into a hash map. The key of the hash map is the Peptide Ref, which can 
+ * file into a hash map. The key of the hash map is the Peptide Ref, which can
  * be used (as seen in the mzIdentML files) to refer to same
  * peptides found in different "spectra". For the case where the same peptides are
  * loaded from more than one "spectrum", only the peptide with the highest score
- * is maintained in the entry corresponding to the peptide evidence ref. 
- * 
+ * is maintained in the entry corresponding to the peptide evidence ref.
+ *
  * (b.) Loads the database proteins together with their associated peptides
  * (identified by the peptide evidence ref) into a hash map. This hash map is
  * used in tandem with the one from (a.)
  *
+ * Both maps are filled in a single forward pass over the file with a StAX
+ * stream reader, so no DOM is ever built and the memory used while parsing
+ * is bounded by the current element rather than by the size of the file.
+ *
+ * A PsmFilter may be given to drop matches as they are read. Rank is checked
+ * on the opening tag of a SpectrumIdentificationItem, which is then skipped
+ * unread, and score and decoy status on its closing tag, before the match is
+ * stored. Decoy proteins are the DBSequences whose accession has the decoy
+ * prefix; an item is a decoy match if all of its peptide evidences are on
+ * decoy proteins, and the protein detection hypotheses of decoy proteins are
+ * skipped.
+ *
+ * A file which cannot be read, or is not well-formed XML, as when it was cut
+ * short, fails the load: an UncheckedIOException is thrown by the call that
+ * read it and by every later call, and no protein of the file is given out.
+ *
  * @author Maduka Attamah
  */
 
 package proteomics.proteingrouping;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 
 public class MzIdentMLLoader {
 
-    private DocumentBuilderFactory dbFactory;
-    private DocumentBuilder dBuilder;
-    private Document document;
+    private final File file;
+    private boolean loaded;
+    private RuntimeException failure;  //Why the file could not be loaded, thrown by every call once it is set
 
     /**
      * For the peptideMap, the key is the peptide reference, whereas the value
      * is the peptide object constructed Likewise for dbProteinMap, the key is
      * the dbSequence ref, and the value is the protein object constructed
      */
-    private HashMap<String, Peptide> peptideMap;
-    private HashMap<String, Protein> dbProteinMap;
+    private HashMap<String, Peptide> peptideMap;  //made when first asked for, see getPeptideMap
+    private final PsmStore psms;  //The best match of each peptide ref
+    private float threshold;  //The lowest score kept by the q-value cutoff of the filter, once the file is read
+    private final HashMap<String, Protein> dbProteinMap;
+    private final PeptideDictionary peptideDictionary;
 
     /**
-     * I am using the DOM Parser approach to XML parsing because I expect the
-     * sample data set to be relatively small. This may not be the optimal
-     * approach for very large XML files. See SAX Parser, JDOM Parser, StAX
-     * Parser, XPath Parser, DOM4J Parser etc.
+     * The peptide refs of each protein detection hypothesis, kept until the end
+     * of the pass. ProteinAmbiguityGroup elements may come before the
+     * SpectrumIdentificationItems they refer to, and a later item may still
+     * replace a peptide with a higher scoring one, so the refs are only resolved
+     * against the kept matches once the whole file has been read.
+     */
+    private final LinkedHashMap<String, ArrayList<String>> pendingProteins;
+
+    private final PsmFilter filter;
+    private final HashSet<String> decoySequences;  //ids of the DBSequences of decoy proteins
+    private final HashSet<String> decoyEvidences;  //ids of the PeptideEvidences on decoy proteins
+    private final TargetDecoyScores matchScores;  //null unless the filter has a q-value cutoff
+    private PipelineMetrics metrics;
+
+    /**
+     * Nothing is read here; the file is streamed the first time its content is
+     * asked for.
      *
      * @param file
      */
     public MzIdentMLLoader(File file) {
-        try {
-            dbFactory = DocumentBuilderFactory.newInstance();
-            dBuilder = dbFactory.newDocumentBuilder();
-            document = dBuilder.parse(file);
-        } catch (ParserConfigurationException ex) {
-            Logger.getLogger(MzIdentMLLoader.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (SAXException ex) {
-            Logger.getLogger(MzIdentMLLoader.class.getName()).log(Level.SEVERE, null, ex);
+        this(file, new PsmFilter());
+    }
+
+    /**
+     * Same as MzIdentMLLoader(file), keeping only the matches the filter keeps
+     *
+     * @param file
+     * @param filter
+     */
+    public MzIdentMLLoader(File file, PsmFilter filter) {
+        this.file = file;
+        this.filter = filter;
+        decoySequences = new HashSet<>();
+        decoyEvidences = new HashSet<>();
+        matchScores = filter.isFilteringByQValue() ? new TargetDecoyScores() : null;
+        this.loaded = false;
+        psms = new PsmStore();
+        dbProteinMap = new HashMap<>();
+        peptideDictionary = new PeptideDictionary();
+        pendingProteins = new LinkedHashMap<>();
+        metrics = new PipelineMetrics();
+    }
+
+    /**
+     * @return the metrics the phases and counters of loading are recorded in
+     */
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Records the loading in the given metrics rather than in this loader's own
+     *
+     * @param metrics
+     */
+    public synchronized void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Streams through the file once, loading the peptides (see (a.)) and
+     * collecting the protein detection hypotheses (see (b.)) as they come, and
+     * then resolves the proteins against the loaded peptides.
+     *
+     * @throws UncheckedIOException if the file cannot be read or is not
+     * well-formed, in which case the proteins are not resolved
+     */
+    @SuppressWarnings("try")
+    private synchronized void load() {
+        if (failure != null) {
+            throw failure;
+        }
+        if (loaded) {
+            return;
+        }
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.PARSE_MZIDENTML);
+                InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            failure = new UncheckedIOException(new IOException("Malformed mzIdentML file " + file + ": " + ex.getMessage(), ex));
         } catch (IOException ex) {
-            Logger.getLogger(MzIdentMLLoader.class.getName()).log(Level.SEVERE, null, ex);
+            failure = new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            failure = ex;  //e.g. a number that does not parse
         }
-
+        if (failure != null) {
+            throw failure;
+        }
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.RESOLVE_PROTEINS)) {
+            resolveProteins();
+        }
+        loaded = true;
     }
 
     /**
-     * Loads up peptide from given mzIdentML file. Note: I ignore peptides with
-     * "passThreshold=false"
+     * The forward pass. Note: I ignore peptides with "passThreshold=false", but
+     * contrary to the case of peptides, I do not ignore protein detection
+     * hypotheses where "passThreshold=false".
      *
-     * @return
-     */
-    private HashMap loadPeptides() {
-        NodeList spectrumNodes = document.getElementsByTagName("SpectrumIdentificationResult");
-        for (int c = 0; c < spectrumNodes.getLength(); c++) {
-            Node spectrumNode = spectrumNodes.item(c);
-            if (spectrumNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element sElement = (Element) spectrumNode;
-                String spectrumId = sElement.getAttribute("spectrumID");
-
-                NodeList peptideNodes = sElement.getElementsByTagName("SpectrumIdentificationItem");
-                for (int d = 0; d < peptideNodes.getLength(); d++) {
-                    Node peptideNode = peptideNodes.item(d);
-                    if (spectrumNode.getNodeType() == Node.ELEMENT_NODE) {
-                        Element pElement = (Element) peptideNode;
-                        //Now I can get needed attributes of the Spectrum Identification Item
-                        //Skip peptides that do not reach the "threshold"
-                        if (pElement.getAttribute("passThreshold").equalsIgnoreCase("false")) {
-                            continue;
+     * @param reader
+     * @throws XMLStreamException
+     */
+    private void parse(XMLStreamReader reader) throws XMLStreamException {
+        //State of the SpectrumIdentificationResult / SpectrumIdentificationItem being read
+        String spectrumId = null;
+        boolean inItem = false;
+        String peptideRef = null;
+        String rank = null;
+        String psmId = null;
+        String peptideScore = "";
+        boolean uniqueToAProtein = true;
+        int evidenceCount = 0;  //peptide evidences of the item, and how many of them are on decoy proteins
+        int decoyEvidenceCount = 0;
+        boolean tellingDecoys = filter.getDecoyPrefix() != null;
+        long itemCount = 0;  //SpectrumIdentificationItems read, and how many of them were dropped
+        long droppedCount = 0;
+
+        //State of the ProteinDetectionHypothesis being read
+        String dbSequenceRef = null;
+        ArrayList<String> peptideRefs = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "DBSequence":
+                        if (tellingDecoys && filter.isDecoy(attribute(reader, "accession"))) {
+                            decoySequences.add(attribute(reader, "id"));
+                        }
+                        break;
+                    case "PeptideEvidence":
+                        if (tellingDecoys && decoySequences.contains(attribute(reader, "dBSequence_ref"))) {
+                            decoyEvidences.add(attribute(reader, "id"));
+                        }
+                        break;
+                    case "SpectrumIdentificationResult":
+                        spectrumId = attribute(reader, "spectrumID");
+                        break;
+                    case "SpectrumIdentificationItem":
+                        //Skip peptides that do not reach the "threshold", or the rank cutoff
+                        itemCount++;
+                        rank = attribute(reader, "rank");
+                        if (attribute(reader, "passThreshold").equalsIgnoreCase("false")
+                                || !filter.acceptsRank(Integer.parseInt(rank))) {
+                            droppedCount++;
+                            skipElement(reader);
+                            break;
                         }
                         //else
-                        String peptideRef = pElement.getAttribute("peptide_ref");
-                        String rank = pElement.getAttribute("rank");
-                        String psmId = pElement.getAttribute("id");
-                        String peptideScore = "";
-                        boolean uniqueToAProtein = true;
-                        NodeList cvParamNodes = pElement.getElementsByTagName("cvParam");
-                        for (int e = 0; e < cvParamNodes.getLength(); e++) {
-                            Node cvParamNode = cvParamNodes.item(e);
-                            if (cvParamNode.getNodeType() == Node.ELEMENT_NODE) {
-                                Element cvpElement = (Element) cvParamNode;
-                                //Look for the one that has score and peptide uniqueness
-                                if (cvpElement.getAttribute("name").equalsIgnoreCase("Mascot:score")) {
-                                    peptideScore = cvpElement.getAttribute("value");
-                                } else if (cvpElement.getAttribute("name").equalsIgnoreCase("peptide shared in multiple proteins")) {
-                                    uniqueToAProtein = false;
-                                }
+                        inItem = true;
+                        peptideRef = attribute(reader, "peptide_ref");
+                        psmId = attribute(reader, "id");
+                        peptideScore = "";
+                        uniqueToAProtein = true;
+                        evidenceCount = 0;
+                        decoyEvidenceCount = 0;
+                        break;
+                    case "PeptideEvidenceRef":
+                        if (inItem && tellingDecoys) {
+                            evidenceCount++;
+                            if (decoyEvidences.contains(attribute(reader, "peptideEvidence_ref"))) {
+                                decoyEvidenceCount++;
+                            }
+                        }
+                        break;
+                    case "cvParam":
+                        if (inItem) {
+                            //Look for the one that has score and peptide uniqueness
+                            String name = attribute(reader, "name");
+                            if (name.equalsIgnoreCase("Mascot:score")) {
+                                peptideScore = attribute(reader, "value");
+                            } else if (name.equalsIgnoreCase("peptide shared in multiple proteins")) {
+                                uniqueToAProtein = false;
                             }
                         }
-                        //Now create the new peptide
-                        Peptide peptide = new Peptide(peptideRef, psmId, Integer.valueOf(spectrumId),
-                                Integer.valueOf(rank), Float.valueOf(peptideScore), uniqueToAProtein);
-
-                        //Use lambda expression to ensure that the where this peptide has already been found in 
-                        // another spectrum, we keep the version that has the higher score
-                        // I am here assumming that the same peptide cannot be found in the same spectrum otherwise
-                        // the following condition will be more complex.
-                        peptideMap.compute(peptideRef, (k, v) -> v == null ? peptide : (peptide.getScore() > v.getScore() ? peptide : v));
-                    }
+                        break;
+                    case "ProteinDetectionHypothesis":
+                        dbSequenceRef = attribute(reader, "dBSequence_ref");
+                        if (decoySequences.contains(dbSequenceRef)) {
+                            dbSequenceRef = null;
+                            skipElement(reader);
+                            break;
+                        }
+                        peptideRefs = new ArrayList<>();
+                        break;
+                    case "PeptideHypothesis":
+                        if (peptideRefs != null) {
+                            String ref = attribute(reader, "peptideEvidence_ref");
+                            //Reads the peptided evidence ref uptill the character before the second underscore (it doesn't read the second underscore)
+                            //This value is used as the peptide reference number - same as the key of the peptideMap
+                            //Note that this is application dependent i.e. the application that produced the mzIdentML file
+                            //So keep an eye on it
+                            peptideRefs.add(ref.substring(0, ref.indexOf("-", ref.indexOf("_"))));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "SpectrumIdentificationItem":
+                        if (inItem) {
+                            inItem = false;
+                            float score = Float.parseFloat(peptideScore);
+                            if (!filter.accepts(Integer.parseInt(rank), score)) {
+                                droppedCount++;
+                                break;
+                            }
+                            boolean decoy = evidenceCount > 0 && decoyEvidenceCount == evidenceCount;
+                            if (matchScores != null) {
+                                matchScores.add(score, decoy);
+                            }
+                            if (decoy) {
+                                droppedCount++;
+                                break;
+                            }
+                            //Where this peptide has already been found in another spectrum, the store
+                            // keeps the version that has the higher score
+                            // I am here assumming that the same peptide cannot be found in the same spectrum otherwise
+                            // the following condition will be more complex.
+                            psms.addPsm(peptideRef, psmId, Integer.parseInt(spectrumId),
+                                    Integer.parseInt(rank), score, uniqueToAProtein);
+                        }
+                        break;
+                    case "SpectrumIdentificationResult":
+                        spectrumId = null;
+                        break;
+                    case "ProteinDetectionHypothesis":
+                        if (peptideRefs != null) {
+                            pendingProteins.put(dbSequenceRef, peptideRefs);
+                        }
+                        dbSequenceRef = null;
+                        peptideRefs = null;
+                        break;
+                    default:
+                        break;
                 }
             }
         }
-        return peptideMap;
+        metrics.add(PipelineMetrics.Counter.PSMS_PARSED, itemCount);
+        metrics.add(PipelineMetrics.Counter.PSMS_FILTERED, droppedCount);
     }
 
     /**
-     * Loads up identified proteins, together with associated peptides, from the
-     * given mzIdentML file. Contrary to the case of peptides, I do not ignore
-     * the cases where "passThreshold=false".
-     *
-     * @return
-     */
-    private HashMap loadIdentifiedProteins() {
-        NodeList pagNodes = document.getElementsByTagName("ProteinAmbiguityGroup");
-        for (int c = 0; c < pagNodes.getLength(); c++) {
-            Node pagNode = pagNodes.item(c);
-            if (pagNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element pagElement = (Element) pagNode;
-                NodeList pdhNodes = pagElement.getElementsByTagName("ProteinDetectionHypothesis");
-                for (int d = 0; d < pdhNodes.getLength(); d++) {
-                    Node pdhNode = pdhNodes.item(d);
-                    if (pdhNode.getNodeType() == Node.ELEMENT_NODE) {
-                        Element pdhElement = (Element) pdhNode;
-                        String dbSequenceRef = pdhElement.getAttribute("dBSequence_ref");
-                        Protein protein = new Protein(dbSequenceRef);
-
-                        //Now get the peptides associated with this protein
-                        NodeList assocPeptideNodes = pdhElement.getElementsByTagName("PeptideHypothesis");
-                        for (int e = 0; e < assocPeptideNodes.getLength(); e++) {
-                            Node assocPeptideNode = assocPeptideNodes.item(e);
-                            if (assocPeptideNode.getNodeType() == Node.ELEMENT_NODE) {
-                                Element pepElement = (Element) assocPeptideNode;
-                                String peptideRef = pepElement.getAttribute("peptideEvidence_ref");
-                                //Reads the peptided evidence ref uptill the character before the second underscore (it doesn't read the second underscore)
-                                //This value is used as the peptide reference number - same as the key of the peptideMap
-                                //Note that this is application dependent i.e. the application that produced the mzIdentML file
-                                //So keep an eye on it
-                                peptideRef = peptideRef.substring(0, peptideRef.indexOf("-", peptideRef.indexOf("_")));
-                                //Now use this ref to pull out the actual peptide from the peptideMap 
-                                //Note that this assumes that the peptideMap has already been populated
-                                Peptide peptide = peptideMap.get(peptideRef);
-                                protein.addObservedPeptides(peptide);
-
-                                //Check if the current peptide is unique to this protein
-                                if (peptide.isUniqueToAProtein()) {
-                                    protein.addUniquePeptides(peptide);
-                                }
+     * Builds the identified proteins, together with associated peptides, from
+     * the protein detection hypotheses collected during the pass. Peptides that
+     * were not kept (i.e. did not pass the threshold or the filter, or fall
+     * below its q-value cutoff) are not associated with any protein.
+     */
+    private void resolveProteins() {
+        threshold = matchScores == null ? Float.NEGATIVE_INFINITY : matchScores.scoreThreshold(filter.getMaxQValue());
+        int[] ids = new int[psms.size()];  //the id of the peptide of each row, -1 until it is interned
+        Arrays.fill(ids, -1);
+        for (Map.Entry<String, ArrayList<String>> entry : pendingProteins.entrySet()) {
+            String dbSequenceRef = entry.getKey();
+            Protein protein = new Protein(dbSequenceRef, peptideDictionary);
+            for (String peptideRef : entry.getValue()) {
+                //Now use this ref to pull out the row of the actual peptide, if it was kept
+                int row = psms.getRow(peptideRef);
+                if (row < 0 || !isKept(row)) {
+                    continue;
+                }
+                if (ids[row] < 0) {
+                    ids[row] = peptideDictionary.internRow(psms, row);
+                }
+                protein.getObservedPeptideSet().add(ids[row]);
 
-                            }
-                        }
-                        //Add the protein to the proteinMap, but do so only if this protein has at least one associated peptide
-                        if (protein.getObservedPeptides().size() > 0) {
-                            dbProteinMap.put(dbSequenceRef, protein);
-                        }
-                    }
+                //Check if the current peptide is unique to this protein
+                if (psms.isUniqueToAProtein(row)) {
+                    protein.getUniquePeptideSet().add(ids[row]);
                 }
             }
+            //Add the protein to the proteinMap, but do so only if this protein has at least one associated peptide
+            if (!protein.getObservedPeptideSet().isEmpty()) {
+                dbProteinMap.put(dbSequenceRef, protein);
+            }
         }
-        return dbProteinMap;
+        pendingProteins.clear();
+    }
+
+    /**
+     * @return whether the match of the row passed the q-value cutoff of the
+     * filter, if it has one
+     */
+    private boolean isKept(int row) {
+        return matchScores == null || TargetDecoyScores.reaches(psms.getScore(row), threshold);
+    }
+
+    /**
+     * Same as the DOM getAttribute, an absent attribute reads as the empty string
+     */
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Moves the reader to the end tag of the element it is positioned on
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * @return the loaded peptides, keyed by peptide ref
+     * @throws UncheckedIOException if the file cannot be loaded
+     */
+    public synchronized HashMap<String, Peptide> getPeptideMap() {
+        load();
+        if (peptideMap == null) {
+            peptideMap = new HashMap<>();
+            for (int row = 0; row < psms.size(); row++) {
+                if (isKept(row)) {
+                    int id = peptideDictionary.getPeptideId(psms.getSequence(row));
+                    peptideMap.put(psms.getSequence(row), id >= 0 ? peptideDictionary.getPeptide(id) : psms.newPeptide(row));
+                }
+            }
+        }
+        return this.peptideMap;
+    }
+
+    /**
+     * @return the dictionary in which the peptides of the loaded proteins are interned
+     * @throws UncheckedIOException if the file cannot be loaded
+     */
+    public PeptideDictionary getPeptideDictionary() {
+        load();
+        return this.peptideDictionary;
+    }
+
+    /**
+     * @return the identified proteins, keyed by dbSequence ref
+     * @throws UncheckedIOException if the file cannot be loaded
+     */
+    public HashMap<String, Protein> loadProteinData() {
+        load();
+        return this.dbProteinMap;
     }
 
     /**
      * This method is then convenient to call inside the "run" method of a
      * runnable or callable for the purpose of multi-threading. The passed in
-     * parameters will contain the results of the processing;
+     * maps are filled with the results of the processing (see
+     * MzIdentMLBatchLoader for a driver that does so for many files).
      *
-     * @param peptideHashMap
-     * @param proteinHashMap
+     * @param peptideHashMap receives the loaded peptides, keyed by peptide ref
+     * @param proteinHashMap receives the identified proteins, keyed by dbSequence ref
+     * @throws UncheckedIOException if the file cannot be loaded, in which case
+     * neither map is changed
      */
     public void processIdentMLFile(HashMap<String, Peptide> peptideHashMap, HashMap<String, Protein> proteinHashMap) {
-        peptideHashMap = this.loadPeptides();
-        proteinHashMap = this.loadIdentifiedProteins();
+        peptideHashMap.putAll(this.getPeptideMap());
+        proteinHashMap.putAll(this.loadProteinData());
     }
 
 }
@@ -9,9 +9,15 @@
 package proteomics.proteingrouping;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,18 +34,90 @@ public class MzTabLoader {
     public static final String SEQUENCE = "SEQUENCE";
     public static final String PROTEINS = "PROTEINS";
 
+    private PeptideDictionary peptideDictionary;
+    private final PsmFilter filter;
+    private PipelineMetrics metrics;
+
     public MzTabLoader(File inputFile) {
+        this(inputFile, new PsmFilter());
+    }
+
+    /**
+     * @param inputFile
+     * @param filter the matches to keep; rows it drops are never made into
+     * peptides or proteins
+     */
+    public MzTabLoader(File inputFile, PsmFilter filter) {
         this.file = inputFile;
+        this.peptideDictionary = new PeptideDictionary();
+        this.filter = filter;
+        this.metrics = new PipelineMetrics();
+    }
+
+    /**
+     * @return the dictionary in which the peptides of the loaded proteins are interned
+     */
+    public PeptideDictionary getPeptideDictionary() {
+        return this.peptideDictionary;
+    }
+
+    /**
+     * @return the metrics the phases and counters of loading are recorded in
+     */
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Records the loading in the given metrics rather than in this loader's own
+     *
+     * @param metrics
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
     }
 
+    /**
+     * Loads a tab separated mzTab file (one starting with its MTD metadata or
+     * PSH header lines) with the MzTabPsmReader, and otherwise reads the file
+     * as a comma separated PSM table with a header row.
+     *
+     * @return the proteins, keyed by accession
+     */
     public HashMap<String, Protein> loadProteinData() {
+        return loadProteinData(1);
+    }
+
+    /**
+     * Same as loadProteinData(), reading a tab separated mzTab file in
+     * chunkCount chunks in parallel. The comma separated table is always read
+     * on this thread.
+     *
+     * @param chunkCount
+     * @return the proteins, keyed by accession
+     */
+    @SuppressWarnings("try")
+    public HashMap<String, Protein> loadProteinData(int chunkCount) {
+        if (isTabSeparatedMzTab()) {
+            MzTabPsmReader reader = new MzTabPsmReader(this.file, filter);
+            reader.setMetrics(metrics);
+            HashMap<String, Protein> proteinHashMap = reader.loadProteinData(chunkCount);
+            this.peptideDictionary = reader.getPeptideDictionary();
+            return proteinHashMap;
+        }
         //Use this hash map to keep the proteins spotted 
         HashMap<String, Protein> proteinHashMap = new HashMap<>(); //key is proteinseq
+        long rowCount = 0;  //PSM rows read, and how many of them were dropped
+        long droppedCount = 0;
 
-        try {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.PARSE_MZTAB)) {
             Scanner scanner = new Scanner(this.file, "UTF-8");
             //Get the header row
             String[] headerRow = scanner.nextLine().toUpperCase().split(",");
+            HashMap<String, Integer> headerIndex = new HashMap<>();
+            for (int c = 0; c < headerRow.length; c++) {
+                headerIndex.put(headerRow[c].trim(), c);
+            }
 
             /*
              *  Find the ID of the columns we are interested in (I process only a 
@@ -47,47 +125,105 @@ public class MzTabLoader {
              */
             
             //1. Assume PSM_ID to be the peptide ref
-            int SEQUENCE_COL = Arrays.binarySearch(headerRow, SEQUENCE);
-            int PSM_ID_COL = Arrays.binarySearch(headerRow, PSM_ID);
-            int RANK_COL  = Arrays.binarySearch(headerRow, RANK);
-            int SCORE_COL = Arrays.binarySearch(headerRow, SCORE);
-            int SPECTRUM_ID_COL = Arrays.binarySearch(headerRow, SPECTRUM_ID);
-            int PROTEINS_COL = Arrays.binarySearch(headerRow, PROTEINS);
+            int SEQUENCE_COL = column(headerIndex, SEQUENCE);
+            int PSM_ID_COL = column(headerIndex, PSM_ID);
+            int RANK_COL  = column(headerIndex, RANK);
+            int SCORE_COL = column(headerIndex, SCORE);
+            int SPECTRUM_ID_COL = column(headerIndex, SPECTRUM_ID);
+            int PROTEINS_COL = column(headerIndex, PROTEINS);
 
+            //The same sequence may be matched in several rows; as in the mzIdentML loader only
+            // the highest scoring of them is kept, so the proteins are resolved once all rows are read
+            PsmStore psms = new PsmStore();
+            LinkedHashMap<String, ArrayList<Integer>> proteinSequences = new LinkedHashMap<>();
+            //Each row is one match; with a q-value cutoff they are counted as target or decoy matches
+            TargetDecoyScores matchScores = filter.isFilteringByQValue() ? new TargetDecoyScores() : null;
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
                 String[] columns = line.split(",");
+                rowCount++;
 
-                //Create a peptide object from the current row of data
-                Peptide peptide = new Peptide(columns[SEQUENCE_COL], columns[PSM_ID_COL],
-                        Integer.parseInt(columns[SPECTRUM_ID_COL]),
-                        Integer.parseInt(columns[RANK_COL]),
-                        Float.parseFloat(columns[SCORE_COL]));
+                //Drop the row before anything is made of it if it is filtered out
+                int rank = Integer.parseInt(columns[RANK_COL]);
+                float score = Float.parseFloat(columns[SCORE_COL]);
+                if (!filter.accepts(rank, score)) {
+                    droppedCount++;
+                    continue;
+                }
+                String[] proteins = columns[PROTEINS_COL].split(";");
+                boolean decoy = true;
+                for (String proteinSeq : proteins) {
+                    decoy &= filter.isDecoy(proteinSeq);
+                }
+                if (matchScores != null) {
+                    matchScores.add(score, decoy);
+                }
+                if (decoy) {
+                    droppedCount++;
+                    continue;
+                }
+
+                //Keep the current row of data if it is the best match of its sequence so far
+                int sequence = psms.addPsm(columns[SEQUENCE_COL], columns[PSM_ID_COL],
+                        Integer.parseInt(columns[SPECTRUM_ID_COL]), rank, score, false);
 
-                //Create the protein objects, from the proteins associated with this peptide;
-                //Associate the protein objects with the current peptide object
-                String[] proteins = columns[PROTEINS_COL].split(";"); 
+                //Note the (target) proteins associated with this peptide
                 for (String proteinSeq : proteins) {
-                    //check if this protein is already in hashmap
-                    if (proteinHashMap.containsKey(proteinSeq)) {
-                        Protein aProtein = proteinHashMap.get(proteinSeq);
-                        aProtein.addObservedPeptides(peptide);
-                    } else {
-                        //Create a new protein object
-                        Protein protein = new Protein(proteinSeq);
-                        //Add this peptide to it's list of peptides
-                        protein.addObservedPeptides(peptide);
-                        //Update the hasmap
-                        proteinHashMap.put(proteinSeq, protein);
+                    if (!filter.isDecoy(proteinSeq)) {
+                        proteinSequences.computeIfAbsent(proteinSeq, k -> new ArrayList<>()).add(sequence);
                     }
                 }
 
             }
+
+            //Intern the kept sequences and create the protein objects; sequences below the q-value cutoff get no id
+            float threshold = matchScores == null ? Float.NEGATIVE_INFINITY : matchScores.scoreThreshold(filter.getMaxQValue());
+            int[] ids = new int[psms.size()];
+            for (int sequence = 0; sequence < ids.length; sequence++) {
+                boolean kept = matchScores == null || TargetDecoyScores.reaches(psms.getScore(sequence), threshold);
+                ids[sequence] = kept ? -1 : -2;  //-1 until interned, -2 if left out
+            }
+            for (Map.Entry<String, ArrayList<Integer>> entry : proteinSequences.entrySet()) {
+                Protein protein = new Protein(entry.getKey(), peptideDictionary);
+                for (int sequence : entry.getValue()) {
+                    if (ids[sequence] == -1) {
+                        ids[sequence] = peptideDictionary.internRow(psms, sequence);
+                    }
+                    if (ids[sequence] >= 0) {
+                        protein.getObservedPeptideSet().add(ids[sequence]);
+                    }
+                }
+                if (!protein.getObservedPeptideSet().isEmpty()) {
+                    proteinHashMap.put(entry.getKey(), protein);
+                }
+            }
         } catch (FileNotFoundException ex) {
             Logger.getLogger(MzTabLoader.class.getName()).log(Level.SEVERE, null, ex);
         }
+        metrics.add(PipelineMetrics.Counter.PSMS_PARSED, rowCount);
+        metrics.add(PipelineMetrics.Counter.PSMS_FILTERED, droppedCount);
         //Now we have a hash map of all proteins, and the proteins encapsulate the peptides identified with them
         return proteinHashMap;
     }
 
+    private static int column(HashMap<String, Integer> headerIndex, String name) {
+        Integer index = headerIndex.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("The header row has no " + name + " column");
+        }
+        return index;
+    }
+
+    private boolean isTabSeparatedMzTab() {
+        byte[] prefix = new byte[4];
+        try (InputStream in = new FileInputStream(this.file)) {
+            int read = in.readNBytes(prefix, 0, prefix.length);
+            String start = new String(prefix, 0, read, StandardCharsets.US_ASCII);
+            return start.equals("MTD\t") || start.equals("PSH\t");
+        } catch (IOException ex) {
+            Logger.getLogger(MzTabLoader.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
 }
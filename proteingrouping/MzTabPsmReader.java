@@ -0,0 +1,473 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Reads the PSM section of a tab separated mzTab file into proteins and their
+ * peptides. The file is memory-mapped and scanned byte by byte for tabs and
+ * newlines: the columns are found by name through the PSH header line, numbers
+ * are parsed straight from the mapped bytes, and only the few string fields
+ * that are kept are ever turned into Strings. Metadata (MTD), protein (PRH/PRT)
+ * and comment lines are skipped.
+ *
+ * As in the other loaders, only the highest scoring match of each peptide
+ * sequence is kept. A PsmFilter may be given to drop low ranking, low scoring
+ * and decoy matches as the lines are read (see PsmAccumulator).
+ *
+ * Large files can be read in parallel: the PSM section is cut at line
+ * boundaries into chunks, each chunk is read into its own accumulator, and the
+ * accumulators are merged pairwise in file order. The proteins, peptides and
+ * peptide ids are the same whatever the number of chunks.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+public class MzTabPsmReader {
+
+    //The PSH columns used
+    public static final String SEQUENCE = "sequence";
+    public static final String PSM_ID = "PSM_ID";
+    public static final String ACCESSION = "accession";
+    public static final String UNIQUE = "unique";
+    public static final String SCORE = "search_engine_score[1]";
+    public static final String SPECTRA_REF = "spectra_ref";
+    public static final String RANK = "opt_global_rank";  //Not a standard column; every match is rank 1 without it
+
+    //Mapped windows overlap by at most a line, which must fit in a window
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private static final float[] FLOAT_POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final File file;
+    private final PeptideDictionary peptideDictionary;
+    private final PsmFilter filter;
+    private PipelineMetrics metrics;
+
+    public MzTabPsmReader(File inputFile) {
+        this(inputFile, new PsmFilter());
+    }
+
+    /**
+     * @param inputFile
+     * @param filter the matches to keep
+     */
+    public MzTabPsmReader(File inputFile, PsmFilter filter) {
+        this.file = inputFile;
+        this.peptideDictionary = new PeptideDictionary();
+        this.filter = filter;
+        this.metrics = new PipelineMetrics();
+    }
+
+    /**
+     * @return the dictionary in which the peptides of the loaded proteins are interned
+     */
+    public PeptideDictionary getPeptideDictionary() {
+        return this.peptideDictionary;
+    }
+
+    /**
+     * @return the metrics the phases and counters of loading are recorded in
+     */
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Records the loading in the given metrics rather than in this loader's own
+     *
+     * @param metrics
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @SuppressWarnings("try")
+    public HashMap<String, Protein> loadProteinData() {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.PARSE_MZTAB)) {
+            return readProteinData();
+        }
+    }
+
+    private HashMap<String, Protein> readProteinData() {
+        PsmAccumulator accumulator = new PsmAccumulator(filter);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readPsms(channel, 0, channel.size(), null, accumulator);
+        } catch (IOException ex) {
+            Logger.getLogger(MzTabPsmReader.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return toProteinMap(accumulator);
+    }
+
+    /**
+     * Reads the PSM section in chunkCount chunks on the common fork-join pool
+     *
+     * @param chunkCount the number of chunks; 1 or less reads the file on this thread
+     * @return the proteins, keyed by accession, as loadProteinData() gives them
+     */
+    @SuppressWarnings("try")
+    public HashMap<String, Protein> loadProteinData(int chunkCount) {
+        if (chunkCount <= 1) {
+            return loadProteinData();
+        }
+        PsmAccumulator[] accumulators = new PsmAccumulator[chunkCount];
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.PARSE_MZTAB);
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long sectionStart = findPsmSection(channel);
+            if (sectionStart < 0) {
+                return readProteinData();  //No header, so nothing to split
+            }
+            accumulators[0] = new PsmAccumulator(filter);
+            Columns columns = readPsms(channel, 0, sectionStart, null, accumulators[0]);
+
+            long[] bounds = new long[chunkCount + 1];
+            long size = channel.size();
+            bounds[0] = sectionStart;
+            for (int chunk = 1; chunk < chunkCount; chunk++) {
+                long offset = sectionStart + (size - sectionStart) * chunk / chunkCount;
+                bounds[chunk] = Math.max(bounds[chunk - 1], nextLineStart(channel, offset));
+            }
+            bounds[chunkCount] = size;
+
+            IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+                if (chunk > 0) {
+                    accumulators[chunk] = new PsmAccumulator(filter);
+                }
+                try {
+                    readPsms(channel, bounds[chunk], bounds[chunk + 1], columns, accumulators[chunk]);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+
+            //Merge neighbours, then neighbouring pairs and so on, so that rows are always merged in file order
+            for (int step = 1; step < chunkCount; step *= 2) {
+                int width = step;
+                IntStream.range(0, (chunkCount + 2 * width - 1) / (2 * width)).parallel().forEach(pair -> {
+                    int left = pair * 2 * width;
+                    if (left + width < chunkCount) {
+                        accumulators[left].merge(accumulators[left + width]);
+                        accumulators[left + width] = null;
+                    }
+                });
+            }
+            return toProteinMap(accumulators[0]);
+        } catch (IOException | UncheckedIOException ex) {
+            Logger.getLogger(MzTabPsmReader.class.getName()).log(Level.SEVERE, null, ex);
+            return new HashMap<>();
+        }
+    }
+
+    private HashMap<String, Protein> toProteinMap(PsmAccumulator accumulator) {
+        metrics.add(PipelineMetrics.Counter.PSMS_PARSED, accumulator.getPsmCount());
+        metrics.add(PipelineMetrics.Counter.PSMS_FILTERED, accumulator.getDroppedCount());
+        return accumulator.toProteinMap(peptideDictionary);
+    }
+
+    /**
+     * @return the offset of the line after the first PSH header line, or -1 if there is none
+     */
+    static long findPsmSection(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long windowStart = 0;
+        while (windowStart < size) {
+            long windowEnd = Math.min(size, windowStart + WINDOW_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+                if (lineEnd < 0) {
+                    if (windowEnd < size) {
+                        break;
+                    }
+                    lineEnd = limit;
+                }
+                if (startsWith(buffer, lineStart, lineEnd, "PSH\t")) {
+                    return Math.min(size, windowStart + lineEnd + 1);
+                }
+                lineStart = lineEnd + 1;
+            }
+            if (lineStart == 0) {
+                throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at offset " + windowStart);
+            }
+            windowStart += lineStart;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first offset at or after the given one where a line starts,
+     * or the size of the file if no line does
+     */
+    static long nextLineStart(FileChannel channel, long offset) throws IOException {
+        long size = channel.size();
+        if (offset <= 0) {
+            return 0;
+        }
+        long position = offset - 1;  //A line starts at offset if the byte before it ends a line
+        while (position < size) {
+            int length = (int) Math.min(size - position, 1 << 16);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int lineEnd = indexOf(buffer, (byte) '\n', 0, length);
+            if (lineEnd >= 0) {
+                return position + lineEnd + 1;
+            }
+            position += length;
+        }
+        return size;
+    }
+
+    /**
+     * The column indices of a PSH header line
+     */
+    static final class Columns {
+
+        final int sequence;
+        final int psmId;
+        final int accession;
+        final int unique;
+        final int score;
+        final int spectraRef;
+        final int rank;
+        final int last;  //The highest of the indices above
+
+        Columns(HashMap<String, Integer> header) {
+            sequence = required(header, SEQUENCE);
+            psmId = required(header, PSM_ID);
+            accession = required(header, ACCESSION);
+            score = required(header, SCORE);
+            unique = header.getOrDefault(UNIQUE, -1);
+            spectraRef = header.getOrDefault(SPECTRA_REF, -1);
+            rank = header.getOrDefault(RANK, -1);
+            last = Math.max(Math.max(Math.max(sequence, psmId), Math.max(accession, score)),
+                    Math.max(unique, Math.max(spectraRef, rank)));
+        }
+
+        private static int required(HashMap<String, Integer> header, String column) {
+            Integer index = header.get(column);
+            if (index == null) {
+                throw new IllegalArgumentException("The PSH header has no " + column + " column");
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Reads the PSM lines which start in [from, to) into the accumulator. When
+     * columns is null, the PSH line is expected before the first PSM line.
+     *
+     * @return the columns in use at the end of the range
+     */
+    static Columns readPsms(FileChannel channel, long from, long to, Columns columns, PsmAccumulator accumulator) throws IOException {
+        int[] fieldStarts = new int[columns == null ? 64 : columns.last + 2];
+        long windowStart = from;
+        while (windowStart < to) {
+            long windowEnd = Math.min(channel.size(), windowStart + WINDOW_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            int limit = buffer.limit();
+            int stop = (int) Math.min(limit, to - windowStart);  //Lines starting at or after this belong to the next range
+            int lineStart = 0;
+            while (lineStart < stop) {
+                int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+                if (lineEnd < 0) {
+                    if (windowEnd < channel.size()) {
+                        break;  //The line runs past this window; map the next window from its start
+                    }
+                    lineEnd = limit;
+                }
+                int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (startsWith(buffer, lineStart, contentEnd, "PSM\t")) {
+                    if (columns == null) {
+                        throw new IllegalArgumentException("PSM line found before the PSH header in " + channel);
+                    }
+                    readPsm(buffer, lineStart, contentEnd, columns, fieldStarts, accumulator);
+                } else if (startsWith(buffer, lineStart, contentEnd, "PSH\t")) {
+                    columns = readHeader(buffer, lineStart, contentEnd);
+                    fieldStarts = new int[columns.last + 2];
+                }
+                lineStart = lineEnd + 1;
+            }
+            if (lineStart == 0 && windowEnd < channel.size() && lineStart < stop) {
+                throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at offset " + windowStart);
+            }
+            windowStart += lineStart;
+        }
+        return columns;
+    }
+
+    private static Columns readHeader(MappedByteBuffer buffer, int lineStart, int lineEnd) {
+        HashMap<String, Integer> header = new HashMap<>();
+        int column = 0;
+        int fieldStart = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || buffer.get(i) == '\t') {
+                header.put(StringDictionary.decode(buffer, fieldStart, i).trim(), column++);
+                fieldStart = i + 1;
+            }
+        }
+        return new Columns(header);
+    }
+
+    private static void readPsm(MappedByteBuffer buffer, int lineStart, int lineEnd, Columns columns,
+            int[] fieldStarts, PsmAccumulator accumulator) {
+        //fieldStarts[c] is where column c starts; column c ends one byte before column c + 1 starts
+        int fields = 0;
+        fieldStarts[fields++] = lineStart;
+        for (int i = lineStart; i < lineEnd && fields < fieldStarts.length; i++) {
+            if (buffer.get(i) == '\t') {
+                fieldStarts[fields++] = i + 1;
+            }
+        }
+        if (fields < fieldStarts.length) {
+            if (fields <= columns.last) {
+                throw new IllegalArgumentException("PSM line with " + fields + " columns, expected at least " + (columns.last + 1));
+            }
+            fieldStarts[fields] = lineEnd + 1;
+        }
+        float score = parseFloat(buffer, fieldStarts[columns.score], fieldStarts[columns.score + 1] - 1);
+        int spectrumId = columns.spectraRef < 0 ? 0
+                : parseTrailingInt(buffer, fieldStarts[columns.spectraRef], fieldStarts[columns.spectraRef + 1] - 1);
+        int rank = columns.rank < 0 ? 1 : parseInt(buffer, fieldStarts[columns.rank], fieldStarts[columns.rank + 1] - 1, 1);
+        //An empty unique field may start at the very end of the file, where there is no byte to read
+        boolean unique = columns.unique >= 0 && fieldStarts[columns.unique + 1] - 1 > fieldStarts[columns.unique]
+                && buffer.get(fieldStarts[columns.unique]) == '1';
+        accumulator.addPsm(buffer,
+                fieldStarts[columns.sequence], fieldStarts[columns.sequence + 1] - 1,
+                fieldStarts[columns.psmId], fieldStarts[columns.psmId + 1] - 1,
+                fieldStarts[columns.accession], fieldStarts[columns.accession + 1] - 1,
+                score, spectrumId, rank, unique);
+    }
+
+    static int indexOf(MappedByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(MappedByteBuffer buffer, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer.get(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the integer in [start, end), or defaultValue if there is none (e.g. "null")
+     */
+    static int parseInt(MappedByteBuffer buffer, int start, int end, int defaultValue) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            return defaultValue;
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads the run of digits at the end of a field, as in the index or scan
+     * number of a spectra_ref such as "ms_run[1]:index=5"
+     */
+    private static int parseTrailingInt(MappedByteBuffer buffer, int start, int end) {
+        int digitsStart = end;
+        while (digitsStart > start && buffer.get(digitsStart - 1) >= '0' && buffer.get(digitsStart - 1) <= '9') {
+            digitsStart--;
+        }
+        return parseInt(buffer, digitsStart, end, 0);
+    }
+
+    /**
+     * Parses plain decimals of up to seven significant digits with one float
+     * division, which rounds exactly as Float.parseFloat does; anything else
+     * (exponents, long mantissas, "null", "NaN") goes through Float.parseFloat.
+     */
+    static float parseFloat(MappedByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        int mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (digits > 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (digits > 7 || fractionDigits >= FLOAT_POWERS_OF_TEN.length) {
+                    return parseFloatSlowly(buffer, start, end);
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseFloatSlowly(buffer, start, end);
+            }
+        }
+        if (!anyDigit) {
+            return parseFloatSlowly(buffer, start, end);
+        }
+        float value = fractionDigits > 0 ? mantissa / FLOAT_POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static float parseFloatSlowly(MappedByteBuffer buffer, int start, int end) {
+        String text = new String(bytes(buffer, start, end), StandardCharsets.US_ASCII).trim();
+        if (text.isEmpty() || text.equalsIgnoreCase("null")) {
+            return Float.NaN;
+        }
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException ex) {
+            return Float.NaN;
+        }
+    }
+
+    private static byte[] bytes(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A growable run of bytes outside the Java heap, addressed by long offsets,
+ * for arrays too large for the heap (or for one ByteBuffer, which stops at
+ * 2 GB). The bytes are held in segments of up to 64 MB, either direct
+ * buffers or mappings of a file; the last segment grows by doubling until it
+ * is full, and further segments are then added. Ints and longs are aligned
+ * on their size, so none straddles two segments.
+ *
+ * A buffer backed by a file grows by mapping more of the file, without
+ * copying, and may hold more than the memory of the machine, the operating
+ * system paging it in and out. The memory of a buffer is released once it
+ * is unreachable; a file is deleted when the buffer is closed.
+ *
+ * Not safe for concurrent writes; concurrent reads of bytes written before
+ * the readers started are safe.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+class OffHeapBuffer implements Closeable {
+
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+    private static final int MIN_SEGMENT_BYTES = 1 << 12;
+
+    private final Path file;  //null for direct memory
+    private final FileChannel channel;
+    private ByteBuffer[] segments;
+    private long capacity;
+
+    /**
+     * A buffer in direct memory
+     */
+    OffHeapBuffer() {
+        this.file = null;
+        this.channel = null;
+        this.segments = new ByteBuffer[0];
+    }
+
+    /**
+     * A buffer mapping the file, which is created or emptied
+     *
+     * @param file
+     * @throws IOException
+     */
+    OffHeapBuffer(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segments = new ByteBuffer[0];
+    }
+
+    long capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Makes room for at least the given number of bytes
+     *
+     * @param bytes
+     */
+    void ensureCapacity(long bytes) {
+        while (capacity < bytes) {
+            int last = segments.length - 1;
+            if (last < 0 || segments[last].capacity() == SEGMENT_BYTES) {
+                segments = Arrays.copyOf(segments, segments.length + 1);
+                last++;
+                segments[last] = allocate(last, (int) Math.min(SEGMENT_BYTES,
+                        Math.max(MIN_SEGMENT_BYTES, Long.highestOneBit(Math.max(1, bytes - capacity) - 1) << 1)), null);
+            } else {
+                long needed = bytes - ((long) last << SEGMENT_SHIFT);
+                int size = (int) Math.min(SEGMENT_BYTES, Math.max(needed, 2L * segments[last].capacity()));
+                segments[last] = allocate(last, size, segments[last]);
+            }
+            capacity = ((long) (segments.length - 1) << SEGMENT_SHIFT) + segments[segments.length - 1].capacity();
+        }
+    }
+
+    /**
+     * @param index the position of the segment
+     * @param size
+     * @param old the smaller segment it replaces, whose bytes are kept, or null
+     */
+    private ByteBuffer allocate(int index, int size, ByteBuffer old) {
+        if (channel == null) {
+            ByteBuffer segment = ByteBuffer.allocateDirect(size);
+            if (old != null) {
+                segment.put(old.duplicate().clear());
+                segment.clear();
+            }
+            return segment;
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) index << SEGMENT_SHIFT, size);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not map " + size + " more bytes of " + file, ex);
+        }
+    }
+
+    byte getByte(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    void putByte(long offset, byte value) {
+        segments[(int) (offset >>> SEGMENT_SHIFT)].put((int) (offset & SEGMENT_MASK), value);
+    }
+
+    int getInt(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getInt((int) (offset & SEGMENT_MASK));
+    }
+
+    void putInt(long offset, int value) {
+        segments[(int) (offset >>> SEGMENT_SHIFT)].putInt((int) (offset & SEGMENT_MASK), value);
+    }
+
+    long getLong(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    void putLong(long offset, long value) {
+        segments[(int) (offset >>> SEGMENT_SHIFT)].putLong((int) (offset & SEGMENT_MASK), value);
+    }
+
+    /**
+     * Sets count bytes from the offset on to 0
+     */
+    void clear(long offset, long count) {
+        ensureCapacity(offset + count);
+        for (long i = offset; i < offset + count; i++) {
+            putByte(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Drops the segments, and closes and deletes the file of a mapped buffer
+     */
+    @Override
+    public void close() {
+        segments = new ByteBuffer[0];
+        capacity = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                Logger.getLogger(OffHeapBuffer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+}
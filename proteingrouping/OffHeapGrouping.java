@@ -0,0 +1,483 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The protein groups of an OffHeapIncidence, formed by the same rules as
+ * ProteinGrouper.groupProteins applies to Protein objects, over the proteins
+ * in index order: a protein with unique peptides forms a singleton group; a
+ * protein with the same peptides as one met before it joins that protein's
+ * group; otherwise it joins the group formed first of those whose domain
+ * is a superset of its peptides, or a subset of them, the domain then
+ * growing to its peptides; failing both, it forms a new group. As in
+ * PeptideGroupIndex, the superset candidates are the groups indexed under
+ * the protein's peptide in the fewest domains, and the subset candidates
+ * the groups anchored at its peptides. Given the proteins in the same order, the groups, their
+ * ids, members, domains, subset proteins and peptide statuses are those
+ * groupProteins forms.
+ *
+ * Every group domain is the peptide set of one of its members (the last one
+ * that grew it), so a group is held as that member's index and a few other
+ * ints on the heap, in arrays indexed by group; the group of each protein,
+ * the members of each group (a list linked through the proteins), the group
+ * index of each peptide and its domain counts stay outside the heap, with
+ * the incidence. Groups, proteins and peptides are all referred to by index.
+ *
+ * Grouping runs on the calling thread: splitting the graph into components,
+ * as groupProteinsInParallel does, would take another per-peptide and
+ * per-protein array each.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public class OffHeapGrouping implements Closeable {
+
+    private static final long SIGNATURE_MASK = 0xFFFFFFFF00000000L;
+
+    private final OffHeapIncidence incidence;
+
+    //Indexed by protein; groups, members and representatives are held plus one, so that 0 (the initial value) is none
+    private final OffHeapBuffer proteinGroups;   //int: the group of the protein
+    private final OffHeapBuffer nextMembers;     //int: the member of the same group after the protein
+    private final OffHeapBuffer representatives; //int: the first protein met with the same peptides
+    private final OffHeapBuffer subsetProteins;  //byte: 1 for a subset protein
+
+    //Indexed by peptide
+    private final OffHeapBuffer domainCounts;    //int: the number of group domains holding the peptide
+    private final OffHeapBuffer indexHeads;      //int: the first entry of the groups indexed under the peptide
+    private final OffHeapBuffer indexTails;      //int: the last one
+    private final OffHeapBuffer indexEntries;    //int pairs: an indexed group, and the next entry of the same peptide
+    private int indexEntryCount;
+    private final OffHeapBuffer anchorHeads;     //int: the last group anchored at the peptide
+
+    //Indexed by group
+    private int groupCount;
+    private int[] groupIds;
+    private int[] domainOwners;    //the member whose peptides are the domain of the group
+    private int[] memberHeads;
+    private int[] memberTails;
+    private int[] memberCounts;
+    private boolean[] singletons;
+    private int[] nextAnchored;    //the group anchored at the same peptide before the group
+
+    /**
+     * Groups the proteins of a finished incidence, keeping the working arrays
+     * outside the heap the way the incidence keeps its rows
+     *
+     * @param incidence
+     * @param session the session the group ids are taken from
+     */
+    OffHeapGrouping(OffHeapIncidence incidence, GroupingSession session) {
+        if (!incidence.isFinished()) {
+            throw new IllegalStateException("The graph is not finished");
+        }
+        this.incidence = incidence;
+        int proteinCount = incidence.getProteinCount();
+        int peptideCount = incidence.getPeptideCount();
+        try {
+            proteinGroups = incidence.newBuffer("protein-groups");
+            nextMembers = incidence.newBuffer("next-members");
+            representatives = incidence.newBuffer("representatives");
+            subsetProteins = incidence.newBuffer("subset-proteins");
+            domainCounts = incidence.newBuffer("domain-counts");
+            indexHeads = incidence.newBuffer("index-heads");
+            indexTails = incidence.newBuffer("index-tails");
+            indexEntries = incidence.newBuffer("index-entries");
+            anchorHeads = incidence.newBuffer("anchor-heads");
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not create the working arrays", ex);
+        }
+        proteinGroups.ensureCapacity(4L * proteinCount);
+        nextMembers.ensureCapacity(4L * proteinCount);
+        representatives.ensureCapacity(4L * proteinCount);
+        subsetProteins.ensureCapacity(proteinCount);
+        domainCounts.ensureCapacity(4L * peptideCount);
+        indexHeads.ensureCapacity(4L * peptideCount);
+        indexTails.ensureCapacity(4L * peptideCount);
+        anchorHeads.ensureCapacity(4L * peptideCount);
+
+        int capacity = 16;
+        groupIds = new int[capacity];
+        domainOwners = new int[capacity];
+        memberHeads = new int[capacity];
+        memberTails = new int[capacity];
+        memberCounts = new int[capacity];
+        singletons = new boolean[capacity];
+        nextAnchored = new int[capacity];
+
+        findRepresentatives();
+        for (int protein = 0; protein < proteinCount; protein++) {
+            group(protein, session);
+        }
+    }
+
+    /**
+     * Finds, for each protein without unique peptides, the first protein met
+     * with the same (non empty) peptides, as EquivalentProteins does: the
+     * proteins are sorted by a signature of their peptides, and those of the
+     * same signature compared in full.
+     */
+    private void findRepresentatives() {
+        long[] keys = new long[incidence.getProteinCount()];
+        int keyCount = 0;
+        for (int protein = 0; protein < keys.length; protein++) {
+            if (!incidence.hasUniquePeptides(protein) && incidence.getObservedPeptideCount(protein) > 0) {
+                keys[keyCount++] = (signature(protein) & SIGNATURE_MASK) | protein;
+            }
+        }
+        Arrays.sort(keys, 0, keyCount);
+        int[] firsts = new int[4];  //the first protein of each class met in the current run of signatures
+        for (int start = 0, end; start < keyCount; start = end) {
+            for (end = start + 1; end < keyCount && (keys[end] & SIGNATURE_MASK) == (keys[start] & SIGNATURE_MASK); end++) {
+            }
+            int firstCount = 0;
+            for (int k = start; k < end; k++) {
+                int protein = (int) keys[k];
+                int representative = -1;
+                for (int f = 0; f < firstCount && representative < 0; f++) {
+                    if (samePeptides(firsts[f], protein)) {
+                        representative = firsts[f];
+                    }
+                }
+                if (representative < 0) {
+                    if (firstCount == firsts.length) {
+                        firsts = Arrays.copyOf(firsts, 2 * firstCount);
+                    }
+                    firsts[firstCount++] = protein;
+                } else {
+                    representatives.putInt(4L * protein, representative + 1);
+                }
+            }
+        }
+    }
+
+    private long signature(int protein) {
+        long sum = incidence.getObservedPeptideCount(protein);
+        for (long edge = incidence.getRowStart(protein), end = incidence.getRowStart(protein + 1); edge < end; edge++) {
+            sum += mix(incidence.getPeptideAt(edge));
+        }
+        return sum;
+    }
+
+    /**
+     * The finaliser of SplitMix64, as EquivalentProteins mixes ids
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private boolean samePeptides(int protein, int other) {
+        long start = incidence.getRowStart(protein);
+        long otherStart = incidence.getRowStart(other);
+        long size = incidence.getRowStart(protein + 1) - start;
+        if (size != incidence.getRowStart(other + 1) - otherStart) {
+            return false;
+        }
+        for (long i = 0; i < size; i++) {
+            if (incidence.getPeptideAt(start + i) != incidence.getPeptideAt(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void group(int protein, GroupingSession session) {
+        int size = incidence.getObservedPeptideCount(protein);
+        if (incidence.hasUniquePeptides(protein)) {
+            int group = newGroup(session.newGroupId(), protein, true);
+            addMember(group, protein);
+            countDomain(protein, -1);
+            return;
+        }
+        int representative = representatives.getInt(4L * protein) - 1;
+        if (representative >= 0) {
+            int group = getGroup(representative);
+            addMember(group, protein);
+            if (getDomainSize(group) > size) {
+                subsetProteins.putByte(protein, (byte) 1);
+            }
+            return;
+        }
+        int group = findSubsetOrSupersetGroup(protein);
+        if (group < 0) {
+            group = newGroup(session.newGroupId(), protein, false);
+            addMember(group, protein);
+            int anchor = rarestPeptide(protein);
+            nextAnchored[group] = anchorHeads.getInt(4L * anchor);
+            anchorHeads.putInt(4L * anchor, group + 1);
+            indexDomain(group, protein, -1);
+            countDomain(protein, -1);
+        } else if (getDomainSize(group) >= size) {
+            addMember(group, protein);
+            if (getDomainSize(group) > size) {
+                subsetProteins.putByte(protein, (byte) 1);
+            }
+        } else {
+            //The peptides of the protein are a superset of the domain, so they become the domain
+            int oldOwner = domainOwners[group];
+            domainOwners[group] = protein;
+            indexDomain(group, protein, oldOwner);
+            countDomain(protein, oldOwner);
+            addMember(group, protein);
+        }
+    }
+
+    private int newGroup(int groupId, int owner, boolean singleton) {
+        if (groupCount == groupIds.length) {
+            int capacity = 2 * groupCount;
+            groupIds = Arrays.copyOf(groupIds, capacity);
+            domainOwners = Arrays.copyOf(domainOwners, capacity);
+            memberHeads = Arrays.copyOf(memberHeads, capacity);
+            memberTails = Arrays.copyOf(memberTails, capacity);
+            memberCounts = Arrays.copyOf(memberCounts, capacity);
+            singletons = Arrays.copyOf(singletons, capacity);
+            nextAnchored = Arrays.copyOf(nextAnchored, capacity);
+        }
+        int group = groupCount++;
+        groupIds[group] = groupId;
+        domainOwners[group] = owner;
+        singletons[group] = singleton;
+        return group;
+    }
+
+    private void addMember(int group, int protein) {
+        proteinGroups.putInt(4L * protein, group + 1);
+        if (memberCounts[group] == 0) {
+            memberHeads[group] = protein;
+        } else {
+            nextMembers.putInt(4L * memberTails[group], protein + 1);
+        }
+        memberTails[group] = protein;
+        memberCounts[group]++;
+    }
+
+    /**
+     * Calls the action on each peptide of the protein which the old owner
+     * does not have (all of them if there is no old owner)
+     */
+    private void forEachNewPeptide(int protein, int oldOwner, IntConsumer action) {
+        long oldEdge = oldOwner < 0 ? 0 : incidence.getRowStart(oldOwner);
+        long oldEnd = oldOwner < 0 ? 0 : incidence.getRowStart(oldOwner + 1);
+        for (long edge = incidence.getRowStart(protein), end = incidence.getRowStart(protein + 1); edge < end; edge++) {
+            int peptideId = incidence.getPeptideAt(edge);
+            while (oldEdge < oldEnd && incidence.getPeptideAt(oldEdge) < peptideId) {
+                oldEdge++;
+            }
+            if (oldEdge < oldEnd && incidence.getPeptideAt(oldEdge) == peptideId) {
+                continue;
+            }
+            action.accept(peptideId);
+        }
+    }
+
+    private void countDomain(int protein, int oldOwner) {
+        forEachNewPeptide(protein, oldOwner, peptideId
+                -> domainCounts.putInt(4L * peptideId, domainCounts.getInt(4L * peptideId) + 1));
+    }
+
+    /**
+     * Indexes the group under the peptides its domain has gained, after the
+     * groups already indexed under them, as PeptideGroupIndex does
+     */
+    private void indexDomain(int group, int protein, int oldOwner) {
+        forEachNewPeptide(protein, oldOwner, peptideId -> {
+            if (indexEntryCount == Integer.MAX_VALUE) {
+                throw new IllegalStateException("The peptide index is full");
+            }
+            int entry = indexEntryCount++;
+            indexEntries.ensureCapacity(8L * indexEntryCount);
+            indexEntries.putInt(8L * entry, group);
+            indexEntries.putInt(8L * entry + 4, 0);
+            int tail = indexTails.getInt(4L * peptideId);
+            if (tail == 0) {
+                indexHeads.putInt(4L * peptideId, entry + 1);
+            } else {
+                indexEntries.putInt(8L * (tail - 1) + 4, entry + 1);
+            }
+            indexTails.putInt(4L * peptideId, entry + 1);
+        });
+    }
+
+    /**
+     * Finds the group formed first (the lowest group index) whose domain
+     * holds every peptide of the protein or is held by them, as
+     * PeptideGroupIndex.findSubsetOrSupersetGroup does
+     *
+     * @return the group, or -1 if there is none
+     */
+    private int findSubsetOrSupersetGroup(int protein) {
+        int size = incidence.getObservedPeptideCount(protein);
+        if (size == 0) {
+            return -1;
+        }
+        int chosen = -1;
+        int rarest = rarestPeptide(protein);
+        for (int entry = indexHeads.getInt(4L * rarest); entry != 0; entry = indexEntries.getInt(8L * (entry - 1) + 4)) {
+            int group = indexEntries.getInt(8L * (entry - 1));
+            if (getDomainSize(group) >= size && (chosen < 0 || group < chosen) && holds(domainOwners[group], protein)) {
+                chosen = group;
+            }
+        }
+        for (long edge = incidence.getRowStart(protein), end = incidence.getRowStart(protein + 1); edge < end; edge++) {
+            int peptideId = incidence.getPeptideAt(edge);
+            for (int group = anchorHeads.getInt(4L * peptideId) - 1; group >= 0; group = nextAnchored[group] - 1) {
+                if (getDomainSize(group) <= size && (chosen < 0 || group < chosen) && holds(protein, domainOwners[group])) {
+                    chosen = group;
+                }
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * @return the peptide of the protein in the fewest group domains, the
+     * first on ties; every group domain holding all the protein's peptides
+     * is indexed under it
+     */
+    private int rarestPeptide(int protein) {
+        long edge = incidence.getRowStart(protein);
+        long end = incidence.getRowStart(protein + 1);
+        int rarest = incidence.getPeptideAt(edge);
+        int fewest = domainCounts.getInt(4L * rarest);
+        for (edge++; edge < end && fewest > 0; edge++) {
+            int peptideId = incidence.getPeptideAt(edge);
+            int count = domainCounts.getInt(4L * peptideId);
+            if (count < fewest) {
+                rarest = peptideId;
+                fewest = count;
+            }
+        }
+        return rarest;
+    }
+
+    /**
+     * @return whether the peptides of the first protein hold every peptide of the second
+     */
+    private boolean holds(int protein, int other) {
+        long edge = incidence.getRowStart(protein);
+        long end = incidence.getRowStart(protein + 1);
+        for (long otherEdge = incidence.getRowStart(other), otherEnd = incidence.getRowStart(other + 1); otherEdge < otherEnd; otherEdge++) {
+            int peptideId = incidence.getPeptideAt(otherEdge);
+            while (edge < end && incidence.getPeptideAt(edge) < peptideId) {
+                edge++;
+            }
+            if (edge == end || incidence.getPeptideAt(edge) != peptideId) {
+                return false;
+            }
+            edge++;
+        }
+        return true;
+    }
+
+    public OffHeapIncidence getIncidence() {
+        return this.incidence;
+    }
+
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+
+    /**
+     * @param group a group index, below the group count
+     * @return the id the group took from the session
+     */
+    public int getGroupId(int group) {
+        return groupIds[group];
+    }
+
+    public boolean isSingletonGroup(int group) {
+        return singletons[group];
+    }
+
+    public int getDomainSize(int group) {
+        return incidence.getObservedPeptideCount(domainOwners[group]);
+    }
+
+    /**
+     * @param group
+     * @return the peptide ids of the group domain, sorted
+     */
+    public int[] getGroupPeptideDomain(int group) {
+        return incidence.getObservedPeptides(domainOwners[group]);
+    }
+
+    /**
+     * @param group
+     * @return the ids of the peptides unique to the protein of a singleton
+     * group; none for other groups
+     */
+    public int[] getUniquePeptides(int group) {
+        return singletons[group] ? incidence.getUniquePeptides(domainOwners[group]) : new int[0];
+    }
+
+    /**
+     * @param group
+     * @return the indices of the proteins of the group, in the order they joined it
+     */
+    public int[] getProteins(int group) {
+        int[] proteins = new int[memberCounts[group]];
+        int protein = memberHeads[group];
+        for (int i = 0; i < proteins.length; i++) {
+            proteins[i] = protein;
+            protein = nextMembers.getInt(4L * protein) - 1;
+        }
+        return proteins;
+    }
+
+    /**
+     * @param protein
+     * @return the index of the group of the protein
+     */
+    public int getGroup(int protein) {
+        return proteinGroups.getInt(4L * protein) - 1;
+    }
+
+    public boolean isSubsetProtein(int protein) {
+        return subsetProteins.getByte(protein) != 0;
+    }
+
+    /**
+     * @param peptideId
+     * @return CONFLICTED for a peptide in more than one group domain,
+     * RESOLVED for one in a single domain, and null for one in none
+     */
+    public Peptide.Status getPeptideStatus(int peptideId) {
+        int count = domainCounts.getInt(4L * peptideId);
+        return count == 0 ? null : count > 1 ? Peptide.Status.CONFLICTED : Peptide.Status.RESOLVED;
+    }
+
+    /**
+     * @return the bytes the grouping takes outside the heap, in memory or in files
+     */
+    public long getOffHeapBytes() {
+        return proteinGroups.capacity() + nextMembers.capacity() + representatives.capacity() + subsetProteins.capacity()
+                + domainCounts.capacity() + indexHeads.capacity() + indexTails.capacity() + indexEntries.capacity()
+                + anchorHeads.capacity();
+    }
+
+    /**
+     * Releases the memory of the grouping, and deletes its files; the
+     * incidence is left open
+     */
+    @Override
+    public void close() {
+        proteinGroups.close();
+        nextMembers.close();
+        representatives.close();
+        subsetProteins.close();
+        domainCounts.close();
+        indexHeads.close();
+        indexTails.close();
+        indexEntries.close();
+        anchorHeads.close();
+    }
+
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The protein-peptide graph of a search held outside the Java heap, for
+ * proteomes whose Protein and Peptide objects would not fit in it (or would
+ * keep the garbage collector busy): the peptides of every protein, and the
+ * proteins of every peptide, as compressed sparse rows. Each protein is an
+ * index (0, 1, ...) in the order it was added, each peptide an id below the
+ * peptide count given up front, the way a PeptideDictionary numbers them.
+ *
+ * The rows live in direct memory or, when a directory is given, in files of
+ * that directory mapped into memory, which lets the operating system page
+ * graphs larger than the memory of the machine. Edges are addressed by long
+ * offsets, so a graph may hold more than 2^31 of them. The heap holds only the
+ * few fields of this object, whatever the size of the graph.
+ *
+ * Proteins are added one at a time with their sorted peptide ids; finish then
+ * builds the peptide rows, after which the graph is read-only and may be
+ * read from several threads. ProteinGrouper.groupProteins groups it directly.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+
+public class OffHeapIncidence implements Closeable {
+
+    private final int peptideCount;
+    private final File directory;  //null for direct memory
+
+    private final OffHeapBuffer proteinOffsets;   //long per protein, and one more: the start of its row in proteinPeptides
+    private final OffHeapBuffer proteinPeptides;  //int per edge
+    private final OffHeapBuffer uniqueOffsets;    //long per protein, and one more
+    private final OffHeapBuffer uniquePeptides;   //int per unique peptide of a protein
+    private final OffHeapBuffer accessionOffsets; //long per protein, and one more
+    private final OffHeapBuffer accessions;       //the UTF-8 bytes of the accessions, one after the other
+    private OffHeapBuffer peptideOffsets;         //long per peptide, and one more
+    private OffHeapBuffer peptideProteins;        //int per edge
+
+    private int proteinCount;
+    private long edgeCount;
+    private long uniqueCount;
+    private long accessionBytes;
+    private boolean finished;
+
+    /**
+     * A graph in direct memory
+     *
+     * @param peptideCount one more than the highest peptide id of the graph
+     */
+    public OffHeapIncidence(int peptideCount) {
+        this.peptideCount = peptideCount;
+        this.directory = null;
+        try {
+            proteinOffsets = newBuffer("protein-offsets");
+            proteinPeptides = newBuffer("protein-peptides");
+            uniqueOffsets = newBuffer("unique-offsets");
+            uniquePeptides = newBuffer("unique-peptides");
+            accessionOffsets = newBuffer("accession-offsets");
+            accessions = newBuffer("accessions");
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);  //Direct memory involves no file
+        }
+        startRows();
+    }
+
+    /**
+     * A graph in files of the given directory, mapped into memory; the files
+     * are deleted when the graph is closed
+     *
+     * @param peptideCount one more than the highest peptide id of the graph
+     * @param directory
+     * @throws IOException if the files cannot be created
+     */
+    public OffHeapIncidence(int peptideCount, File directory) throws IOException {
+        this.peptideCount = peptideCount;
+        this.directory = directory;
+        Files.createDirectories(directory.toPath());
+        proteinOffsets = newBuffer("protein-offsets");
+        proteinPeptides = newBuffer("protein-peptides");
+        uniqueOffsets = newBuffer("unique-offsets");
+        uniquePeptides = newBuffer("unique-peptides");
+        accessionOffsets = newBuffer("accession-offsets");
+        accessions = newBuffer("accessions");
+        startRows();
+    }
+
+    private void startRows() {
+        proteinOffsets.ensureCapacity(8);
+        uniqueOffsets.ensureCapacity(8);
+        accessionOffsets.ensureCapacity(8);
+        proteinOffsets.putLong(0, 0);
+        uniqueOffsets.putLong(0, 0);
+        accessionOffsets.putLong(0, 0);
+    }
+
+    /**
+     * A buffer of the same kind as those of this graph, direct or mapped
+     *
+     * @param name a name for the file of a mapped buffer
+     * @throws IOException if the file cannot be created
+     */
+    OffHeapBuffer newBuffer(String name) throws IOException {
+        if (directory == null) {
+            return new OffHeapBuffer();
+        }
+        return new OffHeapBuffer(Files.createTempFile(directory.toPath(), name + "-", ".bin"));
+    }
+
+    /**
+     * The graph of the given proteins, in the order of the collection, with
+     * the peptide ids of their PeptideDictionary; proteins made without one
+     * are given one first, as by a grouping run
+     *
+     * @param proteins
+     * @return the graph, finished, in direct memory
+     */
+    public static OffHeapIncidence of(Collection<Protein> proteins) {
+        Protein.internPendingPeptides(proteins);
+        int peptideCount = 0;
+        for (Protein protein : proteins) {
+            PeptideSet peptides = protein.getObservedPeptideSet();
+            if (!peptides.isEmpty()) {
+                peptideCount = Math.max(peptideCount, peptides.get(peptides.size() - 1) + 1);
+            }
+        }
+        OffHeapIncidence incidence = new OffHeapIncidence(peptideCount);
+        for (Protein protein : proteins) {
+            incidence.addProtein(protein.getDbSequenceRef(), protein.getObservedPeptideSet().toArray(),
+                    protein.getUniquePeptideSet().toArray());
+        }
+        incidence.finish();
+        return incidence;
+    }
+
+    /**
+     * Adds the next protein
+     *
+     * @param accession
+     * @param peptideIds the observed peptides of the protein, sorted and distinct
+     * @param uniquePeptideIds the peptides unique to the protein, sorted and distinct
+     * @return the index of the protein
+     */
+    public int addProtein(String accession, int[] peptideIds, int[] uniquePeptideIds) {
+        if (finished) {
+            throw new IllegalStateException("The graph is finished");
+        }
+        checkSorted(peptideIds);
+        checkSorted(uniquePeptideIds);
+        proteinPeptides.ensureCapacity(4 * (edgeCount + peptideIds.length));
+        for (int peptideId : peptideIds) {
+            proteinPeptides.putInt(4 * edgeCount++, peptideId);
+        }
+        uniquePeptides.ensureCapacity(4 * (uniqueCount + uniquePeptideIds.length));
+        for (int peptideId : uniquePeptideIds) {
+            uniquePeptides.putInt(4 * uniqueCount++, peptideId);
+        }
+        byte[] bytes = accession.getBytes(StandardCharsets.UTF_8);
+        accessions.ensureCapacity(accessionBytes + bytes.length);
+        for (byte b : bytes) {
+            accessions.putByte(accessionBytes++, b);
+        }
+        int protein = proteinCount++;
+        long end = 8L * (protein + 2);
+        proteinOffsets.ensureCapacity(end);
+        uniqueOffsets.ensureCapacity(end);
+        accessionOffsets.ensureCapacity(end);
+        proteinOffsets.putLong(end - 8, edgeCount);
+        uniqueOffsets.putLong(end - 8, uniqueCount);
+        accessionOffsets.putLong(end - 8, accessionBytes);
+        return protein;
+    }
+
+    private void checkSorted(int[] peptideIds) {
+        for (int i = 0; i < peptideIds.length; i++) {
+            if (peptideIds[i] < 0 || peptideIds[i] >= peptideCount || (i > 0 && peptideIds[i] <= peptideIds[i - 1])) {
+                throw new IllegalArgumentException("Peptide ids must be sorted, distinct and below " + peptideCount);
+            }
+        }
+    }
+
+    /**
+     * Builds the proteins of every peptide, in protein order; no protein may
+     * be added after
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        try {
+            peptideOffsets = newBuffer("peptide-offsets");
+            peptideProteins = newBuffer("peptide-proteins");
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not create the peptide rows", ex);
+        }
+        //Count the proteins of each peptide in the slot after its own, then sum the counts up into row starts
+        peptideOffsets.ensureCapacity(8L * (peptideCount + 1));
+        for (long edge = 0; edge < edgeCount; edge++) {
+            long slot = 8L * (proteinPeptides.getInt(4 * edge) + 1);
+            peptideOffsets.putLong(slot, peptideOffsets.getLong(slot) + 1);
+        }
+        for (int peptideId = 0; peptideId < peptideCount; peptideId++) {
+            long slot = 8L * (peptideId + 1);
+            peptideOffsets.putLong(slot, peptideOffsets.getLong(slot) + peptideOffsets.getLong(slot - 8));
+        }
+        //Fill the rows, using the start of each row as its cursor; each cursor ends on the start of the next row
+        peptideProteins.ensureCapacity(4 * edgeCount);
+        for (int protein = 0; protein < proteinCount; protein++) {
+            for (long edge = getRowStart(protein), end = getRowStart(protein + 1); edge < end; edge++) {
+                long slot = 8L * proteinPeptides.getInt(4 * edge);
+                long cursor = peptideOffsets.getLong(slot);
+                peptideProteins.putInt(4 * cursor, protein);
+                peptideOffsets.putLong(slot, cursor + 1);
+            }
+        }
+        for (int peptideId = peptideCount; peptideId > 0; peptideId--) {
+            peptideOffsets.putLong(8L * peptideId, peptideOffsets.getLong(8L * (peptideId - 1)));
+        }
+        peptideOffsets.putLong(0, 0);
+        finished = true;
+    }
+
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    public int getProteinCount() {
+        return this.proteinCount;
+    }
+
+    public int getPeptideCount() {
+        return this.peptideCount;
+    }
+
+    public long getEdgeCount() {
+        return this.edgeCount;
+    }
+
+    /**
+     * @return the bytes taken outside the heap, in memory or in files
+     */
+    public long getOffHeapBytes() {
+        long bytes = proteinOffsets.capacity() + proteinPeptides.capacity() + uniqueOffsets.capacity()
+                + uniquePeptides.capacity() + accessionOffsets.capacity() + accessions.capacity();
+        if (finished) {
+            bytes += peptideOffsets.capacity() + peptideProteins.capacity();
+        }
+        return bytes;
+    }
+
+    public String getAccession(int protein) {
+        long start = accessionOffsets.getLong(8L * protein);
+        byte[] bytes = new byte[(int) (accessionOffsets.getLong(8L * (protein + 1)) - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = accessions.getByte(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param protein
+     * @return the number of observed peptides of the protein
+     */
+    public int getObservedPeptideCount(int protein) {
+        return (int) (getRowStart(protein + 1) - getRowStart(protein));
+    }
+
+    /**
+     * @param protein
+     * @return the observed peptide ids of the protein, sorted
+     */
+    public int[] getObservedPeptides(int protein) {
+        return read(proteinPeptides, getRowStart(protein), getRowStart(protein + 1));
+    }
+
+    /**
+     * @param protein
+     * @return the ids of the peptides unique to the protein, sorted
+     */
+    public int[] getUniquePeptides(int protein) {
+        return read(uniquePeptides, uniqueOffsets.getLong(8L * protein), uniqueOffsets.getLong(8L * (protein + 1)));
+    }
+
+    public boolean hasUniquePeptides(int protein) {
+        return uniqueOffsets.getLong(8L * (protein + 1)) > uniqueOffsets.getLong(8L * protein);
+    }
+
+    /**
+     * @param peptideId
+     * @return the number of proteins the peptide was observed in
+     */
+    public int getPeptideProteinCount(int peptideId) {
+        checkFinished();
+        return (int) (peptideOffsets.getLong(8L * (peptideId + 1)) - peptideOffsets.getLong(8L * peptideId));
+    }
+
+    /**
+     * @param peptideId
+     * @return the indices of the proteins the peptide was observed in, sorted
+     */
+    public int[] getPeptideProteins(int peptideId) {
+        checkFinished();
+        return read(peptideProteins, peptideOffsets.getLong(8L * peptideId), peptideOffsets.getLong(8L * (peptideId + 1)));
+    }
+
+    private void checkFinished() {
+        if (!finished) {
+            throw new IllegalStateException("The graph is not finished");
+        }
+    }
+
+    private static int[] read(OffHeapBuffer buffer, long start, long end) {
+        int[] values = new int[(int) (end - start)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getInt(4 * (start + i));
+        }
+        return values;
+    }
+
+    /**
+     * @param protein
+     * @return the position of the first peptide of the protein among the
+     * edges; that of the protein after it is the end of its row
+     */
+    long getRowStart(int protein) {
+        return proteinOffsets.getLong(8L * protein);
+    }
+
+    /**
+     * @param edge
+     * @return the peptide id at the given position among the edges
+     */
+    int getPeptideAt(long edge) {
+        return proteinPeptides.getInt(4 * edge);
+    }
+
+    /**
+     * Releases the memory of the graph, and deletes its files
+     */
+    @Override
+    public void close() {
+        proteinOffsets.close();
+        proteinPeptides.close();
+        uniqueOffsets.close();
+        uniquePeptides.close();
+        accessionOffsets.close();
+        accessions.close();
+        if (peptideOffsets != null) {
+            peptideOffsets.close();
+            peptideProteins.close();
+        }
+    }
+
+}
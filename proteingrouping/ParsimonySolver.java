@@ -0,0 +1,183 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Picks, among the groups formed by the ProteinGrouper, a small set that
+ * explains every peptide: the greedy set cover of the peptides by the group
+ * peptide domains. The group covering the most peptides not yet covered is
+ * kept, and so on until every peptide is covered; the groups left over are
+ * marked discarded. On a tie the group of the lowest id is kept, so the
+ * result does not depend on the order of the map nor on the threads.
+ *
+ * The greedy choice is evaluated lazily. Every group sits in a priority
+ * queue under the count of its uncovered peptides when last counted; as
+ * counts only go down, a group whose count is still right when it reaches
+ * the head of the queue covers at least as many as any other, and is kept,
+ * while one whose count has gone down is counted again and put back. Each
+ * pick then costs a few recounts instead of a scan of every group.
+ *
+ * Groups that share no peptide, directly or through other groups, do not
+ * affect each other's picks, so the groups are split into their connected
+ * components first and each is solved as an independent task of the
+ * fork-join pool this is called from (the common pool by default).
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+public class ParsimonySolver {
+
+    /**
+     * Marks each group kept or discarded
+     *
+     * @param proteinGroups the groups of one grouping run
+     * @return the kept groups, keyed by group id
+     */
+    public ConcurrentHashMap<Integer, ProteinGroup> solve(Map<Integer, ProteinGroup> proteinGroups) {
+        ProteinGroup[] groups = proteinGroups.values().toArray(new ProteinGroup[0]);
+        Arrays.sort(groups, Comparator.comparingInt(ProteinGroup::getGroupId));
+        int peptideCount = 0;
+        for (ProteinGroup group : groups) {
+            PeptideSet domain = group.getGroupPeptideDomainSet();
+            if (!domain.isEmpty()) {
+                peptideCount = Math.max(peptideCount, domain.get(domain.size() - 1) + 1);
+            }
+        }
+
+        //Join every group with the first group to claim each of its peptides
+        AtomicIntegerArray claimingGroups = new AtomicIntegerArray(peptideCount);
+        ConcurrentUnionFind unionFind = new ConcurrentUnionFind(groups.length);
+        IntStream.range(0, groups.length).parallel().forEach(g -> {
+            groups[g].getGroupPeptideDomainSet().forEach(peptideId -> {
+                int claimingGroup = claimingGroups.compareAndExchange(peptideId, 0, g + 1);
+                if (claimingGroup != 0) {
+                    unionFind.union(claimingGroup - 1, g);
+                }
+            });
+        });
+        int[] roots = IntStream.range(0, groups.length).parallel().map(unionFind::find).toArray();
+        HashMap<Integer, ArrayList<ProteinGroup>> componentsByRoot = new HashMap<>();
+        for (int g = 0; g < groups.length; g++) {
+            componentsByRoot.computeIfAbsent(roots[g], k -> new ArrayList<>()).add(groups[g]);
+        }
+        ArrayList<ArrayList<ProteinGroup>> components = new ArrayList<>(componentsByRoot.values());
+        //The largest components first, so that they do not end up last on one thread
+        components.sort(Comparator.comparingInt((ArrayList<ProteinGroup> component) -> component.size()).reversed());
+
+        //Components touch disjoint peptides, so they can share the covered flags
+        byte[] covered = new byte[peptideCount];
+        ConcurrentHashMap<Integer, ProteinGroup> kept = new ConcurrentHashMap<>();
+        components.parallelStream().forEach(component -> solveComponent(component, covered, kept));
+        return kept;
+    }
+
+    /**
+     * @param component the groups of one component, in id order
+     * @param covered
+     * @param kept
+     */
+    private static void solveComponent(ArrayList<ProteinGroup> component, byte[] covered,
+            ConcurrentHashMap<Integer, ProteinGroup> kept) {
+        if (component.size() == 1) {
+            ProteinGroup group = component.get(0);
+            group.setDiscarded(group.getGroupPeptideDomainSet().isEmpty());
+            if (!group.isDiscarded()) {
+                kept.put(group.getGroupId(), group);
+            }
+            return;
+        }
+        GroupQueue queue = new GroupQueue(component.size());
+        for (int g = 0; g < component.size(); g++) {
+            queue.add(component.get(g).getGroupPeptideDomainSet().size(), g);
+        }
+        while (!queue.isEmpty()) {
+            int count = queue.headCount();
+            int g = queue.poll();
+            ProteinGroup group = component.get(g);
+            PeptideSet domain = group.getGroupPeptideDomainSet();
+            int uncovered = 0;
+            for (int i = 0; i < domain.size(); i++) {
+                if (covered[domain.get(i)] == 0) {
+                    uncovered++;
+                }
+            }
+            if (uncovered == 0) {
+                group.setDiscarded(true);
+            } else if (uncovered < count) {
+                queue.add(uncovered, g);
+            } else {
+                domain.forEach(peptideId -> covered[peptideId] = 1);
+                group.setDiscarded(false);
+                kept.put(group.getGroupId(), group);
+            }
+        }
+    }
+
+    /**
+     * A binary max-heap of groups by count, then by lowest position (i.e.
+     * lowest group id), held as longs in one array
+     */
+    private static final class GroupQueue {
+
+        private long[] heap;
+        private int size;
+
+        private GroupQueue(int capacity) {
+            heap = new long[Math.max(capacity, 1)];
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void add(int count, int position) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, 2 * size);
+            }
+            long key = ((long) count << 32) | (Integer.MAX_VALUE - position);
+            int i = size++;
+            while (i > 0 && heap[(i - 1) >>> 1] < key) {
+                heap[i] = heap[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            heap[i] = key;
+        }
+
+        private int headCount() {
+            return (int) (heap[0] >>> 32);
+        }
+
+        private int poll() {
+            int position = Integer.MAX_VALUE - (int) heap[0];
+            long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return position;
+        }
+
+    }
+
+}
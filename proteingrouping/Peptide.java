@@ -2,7 +2,12 @@
  *
  * Copyright 2016-2017 Maduka Attamah
  *
- * The Peptide class. Will be used to encapsulate data loaded from source files 
+ * The Peptide class. Will be used to encapsulate data loaded from source files
+ *
+ * The loaders keep the matches of their peptides in a PsmStore and intern
+ * the rows in the PeptideDictionary, without a Peptide per row; a peptide of
+ * a row is only made when one is asked for (see PeptideDictionary.getPeptide),
+ * as a flyweight reading the row (see PsmStore.newPeptide).
  *
  * @author Maduka Attamah
  */
@@ -16,11 +21,13 @@ public class Peptide {
     private final int rank;
     private final float score;
     private final boolean uniqueToAProtein;
-    
+    private PeptideDictionary dictionary;  //The dictionary the peptide is interned in, null until then
+    private int peptideId;  //Dense id given by that dictionary, -1 until then
+
     public static enum Status {RESOLVED, CONFLICTED};
-    
-    public Status peptideStatus;
-    
+
+    private Status peptideStatus;
+
     /**
      * Forcing the creator of a peptide to initialise these fields first. There are
      * several versions of the constructor cater for various missing fields and purposes.
@@ -29,10 +36,10 @@ public class Peptide {
      * @psmId peptide spectrum match id.
      * @param spectrumId
      * @param rank
-     * @param score 
-     * @param uniqueToAProtein 
+     * @param score
+     * @param uniqueToAProtein
      */
-    public Peptide(String peptideRefSeq, String psmId, int spectrumId, 
+    public Peptide(String peptideRefSeq, String psmId, int spectrumId,
             int rank, float score, boolean uniqueToAProtein) {
         this.peptideRefSequence = peptideRefSeq;
         this.psmId = psmId;
@@ -40,35 +47,74 @@ public class Peptide {
         this.rank = rank;
         this.score = score;
         this.uniqueToAProtein = uniqueToAProtein;
+        this.peptideId = -1;
         this.peptideStatus = Status.RESOLVED; //by default
     }
-    
-    public Peptide(String peptideRef, String psmId, int spectrumId, 
+
+    public Peptide(String peptideRef, String psmId, int spectrumId,
             int rank, float score) {
-        this.peptideRefSequence = peptideRef;
-        this.psmId = psmId;
-        this.spectrumId = spectrumId;
-        this.rank = rank;
-        this.score = score;
-        this.uniqueToAProtein = false;  //by default
-        this.peptideStatus = Status.RESOLVED; //by default
+        this(peptideRef, psmId, spectrumId, rank, score, false);  //not unique by default
     }
-    
+
+    /**
+     * A peptide whose match is held elsewhere, by a subclass which overrides
+     * the getters; see PsmStore.newPeptide
+     */
+    Peptide() {
+        this(null, null, 0, 0, Float.NaN, false);
+    }
+
     public float getScore() {
         return this.score;
     }
-    
+
     public String getPeptideRef() {
         return this.peptideRefSequence;
     }
-    
+
+    public String getPsmId() {
+        return this.psmId;
+    }
+
+    public int getSpectrumId() {
+        return this.spectrumId;
+    }
+
+    public int getRank() {
+        return this.rank;
+    }
+
+    public int getPeptideId() {
+        return this.peptideId;
+    }
+
+    /**
+     * @return the dictionary the peptide is interned in, or null if it is not interned yet
+     */
+    PeptideDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    void setPeptideId(PeptideDictionary dictionary, int peptideId) {
+        this.dictionary = dictionary;
+        this.peptideId = peptideId;
+    }
+
     public boolean isUniqueToAProtein() {
         return this.uniqueToAProtein;
     }
-    
+
+    public Status getPeptideStatus() {
+        return this.peptideStatus;
+    }
+
+    public void setPeptideStatus(Status status) {
+        this.peptideStatus = status;
+    }
+
     @Override
     public String toString() {
-        return this.peptideRefSequence;
+        return getPeptideRef();
     }
-    
+
 }
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Gives each distinct peptide (as identified by its peptide ref / sequence) a
+ * dense int id at load time. The peptide sets of proteins, groups and clusters
+ * hold these ids (see PeptideSet), and the dictionary turns them back into
+ * Peptide objects wherever the objects are still needed.
+ *
+ * The loaders intern the rows of a PsmStore (see internRow) rather than
+ * Peptide objects, so that a loaded peptide costs the dictionary an int and
+ * no object; getPeptide makes a flyweight over the row each time it is
+ * asked for one.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.Arrays;
+
+public class PeptideDictionary {
+
+    private final StringDictionary refs;  // the code of a ref is the id of its peptide
+    private int size;
+    private Peptide[] peptides;  // indexed by peptide id; null for the rows of the store, and until a peptide is interned
+    private PsmStore store;  // the store whose rows are interned, if any
+    private int[] rows;  // indexed by peptide id: the row of the peptide in the store, -1 for a peptide; null until a row is interned
+
+    public PeptideDictionary() {
+        refs = new StringDictionary();
+        size = 0;
+    }
+
+    /**
+     * A dictionary of every row of the store, the id of a peptide being its
+     * row, whose refs are already encoded in the given string dictionary in
+     * that order
+     */
+    PeptideDictionary(StringDictionary refs, PsmStore store) {
+        this.refs = refs;
+        this.size = store.size();
+        this.store = store;
+        this.rows = new int[size];
+        for (int id = 0; id < size; id++) {
+            rows[id] = id;
+        }
+    }
+
+    /**
+     * Returns the id of the given peptide, assigning the next free id if no
+     * peptide with the same ref has been seen yet. The first peptide interned
+     * under a ref is the one kept by the dictionary, so loaders should resolve
+     * which of several PSMs of a peptide to keep before interning it.
+     *
+     * @param peptide
+     * @return the id of the peptide
+     * @throws IllegalArgumentException if the peptide is interned in another
+     * dictionary, whose id it holds
+     */
+    public int intern(Peptide peptide) {
+        if (peptide.getPeptideId() >= 0) {
+            if (peptide.getDictionary() != this) {
+                throw new IllegalArgumentException("Peptide " + peptide + " is interned in another peptide dictionary");
+            }
+            return peptide.getPeptideId();
+        }
+        int id = refs.intern(peptide.getPeptideRef());
+        if (id == size) {
+            append();
+            if (peptides == null) {
+                peptides = new Peptide[Math.max(16, rows == null ? 0 : rows.length)];
+            }
+            peptides[id] = peptide;
+        }
+        peptide.setPeptideId(this, id);
+        return id;
+    }
+
+    /**
+     * Interns the peptide of a row of the store, without making a Peptide for
+     * it; the peptide is made when asked for by getPeptide. As with intern,
+     * the first row interned under a sequence is the one kept.
+     *
+     * @param psms
+     * @param row
+     * @return the id of the peptide
+     * @throws IllegalArgumentException if rows of another store are interned already
+     */
+    public int internRow(PsmStore psms, int row) {
+        if (store == null) {
+            store = psms;
+        } else if (store != psms) {
+            throw new IllegalArgumentException("A peptide dictionary interns the rows of one PsmStore");
+        }
+        int id = refs.intern(psms.getSequence(row));
+        if (id == size) {
+            append();
+            if (rows == null) {
+                rows = new int[Math.max(16, peptides == null ? 0 : peptides.length)];
+                Arrays.fill(rows, -1);
+            }
+            rows[id] = row;
+        }
+        return id;
+    }
+
+    /**
+     * Makes room for one more id; the new id's entries are null and -1
+     */
+    private void append() {
+        int capacity = peptides != null ? peptides.length : rows != null ? rows.length : 0;
+        if (size == capacity) {
+            int length = Math.max(16, capacity + (capacity >> 1));
+            if (peptides != null) {
+                peptides = Arrays.copyOf(peptides, length);
+            }
+            if (rows != null) {
+                rows = Arrays.copyOf(rows, length);
+                Arrays.fill(rows, size, length, -1);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * @param peptideRef
+     * @return the id of the peptide with the given ref, or -1 if there is none
+     */
+    public int getPeptideId(String peptideRef) {
+        return refs.getCode(peptideRef);
+    }
+
+    /**
+     * @param peptideId
+     * @return the peptide with the given id: the one interned, or a new
+     * flyweight over its row of the store
+     */
+    public Peptide getPeptide(int peptideId) {
+        if (peptideId < 0 || peptideId >= size) {
+            throw new IndexOutOfBoundsException(peptideId + " >= " + size);
+        }
+        if (peptides != null && peptides[peptideId] != null) {
+            return peptides[peptideId];
+        }
+        Peptide peptide = store.newPeptide(rows[peptideId]);
+        peptide.setPeptideId(this, peptideId);
+        return peptide;
+    }
+
+    /**
+     * @return the number of distinct peptides, which is also one more than the highest id given out
+     */
+    public int size() {
+        return this.size;
+    }
+
+}
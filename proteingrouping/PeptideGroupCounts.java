@@ -0,0 +1,103 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Counts, for each peptide id, the number of protein group domains the peptide
+ * belongs to. The ProteinGrouper keeps the counts up to date as groups are
+ * formed and their domains replaced, so that the conflicted peptides (those in
+ * more than one group domain) are known without comparing groups pairwise.
+ *
+ * Different threads may update the counts of different peptides at the same
+ * time, as when disjoint components are grouped in parallel.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+class PeptideGroupCounts {
+
+    private int[] counts;  //indexed by peptide id
+
+    /**
+     * @param peptideCount one more than the highest peptide id to be counted
+     */
+    PeptideGroupCounts(int peptideCount) {
+        counts = new int[peptideCount];
+    }
+
+    /**
+     * Counts a newly formed group domain
+     *
+     * @param domain
+     */
+    void addDomain(PeptideSet domain) {
+        domain.forEach(peptideId -> counts[peptideId]++);
+    }
+
+    /**
+     * Counts the peptides a group domain has gained when it was replaced by a
+     * superset of itself
+     *
+     * @param oldDomain
+     * @param newDomain
+     */
+    void extendDomain(PeptideSet oldDomain, PeptideSet newDomain) {
+        newDomain.forEach(peptideId -> {
+            if (!oldDomain.contains(peptideId)) {
+                counts[peptideId]++;
+            }
+        });
+    }
+
+    /**
+     * Makes room for peptide ids below the given count; not safe to call
+     * while other threads update the counts
+     *
+     * @param peptideCount
+     */
+    void ensureCapacity(int peptideCount) {
+        if (peptideCount > counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(peptideCount, counts.length * 2));
+        }
+    }
+
+    /**
+     * Forgets the domains the peptide was counted in, as when the component of
+     * the peptide is about to be grouped again
+     *
+     * @param peptideId
+     */
+    void clear(int peptideId) {
+        counts[peptideId] = 0;
+    }
+
+    int get(int peptideId) {
+        return counts[peptideId];
+    }
+
+    /**
+     * Sets the status of every counted peptide in one (parallel) sweep: a
+     * peptide is CONFLICTED exactly when it belongs to more than one group
+     * domain. Peptides that are in no group domain are left as they are.
+     *
+     * @param dictionary the dictionary the counted ids come from
+     * @param session the session the statuses are set in
+     */
+    void updatePeptideStatus(PeptideDictionary dictionary, GroupingSession session) {
+        session.prepareStatuses(dictionary);
+        IntStream.range(0, counts.length).parallel().forEach(peptideId -> {
+            if (counts[peptideId] > 0) {
+                session.setPeptideStatus(dictionary, peptideId,
+                        counts[peptideId] > 1 ? Peptide.Status.CONFLICTED : Peptide.Status.RESOLVED);
+            }
+        });
+        if (session.getMetrics().isEnabled()) {
+            session.getMetrics().add(PipelineMetrics.Counter.CONFLICTED_PEPTIDES,
+                    IntStream.range(0, counts.length).parallel().filter(peptideId -> counts[peptideId] > 1).count());
+        }
+    }
+
+}
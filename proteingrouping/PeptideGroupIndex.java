@@ -0,0 +1,197 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * An inverted index from each peptide to the (non singleton) protein groups
+ * whose peptide domain contains it. It is used by the ProteinGrouper so that
+ * the subset / superset candidates of a protein come only from the groups
+ * which share at least one peptide with it, instead of from a scan of every
+ * group formed so far.
+ *
+ * Each group is also anchored at one peptide of its domain, the one in the
+ * fewest groups when the group was formed. A group whose domain is a subset
+ * of the peptides of a protein is anchored at one of them, so the subset
+ * candidates of a protein are the groups anchored at its peptides, each met
+ * once, rather than every group indexed under any of them.
+ *
+ * Proteins of different peptide-connected components touch different peptides,
+ * so components may be grouped into the same index from different threads.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class PeptideGroupIndex {
+
+    private ArrayList<?>[] groupsByPeptide;  //indexed by peptide id
+    private ArrayList<?>[] anchoredGroups;  //indexed by peptide id
+
+    /**
+     * @param peptideCount one more than the highest peptide id to be indexed
+     */
+    PeptideGroupIndex(int peptideCount) {
+        groupsByPeptide = new ArrayList<?>[peptideCount];
+        anchoredGroups = new ArrayList<?>[peptideCount];
+    }
+
+    /**
+     * Makes room for peptide ids below the given count; not safe to call
+     * while other threads use the index
+     *
+     * @param peptideCount
+     */
+    void ensureCapacity(int peptideCount) {
+        if (peptideCount > groupsByPeptide.length) {
+            groupsByPeptide = Arrays.copyOf(groupsByPeptide, Math.max(peptideCount, groupsByPeptide.length * 2));
+            anchoredGroups = Arrays.copyOf(anchoredGroups, groupsByPeptide.length);
+        }
+    }
+
+    /**
+     * Takes every group out of the index entry of the peptide, as when the
+     * component of the peptide is about to be grouped again
+     *
+     * @param peptideId
+     */
+    void clear(int peptideId) {
+        groupsByPeptide[peptideId] = null;
+        anchoredGroups[peptideId] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayList<ProteinGroup> groups(int peptideId) {
+        return (ArrayList<ProteinGroup>) groupsByPeptide[peptideId];
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayList<ProteinGroup> anchored(int peptideId) {
+        return (ArrayList<ProteinGroup>) anchoredGroups[peptideId];
+    }
+
+    private int groupCount(int peptideId) {
+        ArrayList<ProteinGroup> groups = groups(peptideId);
+        return groups == null ? 0 : groups.size();
+    }
+
+    private static void add(ArrayList<?>[] lists, int peptideId, ProteinGroup proteinGroup) {
+        @SuppressWarnings("unchecked")
+        ArrayList<ProteinGroup> groups = (ArrayList<ProteinGroup>) lists[peptideId];
+        if (groups == null) {
+            groups = new ArrayList<>(2);
+            lists[peptideId] = groups;
+        }
+        groups.add(proteinGroup);
+    }
+
+    /**
+     * Indexes a newly formed group under each of the peptides of its domain,
+     * and anchors it at the one of them in the fewest groups
+     *
+     * @param proteinGroup
+     * @param peptides the peptide domain of the group
+     */
+    void addGroup(ProteinGroup proteinGroup, PeptideSet peptides) {
+        if (peptides.isEmpty()) {
+            return;
+        }
+        add(anchoredGroups, rarestPeptide(peptides), proteinGroup);
+        peptides.forEach(peptideId -> add(groupsByPeptide, peptideId, proteinGroup));
+    }
+
+    /**
+     * @param peptides a set that is not empty
+     * @return the peptide of the set in the fewest groups, the lowest id on ties
+     */
+    private int rarestPeptide(PeptideSet peptides) {
+        int rarest = peptides.get(0);
+        int fewest = groupCount(rarest);
+        for (int i = 1; i < peptides.size() && fewest > 0; i++) {
+            int count = groupCount(peptides.get(i));
+            if (count < fewest) {
+                rarest = peptides.get(i);
+                fewest = count;
+            }
+        }
+        return rarest;
+    }
+
+    /**
+     * Indexes the group under the peptides which its domain has gained. The
+     * grouper only ever replaces a domain by a superset of it, so nothing has
+     * to be taken out of the index, and the group stays anchored at a peptide
+     * of its domain.
+     *
+     * @param proteinGroup
+     * @param oldDomain the peptide domain of the group before it was replaced
+     * @param newDomain the new peptide domain of the group
+     */
+    void extendGroup(ProteinGroup proteinGroup, PeptideSet oldDomain, PeptideSet newDomain) {
+        newDomain.forEach(peptideId -> {
+            if (!oldDomain.contains(peptideId)) {
+                add(groupsByPeptide, peptideId, proteinGroup);
+            }
+        });
+    }
+
+    /**
+     * Finds a group whose peptide domain is a superset of the given peptides,
+     * or a subset of them. A superset holds every peptide of the protein, so
+     * the superset candidates are the groups indexed under the peptide of the
+     * protein in the fewest groups; the subset candidates are the groups
+     * anchored at its peptides. Candidates whose domain is too small to be a
+     * superset, or too large to be a subset, are passed over without being
+     * compared. The work is thus bounded by the peptide-group edges of the
+     * protein's rarest peptide and of its anchors, however many groups share
+     * its other peptides.
+     *
+     * Of several such groups the one of the lowest id is chosen. The groups
+     * of a component are given increasing ids, so this is the group formed
+     * first, whatever the ids of the peptides.
+     *
+     * @param peptides the observed peptides of a protein
+     * @param comparisons the number of candidates compared is added to its
+     * first element, which the caller adds to its metrics once per run
+     * @return the group chosen, or null if there is none
+     */
+    ProteinGroup findSubsetOrSupersetGroup(PeptideSet peptides, long[] comparisons) {
+        int size = peptides.size();
+        if (size == 0) {
+            return null;
+        }
+        ProteinGroup chosen = null;
+        int compared = 0;
+        ArrayList<ProteinGroup> supersetCandidates = groups(rarestPeptide(peptides));
+        if (supersetCandidates != null) {
+            for (ProteinGroup proteinGroup : supersetCandidates) {
+                PeptideSet domain = proteinGroup.getGroupPeptideDomainSet();
+                if (domain.size() >= size && (chosen == null || proteinGroup.getGroupId() < chosen.getGroupId())) {
+                    compared++;
+                    if (domain.containsAll(peptides)) {
+                        chosen = proteinGroup;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            ArrayList<ProteinGroup> subsetCandidates = anchored(peptides.get(i));
+            if (subsetCandidates == null) {
+                continue;
+            }
+            for (ProteinGroup proteinGroup : subsetCandidates) {
+                PeptideSet domain = proteinGroup.getGroupPeptideDomainSet();
+                if (domain.size() <= size && (chosen == null || proteinGroup.getGroupId() < chosen.getGroupId())) {
+                    compared++;
+                    if (peptides.containsAll(domain)) {
+                        chosen = proteinGroup;
+                    }
+                }
+            }
+        }
+        comparisons[0] += compared;
+        return chosen;
+    }
+
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A set of peptides held as a sorted array of distinct peptide ids (see
+ * PeptideDictionary). Subset, intersection and equality checks are linear
+ * merges over the two arrays, and each member costs four bytes.
+ *
+ * Ids may be added in any order; the array is sorted and made distinct the
+ * first time the set is read after a change. Reading a set from several
+ * threads is safe once it is no longer being added to.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public class PeptideSet {
+
+    private static final int[] EMPTY = new int[0];
+
+    private PeptideDictionary dictionary;
+    private int[] ids;
+    private int size;
+    private volatile boolean sorted;
+
+    /**
+     * @param dictionary the dictionary the ids of this set come from. A set
+     * created without one takes the dictionary of the first set added to it.
+     */
+    public PeptideSet(PeptideDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.ids = EMPTY;
+        this.size = 0;
+        this.sorted = true;
+    }
+
+    public PeptideSet(PeptideSet peptideSet) {
+        peptideSet.ensureSorted();
+        this.dictionary = peptideSet.dictionary;
+        this.ids = Arrays.copyOf(peptideSet.ids, peptideSet.size);
+        this.size = peptideSet.size;
+        this.sorted = true;
+    }
+
+    /**
+     * Wraps an array of ids that is already sorted and distinct, without copying it
+     *
+     * @param dictionary
+     * @param sortedIds
+     * @return
+     */
+    public static PeptideSet ofSorted(PeptideDictionary dictionary, int[] sortedIds) {
+        PeptideSet peptideSet = new PeptideSet(dictionary);
+        peptideSet.ids = sortedIds;
+        peptideSet.size = sortedIds.length;
+        return peptideSet;
+    }
+
+    public PeptideDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * Gives a set made without a dictionary the one its ids will come from
+     *
+     * @param dictionary
+     * @throws IllegalStateException if the set has another dictionary already
+     */
+    synchronized void setDictionary(PeptideDictionary dictionary) {
+        if (this.dictionary != null && this.dictionary != dictionary) {
+            throw new IllegalStateException("The peptide set has another dictionary already");
+        }
+        this.dictionary = dictionary;
+    }
+
+    public synchronized void add(int peptideId) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+        }
+        ids[size++] = peptideId;
+        if (sorted && size > 1 && ids[size - 2] >= peptideId) {
+            sorted = false;
+        }
+    }
+
+    /**
+     * Adds the given peptide, interning it in the dictionary of this set if it
+     * has no id yet
+     *
+     * @param peptide
+     * @throws IllegalArgumentException if the set has no dictionary, or the
+     * peptide is interned in another one
+     */
+    public void add(Peptide peptide) {
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Peptide " + peptide + " cannot be added to a set with no peptide dictionary");
+        }
+        add(dictionary.intern(peptide));
+    }
+
+    public synchronized void addAll(PeptideSet peptideSet) {
+        if (this.dictionary == null) {
+            this.dictionary = peptideSet.dictionary;
+        }
+        if (peptideSet.isEmpty()) {
+            return;
+        }
+        if (this.isEmpty()) {
+            peptideSet.ensureSorted();
+            this.ids = Arrays.copyOf(peptideSet.ids, peptideSet.size);
+            this.size = peptideSet.size;
+            this.sorted = true;
+            return;
+        }
+        this.ids = union(this, peptideSet);
+        this.size = this.ids.length;
+        this.sorted = true;
+    }
+
+    public void addAll(ArrayList<Peptide> peptides) {
+        for (Peptide peptide : peptides) {
+            add(peptide);
+        }
+    }
+
+    public synchronized void remove(int peptideId) {
+        ensureSorted();
+        int index = Arrays.binarySearch(ids, 0, size, peptideId);
+        if (index >= 0) {
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+    }
+
+    public void remove(Peptide peptide) {
+        if (peptide.getPeptideId() >= 0 && peptide.getDictionary() == dictionary) {
+            remove(peptide.getPeptideId());
+        }
+    }
+
+    public synchronized void clear() {
+        ids = EMPTY;
+        size = 0;
+        sorted = true;
+    }
+
+    public int size() {
+        ensureSorted();
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @param index
+     * @return the index-th smallest id of this set
+     */
+    public int get(int index) {
+        ensureSorted();
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return ids[index];
+    }
+
+    public boolean contains(int peptideId) {
+        ensureSorted();
+        return Arrays.binarySearch(ids, 0, size, peptideId) >= 0;
+    }
+
+    /**
+     * @param peptideSet
+     * @return true if every peptide of the given set is in this set
+     */
+    public boolean containsAll(PeptideSet peptideSet) {
+        ensureSorted();
+        peptideSet.ensureSorted();
+        if (peptideSet.size > this.size) {
+            return false;
+        }
+        return intersectionSize(peptideSet) == peptideSet.size;
+    }
+
+    public boolean intersects(PeptideSet peptideSet) {
+        ensureSorted();
+        peptideSet.ensureSorted();
+        int[] a = this.ids, b = peptideSet.ids;
+        int i = 0, j = 0;
+        while (i < this.size && j < peptideSet.size) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int intersectionSize(PeptideSet peptideSet) {
+        ensureSorted();
+        peptideSet.ensureSorted();
+        int[] a = this.ids, b = peptideSet.ids;
+        int i = 0, j = 0, count = 0;
+        while (i < this.size && j < peptideSet.size) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param peptideSet
+     * @return a new set holding the peptides which are in both sets
+     */
+    public PeptideSet intersection(PeptideSet peptideSet) {
+        ensureSorted();
+        peptideSet.ensureSorted();
+        int[] a = this.ids, b = peptideSet.ids;
+        int[] common = new int[Math.min(this.size, peptideSet.size)];
+        int i = 0, j = 0, count = 0;
+        while (i < this.size && j < peptideSet.size) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                common[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return ofSorted(this.dictionary != null ? this.dictionary : peptideSet.dictionary, Arrays.copyOf(common, count));
+    }
+
+    private static int[] union(PeptideSet first, PeptideSet second) {
+        first.ensureSorted();
+        second.ensureSorted();
+        int[] a = first.ids, b = second.ids;
+        int[] merged = new int[first.size + second.size];
+        int i = 0, j = 0, count = 0;
+        while (i < first.size && j < second.size) {
+            if (a[i] < b[j]) {
+                merged[count++] = a[i++];
+            } else if (a[i] > b[j]) {
+                merged[count++] = b[j++];
+            } else {
+                merged[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        while (i < first.size) {
+            merged[count++] = a[i++];
+        }
+        while (j < second.size) {
+            merged[count++] = b[j++];
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    public void forEach(IntConsumer action) {
+        ensureSorted();
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i]);
+        }
+    }
+
+    /**
+     * @return a copy of the ids of this set, in ascending order
+     */
+    public int[] toArray() {
+        ensureSorted();
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Materialises the peptides of this set from the dictionary. The returned
+     * list is a snapshot; changing it does not change the set.
+     *
+     * @return the peptides of this set, in ascending id order
+     */
+    public ArrayList<Peptide> toPeptideList() {
+        ensureSorted();
+        ArrayList<Peptide> peptides = new ArrayList<>(size);
+        if (size > 0 && dictionary == null) {
+            throw new IllegalStateException("Peptide set has no dictionary to materialise its peptides from");
+        }
+        for (int i = 0; i < size; i++) {
+            peptides.add(dictionary.getPeptide(ids[i]));
+        }
+        return peptides;
+    }
+
+    private void ensureSorted() {
+        if (!sorted) {
+            compact();
+        }
+    }
+
+    private synchronized void compact() {
+        if (sorted) {
+            return;
+        }
+        Arrays.sort(ids, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        size = distinct;
+        if (ids.length > size + (size >> 2) + 4) {
+            ids = Arrays.copyOf(ids, size);
+        }
+        sorted = true;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof PeptideSet)) {
+            return false;
+        }
+        PeptideSet peptideSet = (PeptideSet) object;
+        ensureSorted();
+        peptideSet.ensureSorted();
+        return Arrays.equals(this.ids, 0, this.size, peptideSet.ids, 0, peptideSet.size);
+    }
+
+    @Override
+    public int hashCode() {
+        ensureSorted();
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + ids[i];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        if (dictionary == null) {
+            return Arrays.toString(toArray());
+        }
+        return toPeptideList().toString();
+    }
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The JFR event of one run of a PipelineMetrics phase, spanning the phase on
+ * the thread that ran it
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("proteomics.proteingrouping.Phase")
+@Label("Protein Grouping Phase")
+@Category("Protein Grouping")
+@Description("A phase of loading, grouping or clustering proteins")
+class PhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Thread CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuNanos;
+
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    long allocatedBytes;
+
+}
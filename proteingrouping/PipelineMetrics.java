@@ -0,0 +1,284 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Records where the time of a run goes, phase by phase, from loading the
+ * files through grouping to clustering. For each phase it adds up the number
+ * of times the phase ran, the wall time, the CPU time of the thread that ran
+ * it, the CPU time of the whole process over the same span (which takes in
+ * the worker threads of the parallel phases), and the bytes allocated by the
+ * thread that ran it. Next to the phases it keeps counters of what the
+ * pipeline went through: PSMs read and dropped, proteins, groups, subset
+ * proteins, conflicted peptides and so on.
+ *
+ * Each loader and each GroupingSession carries a PipelineMetrics of its own,
+ * which its phases and counters go to; the grouper of a session records in
+ * the metrics of the session. One PipelineMetrics may be given to the loader
+ * and the session of a run (see setMetrics and GroupingSession(PipelineMetrics))
+ * to have the whole run in one place, and runs recorded in different
+ * PipelineMetrics do not see each other.
+ *
+ * Recording is off in a new PipelineMetrics unless it is turned on with
+ * setEnabled(true), or the system property proteomics.metrics=true is set.
+ * While it is off a phase costs the loaders and the grouper one volatile
+ * read and no allocation, and the counters that need extra work to find
+ * (such as the subset proteins) are not worked out at all. Each phase is also
+ * a JFR event, proteomics.proteingrouping.Phase, which is committed whenever
+ * a Flight Recorder recording takes it, whether or not recording here is on.
+ *
+ * Thread CPU time and allocation counting, which the JVM keeps for every
+ * thread once on, are turned on the first time recording is turned on in any
+ * PipelineMetrics, where the JVM supports them and has them off, and left on.
+ * Until then, a JFR event gets 0 for the figures they would give.
+ *
+ * Phases that run on several threads at once, as the files of an
+ * MzIdentMLBatchLoader do, add up their times on every thread, so their
+ * wall time may be more than the time that went by.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.EventType;
+
+public final class PipelineMetrics {
+
+    public enum Phase {
+        PARSE_MZIDENTML,  //the pass over one mzIdentML file
+        RESOLVE_PROTEINS,  //building the proteins of one mzIdentML file from its hypotheses
+        PARSE_MZTAB,  //reading the PSMs of an mzTab or comma separated file and building its proteins
+        MERGE_STUDY,  //merging the proteins of one file into the study of a batch
+        GROUP,  //forming the groups, setting the peptide statuses included
+        UPDATE_PEPTIDE_STATUS,  //setting the status of every peptide in a group domain, within GROUP or alone
+        CLUSTER  //clustering the groups
+    }
+
+    public enum Counter {
+        PSMS_PARSED,  //matches (rows, in an mzTab file) read, kept or not
+        PSMS_FILTERED,  //matches dropped as they were read, by the threshold, the filter or as decoys
+        PROTEINS,  //proteins grouped
+        GROUPS,
+        SINGLETON_GROUPS,
+        SUBSET_PROTEINS,
+        CONFLICTED_PEPTIDES,  //peptides in more than one group domain
+        CANDIDATE_COMPARISONS,  //groups weighed as a subset or superset of a protein
+        CLUSTERS
+    }
+
+    static final int FIELDS = 5;  //per phase: count, wall, thread CPU and process CPU nanoseconds, allocated bytes
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+    private static final com.sun.management.OperatingSystemMXBean PROCESS = processBean();
+    private static final EventType PHASE_EVENT = EventType.getEventType(PhaseEvent.class);
+
+    //What start returns when neither recording here nor a JFR recording wants the phase
+    private static final Timer NO_TIMER = new Timer(null, null, false, null);
+
+    private static volatile boolean threadAccounting;  //whether the CPU time and allocation counting have been turned on
+
+    private volatile boolean enabled;
+    private final LongAdder[] phases;
+    private final LongAdder[] counters;
+
+    /**
+     * Metrics with nothing recorded yet, recording if the system property
+     * proteomics.metrics is true
+     */
+    public PipelineMetrics() {
+        phases = adders(Phase.values().length * FIELDS);
+        counters = adders(Counter.values().length);
+        setEnabled(Boolean.getBoolean("proteomics.metrics"));
+    }
+
+    /**
+     * Turns recording on or off; what has been recorded so far is kept
+     *
+     * @param on
+     */
+    public void setEnabled(boolean on) {
+        if (on) {
+            enableThreadAccounting();
+        }
+        enabled = on;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a phase on this thread. The timer is meant for a
+     * try-with-resources block around the phase, and adds to the phase when
+     * it is closed.
+     *
+     * @param phase
+     * @return the timer of this run of the phase
+     */
+    public Timer start(Phase phase) {
+        boolean recording = enabled;
+        boolean committing = PHASE_EVENT.isEnabled();
+        if (!recording && !committing) {
+            return NO_TIMER;
+        }
+        return new Timer(this, phase, recording, committing ? new PhaseEvent() : null);
+    }
+
+    /**
+     * Adds to a counter, if recording is on
+     *
+     * @param counter
+     * @param amount
+     */
+    public void add(Counter counter, long amount) {
+        if (enabled) {
+            counters[counter.ordinal()].add(amount);
+        }
+    }
+
+    /**
+     * @return what has been recorded since the start or the last reset;
+     * phases still running are not in it
+     */
+    public MetricsSnapshot snapshot() {
+        long[] phaseValues = new long[phases.length];
+        for (int i = 0; i < phaseValues.length; i++) {
+            phaseValues[i] = phases[i].sum();
+        }
+        long[] counterValues = new long[counters.length];
+        for (int i = 0; i < counterValues.length; i++) {
+            counterValues[i] = counters[i].sum();
+        }
+        return new MetricsSnapshot(phaseValues, counterValues);
+    }
+
+    /**
+     * Forgets everything recorded so far; not meant to be called while a run
+     * is being recorded
+     */
+    public void reset() {
+        for (LongAdder adder : phases) {
+            adder.reset();
+        }
+        for (LongAdder adder : counters) {
+            adder.reset();
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * @return the thread bean, or null if it is not the HotSpot bean
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+    }
+
+    /**
+     * Turns on CPU time and allocation counting where the JVM supports them
+     */
+    private static synchronized void enableThreadAccounting() {
+        if (threadAccounting || THREADS == null) {
+            return;
+        }
+        if (THREADS.isCurrentThreadCpuTimeSupported() && !THREADS.isThreadCpuTimeEnabled()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+        if (THREADS.isThreadAllocatedMemorySupported() && !THREADS.isThreadAllocatedMemoryEnabled()) {
+            THREADS.setThreadAllocatedMemoryEnabled(true);
+        }
+        threadAccounting = true;
+    }
+
+    private static com.sun.management.OperatingSystemMXBean processBean() {
+        return ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean
+                ? (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean() : null;
+    }
+
+    private static long threadCpuNanos() {
+        return !threadAccounting || !THREADS.isCurrentThreadCpuTimeSupported() ? 0 : Math.max(0, THREADS.getCurrentThreadCpuTime());
+    }
+
+    private static long processCpuNanos() {
+        return PROCESS == null ? 0 : Math.max(0, PROCESS.getProcessCpuTime());
+    }
+
+    private static long allocatedBytes() {
+        return !threadAccounting || !THREADS.isThreadAllocatedMemorySupported() ? 0 : Math.max(0, THREADS.getCurrentThreadAllocatedBytes());
+    }
+
+    /**
+     * One run of a phase, from start to close. Figures the JVM cannot give
+     * are recorded as 0.
+     */
+    public static final class Timer implements AutoCloseable {
+
+        private final PipelineMetrics metrics;
+        private final Phase phase;  //null for the timer that records nothing
+        private final boolean recording;
+        private final boolean accounting;  //whether thread CPU time and allocations were counted at the start
+        private final PhaseEvent event;  //null unless a JFR recording takes the phase
+        private final long startNanos;
+        private final long startCpuNanos;
+        private final long startProcessCpuNanos;
+        private final long startAllocatedBytes;
+
+        private Timer(PipelineMetrics metrics, Phase phase, boolean recording, PhaseEvent event) {
+            this.metrics = metrics;
+            this.phase = phase;
+            this.recording = recording;
+            this.event = event;
+            this.accounting = threadAccounting;
+            if (phase == null) {
+                startNanos = startCpuNanos = startProcessCpuNanos = startAllocatedBytes = 0;
+                return;
+            }
+            startProcessCpuNanos = recording ? processCpuNanos() : 0;
+            startCpuNanos = threadCpuNanos();
+            startAllocatedBytes = allocatedBytes();
+            if (event != null) {
+                event.begin();
+            }
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Adds this run to its phase, and commits its JFR event
+         */
+        @Override
+        public void close() {
+            if (phase == null) {
+                return;
+            }
+            long wallNanos = System.nanoTime() - startNanos;
+            long cpuNanos = accounting ? threadCpuNanos() - startCpuNanos : 0;
+            long allocated = accounting ? allocatedBytes() - startAllocatedBytes : 0;
+            if (event != null && event.shouldCommit()) {
+                event.phase = phase.name();
+                event.cpuNanos = cpuNanos;
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+            if (recording) {
+                long processCpu = processCpuNanos() - startProcessCpuNanos;
+                int base = phase.ordinal() * FIELDS;
+                LongAdder[] phases = metrics.phases;
+                phases[base].increment();
+                phases[base + 1].add(wallNanos);
+                phases[base + 2].add(cpuNanos);
+                phases[base + 3].add(processCpu);
+                phases[base + 4].add(allocated);
+            }
+        }
+
+    }
+
+}
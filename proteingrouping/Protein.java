@@ -9,24 +9,64 @@
 package proteomics.proteingrouping;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 
 public class Protein {
 
     private final String dbSequenceRef;
     private ProteinGroup proteinGroup;  // The group to which this protein is assigned
-    private final ArrayList<Peptide> observedPeptides;  //Peptides that are found on this protein and possibly in other proteins
-    private ArrayList<Peptide> uniquePeptides;  //Peptides that are unique to this protein
+    private final PeptideSet observedPeptides;  //Peptides that are found on this protein and possibly in other proteins
+    private final PeptideSet uniquePeptides;  //Peptides that are unique to this protein
+
+    //For a protein made without a dictionary, its peptides until a grouping run interns them; null after
+    private ArrayList<Peptide> pendingObservedPeptides;
+    private ArrayList<Peptide> pendingUniquePeptides;
 
     private boolean subsetProtein;
 
+    /**
+     * A protein made without a peptide dictionary, as when a dataset is built
+     * by hand. Its peptides are held as they are added, and its peptide sets
+     * stay empty, until the proteins are grouped: the grouping run interns
+     * them in the dictionary of the other proteins it groups or, if none has
+     * one, in a new dictionary of their own (see internPendingPeptides). So
+     * each dataset built this way gets a dictionary of its own, and a peptide
+     * can be added to proteins of one dataset only.
+     *
+     * @param dbSequenceRef
+     */
     public Protein(String dbSequenceRef) {
+        this(dbSequenceRef, (PeptideDictionary) null);
+        pendingObservedPeptides = new ArrayList<>();
+        pendingUniquePeptides = new ArrayList<>();
+    }
+
+    /**
+     * @param dbSequenceRef
+     * @param dictionary the dictionary in which the peptides of this protein are interned
+     */
+    public Protein(String dbSequenceRef, PeptideDictionary dictionary) {
+        this.dbSequenceRef = dbSequenceRef;
+        observedPeptides = new PeptideSet(dictionary);
+        uniquePeptides = new PeptideSet(dictionary);
+        subsetProtein = false; //by default
+    }
+
+    /**
+     * A protein with the given peptide sets, which it takes over
+     */
+    Protein(String dbSequenceRef, PeptideSet observedPeptides, PeptideSet uniquePeptides) {
         this.dbSequenceRef = dbSequenceRef;
-        observedPeptides = new ArrayList<>();
-        uniquePeptides = new ArrayList<>();
+        this.observedPeptides = observedPeptides;
+        this.uniquePeptides = uniquePeptides;
         subsetProtein = false; //by default
     }
 
+    public String getDbSequenceRef() {
+        return this.dbSequenceRef;
+    }
+
     public void setProteinGroup(ProteinGroup proteinGroup) {
         this.proteinGroup = proteinGroup;
     }
@@ -35,27 +75,58 @@ public class Protein {
         return this.proteinGroup;
     }
 
-    public void addObservedPeptides(Peptide peptide) {
-        this.observedPeptides.add(peptide);
+    public synchronized void addObservedPeptides(Peptide peptide) {
+        if (pendingObservedPeptides == null) {
+            this.observedPeptides.add(peptide);
+        } else if (!pendingObservedPeptides.contains(peptide)) {
+            pendingObservedPeptides.add(peptide);
+        }
     }
 
-    public void removeFromObservedPeptides(Peptide peptide) {
-        this.observedPeptides.remove(peptide);
+    public synchronized void removeFromObservedPeptides(Peptide peptide) {
+        if (pendingObservedPeptides == null) {
+            this.observedPeptides.remove(peptide);
+        } else {
+            pendingObservedPeptides.remove(peptide);
+        }
     }
 
-    public ArrayList<Peptide> getObservedPeptides() {
+    /**
+     * @return the observed peptides, materialised from the peptide dictionary
+     */
+    public synchronized ArrayList<Peptide> getObservedPeptides() {
+        if (pendingObservedPeptides != null) {
+            return new ArrayList<>(pendingObservedPeptides);
+        }
+        return this.observedPeptides.toPeptideList();
+    }
+
+    public PeptideSet getObservedPeptideSet() {
         return this.observedPeptides;
     }
 
-    public void addUniquePeptides(Peptide peptide) {
-        this.uniquePeptides.add(peptide);
+    public synchronized void addUniquePeptides(Peptide peptide) {
+        if (pendingUniquePeptides == null) {
+            this.uniquePeptides.add(peptide);
+        } else if (!pendingUniquePeptides.contains(peptide)) {
+            pendingUniquePeptides.add(peptide);
+        }
     }
 
     public void addAllToUniquePeptides(ArrayList<Peptide> peptides) {
-        this.uniquePeptides.addAll(peptides);
+        for (Peptide peptide : peptides) {
+            addUniquePeptides(peptide);
+        }
+    }
+
+    public synchronized ArrayList<Peptide> getUniquePeptides() {
+        if (pendingUniquePeptides != null) {
+            return new ArrayList<>(pendingUniquePeptides);
+        }
+        return this.uniquePeptides.toPeptideList();
     }
 
-    public ArrayList<Peptide> getUniquePeptides() {
+    public PeptideSet getUniquePeptideSet() {
         return this.uniquePeptides;
     }
 
@@ -69,15 +140,19 @@ public class Protein {
 
     /**
      * This method will be used by the visualisation procedure to output the
-     * peptides which correspond to this protein.
+     * peptides which correspond to this protein. A viewer of a large result
+     * should page through a GroupingHierarchy instead.
      *
      * @return the same as getObserved Peptides
      */
     public ArrayList<Peptide> getChildren() {
-        return this.observedPeptides;
+        return this.getObservedPeptides();
     }
 
-    public boolean hasUniquePeptides() {
+    public synchronized boolean hasUniquePeptides() {
+        if (pendingUniquePeptides != null) {
+            return !pendingUniquePeptides.isEmpty();
+        }
         if (this.uniquePeptides.isEmpty()) {
             return false;
         } else {
@@ -85,6 +160,91 @@ public class Protein {
         }
     }
 
+    /**
+     * @return whether the peptides of this protein are interned in a
+     * dictionary, which is so unless it was made without one and has not
+     * been grouped yet
+     */
+    synchronized boolean hasPeptideDictionary() {
+        return pendingObservedPeptides == null;
+    }
+
+    /**
+     * Interns the pending peptides of this protein in the dictionary, and
+     * adds them to its peptide sets
+     */
+    private synchronized void internPendingPeptides(PeptideDictionary dictionary) {
+        observedPeptides.setDictionary(dictionary);
+        uniquePeptides.setDictionary(dictionary);
+        for (Peptide peptide : pendingObservedPeptides) {
+            observedPeptides.add(peptide);
+        }
+        for (Peptide peptide : pendingUniquePeptides) {
+            uniquePeptides.add(peptide);
+        }
+        pendingObservedPeptides = null;
+        pendingUniquePeptides = null;
+    }
+
+    /**
+     * Interns the peptides of the given proteins that were made without a
+     * dictionary (see Protein(String)) in the dictionary of the others or, if
+     * none has one, in a new dictionary; called by a grouping run before it
+     * reads the peptide sets. The proteins are taken in the order of the
+     * collection, so the same dataset always gets the same ids.
+     *
+     * @param proteins
+     * @throws IllegalArgumentException if the proteins with a dictionary do
+     * not all have the same one, or a pending peptide is interned in another
+     * dictionary
+     */
+    static void internPendingPeptides(Collection<Protein> proteins) {
+        synchronized (Protein.class) {  //Proteins made by hand may be grouped by several runs at once
+            PeptideDictionary dictionary = null;
+            boolean pending = false;
+            for (Protein protein : proteins) {
+                if (!protein.hasPeptideDictionary()) {
+                    pending = true;
+                    continue;
+                }
+                PeptideDictionary own = protein.getObservedPeptideSet().getDictionary();
+                if (dictionary == null) {
+                    dictionary = own;
+                } else if (own != dictionary) {
+                    throw new IllegalArgumentException("The peptides of " + protein + " are interned in another dictionary");
+                }
+            }
+            if (!pending) {
+                return;
+            }
+            //Checked before any protein is changed, so that a failed run leaves them all pending
+            for (Protein protein : proteins) {
+                if (!protein.hasPeptideDictionary()) {
+                    for (Peptide peptide : protein.getObservedPeptides()) {
+                        checkNotInternedElsewhere(peptide, dictionary);
+                    }
+                    for (Peptide peptide : protein.getUniquePeptides()) {
+                        checkNotInternedElsewhere(peptide, dictionary);
+                    }
+                }
+            }
+            if (dictionary == null) {
+                dictionary = new PeptideDictionary();
+            }
+            for (Protein protein : proteins) {
+                if (!protein.hasPeptideDictionary()) {
+                    protein.internPendingPeptides(dictionary);
+                }
+            }
+        }
+    }
+
+    private static void checkNotInternedElsewhere(Peptide peptide, PeptideDictionary dictionary) {
+        if (peptide.getDictionary() != null && peptide.getDictionary() != dictionary) {
+            throw new IllegalArgumentException("Peptide " + peptide + " is interned in the dictionary of another dataset");
+        }
+    }
+
     @Override
     public String toString() {
         return this.dbSequenceRef;
@@ -8,42 +8,64 @@
 package proteomics.proteingrouping;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ProteinGroup {
     
-    private static int id = -1;
-    private final int groupId;
+    private static final AtomicInteger ids = new AtomicInteger(-1);
+    private int groupId;
    
     private ProteinGroupCluster cluster;
     private final ArrayList<Protein> proteins;
-    private ArrayList<Peptide> groupPeptideDomain;
-    private ArrayList<Peptide> sharedClusterPeptides;
+    private PeptideSet groupPeptideDomain;
+    private final PeptideSet sharedClusterPeptides;
     //In use for a singleton group
     // To make this cleaner we may have to refactor the classes using abstract classes and subclasses
-    private final ArrayList<Peptide> uniquePeptides; 
+    private final PeptideSet uniquePeptides; 
     
     //To check whether this group is a singleton group due to a unique peptide
     private boolean singleton;
+
+    //Whether the ParsimonySolver left this group out of the minimal set explaining the peptides
+    private boolean discarded;
     
+    /**
+     * A group with an id from the process-wide counter; the ProteinGrouper
+     * takes its ids from its GroupingSession instead
+     */
     public ProteinGroup() {
-        groupId = getNewGroupId();
+        this(getNewGroupId());
+    }
+
+    public ProteinGroup(int groupId) {
+        this.groupId = groupId;
         proteins = new ArrayList<>();
-        groupPeptideDomain = new ArrayList<>();
-        sharedClusterPeptides = new ArrayList<>();
-        uniquePeptides = new ArrayList<>();
+        //The peptide sets take their dictionary from the first peptide set added to them
+        groupPeptideDomain = new PeptideSet((PeptideDictionary) null);
+        sharedClusterPeptides = new PeptideSet((PeptideDictionary) null);
+        uniquePeptides = new PeptideSet((PeptideDictionary) null);
         
         singleton = false; //by default
+        discarded = false;
         
     }
     
-    public static synchronized int getNewGroupId(){
-        id += 1;
-        return id;
+    public static int getNewGroupId(){
+        return ids.incrementAndGet();
     }
     
     public int getGroupId() {
         return this.groupId;
     }
+
+    /**
+     * Gives the group its final id, before it is put in any map by id
+     *
+     * @param groupId
+     */
+    void setGroupId(int groupId) {
+        this.groupId = groupId;
+    }
     
     public void setProteinGroupCluster(ProteinGroupCluster cluster) {
         this.cluster = cluster;
@@ -57,14 +79,33 @@ public class ProteinGroup {
         return this.proteins;
     }
     
+    /**
+     * @return the group peptide domain, materialised from the peptide dictionary
+     */
     public ArrayList<Peptide> getGroupPeptideDomain() {
+        return this.groupPeptideDomain.toPeptideList();
+    }
+    
+    public PeptideSet getGroupPeptideDomainSet() {
         return this.groupPeptideDomain;
     }
     
     public ArrayList<Peptide> getSharedClusterPeptides() {
+        return this.sharedClusterPeptides.toPeptideList();
+    }
+    
+    public PeptideSet getSharedClusterPeptideSet() {
         return this.sharedClusterPeptides;
     }
     
+    public ArrayList<Peptide> getUniquePeptides() {
+        return this.uniquePeptides.toPeptideList();
+    }
+    
+    public PeptideSet getUniquePeptideSet() {
+        return this.uniquePeptides;
+    }
+    
     public void addToProteins(Protein protein) {
         this.proteins.add(protein);
     }
@@ -81,8 +122,21 @@ public class ProteinGroup {
         this.groupPeptideDomain.addAll(peptides);
     }
     
+    public void addAllToGroupPeptideDomain(PeptideSet peptides) {
+        this.groupPeptideDomain.addAll(peptides);
+    }
+    
     public void setGroupPeptideDomain(ArrayList<Peptide> peptides) {
-        this.groupPeptideDomain = peptides;
+        PeptideSet domain = new PeptideSet(this.groupPeptideDomain.getDictionary());
+        domain.addAll(peptides);
+        this.groupPeptideDomain = domain;
+    }
+    
+    /**
+     * @param peptides is copied, so later changes to it do not affect the group
+     */
+    public void setGroupPeptideDomain(PeptideSet peptides) {
+        this.groupPeptideDomain = new PeptideSet(peptides);
     }
     
     public void removeFromGroupPeptideDomain(Peptide peptide) {
@@ -97,6 +151,10 @@ public class ProteinGroup {
         this.sharedClusterPeptides.addAll(conflictedPeptides);
     }
     
+    public void addAllToSharedClusterPeptides(PeptideSet conflictedPeptides) {
+        this.sharedClusterPeptides.addAll(conflictedPeptides);
+    }
+    
     public void removeFromSharedClusterPeptides(Peptide peptide) {
         this.sharedClusterPeptides.remove(peptide);
     }
@@ -109,6 +167,10 @@ public class ProteinGroup {
         this.uniquePeptides.addAll(peptides);
     }
     
+    public void addAllToUniquePeptides(PeptideSet peptides) {
+        this.uniquePeptides.addAll(peptides);
+    }
+    
     public void setSingleton(boolean value) {
         this.singleton = value;
     }
@@ -116,9 +178,22 @@ public class ProteinGroup {
     public boolean isSingletonGroup() {
         return this.singleton;
     }
+
+    public void setDiscarded(boolean value) {
+        this.discarded = value;
+    }
+
+    /**
+     * @return whether the ParsimonySolver found the peptides of this group
+     * explained by other groups; false if it has not been run
+     */
+    public boolean isDiscarded() {
+        return this.discarded;
+    }
     
     /**
-     * Used by the visualisation module to know what to print as children of this node
+     * Used by the visualisation module to know what to print as children of this node.
+     * A viewer of a large result should page through a GroupingHierarchy instead.
      * @return ArrayList of proteins in this group
      * TODO: This is probably better abstracted as an interface so both ProteinGroup and ProteinGroupCluster can
      * Implement it.
@@ -8,50 +8,106 @@
 package proteomics.proteingrouping;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class ProteinGroupCluster {
 
-    private static int id = -1;
+    private static final AtomicInteger ids = new AtomicInteger(-1);
     private final int clusterId;
     private final ArrayList<ProteinGroup> proteinGroups;
-    private final HashSet<Peptide> clusterPeptideDomain;
+    private PeptideSet clusterPeptideDomain;
 
+    /**
+     * A cluster with an id from the process-wide counter; the ProteinGrouper
+     * takes its ids from its GroupingSession instead
+     */
     public ProteinGroupCluster() {
-        clusterId = getNewClusterId();
+        this(getNewClusterId());
+    }
+
+    public ProteinGroupCluster(int clusterId) {
+        this.clusterId = clusterId;
         proteinGroups = new ArrayList<>();
-        clusterPeptideDomain = new HashSet<>();
+        clusterPeptideDomain = new PeptideSet((PeptideDictionary) null);
     }
 
     /**
-     * This method is synchronised because many threads may be creating clusters
-     * at the same time and the id have to be unique for each cluster created
+     * Many threads may be creating clusters at the same time and the id have
+     * to be unique for each cluster created, so the counter is atomic
      *
      * @return
      */
-    public static synchronized int getNewClusterId() {
-        id += 1;
-        return id;
+    public static int getNewClusterId() {
+        return ids.incrementAndGet();
     }
 
     public ArrayList<ProteinGroup> getProteinGroups() {
         return this.proteinGroups;
     }
 
-    public void addToCluster(ProteinGroup proteinGroup, ArrayList<Peptide> conflictedPeptides) {
+    public void addToCluster(ProteinGroup proteinGroup, PeptideSet conflictedPeptides) {
         //Verify that there is basis for cluster membership
         if(conflictedPeptides.isEmpty()) return; //do nothing
         //else
         this.proteinGroups.add(proteinGroup);
         //Update the cluster peptide domain. The more groups we add to this cluster, the more even more groups can join it.
-        this.clusterPeptideDomain.addAll(proteinGroup.getGroupPeptideDomain());
+        this.clusterPeptideDomain.addAll(proteinGroup.getGroupPeptideDomainSet());
         //Update the cluster information of the given protein group
         proteinGroup.setProteinGroupCluster(this);
         //Update the protein groups conflicted peptides information
         proteinGroup.addAllToSharedClusterPeptides(conflictedPeptides);
     }
 
+    /**
+     * Adds the group with the peptides it shares with the rest of the
+     * cluster, like addToCluster, but leaves the cluster peptide domain as it
+     * is: merging the domain of each group as it joins costs time in the size
+     * of the domain so far, so a cluster built from many groups at once adds
+     * them all and then calls setClusterPeptideDomainToMembers once
+     *
+     * @param proteinGroup
+     * @param sharedPeptides
+     */
+    public void addMember(ProteinGroup proteinGroup, PeptideSet sharedPeptides) {
+        this.proteinGroups.add(proteinGroup);
+        proteinGroup.setProteinGroupCluster(this);
+        proteinGroup.addAllToSharedClusterPeptides(sharedPeptides);
+    }
+
+    /**
+     * Sets the cluster peptide domain to the peptides of the domains of its
+     * groups, collected once, sorted and made distinct
+     */
+    public void setClusterPeptideDomainToMembers() {
+        int total = 0;
+        PeptideDictionary dictionary = null;
+        for (ProteinGroup proteinGroup : proteinGroups) {
+            PeptideSet domain = proteinGroup.getGroupPeptideDomainSet();
+            total += domain.size();
+            if (dictionary == null) {
+                dictionary = domain.getDictionary();
+            }
+        }
+        int[] ids = new int[total];
+        int count = 0;
+        for (ProteinGroup proteinGroup : proteinGroups) {
+            PeptideSet domain = proteinGroup.getGroupPeptideDomainSet();
+            for (int i = 0, size = domain.size(); i < size; i++) {
+                ids[count++] = domain.get(i);
+            }
+        }
+        Arrays.sort(ids);
+        count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[count++] = ids[i];
+            }
+        }
+        this.clusterPeptideDomain = PeptideSet.ofSorted(dictionary, Arrays.copyOf(ids, count));
+    }
+
     public void removeFromCluster(ProteinGroup proteinGroup) {
         this.proteinGroups.remove(proteinGroup);
     }
@@ -68,25 +124,33 @@ public class ProteinGroupCluster {
         this.clusterPeptideDomain.addAll(peptides);
     }
 
+    public void addAllToClusterPeptideDomain(PeptideSet peptides) {
+        this.clusterPeptideDomain.addAll(peptides);
+    }
+
+    public PeptideSet getClusterPeptideDomain() {
+        return this.clusterPeptideDomain;
+    }
+
     /**
      * Checks whether the given protein group can belong to the cluster. 
      * @param proteinGroup  The protein group for which we wish to test cluster membership
-     * @param conflictedPeptides  Will contain the conflicted peptides if the given protein group can belong to this cluster.
+     * @param conflictedPeptides  Will be filled with the conflicted peptides if the given protein group can belong to this cluster.
      * @return 
      */
-    public boolean canBelongToCluster(ProteinGroup proteinGroup, ArrayList<Peptide> conflictedPeptides) {
-        ArrayList<Peptide> peptides = new ArrayList<>(proteinGroup.getGroupPeptideDomain());
-        peptides.retainAll(clusterPeptideDomain);
-        conflictedPeptides = peptides;
+    public boolean canBelongToCluster(ProteinGroup proteinGroup, PeptideSet conflictedPeptides) {
+        PeptideSet peptides = proteinGroup.getGroupPeptideDomainSet().intersection(clusterPeptideDomain);
         if (peptides.isEmpty()) {
             return false;
         }
+        conflictedPeptides.addAll(peptides);
         return true;
     }
 
     /**
      * A utility method that will be used during visualisation to know what to
-     * print as children of an instance of this node
+     * print as children of an instance of this node. A viewer of a large
+     * result should page through a GroupingHierarchy instead.
      *
      * @return
      */
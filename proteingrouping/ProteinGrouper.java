@@ -10,27 +10,265 @@
 package proteomics.proteingrouping;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 
 
 public class ProteinGrouper {
 
     public static final int PARALLELISM_THRESHOLD = 1; //Must execute in parallel
 
+    private final GroupingSession session;
+    private final PipelineMetrics metrics;  //the metrics of the session
+
+    /**
+     * A grouper with a session of its own, which sets the group of each
+     * protein and the status of each peptide on the proteins and peptides
+     */
+    public ProteinGrouper() {
+        this(GroupingSession.writingThrough());
+    }
+
+    /**
+     * A grouper whose runs take their ids from the given session and keep
+     * their memberships and peptide statuses in it, so that other sessions may
+     * group the same proteins at the same time
+     *
+     * @param session
+     */
+    public ProteinGrouper(GroupingSession session) {
+        this.session = session;
+        this.metrics = session.getMetrics();
+    }
+
+    public GroupingSession getSession() {
+        return this.session;
+    }
+
+    /**
+     * @return the metrics the runs of this grouper are recorded in, those of its session
+     */
+    public PipelineMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    @SuppressWarnings("try")
     public ConcurrentHashMap<Integer, ProteinGroup> groupProteins(HashMap<String, Protein> proteinHashMap) {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.GROUP)) {
+            ConcurrentHashMap<Integer, ProteinGroup> groupHashMap = new ConcurrentHashMap<>();
+            Protein.internPendingPeptides(proteinHashMap.values());
+            int peptideCount = peptideIdBound(proteinHashMap.values());
+            PeptideGroupIndex peptideGroupIndex = new PeptideGroupIndex(peptideCount);
+            //How many group domains each peptide is in, to tell the conflicted peptides once grouping is done
+            PeptideGroupCounts peptideGroupCounts = new PeptideGroupCounts(peptideCount);
+            long comparisons = groupComponent(proteinHashMap.values(), groupHashMap, peptideGroupIndex, peptideGroupCounts);
+            metrics.add(PipelineMetrics.Counter.CANDIDATE_COMPARISONS, comparisons);
+            updatePeptideStatus(proteinHashMap.values(), peptideGroupCounts, groupHashMap);
+            return groupHashMap;
+        }
+    }
+
+    /**
+     * Groups the proteins the same way as groupProteins, but first splits the
+     * protein-peptide graph into its connected components. Proteins that share
+     * no peptide, directly or through other proteins, cannot affect each
+     * other's groups, so each component is grouped as an independent task of
+     * the fork-join pool this is called from (the common pool by default), and
+     * all of them put their groups in the same returned map.
+     *
+     * @param proteinHashMap
+     * @return the groups, keyed by group id
+     */
+    @SuppressWarnings("try")
+    public ConcurrentHashMap<Integer, ProteinGroup> groupProteinsInParallel(HashMap<String, Protein> proteinHashMap) {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.GROUP)) {
+            ConcurrentHashMap<Integer, ProteinGroup> groupHashMap = new ConcurrentHashMap<>();
+            Protein[] proteins = proteinHashMap.values().toArray(new Protein[0]);
+            Protein.internPendingPeptides(proteinHashMap.values());
+            int peptideCount = peptideIdBound(proteinHashMap.values());
+            ArrayList<ArrayList<Protein>> components = components(proteins, peptideCount);
+
+            //Components touch disjoint peptides, so they can share the index and the counts
+            PeptideGroupIndex peptideGroupIndex = new PeptideGroupIndex(peptideCount);
+            PeptideGroupCounts peptideGroupCounts = new PeptideGroupCounts(peptideCount);
+            long comparisons = components.parallelStream().mapToLong(component
+                    -> groupComponent(component, groupHashMap, peptideGroupIndex, peptideGroupCounts)).sum();
+            metrics.add(PipelineMetrics.Counter.CANDIDATE_COMPARISONS, comparisons);
+            updatePeptideStatus(proteinHashMap.values(), peptideGroupCounts, groupHashMap);
+            return groupHashMap;
+        }
+    }
+
+    /**
+     * Groups the proteins so that the result depends on the proteins and
+     * their peptides only: not on the order of the map, the ids the peptides
+     * were given, nor the number of threads. As in groupProteinsInParallel
+     * the components are grouped in parallel, but the proteins of each are
+     * taken in accession order (a protein that may join several groups joins
+     * the one formed first, as in every mode). Group ids are then handed out
+     * in the order of the lowest accession of each group, in one run of ids
+     * from the session, so that a new session numbers the same groups the
+     * same way every time. Clustering
+     * the groups then numbers the clusters the same way every time too.
+     *
+     * @param proteinHashMap the proteins, keyed by accession
+     * @return the groups, keyed by group id
+     */
+    @SuppressWarnings("try")
+    public ConcurrentHashMap<Integer, ProteinGroup> groupProteinsDeterministically(HashMap<String, Protein> proteinHashMap) {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.GROUP)) {
+            return groupDeterministically(proteinHashMap);
+        }
+    }
+
+    private ConcurrentHashMap<Integer, ProteinGroup> groupDeterministically(HashMap<String, Protein> proteinHashMap) {
+        Protein[] proteins = proteinHashMap.values().toArray(new Protein[0]);
+        Arrays.sort(proteins, Comparator.comparing(Protein::getDbSequenceRef));
+        Protein.internPendingPeptides(Arrays.asList(proteins));
+        int peptideCount = peptideIdBound(proteinHashMap.values());
+        ArrayList<ArrayList<Protein>> components = components(proteins, peptideCount);
+
+        //Provisional ids only order the groups of a component by when they were formed, which is all the rules need
+        ConcurrentHashMap<Integer, ProteinGroup> formedGroups = new ConcurrentHashMap<>();
+        AtomicInteger provisionalIds = new AtomicInteger();
+        PeptideGroupIndex peptideGroupIndex = new PeptideGroupIndex(peptideCount);
+        PeptideGroupCounts peptideGroupCounts = new PeptideGroupCounts(peptideCount);
+        long comparisons = components.parallelStream().mapToLong(component -> groupComponent(component, formedGroups,
+                peptideGroupIndex, peptideGroupCounts, provisionalIds::getAndIncrement)).sum();
+        metrics.add(PipelineMetrics.Counter.CANDIDATE_COMPARISONS, comparisons);
+
+        //The first protein of each group has the lowest accession of the group, and belongs to no other group
+        ProteinGroup[] groups = formedGroups.values().toArray(new ProteinGroup[0]);
+        Arrays.sort(groups, Comparator.comparing((ProteinGroup group) -> group.getProteins().get(0).getDbSequenceRef()));
+        int firstId = session.newGroupIds(groups.length);
         ConcurrentHashMap<Integer, ProteinGroup> groupHashMap = new ConcurrentHashMap<>();
-        for (Protein protein : proteinHashMap.values()) {
+        for (int g = 0; g < groups.length; g++) {
+            groups[g].setGroupId(firstId + g);
+            groupHashMap.put(firstId + g, groups[g]);
+        }
+        updatePeptideStatus(proteinHashMap.values(), peptideGroupCounts, groupHashMap);
+        return groupHashMap;
+    }
+
+    /**
+     * Sets the status of the peptides from their group counts, and counts
+     * what the grouping formed if metrics are being recorded
+     *
+     * @param proteins the proteins grouped
+     * @param peptideGroupCounts
+     * @param groupHashMap the groups formed
+     */
+    @SuppressWarnings("try")
+    private void updatePeptideStatus(Collection<Protein> proteins, PeptideGroupCounts peptideGroupCounts,
+            ConcurrentHashMap<Integer, ProteinGroup> groupHashMap) {
+        PeptideDictionary dictionary = peptideDictionary(proteins);
+        if (dictionary != null) {
+            try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.UPDATE_PEPTIDE_STATUS)) {
+                peptideGroupCounts.updatePeptideStatus(dictionary, session);
+            }
+        }
+        if (metrics.isEnabled()) {
+            metrics.add(PipelineMetrics.Counter.PROTEINS, proteins.size());
+            metrics.add(PipelineMetrics.Counter.GROUPS, groupHashMap.size());
+            metrics.add(PipelineMetrics.Counter.SINGLETON_GROUPS,
+                    groupHashMap.values().stream().filter(ProteinGroup::isSingletonGroup).count());
+            metrics.add(PipelineMetrics.Counter.SUBSET_PROTEINS,
+                    proteins.parallelStream().filter(session::isSubsetProtein).count());
+        }
+    }
+
+    /**
+     * Splits the protein-peptide graph into its connected components
+     *
+     * @param proteins
+     * @param peptideCount one more than the highest peptide id of the proteins
+     * @return the proteins of each component, in the order of the array, the
+     * largest components first
+     */
+    private static ArrayList<ArrayList<Protein>> components(Protein[] proteins, int peptideCount) {
+        //Join every protein with the first protein to claim each of its peptides
+        AtomicIntegerArray claimingProteins = new AtomicIntegerArray(peptideCount);
+        ConcurrentUnionFind unionFind = new ConcurrentUnionFind(proteins.length);
+        IntStream.range(0, proteins.length).parallel().forEach(p -> {
+            proteins[p].getObservedPeptideSet().forEach(peptideId -> {
+                int claimingProtein = claimingProteins.compareAndExchange(peptideId, 0, p + 1);
+                if (claimingProtein != 0) {
+                    unionFind.union(claimingProtein - 1, p);
+                }
+            });
+        });
+
+        //Bucket the proteins by component, keeping the order of the array within each component
+        int[] roots = IntStream.range(0, proteins.length).parallel().map(unionFind::find).toArray();
+        HashMap<Integer, ArrayList<Protein>> componentsByRoot = new HashMap<>();
+        for (int p = 0; p < proteins.length; p++) {
+            componentsByRoot.computeIfAbsent(roots[p], k -> new ArrayList<>()).add(proteins[p]);
+        }
+        ArrayList<ArrayList<Protein>> components = new ArrayList<>(componentsByRoot.values());
+        //The largest components first, so that they do not end up last on one thread
+        components.sort(Comparator.comparingInt((ArrayList<Protein> component) -> component.size()).reversed());
+        return components;
+    }
+
+    /**
+     * Groups the proteins of an off-heap graph by the same rules as
+     * groupProteins, in the order they were added to it, with ids from the
+     * session of this grouper. The memberships and peptide statuses are kept
+     * in the returned grouping rather than in the session, as there are no
+     * Protein and Peptide objects to hold them.
+     *
+     * @param incidence a finished graph
+     * @return the groups, which are to be closed once read
+     */
+    public OffHeapGrouping groupProteins(OffHeapIncidence incidence) {
+        return new OffHeapGrouping(incidence, session);
+    }
+
+    /**
+     * Applies the grouping rules to the given proteins, in order, putting the
+     * groups formed in groupHashMap.
+     *
+     * @param proteins the proteins of one or more whole peptide-connected components
+     * @param groupHashMap
+     * @param peptideGroupIndex
+     * @param peptideGroupCounts
+     * @return the number of candidate groups compared, for the caller to add
+     * to the metrics once per run rather than once per protein
+     */
+    long groupComponent(Collection<Protein> proteins, ConcurrentHashMap<Integer, ProteinGroup> groupHashMap,
+            PeptideGroupIndex peptideGroupIndex, PeptideGroupCounts peptideGroupCounts) {
+        return groupComponent(proteins, groupHashMap, peptideGroupIndex, peptideGroupCounts, session::newGroupId);
+    }
+
+    /**
+     * Same as groupComponent, with the ids of the groups formed taken from
+     * groupIds, which must hand them out in increasing order to the groups of
+     * a component: a protein that may join several groups joins the one of
+     * the lowest id, which is then the one formed first
+     */
+    private long groupComponent(Collection<Protein> proteins, ConcurrentHashMap<Integer, ProteinGroup> groupHashMap,
+            PeptideGroupIndex peptideGroupIndex, PeptideGroupCounts peptideGroupCounts, IntSupplier groupIds) {
+        EquivalentProteins equivalentProteins = new EquivalentProteins(proteins);
+        long[] comparisons = new long[1];
+        for (Protein protein : proteins) {
             //Check if protein has a unique peptide
             if (protein.hasUniquePeptides()) {
                 //Assign it to a singleton group
-                ProteinGroup proteinGroup = new ProteinGroup();
+                ProteinGroup proteinGroup = new ProteinGroup(groupIds.getAsInt());
                 proteinGroup.addToProteins(protein);
-                proteinGroup.addAllToGroupPeptideDomain(protein.getObservedPeptides());
+                proteinGroup.addAllToGroupPeptideDomain(protein.getObservedPeptideSet());
                 proteinGroup.setSingleton(true);
-                proteinGroup.addAllToUniquePeptides(protein.getUniquePeptides());
+                proteinGroup.addAllToUniquePeptides(protein.getUniquePeptideSet());
+                peptideGroupCounts.addDomain(proteinGroup.getGroupPeptideDomainSet());
 
-                protein.setProteinGroup(proteinGroup);
+                session.setProteinGroup(protein, proteinGroup);
                 //Include the new protein group in the hashmap
                 groupHashMap.put(proteinGroup.getGroupId(), proteinGroup);
                 //We are done with this protein
@@ -38,74 +276,207 @@ public class ProteinGrouper {
             }
             //Otherwise
 
-            //(Parallel) Search for an already group (not singleton ones though) for which the peptides of this protein is a subset
+            //A protein with the same peptides as one grouped before it belongs in the same group, so it joins
+            // that group without searching for one. Its peptides are already all in the group domain
+            Protein representative = equivalentProteins.getRepresentative(protein);
+            if (representative != null) {
+                ProteinGroup pg = session.getProteinGroup(representative);
+                pg.addToProteins(protein);
+                session.setProteinGroup(protein, pg);
+                if (pg.getGroupPeptideDomainSet().size() > protein.getObservedPeptideSet().size()) {
+                    session.setSubsetProtein(protein, true);
+                }
+                continue;
+            }
+
+            //Look up an already formed group (not singleton ones though, they are never indexed) for which the peptides of this protein is a subset
             // or a group for which its peptide domain is a subset of the peptides of this protein. Singleton groups must retain only one protein in the group
-            Integer key = groupHashMap.search(PARALLELISM_THRESHOLD, (k, v)
-                    -> ((v.getGroupPeptideDomain().containsAll(protein.getObservedPeptides()) && !v.isSingletonGroup())
-                    || (protein.getObservedPeptides().containsAll(v.getGroupPeptideDomain()) && !v.isSingletonGroup())) ? k : null);
-            if (key == null) {
+            // Only the groups that share a peptide with this protein can be either, so the candidates come from the peptide index
+            ProteinGroup pg = peptideGroupIndex.findSubsetOrSupersetGroup(protein.getObservedPeptideSet(), comparisons);
+            if (pg == null) {
                 //No groups exists yet to which this protein can be assigned
                 //So create a new group
-                ProteinGroup proteinGroup = new ProteinGroup();
+                ProteinGroup proteinGroup = new ProteinGroup(groupIds.getAsInt());
                 proteinGroup.addToProteins(protein);
-                proteinGroup.addAllToGroupPeptideDomain(protein.getObservedPeptides());
+                proteinGroup.addAllToGroupPeptideDomain(protein.getObservedPeptideSet());
                 proteinGroup.setSingleton(false);
 
-                protein.setProteinGroup(proteinGroup);
+                session.setProteinGroup(protein, proteinGroup);
                 //Include the new protein group in the hashmap
                 groupHashMap.put(proteinGroup.getGroupId(), proteinGroup);
+                peptideGroupIndex.addGroup(proteinGroup, proteinGroup.getGroupPeptideDomainSet());
+                peptideGroupCounts.addDomain(proteinGroup.getGroupPeptideDomainSet());
             } else {
-                //key is not null, so there is already a group that this protein can be assigned to
-                ProteinGroup pg = groupHashMap.get(key);
-                if (pg.getGroupPeptideDomain().size() >= protein.getObservedPeptides().size()) {
+                //pg is not null, so there is already a group that this protein can be assigned to
+                if (pg.getGroupPeptideDomainSet().size() >= protein.getObservedPeptideSet().size()) {
                     //The group peptides then is a superset of this protein's peptides set
                     // So we add this protein to the group
                     pg.addToProteins(protein);
-                    protein.setProteinGroup(pg);
-                    if (pg.getGroupPeptideDomain().size() > protein.getObservedPeptides().size()) {
+                    session.setProteinGroup(protein, pg);
+                    if (pg.getGroupPeptideDomainSet().size() > protein.getObservedPeptideSet().size()) {
                         //the protein is a subset protein so we flag it as such
-                        protein.subsetProtein(true);
+                        session.setSubsetProtein(protein, true);
                     }
                 } else {
                     //The proteins peptide set is a superset of the peptides of this group
                     //So we make this proteins peptides set to be the group peptide domain, and inlude
                     // this protein to the group
-                    pg.setGroupPeptideDomain(protein.getObservedPeptides());
+                    PeptideSet oldDomain = pg.getGroupPeptideDomainSet();
+                    pg.setGroupPeptideDomain(protein.getObservedPeptideSet());
+                    peptideGroupIndex.extendGroup(pg, oldDomain, pg.getGroupPeptideDomainSet());
+                    peptideGroupCounts.extendDomain(oldDomain, pg.getGroupPeptideDomainSet());
                     pg.addToProteins(protein);
-                    protein.setProteinGroup(pg);
+                    session.setProteinGroup(protein, pg);
                 }
             }
         }
-        updateAllPeptideStatus(groupHashMap);
-        return groupHashMap;
+        return comparisons[0];
+    }
+
+    /**
+     * @param proteins
+     * @return one more than the highest id of any peptide of the given proteins
+     */
+    private static int peptideIdBound(Collection<Protein> proteins) {
+        return proteins.stream()
+                .map(Protein::getObservedPeptideSet)
+                .filter(peptides -> !peptides.isEmpty())
+                .mapToInt(peptides -> peptides.get(peptides.size() - 1) + 1)
+                .max().orElse(0);
+    }
+
+    /**
+     * @param proteins
+     * @return the dictionary the peptides of the given proteins are interned in
+     */
+    private static PeptideDictionary peptideDictionary(Collection<Protein> proteins) {
+        for (Protein protein : proteins) {
+            if (protein.getObservedPeptideSet().getDictionary() != null) {
+                return protein.getObservedPeptideSet().getDictionary();
+            }
+        }
+        return null;
     }
 
-    private void updateAllPeptideStatus(ConcurrentHashMap<Integer, ProteinGroup> groupHashMap) {
+    /**
+     * The reference way of setting the peptide status, by comparing every
+     * group with every other group: any peptide the two have in common is
+     * CONFLICTED, and every other peptide of a group domain is RESOLVED
+     * (set first, so that statuses left by an earlier grouping in the same
+     * session are reset). groupProteins gets the same statuses from the group
+     * counts of each peptide instead, which it keeps as the groups are
+     * formed; this version is kept to check the two against each other, as
+     * PeptideStatusCheck does.
+     *
+     * @param groupHashMap
+     */
+    @SuppressWarnings("try")
+    public void updateAllPeptideStatus(ConcurrentHashMap<Integer, ProteinGroup> groupHashMap) {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.UPDATE_PEPTIDE_STATUS)) {
+            updateAllPeptideStatusPairwise(groupHashMap);
+        }
+    }
+
+    private void updateAllPeptideStatusPairwise(ConcurrentHashMap<Integer, ProteinGroup> groupHashMap) {
+        groupHashMap.values().stream()
+                .map(ProteinGroup::getGroupPeptideDomainSet)
+                .filter(domain -> domain.getDictionary() != null)
+                .findFirst().ifPresent(domain -> session.prepareStatuses(domain.getDictionary()));
+        groupHashMap.values().stream().map(ProteinGroup::getGroupPeptideDomainSet).forEach((domain) -> {
+            domain.forEach((peptideId) -> {
+                session.setPeptideStatus(domain.getDictionary(), peptideId, Peptide.Status.RESOLVED);
+            });
+        });
         groupHashMap.values().stream().forEach((proteinGroup) -> {
             groupHashMap.values().stream().filter((pGroup) -> !(proteinGroup == pGroup)).map((pGroup) -> {
                 //else
                 //Check if the two groups have any peptides in common, and mark those peptides as conflicted
-                ArrayList<Peptide> commonPeptides = new ArrayList<>(proteinGroup.getGroupPeptideDomain());
-                commonPeptides.retainAll(pGroup.getGroupPeptideDomain());
-                return commonPeptides;
+                return proteinGroup.getGroupPeptideDomainSet().intersection(pGroup.getGroupPeptideDomainSet());
             }).forEach((commonPeptides) -> {
-                commonPeptides.stream().forEach((peptide) -> {
-                    peptide.peptideStatus = Peptide.Status.CONFLICTED;
+                commonPeptides.forEach((peptideId) -> {
+                    session.setPeptideStatus(commonPeptides.getDictionary(), peptideId, Peptide.Status.CONFLICTED);
                 });
             });
         });
 
     }
 
-    /*
-     public ConcurrentHashMap<Integer, ProteinGroupCluster> clusterProteinGroups(HashMap<Integer, ProteinGroup> proteinGroupHashMap) {
+    /**
+     * Clusters any pair of groups that have peptides in common, directly or
+     * through other groups. The peptide-group edges are fed into a concurrent
+     * union-find from all cores: the first group to claim a peptide becomes
+     * its representative, and every later group holding the same peptide is
+     * joined with it. Every group ends up in the cluster of its connected
+     * component, with the peptides it shares with other groups as its shared
+     * cluster peptides. Groups that share no peptide are left out of any cluster.
+     * Clusters are numbered in the order of the lowest group id of each, so
+     * the same groups are clustered and numbered the same way on any number
+     * of threads.
+     *
+     * @param proteinGroupHashMap the groups, as returned by groupProteins
+     * @return the clusters, keyed by cluster id
+     */
+    @SuppressWarnings("try")
+    public ConcurrentHashMap<Integer, ProteinGroupCluster> clusterProteinGroups(ConcurrentHashMap<Integer, ProteinGroup> proteinGroupHashMap) {
+        try (PipelineMetrics.Timer timer = metrics.start(PipelineMetrics.Phase.CLUSTER)) {
+            ConcurrentHashMap<Integer, ProteinGroupCluster> clusterHashMap = clusterGroups(proteinGroupHashMap);
+            metrics.add(PipelineMetrics.Counter.CLUSTERS, clusterHashMap.size());
+            return clusterHashMap;
+        }
+    }
 
-     ConcurrentHashMap<Integer, ProteinGroupCluster> proteinGroupCluster = new ConcurrentHashMap<>();
-     ArrayList<Peptide> conflictedPeptides = new ArrayList<>();
-     for (ProteinGroup proteinGroup : proteinGroupHashMap.values()) {
+    private ConcurrentHashMap<Integer, ProteinGroupCluster> clusterGroups(ConcurrentHashMap<Integer, ProteinGroup> proteinGroupHashMap) {
+        ConcurrentHashMap<Integer, ProteinGroupCluster> clusterHashMap = new ConcurrentHashMap<>();
+        ProteinGroup[] proteinGroups = proteinGroupHashMap.values().toArray(new ProteinGroup[0]);
+        Arrays.sort(proteinGroups, Comparator.comparingInt(ProteinGroup::getGroupId));
+        int peptideCount = Arrays.stream(proteinGroups).parallel()
+                .map(ProteinGroup::getGroupPeptideDomainSet)
+                .filter(domain -> !domain.isEmpty())
+                .mapToInt(domain -> domain.get(domain.size() - 1) + 1)
+                .max().orElse(0);
 
-     }
+        //For each peptide, one more than the index of the first group claiming it, and the number of groups holding it
+        AtomicIntegerArray claimingGroups = new AtomicIntegerArray(peptideCount);
+        AtomicIntegerArray groupCounts = new AtomicIntegerArray(peptideCount);
+        ConcurrentUnionFind unionFind = new ConcurrentUnionFind(proteinGroups.length);
+        IntStream.range(0, proteinGroups.length).parallel().forEach(g -> {
+            proteinGroups[g].getGroupPeptideDomainSet().forEach(peptideId -> {
+                groupCounts.incrementAndGet(peptideId);
+                int claimingGroup = claimingGroups.compareAndExchange(peptideId, 0, g + 1);
+                if (claimingGroup != 0) {
+                    unionFind.union(claimingGroup - 1, g);
+                }
+            });
+        });
 
-     }
-     */
+        //Collect the members of each component; a component of one group is not a cluster
+        int[] roots = IntStream.range(0, proteinGroups.length).parallel().map(unionFind::find).toArray();
+        int[] componentSizes = new int[proteinGroups.length];
+        for (int root : roots) {
+            componentSizes[root]++;
+        }
+        ProteinGroupCluster[] clusters = new ProteinGroupCluster[proteinGroups.length];
+        for (int g = 0; g < proteinGroups.length; g++) {
+            if (roots[g] == g && componentSizes[g] > 1) {
+                clusters[g] = new ProteinGroupCluster(session.newClusterId());
+                clusterHashMap.put(clusters[g].getClusterId(), clusters[g]);
+            }
+        }
+        for (int g = 0; g < proteinGroups.length; g++) {
+            ProteinGroupCluster cluster = clusters[roots[g]];
+            if (cluster == null) {
+                continue;
+            }
+            PeptideSet domain = proteinGroups[g].getGroupPeptideDomainSet();
+            PeptideSet sharedPeptides = new PeptideSet(domain.getDictionary());
+            domain.forEach(peptideId -> {
+                if (groupCounts.get(peptideId) > 1) {
+                    sharedPeptides.add(peptideId);
+                }
+            });
+            cluster.addMember(proteinGroups[g], sharedPeptides);
+        }
+        clusterHashMap.values().parallelStream().forEach(ProteinGroupCluster::setClusterPeptideDomainToMembers);
+        return clusterHashMap;
+    }
 }
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Collects the peptide spectrum matches read from a PSM table, keeping only
+ * the highest scoring match of each sequence (the first one on ties; a missing
+ * score ranks below any other), and the sequences matched to each protein
+ * accession. Sequences and accessions are dictionary encoded in the order they
+ * are first seen, and the kept matches are rows of a PsmStore, so no object is
+ * made per row.
+ *
+ * Rows are put through a PsmFilter before anything is kept of them: rows of
+ * decoy accessions, and rows below the rank or score cutoffs, are only
+ * counted. When the filter has a q-value cutoff, the rows that pass are
+ * counted as target or decoy matches too, the rows of one match being the
+ * consecutive rows with its PSM id, and the sequences whose best match falls
+ * below the score the cutoff comes down to are left out of toProteinMap.
+ *
+ * The accumulators of consecutive parts of a table can be merged in order, and
+ * give the same result as one accumulator over the whole table. The first and
+ * the last match of an accumulator are held back from its counts until then,
+ * as their rows may go on in the parts before and after it.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+class PsmAccumulator {
+
+    //The best match of each sequence; the row of a sequence is its code
+    private final PsmStore psms;
+
+    //Per accession code, the sequence codes matched to it (with repeats)
+    private final StringDictionary accessions;
+    private int[][] proteinSequences;
+    private int[] proteinSequenceCounts;
+
+    private long psmCount;
+    private long droppedCount;  //rows dropped by the filter or as decoys
+
+    private final PsmFilter filter;
+    private final TargetDecoyScores matchScores;  //null unless the filter has a q-value cutoff; the matches between the first and the last
+    private Match firstMatch;  //null until a row is counted
+    private Match lastMatch;  //the match whose rows are being read, if it is not the first match
+
+    PsmAccumulator() {
+        this(new PsmFilter());
+    }
+
+    PsmAccumulator(PsmFilter filter) {
+        this.filter = filter;
+        matchScores = filter.isFilteringByQValue() ? new TargetDecoyScores() : null;
+        firstMatch = null;
+        lastMatch = null;
+        psms = new PsmStore();
+        accessions = new StringDictionary();
+        proteinSequences = new int[64][];
+        proteinSequenceCounts = new int[64];
+        psmCount = 0;
+        droppedCount = 0;
+    }
+
+    /**
+     * Adds one row of the table. The strings are given as ranges of the buffer;
+     * the PSM id is only turned into a String if the row becomes the best
+     * match of its sequence.
+     */
+    void addPsm(ByteBuffer buffer, int sequenceStart, int sequenceEnd, int psmIdStart, int psmIdEnd,
+            int accessionStart, int accessionEnd, float score, int spectrumId, int rank, boolean uniqueToAProtein) {
+        psmCount++;
+        if (!filter.accepts(rank, score)) {
+            droppedCount++;
+            return;
+        }
+        boolean decoy = filter.isDecoy(buffer, accessionStart, accessionEnd);
+        if (matchScores != null) {
+            countMatch(buffer, psmIdStart, psmIdEnd, score, decoy);
+        }
+        if (decoy) {
+            droppedCount++;
+            return;
+        }
+        int sequence = psms.addPsm(buffer, sequenceStart, sequenceEnd, psmIdStart, psmIdEnd,
+                spectrumId, rank, score, uniqueToAProtein);
+        int accession = accessions.intern(buffer, accessionStart, accessionEnd);
+        addProteinSequence(accession, sequence);
+    }
+
+    /**
+     * Appends the rows of an accumulator which were read after the rows of
+     * this one. The sequences and accessions new to this accumulator get the
+     * next codes in the order the later one first saw them, and its best
+     * matches only replace the ones held here when they score higher, as if
+     * all the rows had been added to this accumulator.
+     *
+     * @param later
+     */
+    void merge(PsmAccumulator later) {
+        psmCount += later.psmCount;
+        droppedCount += later.droppedCount;
+        if (matchScores != null) {
+            mergeMatches(later);
+        }
+        int[] codes = psms.merge(later.psms);  //sequence codes of the later accumulator, in this one
+        for (int laterAccession = 0; laterAccession < later.accessions.size(); laterAccession++) {
+            int accession = accessions.intern(later.accessions.get(laterAccession));
+            int[] laterSequences = later.proteinSequences[laterAccession];
+            for (int i = 0; i < later.proteinSequenceCounts[laterAccession]; i++) {
+                addProteinSequence(accession, codes[laterSequences[i]]);
+            }
+        }
+    }
+
+    /**
+     * Counts the row towards the match with its PSM id: a match is a target
+     * match if any of its rows is of a target accession
+     */
+    private void countMatch(ByteBuffer buffer, int psmIdStart, int psmIdEnd, float score, boolean decoy) {
+        if (firstMatch == null) {
+            firstMatch = new Match(buffer, psmIdStart, psmIdEnd, score, decoy);
+            return;
+        }
+        Match current = lastMatch == null ? firstMatch : lastMatch;
+        if (current.hasPsmId(buffer, psmIdStart, psmIdEnd)) {
+            current.decoy &= decoy;
+            return;
+        }
+        if (lastMatch == null) {
+            lastMatch = new Match(buffer, psmIdStart, psmIdEnd, score, decoy);
+        } else {
+            matchScores.add(lastMatch.score, lastMatch.decoy);
+            lastMatch.set(buffer, psmIdStart, psmIdEnd, score, decoy);
+        }
+    }
+
+    /**
+     * Counts the matches of a later accumulator, joining its first match to
+     * the last match here if they are the same match
+     */
+    private void mergeMatches(PsmAccumulator later) {
+        matchScores.addAll(later.matchScores);
+        if (later.firstMatch == null) {
+            return;
+        }
+        if (firstMatch == null) {
+            firstMatch = later.firstMatch;
+            lastMatch = later.lastMatch;
+            return;
+        }
+        Match current = lastMatch == null ? firstMatch : lastMatch;
+        Match next = later.firstMatch;
+        if (current.hasPsmId(next)) {
+            current.decoy &= next.decoy;
+            if (later.lastMatch == null) {
+                return;
+            }
+            next = null;
+        }
+        //Whatever comes between the first and the new last match is counted now
+        if (lastMatch != null) {
+            matchScores.add(lastMatch.score, lastMatch.decoy);
+        }
+        if (later.lastMatch == null) {
+            lastMatch = next;
+        } else {
+            if (next != null) {
+                matchScores.add(next.score, next.decoy);
+            }
+            lastMatch = later.lastMatch;
+        }
+    }
+
+    private void addProteinSequence(int accession, int sequence) {
+        if (accession >= proteinSequences.length) {
+            proteinSequences = Arrays.copyOf(proteinSequences, proteinSequences.length * 2);
+            proteinSequenceCounts = Arrays.copyOf(proteinSequenceCounts, proteinSequences.length);
+        }
+        int[] sequencesOfProtein = proteinSequences[accession];
+        int count = proteinSequenceCounts[accession];
+        if (sequencesOfProtein == null) {
+            sequencesOfProtein = new int[4];
+            proteinSequences[accession] = sequencesOfProtein;
+        } else if (count == sequencesOfProtein.length) {
+            sequencesOfProtein = Arrays.copyOf(sequencesOfProtein, count * 2);
+            proteinSequences[accession] = sequencesOfProtein;
+        }
+        sequencesOfProtein[count] = sequence;
+        proteinSequenceCounts[accession] = count + 1;
+    }
+
+    /**
+     * @return the number of rows read, kept or not
+     */
+    long getPsmCount() {
+        return this.psmCount;
+    }
+
+    /**
+     * @return the number of rows dropped as they were read, by the rank and
+     * score cutoffs of the filter or as decoys
+     */
+    long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Interns the kept matches, as rows of the store, and builds the
+     * proteins. The peptides are interned in the order their sequences were
+     * first seen and the proteins are put in that order too, so the same table
+     * always gives the same ids. Sequences below the q-value cutoff of the
+     * filter get no peptide, and proteins left with no peptide are left out.
+     *
+     * @param dictionary
+     * @return the proteins, keyed by accession
+     */
+    HashMap<String, Protein> toProteinMap(PeptideDictionary dictionary) {
+        float threshold = Float.NEGATIVE_INFINITY;
+        if (matchScores != null) {
+            TargetDecoyScores scores = new TargetDecoyScores();
+            scores.addAll(matchScores);
+            for (Match match : new Match[]{firstMatch, lastMatch}) {
+                if (match != null) {
+                    scores.add(match.score, match.decoy);
+                }
+            }
+            threshold = scores.scoreThreshold(filter.getMaxQValue());
+        }
+        int[] ids = new int[psms.size()];
+        for (int sequence = 0; sequence < ids.length; sequence++) {
+            if (matchScores != null && !TargetDecoyScores.reaches(psms.getScore(sequence), threshold)) {
+                ids[sequence] = -1;
+                continue;
+            }
+            ids[sequence] = dictionary.internRow(psms, sequence);
+        }
+        HashMap<String, Protein> proteinHashMap = new HashMap<>();
+        for (int accession = 0; accession < accessions.size(); accession++) {
+            Protein protein = new Protein(accessions.get(accession), dictionary);
+            for (int i = 0; i < proteinSequenceCounts[accession]; i++) {
+                int sequence = proteinSequences[accession][i];
+                if (ids[sequence] < 0) {
+                    continue;
+                }
+                protein.getObservedPeptideSet().add(ids[sequence]);
+                if (psms.isUniqueToAProtein(sequence)) {
+                    protein.getUniquePeptideSet().add(ids[sequence]);
+                }
+            }
+            if (!protein.getObservedPeptideSet().isEmpty()) {
+                proteinHashMap.put(accessions.get(accession), protein);
+            }
+        }
+        return proteinHashMap;
+    }
+
+    /**
+     * The PSM id, score and decoy status of a match whose rows may not all
+     * have been read; the PSM id is copied out of the buffer
+     */
+    private static final class Match {
+
+        private byte[] psmId;
+        private int length;
+        private float score;
+        private boolean decoy;
+
+        private Match(ByteBuffer buffer, int psmIdStart, int psmIdEnd, float score, boolean decoy) {
+            psmId = new byte[Math.max(32, psmIdEnd - psmIdStart)];
+            set(buffer, psmIdStart, psmIdEnd, score, decoy);
+        }
+
+        private void set(ByteBuffer buffer, int psmIdStart, int psmIdEnd, float score, boolean decoy) {
+            length = psmIdEnd - psmIdStart;
+            if (length > psmId.length) {
+                psmId = new byte[length * 2];
+            }
+            for (int i = 0; i < length; i++) {
+                psmId[i] = buffer.get(psmIdStart + i);
+            }
+            this.score = score;
+            this.decoy = decoy;
+        }
+
+        private boolean hasPsmId(ByteBuffer buffer, int psmIdStart, int psmIdEnd) {
+            if (psmIdEnd - psmIdStart != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(psmIdStart + i) != psmId[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasPsmId(Match match) {
+            return Arrays.equals(psmId, 0, length, match.psmId, 0, match.length);
+        }
+    }
+
+}
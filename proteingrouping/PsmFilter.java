@@ -0,0 +1,147 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Which peptide spectrum matches the loaders keep. The filter is applied in
+ * the parse loops, as each match is read, so the matches it drops are never
+ * made into peptides or proteins, nor stored:
+ *
+ *   rank       matches ranked below maxRank are dropped
+ *   score      matches scoring below minScore, or with no score, are dropped
+ *   decoys     accessions starting with the decoy prefix are decoy proteins;
+ *              they are never loaded, and a match of decoy proteins only is a
+ *              decoy match
+ *   q-value    the matches that pass the filters above are counted as target
+ *              or decoy matches by score while the file is read, and once it
+ *              is read, only the target matches whose q-value (the lowest
+ *              estimated false discovery rate, decoys over targets at or above
+ *              a score, at which they would be kept) is at most maxQValue are
+ *              turned into peptides
+ *
+ * Higher scores are better, as for the Mascot and X!Tandem scores the loaders
+ * read. A new filter keeps every match. Without a decoy prefix every match is
+ * a target match, so a q-value cutoff then keeps every match too.
+ *
+ * Set the filter up before handing it to a loader; the loaders only read it,
+ * possibly from several threads.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class PsmFilter {
+
+    private int maxRank;
+    private float minScore;
+    private String decoyPrefix;
+    private byte[] decoyPrefixBytes;
+    private double maxQValue;
+
+    public PsmFilter() {
+        maxRank = Integer.MAX_VALUE;
+        minScore = Float.NEGATIVE_INFINITY;
+        decoyPrefix = null;
+        decoyPrefixBytes = null;
+        maxQValue = 1.0;
+    }
+
+    public int getMaxRank() {
+        return this.maxRank;
+    }
+
+    /**
+     * @param maxRank the highest (i.e. worst) rank kept; 1 keeps the top match of each spectrum only
+     */
+    public void setMaxRank(int maxRank) {
+        this.maxRank = maxRank;
+    }
+
+    public float getMinScore() {
+        return this.minScore;
+    }
+
+    public void setMinScore(float minScore) {
+        this.minScore = minScore;
+    }
+
+    public String getDecoyPrefix() {
+        return this.decoyPrefix;
+    }
+
+    /**
+     * @param decoyPrefix the prefix of the accessions of decoy proteins, such
+     * as "DECOY_" or "REV_"; null if there are no decoys
+     */
+    public void setDecoyPrefix(String decoyPrefix) {
+        this.decoyPrefix = decoyPrefix == null || decoyPrefix.isEmpty() ? null : decoyPrefix;
+        this.decoyPrefixBytes = this.decoyPrefix == null ? null : this.decoyPrefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public double getMaxQValue() {
+        return this.maxQValue;
+    }
+
+    /**
+     * @param maxQValue such as 0.01 for a 1% false discovery rate; 1 keeps every target match
+     */
+    public void setMaxQValue(double maxQValue) {
+        this.maxQValue = maxQValue;
+    }
+
+    /**
+     * @return whether the loaders have to count target and decoy matches to
+     * find the score the q-value cutoff corresponds to
+     */
+    public boolean isFilteringByQValue() {
+        return this.maxQValue < 1.0 && this.decoyPrefix != null;
+    }
+
+    /**
+     * @param rank
+     * @param score NaN if the match has none
+     * @return whether a match of this rank and score is kept, as far as the
+     * rank and score filters go
+     */
+    public boolean accepts(int rank, float score) {
+        if (rank > maxRank) {
+            return false;
+        }
+        return minScore == Float.NEGATIVE_INFINITY || score >= minScore;
+    }
+
+    public boolean acceptsRank(int rank) {
+        return rank <= maxRank;
+    }
+
+    /**
+     * @param accession
+     * @return whether the accession is that of a decoy protein
+     */
+    public boolean isDecoy(String accession) {
+        return decoyPrefix != null && accession.startsWith(decoyPrefix);
+    }
+
+    /**
+     * Same as isDecoy(String) for an accession held as UTF-8 bytes in a range of a buffer
+     */
+    public boolean isDecoy(ByteBuffer buffer, int accessionStart, int accessionEnd) {
+        if (decoyPrefixBytes == null || accessionEnd - accessionStart < decoyPrefixBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < decoyPrefixBytes.length; i++) {
+            if (buffer.get(accessionStart + i) != decoyPrefixBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "maxRank=" + maxRank + ", minScore=" + minScore + ", decoyPrefix=" + decoyPrefix + ", maxQValue=" + maxQValue;
+    }
+
+}
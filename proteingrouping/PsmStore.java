@@ -0,0 +1,314 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A column store of the peptide spectrum matches kept by the loaders: the best
+ * match of each peptide sequence (the highest scoring one, the first one on
+ * ties; a missing score ranks below any other) is one row, held in parallel
+ * primitive arrays. The sequences are dictionary encoded and the row of a
+ * sequence is its code, so each sequence String is held once, and the PSM ids
+ * are kept as UTF-8 bytes in one shared array rather than as a String each
+ * (a replaced PSM id is overwritten in place when the new one fits). The
+ * status of each row is a byte code in the row too. No Peptide is kept per
+ * row: a PeptideDictionary interns the rows themselves (see internRow), and
+ * makes a flyweight over a row (see newPeptide) only when one is asked for.
+ *
+ * Rows are added by one thread at a time, but the statuses of different rows
+ * may be set by several threads at once.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PsmStore {
+
+    private static final Peptide.Status[] STATUSES = Peptide.Status.values();
+
+    private final StringDictionary sequences;  //the code of a sequence is its row
+    private int rows;
+    private byte[] psmIdBytes;
+    private int psmIdBytesUsed;
+    private int[] psmIdStarts;  //where the PSM id of each row starts in psmIdBytes
+    private int[] psmIdLengths;
+    private int[] spectrumIds;
+    private int[] ranks;
+    private float[] scores;
+    private boolean[] unique;
+    private byte[] statuses;  //Peptide.Status ordinals; 0 is RESOLVED
+
+    public PsmStore() {
+        this(64);
+    }
+
+    /**
+     * @param expectedRows the number of rows room is made for up front
+     */
+    public PsmStore(int expectedRows) {
+        int capacity = Math.max(1, expectedRows);
+        sequences = new StringDictionary(capacity);
+        rows = 0;
+        psmIdBytes = new byte[capacity * 8];
+        psmIdBytesUsed = 0;
+        psmIdStarts = new int[capacity];
+        psmIdLengths = new int[capacity];
+        spectrumIds = new int[capacity];
+        ranks = new int[capacity];
+        scores = new float[capacity];
+        unique = new boolean[capacity];
+        statuses = new byte[capacity];
+    }
+
+    /**
+     * Restores a store from its columns, whose rows are those of the
+     * sequence dictionary; see GraphSnapshot
+     */
+    PsmStore(StringDictionary sequences, byte[] psmIdBytes, int[] psmIdStarts, int[] psmIdLengths,
+            int[] spectrumIds, int[] ranks, float[] scores, boolean[] unique) {
+        this.sequences = sequences;
+        this.rows = sequences.size();
+        this.psmIdBytes = psmIdBytes;
+        this.psmIdBytesUsed = psmIdBytes.length;
+        this.psmIdStarts = psmIdStarts;
+        this.psmIdLengths = psmIdLengths;
+        this.spectrumIds = spectrumIds;
+        this.ranks = ranks;
+        this.scores = scores;
+        this.unique = unique;
+        this.statuses = new byte[psmIdStarts.length];
+    }
+
+    /**
+     * Adds a match, which replaces the one held for its sequence only if it
+     * scores higher
+     *
+     * @param sequence the peptide sequence (or mzIdentML peptide ref)
+     * @param psmId
+     * @param spectrumId
+     * @param rank
+     * @param score
+     * @param uniqueToAProtein
+     * @return the row of the sequence
+     */
+    public int addPsm(String sequence, String psmId, int spectrumId, int rank, float score, boolean uniqueToAProtein) {
+        int row = sequences.intern(sequence);
+        if (isKept(row, score)) {
+            byte[] bytes = psmId.getBytes(StandardCharsets.UTF_8);
+            setPsmId(row, ByteBuffer.wrap(bytes), 0, bytes.length);
+            set(row, spectrumId, rank, score, uniqueToAProtein);
+        }
+        return row;
+    }
+
+    /**
+     * Same as addPsm(String, ...) for a sequence and PSM id held in ranges of
+     * the buffer; the PSM id bytes are only copied if the match is kept
+     */
+    int addPsm(ByteBuffer buffer, int sequenceStart, int sequenceEnd, int psmIdStart, int psmIdEnd,
+            int spectrumId, int rank, float score, boolean uniqueToAProtein) {
+        int row = sequences.intern(buffer, sequenceStart, sequenceEnd);
+        if (isKept(row, score)) {
+            setPsmId(row, buffer, psmIdStart, psmIdEnd);
+            set(row, spectrumId, rank, score, uniqueToAProtein);
+        }
+        return row;
+    }
+
+    /**
+     * Adds the rows of a store filled from matches read after those of this
+     * one, as if they had been added here in order
+     *
+     * @param later
+     * @return the row in this store of each row of the later one
+     */
+    int[] merge(PsmStore later) {
+        int[] rows = new int[later.size()];
+        ByteBuffer laterPsmIds = ByteBuffer.wrap(later.psmIdBytes);
+        for (int laterRow = 0; laterRow < rows.length; laterRow++) {
+            int row = sequences.intern(later.sequences.get(laterRow));
+            if (isKept(row, later.scores[laterRow])) {
+                int start = later.psmIdStarts[laterRow];
+                setPsmId(row, laterPsmIds, start, start + later.psmIdLengths[laterRow]);
+                set(row, later.spectrumIds[laterRow], later.ranks[laterRow],
+                        later.scores[laterRow], later.unique[laterRow]);
+            }
+            rows[laterRow] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * @return whether a match with the given score replaces the one held in
+     * the row, growing the columns first if the row is new
+     */
+    private boolean isKept(int row, float score) {
+        if (row < rows) {
+            return beats(score, scores[row]);
+        }
+        if (row >= psmIdStarts.length) {
+            grow();
+        }
+        rows++;
+        return true;
+    }
+
+    /**
+     * NaN (a missing score) ranks below every score, so that keeping the
+     * best match does not depend on the order matches are compared in
+     */
+    private static boolean beats(float score, float best) {
+        return score > best || (Float.isNaN(best) && !Float.isNaN(score));
+    }
+
+    private void set(int row, int spectrumId, int rank, float score, boolean uniqueToAProtein) {
+        spectrumIds[row] = spectrumId;
+        ranks[row] = rank;
+        scores[row] = score;
+        unique[row] = uniqueToAProtein;
+    }
+
+    /**
+     * Copies buffer[start, end) into the PSM id bytes of the row, over the
+     * bytes of the id it replaces if they are enough
+     */
+    private void setPsmId(int row, ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        int at = psmIdStarts[row];
+        if (length > psmIdLengths[row]) {  //A new row holds no bytes yet
+            if (psmIdBytesUsed + length > psmIdBytes.length) {
+                psmIdBytes = Arrays.copyOf(psmIdBytes, Math.max(psmIdBytesUsed + length, psmIdBytes.length * 2));
+            }
+            at = psmIdBytesUsed;
+            psmIdBytesUsed += length;
+            psmIdStarts[row] = at;
+        }
+        buffer.get(start, psmIdBytes, at, length);
+        psmIdLengths[row] = length;
+    }
+
+    private void grow() {
+        int length = Math.max(16, psmIdStarts.length * 2);
+        psmIdStarts = Arrays.copyOf(psmIdStarts, length);
+        psmIdLengths = Arrays.copyOf(psmIdLengths, length);
+        spectrumIds = Arrays.copyOf(spectrumIds, length);
+        ranks = Arrays.copyOf(ranks, length);
+        scores = Arrays.copyOf(scores, length);
+        unique = Arrays.copyOf(unique, length);
+        statuses = Arrays.copyOf(statuses, length);
+    }
+
+    /**
+     * @param row
+     * @return a new peptide reading the row, whose status is the status of
+     * the row; every peptide of a row sees the same match and status
+     */
+    public Peptide newPeptide(int row) {
+        if (row >= size()) {
+            throw new IndexOutOfBoundsException(row + " >= " + size());
+        }
+        return new RowPeptide(this, row);
+    }
+
+    /**
+     * @param sequence
+     * @return the row of the sequence, or -1 if no match of it was added
+     */
+    public int getRow(String sequence) {
+        return sequences.getCode(sequence);
+    }
+
+    public int size() {
+        return sequences.size();
+    }
+
+    public String getSequence(int row) {
+        return sequences.get(row);
+    }
+
+    public String getPsmId(int row) {
+        return new String(psmIdBytes, psmIdStarts[row], psmIdLengths[row], StandardCharsets.UTF_8);
+    }
+
+    public int getSpectrumId(int row) {
+        return spectrumIds[row];
+    }
+
+    public int getRank(int row) {
+        return ranks[row];
+    }
+
+    public float getScore(int row) {
+        return scores[row];
+    }
+
+    public boolean isUniqueToAProtein(int row) {
+        return unique[row];
+    }
+
+    public Peptide.Status getStatus(int row) {
+        return STATUSES[statuses[row]];
+    }
+
+    public void setStatus(int row, Peptide.Status status) {
+        statuses[row] = (byte) status.ordinal();
+    }
+
+    /**
+     * A peptide reading a row of the store
+     */
+    private static final class RowPeptide extends Peptide {
+
+        private final PsmStore store;
+        private final int row;
+
+        RowPeptide(PsmStore store, int row) {
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override
+        public float getScore() {
+            return store.getScore(row);
+        }
+
+        @Override
+        public String getPeptideRef() {
+            return store.getSequence(row);
+        }
+
+        @Override
+        public String getPsmId() {
+            return store.getPsmId(row);
+        }
+
+        @Override
+        public int getSpectrumId() {
+            return store.getSpectrumId(row);
+        }
+
+        @Override
+        public int getRank() {
+            return store.getRank(row);
+        }
+
+        @Override
+        public boolean isUniqueToAProtein() {
+            return store.isUniqueToAProtein(row);
+        }
+
+        @Override
+        public Peptide.Status getPeptideStatus() {
+            return store.getStatus(row);
+        }
+
+        @Override
+        public void setPeptideStatus(Peptide.Status status) {
+            store.setStatus(row, status);
+        }
+
+    }
+
+}
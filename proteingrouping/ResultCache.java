@@ -0,0 +1,471 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * A cache of grouping results on disk, so that a run over input files that
+ * have been grouped before with the same settings reads the result back
+ * instead of loading and grouping the files again.
+ *
+ * Entries are addressed by content: the key of a run is a SHA-256 hash of
+ * the settings of the run (the filter, the grouping method, anything else
+ * that changes the result) and of the contents of its input files, in order,
+ * so a renamed or copied file hits the same entry and an edited one misses.
+ * Hashing a large file takes as long as reading it, so the hash of each file
+ * is remembered in a small file of the cache directory, under its path, size
+ * and modification time, and only files changed since are hashed again.
+ *
+ * Each entry is one file holding the result in binary: a GraphSnapshot of
+ * the proteins and peptides, followed by the groups, the clusters, the subset
+ * proteins and the peptide statuses, as ids and indices into the snapshot. A
+ * hit maps the file and rebuilds the result from it, which takes about as
+ * long as loading the snapshot.
+ *
+ * Layout, all numbers big-endian:
+ *   header      magic, version, key (as DataOutput.writeUTF)
+ *   snapshot    the proteins and their peptides, see GraphSnapshot
+ *   groups      group count, then for each group in id order: id, singleton
+ *               flag (byte), cluster id (-1 if none), and the lists of its
+ *               protein indices, domain, unique and shared peptide ids
+ *   clusters    cluster count, then for each cluster in id order: id, and the
+ *               lists of its group ids and domain peptide ids
+ *   proteins    the list of the indices of the subset proteins
+ *   peptides    peptide count, then the status ordinal of each peptide (bytes)
+ *   trailer     magic
+ * where a list is its length followed by its ints.
+ *
+ * The cache is bounded: once an entry is added, the least recently used
+ * entries (by modification time, which a hit sets) are deleted until the
+ * entries take at most maxBytes. Several processes may share a directory.
+ * Entries are written to a temporary file and moved into place, and reads,
+ * moves and evictions are done under a lock on the file cache.lock (shared
+ * for reads, exclusive for the rest), so a reader never sees a partial entry
+ * nor has one deleted under it. Within a process the lock is taken by one
+ * thread at a time, as file locks are held by the whole process.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ResultCache {
+
+    public static final int MAGIC = 0x50475243;  //"PGRC"
+    public static final int VERSION = 1;
+
+    private static final String ENTRY_SUFFIX = ".pgresult";
+    private static final String HASH_SUFFIX = ".pghash";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "cache.lock";
+    private static final long STALE_TEMPORARY_MILLIS = 60 * 60 * 1000L;
+    private static final Peptide.Status[] STATUSES = Peptide.Status.values();
+
+    //The monitors of the directories open in this process, by real path
+    private static final ConcurrentHashMap<Path, Object> DIRECTORY_MONITORS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Object monitor;
+
+    /**
+     * @param directory the cache directory, created if missing
+     * @param maxBytes the most bytes the entries may take together
+     * @throws IOException if the directory cannot be created
+     */
+    public ResultCache(File directory, long maxBytes) throws IOException {
+        Files.createDirectories(directory.toPath());
+        this.directory = directory.toPath().toRealPath();
+        this.maxBytes = maxBytes;
+        this.monitor = DIRECTORY_MONITORS.computeIfAbsent(this.directory, path -> new Object());
+    }
+
+    public File getDirectory() {
+        return this.directory.toFile();
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * @param files the input files of the run, in the order they are read
+     * @param settings everything else the result depends on, such as the
+     * filter and the grouping method
+     * @return the key of the entry for the run
+     * @throws IOException if a file cannot be read
+     */
+    public String key(List<File> files, String settings) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(("ResultCache " + VERSION + " GraphSnapshot " + GraphSnapshot.VERSION + "\n" + settings + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        for (File file : files) {
+            digest.update(contentHash(file.toPath()));
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * @param key
+     * @return the cached result, or null if there is none (or the entry cannot
+     * be read, which is logged)
+     */
+    @SuppressWarnings("try")
+    public GroupingResult get(String key) {
+        Path entry = directory.resolve(key + ENTRY_SUFFIX);
+        synchronized (monitor) {
+            try (FileChannel lockChannel = openLockChannel();
+                    FileLock lock = lockChannel.lock(0, Long.MAX_VALUE, true)) {
+                if (!Files.isRegularFile(entry)) {
+                    return null;
+                }
+                GroupingResult result = read(entry, key);
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+                return result;
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(ResultCache.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Adds the result under the key, replacing any entry it has, and evicts
+     * the least recently used entries down to maxBytes. A result larger than
+     * maxBytes is not kept.
+     *
+     * @param key
+     * @param result
+     * @throws IOException
+     */
+    @SuppressWarnings("try")
+    public void put(String key, GroupingResult result) throws IOException {
+        Path entry = directory.resolve(key + ENTRY_SUFFIX);
+        Path temporary = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+        try {
+            write(temporary, key, result);
+            synchronized (monitor) {
+                try (FileChannel lockChannel = openLockChannel();
+                        FileLock lock = lockChannel.lock()) {
+                    Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    evict();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param key
+     * @param compute makes the result on a miss
+     * @return the cached result, or the computed one, which is then added to
+     * the cache (a failure to add it is logged)
+     */
+    public GroupingResult getOrCompute(String key, Supplier<GroupingResult> compute) {
+        GroupingResult result = get(key);
+        if (result != null) {
+            return result;
+        }
+        result = compute.get();
+        try {
+            put(key, result);
+        } catch (IOException ex) {
+            Logger.getLogger(ResultCache.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return result;
+    }
+
+    /**
+     * @return the bytes the entries take together
+     * @throws IOException
+     */
+    public long size() throws IOException {
+        long size = 0;
+        for (Path entry : list(ENTRY_SUFFIX)) {
+            size += Files.size(entry);
+        }
+        return size;
+    }
+
+    private FileChannel openLockChannel() throws IOException {
+        return FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Deletes the least recently used entries until the rest fit in maxBytes,
+     * and the temporary files left by writers that died; called under the
+     * exclusive lock
+     */
+    private void evict() throws IOException {
+        ArrayList<Path> entries = new ArrayList<>();
+        ArrayList<long[]> attributes = new ArrayList<>();  //modification time, size
+        long total = 0;
+        for (Path entry : list(ENTRY_SUFFIX)) {
+            long size = Files.size(entry);
+            entries.add(entry);
+            attributes.add(new long[]{Files.getLastModifiedTime(entry).toMillis(), size});
+            total += size;
+        }
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(attributes.get(a)[0], attributes.get(b)[0]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            Files.deleteIfExists(entries.get(order[i]));
+            total -= attributes.get(order[i])[1];
+        }
+        long now = System.currentTimeMillis();
+        for (Path temporary : list(TEMPORARY_SUFFIX)) {
+            if (now - Files.getLastModifiedTime(temporary).toMillis() > STALE_TEMPORARY_MILLIS) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    private List<Path> list(String suffix) throws IOException {
+        ArrayList<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path entry : entries) {
+                paths.add(entry);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The SHA-256 hash of the contents of the file, read from the hash file
+     * remembered for its path, size and modification time if there is one
+     */
+    private byte[] contentHash(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        String stamp = absolute + "\n" + Files.size(absolute) + "\n" + Files.getLastModifiedTime(absolute).toMillis();
+        Path hashFile = directory.resolve(hex(sha256().digest(stamp.getBytes(StandardCharsets.UTF_8))) + HASH_SUFFIX);
+        if (Files.isRegularFile(hashFile)) {
+            byte[] hash = Files.readAllBytes(hashFile);
+            if (hash.length == 32) {
+                return hash;
+            }
+        }
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel channel = FileChannel.open(absolute, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        byte[] hash = digest.digest();
+        Path temporary = Files.createTempFile(directory, "hash", TEMPORARY_SUFFIX);
+        try {
+            Files.write(temporary, hash);
+            Files.move(temporary, hashFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return hash;
+    }
+
+    private static void write(Path file, String key, GroupingResult result) throws IOException {
+        Collection<Protein> proteins = result.getProteins().values();
+        GroupingSession session = result.getSession();
+        IdentityHashMap<Protein, Integer> proteinIndices = new IdentityHashMap<>();
+        for (Protein protein : proteins) {
+            proteinIndices.put(protein, proteinIndices.size());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            GraphSnapshot.write(proteins, out);
+
+            ArrayList<ProteinGroup> groups = new ArrayList<>(result.getProteinGroups().values());
+            groups.sort((a, b) -> Integer.compare(a.getGroupId(), b.getGroupId()));
+            out.writeInt(groups.size());
+            for (ProteinGroup group : groups) {
+                out.writeInt(group.getGroupId());
+                out.writeByte(group.isSingletonGroup() ? 1 : 0);
+                out.writeInt(group.getProteinGroupCluster() == null ? -1 : group.getProteinGroupCluster().getClusterId());
+                out.writeInt(group.getProteins().size());
+                for (Protein protein : group.getProteins()) {
+                    out.writeInt(proteinIndices.get(protein));
+                }
+                writeIds(out, group.getGroupPeptideDomainSet());
+                writeIds(out, group.getUniquePeptideSet());
+                writeIds(out, group.getSharedClusterPeptideSet());
+            }
+
+            ArrayList<ProteinGroupCluster> clusters = new ArrayList<>(result.getProteinGroupClusters().values());
+            clusters.sort((a, b) -> Integer.compare(a.getClusterId(), b.getClusterId()));
+            out.writeInt(clusters.size());
+            for (ProteinGroupCluster cluster : clusters) {
+                out.writeInt(cluster.getClusterId());
+                out.writeInt(cluster.getProteinGroups().size());
+                for (ProteinGroup group : cluster.getProteinGroups()) {
+                    out.writeInt(group.getGroupId());
+                }
+                writeIds(out, cluster.getClusterPeptideDomain());
+            }
+
+            ArrayList<Integer> subsetProteins = new ArrayList<>();
+            for (Protein protein : proteins) {
+                if (session.isSubsetProtein(protein)) {
+                    subsetProteins.add(proteinIndices.get(protein));
+                }
+            }
+            out.writeInt(subsetProteins.size());
+            for (int index : subsetProteins) {
+                out.writeInt(index);
+            }
+
+            PeptideDictionary dictionary = result.getPeptideDictionary();
+            out.writeInt(dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) {
+                out.writeByte(session.getPeptideStatus(dictionary.getPeptide(id)).ordinal());
+            }
+            out.writeInt(MAGIC);
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, PeptideSet peptides) throws IOException {
+        out.writeInt(peptides.size());
+        for (int i = 0; i < peptides.size(); i++) {
+            out.writeInt(peptides.get(i));
+        }
+    }
+
+    private static GroupingResult read(Path file, String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedFileReader in = new MappedFileReader(channel, file.toString());
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a grouping result cache entry: " + file);
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Cache entry version " + version + " is not supported (expected " + VERSION + "): " + file);
+            }
+            int keyLength = (in.get() & 0xff) << 8 | (in.get() & 0xff);  //as DataOutput.writeUTF writes it
+            byte[] keyBytes = in.getBytes(keyLength);
+            if (!key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+                throw new IOException("Cache entry holds another key: " + file);
+            }
+
+            GraphSnapshot snapshot = new GraphSnapshot(file.toFile());
+            Protein[] proteins = snapshot.readProteins(in, file.toString());
+            PeptideDictionary dictionary = snapshot.getPeptideDictionary();
+            GroupingSession session = GroupingSession.writingThrough();
+
+            int groupCount = in.getInt();
+            in.require(25L * groupCount);  //the fixed part of each group, before allocating for them
+            ConcurrentHashMap<Integer, ProteinGroup> groups = new ConcurrentHashMap<>();
+            int[] groupClusterIds = new int[groupCount];
+            ProteinGroup[] groupsInOrder = new ProteinGroup[groupCount];
+            for (int g = 0; g < groupCount; g++) {
+                ProteinGroup group = new ProteinGroup(in.getInt());
+                group.setSingleton(in.get() != 0);
+                groupClusterIds[g] = in.getInt();
+                int proteinCount = in.getInt();
+                for (int i = 0; i < proteinCount; i++) {
+                    Protein protein = proteins[in.getInt()];
+                    group.addToProteins(protein);
+                    session.setProteinGroup(protein, group);
+                }
+                group.setGroupPeptideDomain(readIds(in, dictionary));
+                group.addAllToUniquePeptides(readIds(in, dictionary));
+                group.addAllToSharedClusterPeptides(readIds(in, dictionary));
+                groups.put(group.getGroupId(), group);
+                groupsInOrder[g] = group;
+            }
+
+            int clusterCount = in.getInt();
+            ConcurrentHashMap<Integer, ProteinGroupCluster> clusters = new ConcurrentHashMap<>();
+            for (int c = 0; c < clusterCount; c++) {
+                ProteinGroupCluster cluster = new ProteinGroupCluster(in.getInt());
+                int memberCount = in.getInt();
+                for (int i = 0; i < memberCount; i++) {
+                    cluster.getProteinGroups().add(groups.get(in.getInt()));
+                }
+                cluster.addAllToClusterPeptideDomain(readIds(in, dictionary));
+                clusters.put(cluster.getClusterId(), cluster);
+            }
+            for (int g = 0; g < groupCount; g++) {
+                if (groupClusterIds[g] >= 0) {
+                    groupsInOrder[g].setProteinGroupCluster(clusters.get(groupClusterIds[g]));
+                }
+            }
+
+            int subsetCount = in.getInt();
+            for (int i = 0; i < subsetCount; i++) {
+                session.setSubsetProtein(proteins[in.getInt()], true);
+            }
+
+            int peptideCount = in.getInt();
+            if (peptideCount != dictionary.size()) {
+                throw new IOException("Cache entry holds statuses of " + peptideCount + " peptides, not "
+                        + dictionary.size() + ": " + file);
+            }
+            session.prepareStatuses(dictionary);
+            for (int id = 0; id < peptideCount; id++) {
+                session.setPeptideStatus(dictionary, id, STATUSES[in.get()]);
+            }
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Cache entry is truncated: " + file);
+            }
+
+            LinkedHashMap<String, Protein> proteinHashMap = new LinkedHashMap<>();
+            for (Protein protein : proteins) {
+                proteinHashMap.put(protein.getDbSequenceRef(), protein);
+            }
+            return new GroupingResult(proteinHashMap, dictionary, groups, clusters, session);
+        }
+    }
+
+    private static PeptideSet readIds(MappedFileReader in, PeptideDictionary dictionary) throws IOException {
+        return PeptideSet.ofSorted(dictionary, in.getInts(in.getInt()));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);  //every Java platform has SHA-256
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Dictionary encoding of strings: each distinct string gets a dense int code in
+ * the order it is first seen. Strings can be looked up straight from the bytes
+ * of a buffer, so that a reader only allocates a String the first time a value
+ * occurs. Bytes are read as UTF-8.
+ *
+ * Not safe for use by several threads at once.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class StringDictionary {
+
+    private String[] strings;  //indexed by code
+    private int size;
+    private int[] table;  //open addressing; one more than the code of the string in each slot, 0 if empty
+
+    public StringDictionary() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of strings room is made for up front
+     */
+    public StringDictionary(int expectedSize) {
+        strings = new String[Math.max(1, expectedSize)];
+        size = 0;
+        //A power of two at least twice the expected size, so that no rehash is needed before it is reached
+        table = new int[Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1];
+    }
+
+    /**
+     * A copy of the given dictionary, which can then be added to on its own
+     *
+     * @param dictionary
+     */
+    public StringDictionary(StringDictionary dictionary) {
+        strings = Arrays.copyOf(dictionary.strings, dictionary.strings.length);
+        size = dictionary.size;
+        table = Arrays.copyOf(dictionary.table, dictionary.table.length);
+    }
+
+    /**
+     * Restores a dictionary from its strings, in code order, and the table
+     * another dictionary built for them (see getTable), without hashing them
+     */
+    StringDictionary(String[] strings, int[] table) {
+        if (Integer.bitCount(table.length) != 1 || strings.length * 2 > table.length) {
+            throw new IllegalArgumentException("A table of " + table.length + " slots cannot hold " + strings.length + " strings");
+        }
+        this.strings = strings;
+        this.size = strings.length;
+        this.table = table;
+    }
+
+    /**
+     * @return the open addressing table, not a copy; the slots depend on the
+     * strings, the order they were added in and the hash function
+     */
+    int[] getTable() {
+        return this.table;
+    }
+
+    /**
+     * @param string
+     * @return the code of the string, which is given the next code if it is new
+     */
+    public int intern(String string) {
+        int hash = hash(string);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return add(string, slot);
+            }
+            if (strings[entry - 1].equals(string)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Same as intern(String) for the string held in buffer[start, end)
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     * @return the code of the string
+     */
+    public int intern(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < 0) {
+                //Not ASCII, so the bytes do not map one to one onto chars
+                return intern(decode(buffer, start, end));
+            }
+            hash = 31 * hash + b;
+        }
+        hash = mix(hash);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return add(decode(buffer, start, end), slot);
+            }
+            if (matches(strings[entry - 1], buffer, start, end)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * @param string
+     * @return the code of the string, or -1 if it has not been interned
+     */
+    public int getCode(String string) {
+        int mask = table.length - 1;
+        for (int slot = hash(string) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (strings[entry - 1].equals(string)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    public String get(int code) {
+        if (code >= size) {
+            throw new IndexOutOfBoundsException(code + " >= " + size);
+        }
+        return this.strings[code];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private int add(String string, int slot) {
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, Math.max(16, size * 2));
+        }
+        strings[size] = string;
+        table[slot] = ++size;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = hash(strings[code]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static boolean matches(String string, ByteBuffer buffer, int start, int end) {
+        if (string.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (string.charAt(i - start) != buffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * String.hashCode, which is cached in the String, is the 31 * hash + char
+     * sum that intern(ByteBuffer, ...) computes over ASCII bytes
+     */
+    private static int hash(String string) {
+        return mix(string.hashCode());
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 15);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The proteins and peptides of a study made of several runs or files, merged
+ * into one protein-peptide graph. Each run is loaded on its own (into its own
+ * PeptideDictionary), and its proteins and peptides are then merged here: a
+ * protein found in several runs is one protein with the union of its observed
+ * and unique peptides, and a peptide found in several runs is one peptide
+ * whose kept match is the highest scoring one over all the runs (the one
+ * merged first on ties), as within one file.
+ *
+ * A study graph is filled by one thread at a time.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+public class StudyGraph {
+
+    private final PeptideDictionary dictionary;
+    private final PsmStore psms;  //its rows are the peptide ids of the dictionary
+    private final LinkedHashMap<String, Protein> proteinHashMap;
+
+    public StudyGraph() {
+        dictionary = new PeptideDictionary();
+        psms = new PsmStore();
+        proteinHashMap = new LinkedHashMap<>();
+    }
+
+    /**
+     * @return the proteins of the study, keyed by accession, in the order they were first merged
+     */
+    public LinkedHashMap<String, Protein> getProteins() {
+        return this.proteinHashMap;
+    }
+
+    /**
+     * @return the dictionary in which the peptides of the study are interned
+     */
+    public PeptideDictionary getPeptideDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * Merges the peptides and proteins of one run. Peptides that no protein of
+     * the run refers to are merged too, so that their matches count when a
+     * later run attaches them to a protein. The maps are only read, so their
+     * peptides may come from any dictionary.
+     *
+     * @param peptideHashMap the peptides of the run, keyed by peptide ref; may be null
+     * @param proteinHashMap the proteins of the run, keyed by accession
+     */
+    public void merge(HashMap<String, Peptide> peptideHashMap, HashMap<String, Protein> proteinHashMap) {
+        if (peptideHashMap != null) {
+            for (Peptide peptide : peptideHashMap.values()) {
+                addPeptide(peptide);
+            }
+        }
+        for (Protein runProtein : proteinHashMap.values()) {
+            Protein protein = addProtein(runProtein.getDbSequenceRef());
+            for (Peptide runPeptide : runProtein.getObservedPeptides()) {
+                Peptide peptide = addPeptide(runPeptide);
+                if (!protein.getObservedPeptideSet().contains(peptide.getPeptideId())) {
+                    protein.addObservedPeptides(peptide);
+                }
+            }
+            for (Peptide runPeptide : runProtein.getUniquePeptides()) {
+                Peptide peptide = addPeptide(runPeptide);
+                if (!protein.getUniquePeptideSet().contains(peptide.getPeptideId())) {
+                    protein.addUniquePeptides(peptide);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param accession
+     * @return the protein of the study with the given accession, or null if there is none
+     */
+    public Protein getProtein(String accession) {
+        return this.proteinHashMap.get(accession);
+    }
+
+    /**
+     * @param accession
+     * @return the protein of the study with the given accession, added with
+     * no peptides if there was none
+     */
+    public Protein addProtein(String accession) {
+        Protein protein = proteinHashMap.get(accession);
+        if (protein == null) {
+            protein = new Protein(accession, dictionary);
+            proteinHashMap.put(accession, protein);
+        }
+        return protein;
+    }
+
+    /**
+     * Adds the match of the given peptide, which replaces the match kept for
+     * its peptide ref only if it scores higher
+     *
+     * @param runPeptide a peptide of a run
+     * @return the peptide of the study with the same peptide ref
+     */
+    public Peptide addPeptide(Peptide runPeptide) {
+        int row = psms.addPsm(runPeptide.getPeptideRef(), runPeptide.getPsmId(), runPeptide.getSpectrumId(),
+                runPeptide.getRank(), runPeptide.getScore(), runPeptide.isUniqueToAProtein());
+        return dictionary.getPeptide(dictionary.internRow(psms, row));
+    }
+
+}
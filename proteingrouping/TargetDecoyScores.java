@@ -0,0 +1,104 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * The scores of the target and the decoy matches read by a loader, held in
+ * two growable float arrays, from which the score a q-value cutoff comes down
+ * to is found once the file is read. The false discovery rate at a score is
+ * estimated as the number of decoy matches over the number of target matches
+ * scoring at least that much, and the q-value of a match is the lowest such
+ * rate at or below its score; the target matches whose q-value is within the
+ * cutoff are then exactly those scoring at or above the lowest target score
+ * whose rate is within it. A missing score ranks below any other.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import java.util.Arrays;
+
+class TargetDecoyScores {
+
+    private float[] targetScores;
+    private int targetCount;
+    private float[] decoyScores;
+    private int decoyCount;
+
+    TargetDecoyScores() {
+        targetScores = new float[64];
+        decoyScores = new float[64];
+    }
+
+    void add(float score, boolean decoy) {
+        float value = Float.isNaN(score) ? Float.NEGATIVE_INFINITY : score;
+        if (decoy) {
+            if (decoyCount == decoyScores.length) {
+                decoyScores = Arrays.copyOf(decoyScores, decoyCount * 2);
+            }
+            decoyScores[decoyCount++] = value;
+        } else {
+            if (targetCount == targetScores.length) {
+                targetScores = Arrays.copyOf(targetScores, targetCount * 2);
+            }
+            targetScores[targetCount++] = value;
+        }
+    }
+
+    void addAll(TargetDecoyScores scores) {
+        for (int i = 0; i < scores.targetCount; i++) {
+            add(scores.targetScores[i], false);
+        }
+        for (int i = 0; i < scores.decoyCount; i++) {
+            add(scores.decoyScores[i], true);
+        }
+    }
+
+    int getTargetCount() {
+        return this.targetCount;
+    }
+
+    int getDecoyCount() {
+        return this.decoyCount;
+    }
+
+    /**
+     * @param maxQValue
+     * @return the lowest score a target match may have to be kept, or NaN if
+     * no target match has a q-value within the cutoff
+     */
+    float scoreThreshold(double maxQValue) {
+        float[] targets = Arrays.copyOf(targetScores, targetCount);
+        float[] decoys = Arrays.copyOf(decoyScores, decoyCount);
+        Arrays.sort(targets);
+        Arrays.sort(decoys);
+        float threshold = Float.NaN;
+        int decoysBelow = decoys.length;  //decoys[decoysBelow...] score at least the current target score
+        int i = targets.length - 1;
+        while (i >= 0) {
+            float score = targets[i];
+            while (i > 0 && targets[i - 1] == score) {
+                i--;
+            }
+            while (decoysBelow > 0 && decoys[decoysBelow - 1] >= score) {
+                decoysBelow--;
+            }
+            long targetsAbove = targets.length - i;
+            long decoysAbove = decoys.length - decoysBelow;
+            if (decoysAbove <= maxQValue * targetsAbove) {
+                threshold = score;
+            }
+            i--;
+        }
+        return threshold;
+    }
+
+    /**
+     * @param score NaN if the match has none
+     * @param threshold as given by scoreThreshold
+     * @return whether a target match of this score is kept; never if the threshold is NaN
+     */
+    static boolean reaches(float score, float threshold) {
+        return (Float.isNaN(score) ? Float.NEGATIVE_INFINITY : score) >= threshold;
+    }
+
+}
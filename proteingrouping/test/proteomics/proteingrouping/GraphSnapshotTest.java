@@ -0,0 +1,86 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that a GraphSnapshot gives back the proteins and peptides it was
+ * written from, and that a damaged snapshot throws an IOException.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GraphSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private static HashMap<String, Protein> proteins() {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        Peptide shared = new Peptide("SHAREDK", "psm1", 11, 2, 30.5f, false);
+        Protein first = new Protein("P1", dictionary);
+        first.addObservedPeptides(new Peptide("FIRSTK", "psm0", 10, 1, 40f, true));
+        first.addUniquePeptides(first.getObservedPeptides().get(0));
+        first.addObservedPeptides(shared);
+        Protein second = new Protein("Pé2", dictionary);
+        second.addObservedPeptides(shared);
+        HashMap<String, Protein> proteins = new HashMap<>();
+        proteins.put(first.getDbSequenceRef(), first);
+        proteins.put(second.getDbSequenceRef(), second);
+        return proteins;
+    }
+
+    @Test
+    void loadsTheProteinsItWasWrittenFrom() throws IOException {
+        File file = directory.resolve("graph.pgsnap").toFile();
+        GraphSnapshot.write(proteins(), file);
+        GraphSnapshot snapshot = new GraphSnapshot(file);
+        HashMap<String, Protein> loaded = snapshot.loadProteinData();
+        assertEquals(2, loaded.size());
+        assertEquals(2, snapshot.getPeptideDictionary().size());
+
+        Protein first = loaded.get("P1");
+        assertEquals(2, first.getObservedPeptides().size());
+        assertEquals("FIRSTK", first.getUniquePeptides().get(0).getPeptideRef());
+        Peptide shared = loaded.get("Pé2").getObservedPeptides().get(0);
+        assertEquals("SHAREDK", shared.getPeptideRef());
+        assertEquals("psm1", shared.getPsmId());
+        assertEquals(11, shared.getSpectrumId());
+        assertEquals(2, shared.getRank());
+        assertEquals(30.5f, shared.getScore());
+        assertEquals(snapshot.getPeptideDictionary().getPeptideId("SHAREDK"), shared.getPeptideId());
+        assertTrue(first.getObservedPeptideSet().contains(shared.getPeptideId()));
+    }
+
+    @Test
+    void damagedSnapshotThrowsIOException() throws IOException {
+        File file = directory.resolve("graph.pgsnap").toFile();
+        GraphSnapshot.write(proteins(), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        File damaged = directory.resolve("damaged.pgsnap").toFile();
+        for (int length : new int[] {0, 10, 28, bytes.length / 2, bytes.length - 1}) {
+            Files.write(damaged.toPath(), Arrays.copyOf(bytes, length));
+            IOException failure = assertThrows(IOException.class, () -> new GraphSnapshot(damaged).loadProteinData(),
+                    "cut to " + length + " bytes");
+            assertTrue(failure.getMessage().endsWith(damaged.toString()), failure.getMessage());
+        }
+        byte[] wrongMagic = bytes.clone();
+        wrongMagic[0] ^= 1;
+        Files.write(damaged.toPath(), wrongMagic);
+        assertThrows(IOException.class, () -> new GraphSnapshot(damaged).loadProteinData());
+        assertThrows(IOException.class, () -> new GraphSnapshot(directory.resolve("missing.pgsnap").toFile()).loadProteinData());
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks the files GroupingResultWriter writes, line by line, for two groups
+ * built by hand: one group of two proteins in a cluster, with a subset
+ * protein and a conflicted peptide, and one singleton group with no cluster.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GroupingResultWriterTest {
+
+    @TempDir
+    Path directory;
+
+    private GroupingSession session;
+    private Map<Integer, ProteinGroup> groups;
+
+    @BeforeEach
+    void buildGroups() {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        Protein first = new Protein("P1", dictionary);
+        Protein second = new Protein("P2\tfragment", dictionary);  //a tab, which must not split the row
+        Protein third = new Protein("Qé\"3\"", dictionary);  //non-ASCII and quotes
+        Peptide shared = new Peptide("SHAREDK", "psm1", 1, 1, 30f);
+        first.addObservedPeptides(new Peptide("FIRSTK", "psm0", 0, 1, 40f));
+        first.addObservedPeptides(shared);
+        second.addObservedPeptides(shared);
+        third.addObservedPeptides(new Peptide("THIRDK", "psm2", 2, 1, 20f));
+
+        session = new GroupingSession();
+        session.prepareStatuses(dictionary);
+        session.setPeptideStatus(dictionary, shared.getPeptideId(), Peptide.Status.CONFLICTED);
+        session.setSubsetProtein(second, true);
+
+        ProteinGroup pair = new ProteinGroup(7);
+        pair.addToProteins(first);
+        pair.addToProteins(second);
+        pair.addAllToGroupPeptideDomain(first.getObservedPeptideSet());
+        pair.setProteinGroupCluster(new ProteinGroupCluster(3));
+        ProteinGroup singleton = new ProteinGroup(2);
+        singleton.addToProteins(third);
+        singleton.addAllToGroupPeptideDomain(third.getObservedPeptideSet());
+        singleton.setSingleton(true);
+
+        groups = new HashMap<>();
+        groups.put(pair.getGroupId(), pair);
+        groups.put(singleton.getGroupId(), singleton);
+    }
+
+    private List<String> write(GroupingResultWriter.Format format) throws IOException {
+        File file = directory.resolve("groups." + format).toFile();
+        GroupingResultWriter.write(groups, file, format, session);
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void tsvHasARowPerProteinInGroupIdOrder() throws IOException {
+        assertEquals(List.of(
+                "group_id\tcluster_id\tsingleton\taccession\tsubset\tconflicted_peptides",
+                "2\tnull\t1\tQé\"3\"\t0\t",
+                "7\t3\t0\tP1\t0\tSHAREDK",
+                "7\t3\t0\tP2 fragment\t1\tSHAREDK"), write(GroupingResultWriter.Format.TSV));
+    }
+
+    @Test
+    void mzTabHasAPrtRowPerGroup() throws IOException {
+        List<String> lines = write(GroupingResultWriter.Format.MZTAB);
+        assertEquals("MTD\tmzTab-version\t1.0.0", lines.get(0));
+        int header = lines.indexOf("PRH\taccession\tdescription\ttaxid\tspecies\tdatabase\tdatabase_version\tsearch_engine"
+                + "\tbest_search_engine_score[1]\tambiguity_members\tmodifications\tprotein_coverage"
+                + "\topt_global_group_id\topt_global_cluster_id\topt_global_singleton"
+                + "\topt_global_subset_members\topt_global_conflicted_peptides");
+        assertEquals(lines.size() - 3, header);
+        assertEquals("PRT\tQé\"3\"\tnull\tnull\tnull\tnull\tnull\tnull\tnull\tnull\tnull\tnull\t2\tnull\t1\tnull\tnull",
+                lines.get(header + 1));
+        assertEquals("PRT\tP1\tnull\tnull\tnull\tnull\tnull\tnull\tnull\tP2 fragment\tnull\tnull\t7\t3\t0\tP2 fragment\tSHAREDK",
+                lines.get(header + 2));
+        for (String line : lines.subList(header, lines.size())) {
+            assertEquals(17, line.split("\t", -1).length, line);
+        }
+    }
+
+    @Test
+    void jsonHasAnObjectPerGroup() throws IOException {
+        assertEquals(List.of(
+                "{\"groups\": [",
+                "{\"id\": 2, \"cluster\": null, \"singleton\": true, \"proteins\": "
+                        + "[{\"accession\": \"Qé\\\"3\\\"\", \"subset\": false}], \"conflictedPeptides\": []},",
+                "{\"id\": 7, \"cluster\": 3, \"singleton\": false, \"proteins\": "
+                        + "[{\"accession\": \"P1\", \"subset\": false}, {\"accession\": \"P2\\u0009fragment\", \"subset\": true}], "
+                        + "\"conflictedPeptides\": [\"SHAREDK\"]}",
+                "]}"), write(GroupingResultWriter.Format.JSON));
+    }
+
+    @Test
+    void emptyJsonIsStillValid() throws IOException {
+        groups.clear();
+        assertEquals(List.of("{\"groups\": []}"), write(GroupingResultWriter.Format.JSON));
+    }
+
+    @Test
+    void closedWriterRejectsGroups() throws IOException {
+        File file = directory.resolve("closed.tsv").toFile();
+        GroupingResultWriter writer = new GroupingResultWriter(file, GroupingResultWriter.Format.TSV, session);
+        writer.writeGroup(groups.get(7));
+        assertEquals(1, writer.getGroupCount());
+        writer.close();
+        writer.close();
+        assertThrows(IOException.class, () -> writer.writeGroup(groups.get(2)));
+        assertEquals(3, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    void rowsLargerThanTheBufferAreWrittenWhole() throws IOException {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        ProteinGroup large = new ProteinGroup(1);
+        StringBuilder accession = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            accession.append("éx");
+        }
+        Protein protein = new Protein(accession.toString(), dictionary);
+        protein.addObservedPeptides(new Peptide("PEPTIDEK", "psm", 0, 1, 1f));
+        large.addToProteins(protein);
+        large.addAllToGroupPeptideDomain(protein.getObservedPeptideSet());
+        groups.clear();
+        groups.put(1, large);
+        assertEquals(List.of(
+                "group_id\tcluster_id\tsingleton\taccession\tsubset\tconflicted_peptides",
+                "1\tnull\t0\t" + accession + "\t0\t"), write(GroupingResultWriter.Format.TSV));
+    }
+
+}
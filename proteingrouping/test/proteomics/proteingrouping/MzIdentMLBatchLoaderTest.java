@@ -0,0 +1,66 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that MzIdentMLBatchLoader leaves a file which fails to load out of
+ * the study whole, and merges the others as if it were not there.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MzIdentMLBatchLoaderTest {
+
+    @TempDir
+    Path directory;
+
+    private static String describe(StudyGraph study) {
+        StringBuilder description = new StringBuilder();
+        new TreeMap<>(study.getProteins()).forEach((accession, protein) -> description.append(accession).append(' ')
+                .append(protein.getObservedPeptides().stream()
+                        .map(peptide -> peptide.getPeptideRef() + ":" + peptide.getPsmId()).sorted().collect(Collectors.toList()))
+                .append('\n'));
+        return description.append(study.getPeptideDictionary().size()).append(" peptides").toString();
+    }
+
+    @Test
+    void truncatedFileIsLeftOutWhole() throws IOException {
+        String identifications = MzIdentMLLoaderTest.IDENTIFICATIONS;
+        File first = MzIdentMLLoaderTest.write(directory, "a.mzid", identifications);
+        //Cut after the first match of PE_1 and the match of a new peptide, which must not reach the study
+        String changed = identifications.replace("peptide_ref=\"PE_2\"", "peptide_ref=\"PE_4\"")
+                .replace("PE_2-", "PE_4-").replace("value=\"20.5\"", "value=\"99\"");
+        File truncated = MzIdentMLLoaderTest.write(directory, "b.mzid",
+                changed.substring(0, changed.indexOf("</SpectrumIdentificationResult>")));
+        File last = MzIdentMLLoaderTest.write(directory, "c.mzid", identifications.replace("SII_", "SII_c"));
+        assertEquals(List.of(first, truncated, last), MzIdentMLBatchLoader.listIdentMLFiles(directory.toFile()));
+
+        Logger logger = Logger.getLogger(MzIdentMLBatchLoader.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            for (int parserCount : new int[] {1, 3}) {
+                StudyGraph study = new MzIdentMLBatchLoader(List.of(first, truncated, last), parserCount, 2).load();
+                StudyGraph intact = new MzIdentMLBatchLoader(List.of(first, last), parserCount, 2).load();
+                assertEquals(describe(intact), describe(study));
+                assertEquals("DBSeq_1 [PE_1:SII_2_1, PE_2:SII_1_2]\nDBSeq_2 [PE_2:SII_1_2]\n2 peptides", describe(study));
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks what MzIdentMLLoader reads from small mzIdentML files written by the
+ * tests: which matches are kept, and which peptides each protein gets.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MzIdentMLLoaderTest {
+
+    /**
+     * Three proteins and three peptides. PEP_1 is matched in two spectra, the
+     * second time with the higher score; PEP_2 is shared; the only match of
+     * PEP_3 does not pass the threshold, so DBSeq_3 is left with no peptide.
+     * The protein detection hypotheses come before the matches they refer to.
+     */
+    static final String IDENTIFICATIONS = ""
+            + "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<MzIdentML xmlns=\"http://psidev.info/psi/pi/mzIdentML/1.1\">\n"
+            + "<SequenceCollection>\n"
+            + "  <DBSequence id=\"DBSeq_1\" accession=\"P1\"/>\n"
+            + "  <DBSequence id=\"DBSeq_2\" accession=\"P2\"/>\n"
+            + "  <DBSequence id=\"DBSeq_3\" accession=\"P3\"/>\n"
+            + "  <PeptideEvidence id=\"PE_1-DBSeq_1\" dBSequence_ref=\"DBSeq_1\"/>\n"
+            + "  <PeptideEvidence id=\"PE_2-DBSeq_1\" dBSequence_ref=\"DBSeq_1\"/>\n"
+            + "  <PeptideEvidence id=\"PE_2-DBSeq_2\" dBSequence_ref=\"DBSeq_2\"/>\n"
+            + "  <PeptideEvidence id=\"PE_3-DBSeq_3\" dBSequence_ref=\"DBSeq_3\"/>\n"
+            + "</SequenceCollection>\n"
+            + "<AnalysisData>\n"
+            + "<ProteinDetectionList>\n"
+            + "  <ProteinAmbiguityGroup id=\"PAG_1\">\n"
+            + "    <ProteinDetectionHypothesis id=\"PDH_1\" dBSequence_ref=\"DBSeq_1\" passThreshold=\"true\">\n"
+            + "      <PeptideHypothesis peptideEvidence_ref=\"PE_1-DBSeq_1\"/>\n"
+            + "      <PeptideHypothesis peptideEvidence_ref=\"PE_2-DBSeq_1\"/>\n"
+            + "    </ProteinDetectionHypothesis>\n"
+            + "    <ProteinDetectionHypothesis id=\"PDH_2\" dBSequence_ref=\"DBSeq_2\" passThreshold=\"true\">\n"
+            + "      <PeptideHypothesis peptideEvidence_ref=\"PE_2-DBSeq_2\"/>\n"
+            + "    </ProteinDetectionHypothesis>\n"
+            + "    <ProteinDetectionHypothesis id=\"PDH_3\" dBSequence_ref=\"DBSeq_3\" passThreshold=\"false\">\n"
+            + "      <PeptideHypothesis peptideEvidence_ref=\"PE_3-DBSeq_3\"/>\n"
+            + "    </ProteinDetectionHypothesis>\n"
+            + "  </ProteinAmbiguityGroup>\n"
+            + "</ProteinDetectionList>\n"
+            + "<SpectrumIdentificationList id=\"SIL_1\">\n"
+            + "  <SpectrumIdentificationResult id=\"SIR_1\" spectrumID=\"101\">\n"
+            + "    <SpectrumIdentificationItem id=\"SII_1_1\" rank=\"1\" passThreshold=\"true\" peptide_ref=\"PE_1\">\n"
+            + "      <PeptideEvidenceRef peptideEvidence_ref=\"PE_1-DBSeq_1\"/>\n"
+            + "      <cvParam name=\"Mascot:score\" value=\"20.5\"/>\n"
+            + "    </SpectrumIdentificationItem>\n"
+            + "    <SpectrumIdentificationItem id=\"SII_1_2\" rank=\"2\" passThreshold=\"true\" peptide_ref=\"PE_2\">\n"
+            + "      <PeptideEvidenceRef peptideEvidence_ref=\"PE_2-DBSeq_1\"/>\n"
+            + "      <PeptideEvidenceRef peptideEvidence_ref=\"PE_2-DBSeq_2\"/>\n"
+            + "      <cvParam name=\"Mascot:score\" value=\"15\"/>\n"
+            + "      <cvParam name=\"peptide shared in multiple proteins\"/>\n"
+            + "    </SpectrumIdentificationItem>\n"
+            + "  </SpectrumIdentificationResult>\n"
+            + "  <SpectrumIdentificationResult id=\"SIR_2\" spectrumID=\"102\">\n"
+            + "    <SpectrumIdentificationItem id=\"SII_2_1\" rank=\"1\" passThreshold=\"true\" peptide_ref=\"PE_1\">\n"
+            + "      <PeptideEvidenceRef peptideEvidence_ref=\"PE_1-DBSeq_1\"/>\n"
+            + "      <cvParam name=\"Mascot:score\" value=\"42.25\"/>\n"
+            + "    </SpectrumIdentificationItem>\n"
+            + "    <SpectrumIdentificationItem id=\"SII_2_2\" rank=\"1\" passThreshold=\"false\" peptide_ref=\"PE_3\">\n"
+            + "      <PeptideEvidenceRef peptideEvidence_ref=\"PE_3-DBSeq_3\"/>\n"
+            + "      <cvParam name=\"Mascot:score\" value=\"3\"/>\n"
+            + "    </SpectrumIdentificationItem>\n"
+            + "  </SpectrumIdentificationResult>\n"
+            + "</SpectrumIdentificationList>\n"
+            + "</AnalysisData>\n"
+            + "</MzIdentML>\n";
+
+    @TempDir
+    Path directory;
+
+    static File write(Path directory, String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    private static List<String> refs(ArrayList<Peptide> peptides) {
+        return peptides.stream().map(Peptide::getPeptideRef).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    void keepsTheBestMatchOfEachPeptide() throws IOException {
+        MzIdentMLLoader loader = new MzIdentMLLoader(write(directory, "ids.mzid", IDENTIFICATIONS));
+        HashMap<String, Peptide> peptides = loader.getPeptideMap();
+        assertEquals(List.of("PE_1", "PE_2"), peptides.keySet().stream().sorted().collect(Collectors.toList()));
+
+        Peptide best = peptides.get("PE_1");
+        assertEquals("SII_2_1", best.getPsmId());
+        assertEquals(102, best.getSpectrumId());
+        assertEquals(1, best.getRank());
+        assertEquals(42.25f, best.getScore());
+        assertTrue(best.isUniqueToAProtein());
+
+        Peptide shared = peptides.get("PE_2");
+        assertEquals("SII_1_2", shared.getPsmId());
+        assertEquals(101, shared.getSpectrumId());
+        assertEquals(2, shared.getRank());
+        assertEquals(15f, shared.getScore());
+        assertFalse(shared.isUniqueToAProtein());
+    }
+
+    @Test
+    void proteinsGetTheirKeptPeptides() throws IOException {
+        MzIdentMLLoader loader = new MzIdentMLLoader(write(directory, "ids.mzid", IDENTIFICATIONS));
+        HashMap<String, Protein> proteins = loader.loadProteinData();
+        assertEquals(List.of("DBSeq_1", "DBSeq_2"), proteins.keySet().stream().sorted().collect(Collectors.toList()));
+
+        Protein first = proteins.get("DBSeq_1");
+        assertEquals(List.of("PE_1", "PE_2"), refs(first.getObservedPeptides()));
+        assertEquals(List.of("PE_1"), refs(first.getUniquePeptides()));
+        Protein second = proteins.get("DBSeq_2");
+        assertEquals(List.of("PE_2"), refs(second.getObservedPeptides()));
+        assertTrue(second.getUniquePeptides().isEmpty());
+
+        PeptideDictionary dictionary = loader.getPeptideDictionary();
+        assertEquals(2, dictionary.size());
+        assertEquals(dictionary, first.getObservedPeptideSet().getDictionary());
+        assertEquals(first.getObservedPeptideSet().intersection(second.getObservedPeptideSet()).toArray()[0],
+                dictionary.getPeptideId("PE_2"));
+    }
+
+    @Test
+    void rankFilterDropsLowerRankedMatches() throws IOException {
+        PsmFilter filter = new PsmFilter();
+        filter.setMaxRank(1);
+        MzIdentMLLoader loader = new MzIdentMLLoader(write(directory, "ids.mzid", IDENTIFICATIONS), filter);
+        assertEquals(List.of("PE_1"), loader.getPeptideMap().keySet().stream().collect(Collectors.toList()));
+        HashMap<String, Protein> proteins = loader.loadProteinData();
+        assertEquals(List.of("DBSeq_1"), proteins.keySet().stream().collect(Collectors.toList()));
+        assertEquals(List.of("PE_1"), refs(proteins.get("DBSeq_1").getObservedPeptides()));
+    }
+
+    @Test
+    void truncatedFileFailsTheLoad() throws IOException {
+        String truncated = IDENTIFICATIONS.substring(0, IDENTIFICATIONS.indexOf("<SpectrumIdentificationResult id=\"SIR_2\""));
+        MzIdentMLLoader loader = new MzIdentMLLoader(write(directory, "truncated.mzid", truncated));
+        UncheckedIOException failure = assertThrows(UncheckedIOException.class, loader::loadProteinData);
+        assertTrue(failure.getMessage().contains("truncated.mzid"), failure.getMessage());
+        //Later calls fail the same way, rather than handing out the proteins read before the end
+        assertSame(failure, assertThrows(UncheckedIOException.class, loader::getPeptideMap));
+        assertSame(failure, assertThrows(UncheckedIOException.class, loader::getPeptideDictionary));
+
+        HashMap<String, Peptide> peptides = new HashMap<>();
+        HashMap<String, Protein> proteins = new HashMap<>();
+        assertThrows(UncheckedIOException.class, () -> loader.processIdentMLFile(peptides, proteins));
+        assertTrue(peptides.isEmpty());
+        assertTrue(proteins.isEmpty());
+    }
+
+    @Test
+    void missingFileFailsTheLoad() {
+        MzIdentMLLoader loader = new MzIdentMLLoader(directory.resolve("missing.mzid").toFile());
+        assertThrows(UncheckedIOException.class, loader::loadProteinData);
+    }
+
+    @Test
+    void unparsableScoreFailsTheLoad() throws IOException {
+        MzIdentMLLoader loader = new MzIdentMLLoader(write(directory, "ids.mzid",
+                IDENTIFICATIONS.replace("value=\"42.25\"", "value=\"high\"")));
+        NumberFormatException failure = assertThrows(NumberFormatException.class, loader::loadProteinData);
+        assertSame(failure, assertThrows(NumberFormatException.class, loader::loadProteinData));
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks the number parsing and the field splitting of MzTabPsmReader, on
+ * small files written by the tests.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MzTabPsmReaderTest {
+
+    @TempDir
+    Path directory;
+
+    private File write(String content) throws IOException {
+        return Files.write(directory.resolve("psms.mztab"), content.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    private MappedByteBuffer map(String text) throws IOException {
+        try (FileChannel channel = FileChannel.open(write(text).toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private float parseFloat(String text) throws IOException {
+        MappedByteBuffer buffer = map("#" + text + "#");
+        return MzTabPsmReader.parseFloat(buffer, 1, buffer.limit() - 1);
+    }
+
+    @Test
+    void parsesPlainDecimalsAsFloatParseFloatDoes() throws IOException {
+        for (String text : new String[] {"0", "7", "12.5", "-0.25", "+3.75", "0.1", "0.1234567", "1234567",
+                "99.99999", "0.0000001", "007.50", "5."}) {
+            assertEquals(Float.parseFloat(text), parseFloat(text), text);
+        }
+    }
+
+    @Test
+    void hardDecimalsFallBackToFloatParseFloat() throws IOException {
+        for (String text : new String[] {"12345678.9", "0.123456789", "1e3", "-2.5E-4", "0.00000000001", "Infinity"}) {
+            assertEquals(Float.parseFloat(text), parseFloat(text), text);
+        }
+    }
+
+    @Test
+    void missingScoresReadAsNaN() throws IOException {
+        for (String text : new String[] {"", "null", "NaN", "-", ".", "1.2.3", "abc"}) {
+            assertTrue(Float.isNaN(parseFloat(text)), text);
+        }
+    }
+
+    @Test
+    void parsesIntsWithDefault() throws IOException {
+        MappedByteBuffer buffer = map("42\t-7\tnull\t\t3x");
+        assertEquals(42, MzTabPsmReader.parseInt(buffer, 0, 2, 1));
+        assertEquals(-7, MzTabPsmReader.parseInt(buffer, 3, 5, 1));
+        assertEquals(1, MzTabPsmReader.parseInt(buffer, 6, 10, 1));
+        assertEquals(1, MzTabPsmReader.parseInt(buffer, 11, 11, 1));
+        assertEquals(1, MzTabPsmReader.parseInt(buffer, 12, 14, 1));
+    }
+
+    @Test
+    void columnsAreFoundByNameInAnyOrder() throws IOException {
+        File file = write(""
+                + "MTD\tmzTab-version\t1.0.0\n"
+                + "PRH\taccession\tdescription\n"
+                + "PRT\tP9\tnot a PSM\n"
+                + "\n"
+                + "PSH\topt_global_rank\tspectra_ref\tsearch_engine_score[1]\tunique\taccession\tPSM_ID\tsequence\tmodifications\n"
+                + "PSM\t1\tms_run[1]:index=17\t55.5\t1\tP1\t1\tPEPTIDEK\tnull\n"
+                + "PSM\t2\tms_run[1]:index=18\t12\t0\tP2\t2\tSHAREDR\tnull\r\n"
+                + "PSM\tnull\tms_run[1]:scan=19\tnull\t0\tP1\t3\tSHAREDR\t\n"
+                + "COM\ta comment\n");
+        MzTabPsmReader reader = new MzTabPsmReader(file);
+        HashMap<String, Protein> proteins = reader.loadProteinData();
+        assertEquals(List.of("P1", "P2"), proteins.keySet().stream().sorted().collect(Collectors.toList()));
+
+        PeptideDictionary dictionary = reader.getPeptideDictionary();
+        assertEquals(2, dictionary.size());
+        Peptide unique = dictionary.getPeptide(dictionary.getPeptideId("PEPTIDEK"));
+        assertEquals("1", unique.getPsmId());
+        assertEquals(17, unique.getSpectrumId());
+        assertEquals(1, unique.getRank());
+        assertEquals(55.5f, unique.getScore());
+        assertTrue(unique.isUniqueToAProtein());
+
+        //The match with a score beats the one whose score is null
+        Peptide shared = dictionary.getPeptide(dictionary.getPeptideId("SHAREDR"));
+        assertEquals("2", shared.getPsmId());
+        assertEquals(18, shared.getSpectrumId());
+        assertEquals(2, shared.getRank());
+        assertEquals(12f, shared.getScore());
+        assertFalse(shared.isUniqueToAProtein());
+
+        Protein first = proteins.get("P1");
+        assertEquals(List.of("PEPTIDEK", "SHAREDR"),
+                first.getObservedPeptides().stream().map(Peptide::getPeptideRef).sorted().collect(Collectors.toList()));
+        assertEquals(List.of("PEPTIDEK"),
+                first.getUniquePeptides().stream().map(Peptide::getPeptideRef).collect(Collectors.toList()));
+        assertEquals(List.of("SHAREDR"),
+                proteins.get("P2").getObservedPeptides().stream().map(Peptide::getPeptideRef).collect(Collectors.toList()));
+    }
+
+    @Test
+    void chunkedReadGivesTheSamePeptides() throws IOException {
+        StringBuilder content = new StringBuilder("PSH\tsequence\tPSM_ID\taccession\tsearch_engine_score[1]\n");
+        for (int i = 0; i < 200; i++) {
+            content.append("PSM\tPEP").append(i % 37).append("\t").append(i).append("\tP").append(i % 11)
+                    .append("\t").append(i % 23).append(".5\n");
+        }
+        File file = write(content.toString());
+        MzTabPsmReader whole = new MzTabPsmReader(file);
+        MzTabPsmReader chunked = new MzTabPsmReader(file);
+        HashMap<String, Protein> expected = whole.loadProteinData();
+        HashMap<String, Protein> actual = chunked.loadProteinData(4);
+        assertEquals(expected.keySet(), actual.keySet());
+        assertEquals(whole.getPeptideDictionary().size(), chunked.getPeptideDictionary().size());
+        for (String accession : expected.keySet()) {
+            assertEquals(expected.get(accession).getObservedPeptideSet(), actual.get(accession).getObservedPeptideSet(), accession);
+        }
+        for (int id = 0; id < whole.getPeptideDictionary().size(); id++) {
+            Peptide peptide = whole.getPeptideDictionary().getPeptide(id);
+            Peptide other = chunked.getPeptideDictionary().getPeptide(id);
+            assertEquals(peptide.getPeptideRef(), other.getPeptideRef());
+            assertEquals(peptide.getPsmId(), other.getPsmId());
+            assertEquals(peptide.getScore(), other.getScore());
+        }
+    }
+
+    @Test
+    void emptyLastFieldAtTheEndOfTheFile() throws IOException {
+        File file = write("PSH\tsequence\tPSM_ID\taccession\tsearch_engine_score[1]\tunique\n"
+                + "PSM\tPEPTIDEK\t1\tP1\t5\t1\n"
+                + "PSM\tSHAREDR\t2\tP1\t6\t");  //no newline after the empty unique field
+        for (int chunkCount : new int[] {1, 2}) {
+            MzTabPsmReader reader = new MzTabPsmReader(file);
+            HashMap<String, Protein> proteins = reader.loadProteinData(chunkCount);
+            assertEquals(2, proteins.get("P1").getObservedPeptides().size());
+            PeptideDictionary dictionary = reader.getPeptideDictionary();
+            assertTrue(dictionary.getPeptide(dictionary.getPeptideId("PEPTIDEK")).isUniqueToAProtein());
+            Peptide last = dictionary.getPeptide(dictionary.getPeptideId("SHAREDR"));
+            assertEquals(6f, last.getScore());
+            assertFalse(last.isUniqueToAProtein());
+        }
+    }
+
+    @Test
+    void shortPsmLineIsRejected() throws IOException {
+        File file = write("PSH\tsequence\tPSM_ID\taccession\tsearch_engine_score[1]\nPSM\tPEPTIDEK\t1\n");
+        assertThrows(IllegalArgumentException.class, () -> new MzTabPsmReader(file).loadProteinData());
+    }
+
+    @Test
+    void headerWithoutARequiredColumnIsRejected() throws IOException {
+        File file = write("PSH\tsequence\tPSM_ID\tsearch_engine_score[1]\nPSM\tPEPTIDEK\t1\t3\n");
+        assertThrows(IllegalArgumentException.class, () -> new MzTabPsmReader(file).loadProteinData());
+    }
+
+}
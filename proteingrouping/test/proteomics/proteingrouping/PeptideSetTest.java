@@ -0,0 +1,185 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks the set operations of PeptideSet on ids it is handed directly, and
+ * that a set only takes peptides of its own dictionary.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PeptideSetTest {
+
+    private static PeptideSet of(PeptideDictionary dictionary, int... ids) {
+        PeptideSet peptideSet = new PeptideSet(dictionary);
+        for (int id : ids) {
+            peptideSet.add(id);
+        }
+        return peptideSet;
+    }
+
+    @Test
+    void idsAddedOutOfOrderAreSortedAndDeduplicated() {
+        PeptideSet peptideSet = of(null, 7, 3, 9, 3, 1, 7);
+        assertEquals(4, peptideSet.size());
+        assertArrayEquals(new int[] {1, 3, 7, 9}, peptideSet.toArray());
+        assertEquals(1, peptideSet.get(0));
+        assertEquals(9, peptideSet.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> peptideSet.get(4));
+        assertTrue(peptideSet.contains(7));
+        assertFalse(peptideSet.contains(5));
+    }
+
+    @Test
+    void removeTakesOutOnlyThatId() {
+        PeptideSet peptideSet = of(null, 2, 4, 6);
+        peptideSet.remove(4);
+        peptideSet.remove(5);
+        assertArrayEquals(new int[] {2, 6}, peptideSet.toArray());
+        peptideSet.clear();
+        assertTrue(peptideSet.isEmpty());
+        assertEquals(0, peptideSet.size());
+    }
+
+    @Test
+    void intersectionOfOverlappingSets() {
+        PeptideSet first = of(null, 1, 3, 5, 7);
+        PeptideSet second = of(null, 3, 4, 5, 8);
+        assertTrue(first.intersects(second));
+        assertEquals(2, first.intersectionSize(second));
+        assertArrayEquals(new int[] {3, 5}, first.intersection(second).toArray());
+        assertFalse(first.intersects(of(null, 0, 2, 4)));
+        assertEquals(0, first.intersection(of(null)).size());
+    }
+
+    @Test
+    void containsAllOnlyForSubsets() {
+        PeptideSet set = of(null, 1, 2, 3, 4);
+        assertTrue(set.containsAll(of(null, 2, 4)));
+        assertTrue(set.containsAll(of(null)));
+        assertTrue(set.containsAll(set));
+        assertFalse(set.containsAll(of(null, 2, 5)));
+        assertFalse(of(null, 2, 4).containsAll(set));
+    }
+
+    @Test
+    void addAllMergesInOrderAndTakesTheDictionary() {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        PeptideSet target = of(null, 5, 1);
+        target.addAll(of(dictionary, 2, 5, 9));
+        assertSame(dictionary, target.getDictionary());
+        assertArrayEquals(new int[] {1, 2, 5, 9}, target.toArray());
+
+        PeptideSet empty = new PeptideSet((PeptideDictionary) null);
+        empty.addAll(of(null, 8, 6));
+        assertArrayEquals(new int[] {6, 8}, empty.toArray());
+    }
+
+    @Test
+    void copiesAreIndependent() {
+        PeptideSet original = of(null, 3, 1);
+        PeptideSet copy = new PeptideSet(original);
+        copy.add(2);
+        original.remove(3);
+        assertArrayEquals(new int[] {1, 2, 3}, copy.toArray());
+        assertArrayEquals(new int[] {1}, original.toArray());
+    }
+
+    @Test
+    void equalSetsHaveEqualHashCodes() {
+        PeptideSet first = of(null, 4, 2, 2);
+        PeptideSet second = PeptideSet.ofSorted(null, new int[] {2, 4});
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertFalse(first.equals(of(null, 2, 4, 6)));
+    }
+
+    @Test
+    void forEachVisitsIdsInAscendingOrder() {
+        ArrayList<Integer> visited = new ArrayList<>();
+        of(null, 9, 0, 4).forEach(visited::add);
+        assertEquals(List.of(0, 4, 9), visited);
+    }
+
+    @Test
+    void peptidesAreInternedAndMaterialised() {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        PeptideSet peptideSet = new PeptideSet(dictionary);
+        Peptide first = new Peptide("PEPTIDEA", "psm1", 1, 1, 20f);
+        Peptide second = new Peptide("PEPTIDEB", "psm2", 2, 1, 30f);
+        peptideSet.add(second);
+        peptideSet.add(first);
+        peptideSet.add(new Peptide("PEPTIDEB", "psm3", 3, 2, 10f));
+        assertEquals(2, dictionary.size());
+        assertEquals(0, second.getPeptideId());
+        assertEquals(1, first.getPeptideId());
+        ArrayList<Peptide> peptides = peptideSet.toPeptideList();
+        assertSame(second, peptides.get(0));
+        assertSame(first, peptides.get(1));
+        peptideSet.remove(first);
+        assertArrayEquals(new int[] {0}, peptideSet.toArray());
+    }
+
+    @Test
+    void setWithoutDictionaryRejectsPeptides() {
+        PeptideSet peptideSet = new PeptideSet((PeptideDictionary) null);
+        assertThrows(IllegalArgumentException.class, () -> peptideSet.add(new Peptide("PEPTIDEA", "psm1", 1, 1, 20f)));
+        peptideSet.add(0);
+        assertThrows(IllegalStateException.class, peptideSet::toPeptideList);
+    }
+
+    @Test
+    void peptideOfAnotherDictionaryIsRejected() {
+        PeptideDictionary mine = new PeptideDictionary();
+        PeptideDictionary other = new PeptideDictionary();
+        Peptide peptide = new Peptide("PEPTIDEA", "psm1", 1, 1, 20f);
+        new PeptideSet(other).add(peptide);
+        PeptideSet peptideSet = new PeptideSet(mine);
+        assertThrows(IllegalArgumentException.class, () -> peptideSet.add(peptide));
+        assertEquals(0, mine.size());
+        peptideSet.add(0);
+        peptideSet.remove(peptide);  //an id of another dictionary is not this set's id 0
+        assertArrayEquals(new int[] {0}, peptideSet.toArray());
+    }
+
+    @Test
+    void handBuiltDatasetsGetDictionariesOfTheirOwn() {
+        HashMap<String, Protein> first = new HashMap<>();
+        HashMap<String, Protein> second = new HashMap<>();
+        Peptide shared = new Peptide("PEPTIDEA", "run1", 1, 1, 20f);
+        Protein a = new Protein("A");
+        a.addObservedPeptides(shared);
+        first.put("A", a);
+        Protein b = new Protein("B");
+        b.addObservedPeptides(new Peptide("PEPTIDEA", "run2", 1, 1, 25f));
+        second.put("B", b);
+        new ProteinGrouper().groupProteins(first);
+        new ProteinGrouper().groupProteins(second);
+        PeptideDictionary firstDictionary = a.getObservedPeptideSet().getDictionary();
+        PeptideDictionary secondDictionary = b.getObservedPeptideSet().getDictionary();
+        assertNotSame(firstDictionary, secondDictionary);
+        assertEquals("run1", firstDictionary.getPeptide(0).getPsmId());
+        assertEquals("run2", secondDictionary.getPeptide(0).getPsmId());
+
+        Protein c = new Protein("C");
+        c.addObservedPeptides(shared);
+        HashMap<String, Protein> third = new HashMap<>();
+        third.put("C", c);
+        assertThrows(IllegalArgumentException.class, () -> new ProteinGrouper().groupProteins(third));
+    }
+
+}
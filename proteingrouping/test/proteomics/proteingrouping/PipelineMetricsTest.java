@@ -0,0 +1,73 @@
+/**
+ * Copyright 2016-2017 Maduka Attamah
+ *
+ * Checks that a session records in its own PipelineMetrics, which the runs of
+ * other sessions do not reach, and that nothing is recorded while it is off.
+ *
+ * @author Maduka Attamah
+ */
+
+package proteomics.proteingrouping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.HashMap;
+import org.junit.jupiter.api.Test;
+
+class PipelineMetricsTest {
+
+    private static HashMap<String, Protein> proteins() {
+        PeptideDictionary dictionary = new PeptideDictionary();
+        Peptide shared = new Peptide("SHAREDK", "psm1", 11, 1, 30f);
+        Protein first = new Protein("P1", dictionary);
+        first.addObservedPeptides(new Peptide("FIRSTK", "psm0", 10, 1, 40f));
+        first.addObservedPeptides(shared);
+        Protein second = new Protein("P2", dictionary);
+        second.addObservedPeptides(shared);
+        HashMap<String, Protein> proteins = new HashMap<>();
+        proteins.put(first.getDbSequenceRef(), first);
+        proteins.put(second.getDbSequenceRef(), second);
+        return proteins;
+    }
+
+    @Test
+    void sessionsRecordInTheirOwnMetrics() {
+        PipelineMetrics recorded = new PipelineMetrics();
+        recorded.setEnabled(true);
+        PipelineMetrics other = new PipelineMetrics();
+        other.setEnabled(true);
+
+        new ProteinGrouper(new GroupingSession(recorded)).groupProteinsInParallel(proteins());
+
+        assertEquals(1, recorded.snapshot().getCount(PipelineMetrics.Phase.GROUP));
+        assertEquals(2, recorded.snapshot().getCounter(PipelineMetrics.Counter.PROTEINS));
+        assertEquals(0, other.snapshot().getCount(PipelineMetrics.Phase.GROUP));
+        assertEquals(0, other.snapshot().getCounter(PipelineMetrics.Counter.PROTEINS));
+    }
+
+    @Test
+    void nothingIsRecordedWhileOff() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.setEnabled(false);
+
+        new ProteinGrouper(new GroupingSession(metrics)).groupProteinsInParallel(proteins());
+
+        assertFalse(metrics.isEnabled());
+        assertEquals(0, metrics.snapshot().getCount(PipelineMetrics.Phase.GROUP));
+        assertEquals(0, metrics.snapshot().getCounter(PipelineMetrics.Counter.PROTEINS));
+    }
+
+    @Test
+    void resetForgetsTheRecordedRuns() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.setEnabled(true);
+        new ProteinGrouper(new GroupingSession(metrics)).groupProteinsInParallel(proteins());
+
+        metrics.reset();
+
+        assertEquals(0, metrics.snapshot().getCount(PipelineMetrics.Phase.GROUP));
+        assertEquals(0, metrics.snapshot().getCounter(PipelineMetrics.Counter.GROUPS));
+    }
+
+}